@@ -0,0 +1,106 @@
+// Пул потоков для пакетного анализа клиентской базы (BatchAnalysisService)
+package com.bank.star.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Конфигурация ограниченного пула потоков пакетного анализа.
+ * Каждый поток одновременно держит не больше одного соединения с базой данных, поэтому
+ * степень параллелизма ограничивается размером пула соединений Hikari за вычетом одного
+ * соединения, которое всегда остается для онлайн-запросов. Очередь задач ограничена: при ее
+ * заполнении вызывающий поток ждет свободного места ({@link BlockingSubmitPolicy}), а не
+ * выполняет блок сам — иначе он занял бы еще одно соединение сверх размера пула потоков.
+ * Отдельный пул audienceJobExecutor выполняет асинхронные задачи аудиторий (AudienceJobService):
+ * при переполнении его очереди новая задача отклоняется, а не выполняется потоком запроса.
+ * На нем же после перезапуска продолжается прерванный проход снимка аудиторий
+ * (BatchAnalysisService#resumeInterruptedAudienceComputation).
+ * Однопоточный snapshotRefreshExecutor строит снимки транзакций (TransactionSnapshotManager)
+ * в фоне, не занимая потоки запросов.
+ */
+@Configuration
+public class BatchExecutorConfig {
+
+  private static final Logger logger = LoggerFactory.getLogger(BatchExecutorConfig.class);
+
+  private static final int QUEUE_CAPACITY_PER_THREAD = 4;  // Блоков в очереди на один поток
+
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService batchAnalysisExecutor(
+      @Value("${recommendation.batch.parallelism:8}") int parallelism,
+      @Value("${spring.datasource.hikari.maximum-pool-size:10}") int connectionPoolSize) {
+    int threads = Math.max(1, Math.min(parallelism, connectionPoolSize - 1));
+    logger.info("⚙️ Batch analysis executor: {} threads (requested {}, connection pool {})",
+        threads, parallelism, connectionPoolSize);
+
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "batch-analysis-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD), threadFactory,
+        new BlockingSubmitPolicy());
+  }
+
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService audienceJobExecutor(
+      @Value("${recommendation.jobs.threads:2}") int threads,
+      @Value("${recommendation.jobs.max-queued:20}") int maxQueued) {
+    logger.info("⚙️ Audience job executor: {} threads, up to {} queued jobs", threads, maxQueued);
+
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "audience-job-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(maxQueued), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService snapshotRefreshExecutor() {
+    return Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "snapshot-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Политика переполнения очереди, при которой вызывающий поток ждет свободного места в очереди.
+   * Блоки выполняются только потоками пула, поэтому число занятых соединений не превышает
+   * числа потоков. Если пул остановлен или ожидание прервано, задача отклоняется
+   * {@link RejectedExecutionException} (флаг прерывания восстанавливается).
+   */
+  static final class BlockingSubmitPolicy implements RejectedExecutionHandler {
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("Batch analysis executor is shut down");
+      }
+      try {
+        executor.getQueue().put(task);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("Interrupted while waiting for a free queue slot", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,10 @@
+// Включение периодических задач (пересчет порядка проверки правил)
+package com.bank.star.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
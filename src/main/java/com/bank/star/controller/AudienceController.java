@@ -0,0 +1,242 @@
+// потоковая выгрузка аудиторий продуктов и оценка их размера для маркетинга
+package com.bank.star.controller;
+
+import com.bank.star.dto.AudienceOverlapResponse;
+import com.bank.star.dto.ErrorResponse;
+import com.bank.star.dto.ThresholdSweepResponse;
+import com.bank.star.dto.UserRecommendation;
+import com.bank.star.model.ProductType;
+import com.bank.star.service.AudienceAnalyticsService;
+import com.bank.star.service.AudienceOverlapMatrix;
+import com.bank.star.service.BatchAnalysisService;
+import com.bank.star.service.rules.ProfileCondition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Выгрузка полной аудитории продукта в формате NDJSON или CSV.
+ * Ответ формируется потоково ({@link StreamingResponseBody}): пользователи читаются страницами
+ * и записываются в ответ по мере проверки правил, поэтому память не зависит от размера аудитории.
+ * Размер аудитории порогового условия для набора порогов и попарные пересечения аудиторий
+ * продуктов возвращаются без выгрузки пользователей.
+ */
+@RestController
+@RequestMapping("/api/v1/audiences")
+@RequiredArgsConstructor
+@Tag(name = "Audience API", description = "API для выгрузки аудиторий продуктов")
+public class AudienceController {
+
+  private static final Logger logger = LoggerFactory.getLogger(AudienceController.class);
+
+  static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+  static final MediaType CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
+  static final int MAX_SWEEP_THRESHOLDS = 1000;
+
+  private final BatchAnalysisService batchAnalysisService;
+  private final AudienceAnalyticsService audienceAnalyticsService;
+  private final ObjectMapper objectMapper;
+
+  @Operation(
+      summary = "Выгрузить аудиторию продукта",
+      description = "Потоково выгружает всех пользователей, подходящих под правила продукта, "
+          + "в формате NDJSON (по одному JSON-объекту на строку) или CSV"
+  )
+  @GetMapping("/export")
+  public ResponseEntity<StreamingResponseBody> exportProductAudience(
+      @Parameter(description = "Название продукта", example = "Top Saving")
+      @RequestParam String product,
+      @Parameter(description = "Формат выгрузки: ndjson или csv", example = "ndjson")
+      @RequestParam(defaultValue = "ndjson") String format) {
+    if (!batchAnalysisService.isKnownProduct(product)) {
+      throw new AudienceRequestException(HttpStatus.NOT_FOUND, "PRODUCT_NOT_FOUND",
+          "Продукт '" + product + "' не найден");
+    }
+    return export(format, "audience",
+        sink -> batchAnalysisService.streamUsersForProduct(product, sink));
+  }
+
+  @Operation(
+      summary = "Выгрузить пользователей без рекомендаций",
+      description = "Потоково выгружает всех пользователей, не подходящих ни под один продукт"
+  )
+  @GetMapping("/without-recommendations/export")
+  public ResponseEntity<StreamingResponseBody> exportUsersWithoutRecommendations(
+      @Parameter(description = "Формат выгрузки: ndjson или csv", example = "csv")
+      @RequestParam(defaultValue = "ndjson") String format) {
+    return export(format, "without-recommendations",
+        batchAnalysisService::streamUsersWithoutRecommendations);
+  }
+
+  @Operation(
+      summary = "Размер аудитории в зависимости от порога",
+      description = "Возвращает количество активных пользователей, подходящих под пороговое "
+          + "условие правила (сумма пополнений, сумма трат или количество транзакций по типу "
+          + "продукта), для каждого из порогов. Значения агрегата упорядочиваются один раз, "
+          + "поэтому стоимость почти не зависит от количества порогов"
+  )
+  @GetMapping("/threshold-sweep")
+  public ResponseEntity<ThresholdSweepResponse> sweepThresholds(
+      @Parameter(description = "Тип продукта", example = "DEBIT")
+      @RequestParam String productType,
+      @Parameter(description = "Агрегат: DEPOSIT, WITHDRAW (как в TRANSACTION_SUM_COMPARE) "
+          + "или COUNT (количество транзакций)", example = "DEPOSIT")
+      @RequestParam String metric,
+      @Parameter(description = "Оператор сравнения: >, >=, <, <=, =", example = ">=")
+      @RequestParam String operator,
+      @Parameter(description = "Пороги через запятую", example = "50000,60000,100000")
+      @RequestParam List<BigDecimal> thresholds,
+      @Parameter(description = "Отрицание условия", example = "false")
+      @RequestParam(defaultValue = "false") boolean negate) {
+    if (thresholds.isEmpty() || thresholds.size() > MAX_SWEEP_THRESHOLDS) {
+      throw new AudienceRequestException(HttpStatus.BAD_REQUEST, "INVALID_THRESHOLDS",
+          "Количество порогов должно быть от 1 до " + MAX_SWEEP_THRESHOLDS);
+    }
+    try {
+      ProductType type = ProductType.fromString(productType);
+      ProfileCondition.Comparison comparison = ProfileCondition.Comparison.fromSymbol(operator);
+      ProfileCondition term = switch (metric.trim().toUpperCase(Locale.ROOT)) {
+        case "DEPOSIT" -> ProfileCondition.sum(ProfileCondition.Metric.DEPOSIT_SUM, type,
+            comparison, BigDecimal.ZERO, negate);
+        case "WITHDRAW" -> ProfileCondition.sum(ProfileCondition.Metric.WITHDRAW_SUM, type,
+            comparison, BigDecimal.ZERO, negate);
+        case "COUNT" -> ProfileCondition.transactionCount(type, comparison, 0, negate);
+        default -> throw new IllegalArgumentException("Unknown metric: " + metric);
+      };
+      return ResponseEntity.ok(audienceAnalyticsService.sweepThresholds(term, thresholds));
+    } catch (IllegalArgumentException e) {
+      throw new AudienceRequestException(HttpStatus.BAD_REQUEST, "INVALID_TERM",
+          "Некорректное условие: " + e.getMessage());
+    }
+  }
+
+  @Operation(
+      summary = "Пересечения аудиторий продуктов",
+      description = "Возвращает для каждой пары продуктов (встроенных и динамических) количество "
+          + "пользователей, подходящих под оба продукта, и количество пользователей без "
+          + "рекомендаций. Матрица вычисляется за один проход и переиспользуется, пока не "
+          + "изменились правила и данные"
+  )
+  @GetMapping("/overlaps")
+  public ResponseEntity<AudienceOverlapResponse> getOverlaps() {
+    AudienceOverlapMatrix matrix = audienceAnalyticsService.getOverlapMatrix();
+    List<String> productNames = matrix.getProductNames();
+    List<List<Long>> overlaps = new ArrayList<>(productNames.size());
+    for (int product = 0; product < productNames.size(); product++) {
+      List<Long> row = new ArrayList<>(productNames.size());
+      for (int otherProduct = 0; otherProduct < productNames.size(); otherProduct++) {
+        row.add(matrix.getOverlap(product, otherProduct));
+      }
+      overlaps.add(row);
+    }
+    return ResponseEntity.ok(new AudienceOverlapResponse(productNames, overlaps,
+        matrix.getWithoutRecommendations(), matrix.getScannedUsers(), matrix.getEngine(),
+        matrix.getRuleSetVersion(), matrix.getDynamicRuleVersion(), matrix.getDatasetVersion(),
+        matrix.getCreatedAt()));
+  }
+
+  /**
+   * Ошибка параметров запроса; для выгрузки обрабатывается до начала потоковой записи ответа.
+   */
+  @ExceptionHandler(AudienceRequestException.class)
+  public ResponseEntity<ErrorResponse> handleAudienceRequestException(AudienceRequestException e) {
+    return ResponseEntity.status(e.status).body(new ErrorResponse(e.errorCode, e.getMessage()));
+  }
+
+  private ResponseEntity<StreamingResponseBody> export(String format, String fileName,
+      Function<Consumer<UserRecommendation>, Long> producer) {
+    boolean csv = switch (format.toLowerCase(Locale.ROOT)) {
+      case "ndjson" -> false;
+      case "csv" -> true;
+      default -> throw new AudienceRequestException(HttpStatus.BAD_REQUEST, "INVALID_FORMAT",
+          "Неподдерживаемый формат выгрузки: " + format + " (ожидается ndjson или csv)");
+    };
+
+    StreamingResponseBody body = outputStream -> {
+      Writer writer = new BufferedWriter(
+          new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+      if (csv) {
+        writer.write("user_id,full_name\n");
+      }
+      try {
+        long rows = producer.apply(user -> {
+          try {
+            writer.write(csv ? toCsv(user) : toJson(user));
+            writer.write('\n');
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+        logger.info("📤 Exported {} rows ({})", rows, fileName);
+      } catch (UncheckedIOException e) {
+        // Клиент закрыл соединение: обход страниц прекращается вместе с прерванным запросом
+        logger.warn("Audience export interrupted: {}", e.getMessage());
+        throw e.getCause();
+      }
+      writer.flush();
+    };
+
+    return ResponseEntity.ok()
+        .contentType(csv ? CSV : NDJSON)
+        .header(HttpHeaders.CONTENT_DISPOSITION,
+            "attachment; filename=\"" + fileName + (csv ? ".csv" : ".ndjson") + "\"")
+        .body(body);
+  }
+
+  private String toJson(UserRecommendation user) throws IOException {
+    return objectMapper.writeValueAsString(user);
+  }
+
+  static String toCsv(UserRecommendation user) {
+    return user.getUserId() + "," + csvField(user.getFullName());
+  }
+
+  private static String csvField(String value) {
+    if (value == null) {
+      return "";
+    }
+    if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+      return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    return value;
+  }
+
+  static final class AudienceRequestException extends RuntimeException {
+
+    private final HttpStatus status;
+    private final String errorCode;
+
+    AudienceRequestException(HttpStatus status, String errorCode, String message) {
+      super(message);
+      this.status = status;
+      this.errorCode = errorCode;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+// API асинхронных задач вычисления аудиторий
+package com.bank.star.controller;
+
+import com.bank.star.dto.AudienceJobRequest;
+import com.bank.star.dto.AudienceJobResponse;
+import com.bank.star.dto.AudienceJobResultsResponse;
+import com.bank.star.dto.ErrorResponse;
+import com.bank.star.dto.UserRecommendation;
+import com.bank.star.service.AudienceJob;
+import com.bank.star.service.AudienceJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Управление задачами вычисления аудиторий: постановка в очередь, опрос прогресса,
+ * отмена и постраничное чтение результатов. Сами вычисления выполняет {@link AudienceJobService}
+ * в фоне, поэтому запросы не держат HTTP-соединение на время прохода по клиентской базе.
+ */
+@RestController
+@RequestMapping("/api/v1/audience-jobs")
+@RequiredArgsConstructor
+@Tag(name = "Audience Jobs API", description = "API для асинхронного вычисления аудиторий продуктов")
+public class AudienceJobController {
+
+  private static final Logger logger = LoggerFactory.getLogger(AudienceJobController.class);
+
+  private static final int MAX_PAGE_SIZE = 1000;  // Максимальный размер страницы результатов
+
+  private final AudienceJobService audienceJobService;
+
+  @Operation(
+      summary = "Создать задачу вычисления аудитории",
+      description = "Ставит в очередь вычисление аудитории продукта или динамического правила; "
+          + "без параметров вычисляются пользователи без рекомендаций"
+  )
+  @PostMapping
+  public ResponseEntity<?> submitJob(@RequestBody(required = false) AudienceJobRequest request) {
+    AudienceJobRequest jobRequest = request != null ? request : new AudienceJobRequest();
+    logger.info("📥 Создание задачи аудитории: продукт={}, правило={}",
+        jobRequest.getProductName(), jobRequest.getRuleId());
+
+    try {
+      AudienceJob job = audienceJobService.submit(jobRequest.getProductName(), jobRequest.getRuleId());
+      return ResponseEntity.status(HttpStatus.ACCEPTED).body(convertToResponse(job));
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorResponse("PRODUCT_NOT_FOUND",
+          "Продукт или правило не найдены: " + e.getMessage()));
+    } catch (RejectedExecutionException e) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(new ErrorResponse(
+          "JOB_QUEUE_FULL", "Очередь задач переполнена, повторите запрос позже"));
+    }
+  }
+
+  @Operation(summary = "Получить все задачи", description = "Возвращает задачи, начиная с самых новых")
+  @GetMapping
+  public ResponseEntity<List<AudienceJobResponse>> getJobs() {
+    return ResponseEntity.ok(audienceJobService.getJobs().stream()
+        .map(this::convertToResponse)
+        .toList());
+  }
+
+  @Operation(summary = "Получить состояние задачи", description = "Возвращает статус и прогресс задачи")
+  @GetMapping("/{jobId}")
+  public ResponseEntity<?> getJob(
+      @Parameter(description = "ID задачи") @PathVariable UUID jobId) {
+    return audienceJobService.getJob(jobId)
+        .<ResponseEntity<?>>map(job -> ResponseEntity.ok(convertToResponse(job)))
+        .orElseGet(() -> jobNotFound(jobId));
+  }
+
+  @Operation(summary = "Отменить задачу", description = "Отменяет задачу в очереди или прерывает выполняющуюся")
+  @DeleteMapping("/{jobId}")
+  public ResponseEntity<?> cancelJob(
+      @Parameter(description = "ID задачи") @PathVariable UUID jobId) {
+    logger.info("🛑 Отмена задачи аудитории: {}", jobId);
+    return audienceJobService.cancel(jobId)
+        .<ResponseEntity<?>>map(job -> ResponseEntity.ok(convertToResponse(job)))
+        .orElseGet(() -> jobNotFound(jobId));
+  }
+
+  @Operation(
+      summary = "Получить результаты задачи",
+      description = "Постранично возвращает пользователей из аудитории завершенной задачи"
+  )
+  @GetMapping("/{jobId}/results")
+  public ResponseEntity<?> getResults(
+      @Parameter(description = "ID задачи") @PathVariable UUID jobId,
+      @Parameter(description = "Смещение", example = "0") @RequestParam(defaultValue = "0") long offset,
+      @Parameter(description = "Размер страницы (не больше 1000)", example = "100")
+      @RequestParam(defaultValue = "100") int limit) {
+    Optional<AudienceJob> found = audienceJobService.getJob(jobId);
+    if (found.isEmpty()) {
+      return jobNotFound(jobId);
+    }
+    AudienceJob job = found.get();
+    if (job.getStatus() != AudienceJob.Status.COMPLETED) {
+      return ResponseEntity.status(HttpStatus.CONFLICT).body(new ErrorResponse("JOB_NOT_COMPLETED",
+          "Задача " + jobId + " не завершена (статус " + job.getStatus() + ")"));
+    }
+    if (offset < 0 || limit <= 0 || limit > MAX_PAGE_SIZE) {
+      return ResponseEntity.badRequest().body(new ErrorResponse("INVALID_PAGE",
+          "Смещение должно быть неотрицательным, размер страницы — от 1 до " + MAX_PAGE_SIZE));
+    }
+
+    try {
+      List<UserRecommendation> users = audienceJobService.getResults(job, offset, limit);
+      return ResponseEntity.ok(new AudienceJobResultsResponse(jobId, offset, job.getMatchedUsers(), users));
+    } catch (Exception e) {
+      logger.error("❌ Ошибка чтения результатов задачи {}: {}", jobId, e.getMessage());
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new ErrorResponse(
+          "JOB_RESULTS_UNAVAILABLE", "Не удалось прочитать результаты задачи " + jobId));
+    }
+  }
+
+  private ResponseEntity<?> jobNotFound(UUID jobId) {
+    return ResponseEntity.status(HttpStatus.NOT_FOUND)
+        .body(new ErrorResponse("JOB_NOT_FOUND", "Задача " + jobId + " не найдена"));
+  }
+
+  private AudienceJobResponse convertToResponse(AudienceJob job) {
+    return new AudienceJobResponse(
+        job.getId(),
+        job.getProductName(),
+        job.getRuleId(),
+        job.getStatus().name(),
+        job.getProcessedUsers(),
+        job.getTotalUsers(),
+        job.getMatchedUsers(),
+        job.getThroughputPerSecond(),
+        job.getCreatedAt(),
+        job.getStartedAt(),
+        job.getFinishedAt(),
+        job.getError()
+    );
+  }
+}
@@ -6,12 +6,16 @@ import com.bank.star.model.DynamicRule;
 import com.bank.star.model.RuleQuery;
 import com.bank.star.model.QueryType;
 import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.service.AudienceAnalyticsService;
+import com.bank.star.service.rules.CompiledDynamicRule;
+import com.bank.star.service.rules.DynamicRuleCache;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -27,24 +31,42 @@ public class DynamicRuleController {
 
   private static final Logger logger = LoggerFactory.getLogger(DynamicRuleController.class);
 
+  private static final int MAX_DRY_RUN_SAMPLE = 1000;  // Максимум пользователей в примере
+
   private final DynamicRuleRepository dynamicRuleRepository;
+  private final DynamicRuleCache dynamicRuleCache;
+  private final AudienceAnalyticsService audienceAnalyticsService;
 
   @Operation(
       summary = "Создать новое динамическое правило",
-      description = "Создает новое правило для рекомендаций банковских продуктов"
+      description = "Создает новое правило для рекомендаций банковских продуктов. Правило, "
+          + "которое не компилируется, отклоняется и не сохраняется"
   )
   @PostMapping
-  public ResponseEntity<DynamicRuleResponse> createRule(@RequestBody DynamicRuleRequest request) {
+  public ResponseEntity<?> createRule(@RequestBody DynamicRuleRequest request) {
     logger.info("🔄 Создание нового динамического правила для продукта: {}", request.getProductName());
 
+    // Преобразуем DTO в Entity и компилируем до сохранения: некомпилируемое правило
+    // не попало бы в кеш и никогда бы не сработало
+    DynamicRule dynamicRule;
     try {
-      // Преобразуем DTO в Entity
-      DynamicRule dynamicRule = convertToEntity(request);
+      validateRuleRequest(request);
+      dynamicRule = convertToEntity(request);
+      CompiledDynamicRule.compile(dynamicRule);
+    } catch (IllegalArgumentException e) {
+      logger.warn("❌ Некорректное правило: {}", e.getMessage());
+      return invalidRule(e);
+    }
 
+    try {
       // Сохраняем в базу
       DynamicRule savedRule = dynamicRuleRepository.save(dynamicRule);
       logger.info("✅ Динамическое правило создано с ID: {}", savedRule.getId());
 
+      // Публикуем новый снимок кеша скомпилированных правил
+      long version = dynamicRuleCache.put(savedRule).getVersion();
+      logger.info("🔄 Кеш динамических правил обновлен, версия: {}", version);
+
       // Преобразуем обратно в DTO для ответа
       DynamicRuleResponse response = convertToResponse(savedRule);
       return ResponseEntity.ok(response);
@@ -55,6 +77,35 @@ public class DynamicRuleController {
     }
   }
 
+  @Operation(
+      summary = "Проверить правило без сохранения",
+      description = "Компилирует правило и проверяет его по всей клиентской базе: размер аудитории, "
+          + "первые подходящие пользователи и пересечения с аудиториями существующих продуктов. "
+          + "Правило не сохраняется и не влияет на рекомендации"
+  )
+  @PostMapping("/dry-run")
+  public ResponseEntity<?> dryRunRule(@RequestBody DynamicRuleRequest request,
+      @Parameter(description = "Сколько подходящих пользователей вернуть (до "
+          + MAX_DRY_RUN_SAMPLE + ")", example = "20")
+      @RequestParam(defaultValue = "20") int sampleSize) {
+    logger.info("🧪 Пробный прогон правила для продукта: {}", request.getProductName());
+
+    CompiledDynamicRule candidate;
+    try {
+      validateRuleRequest(request);
+      candidate = CompiledDynamicRule.compile(convertToEntity(request));
+    } catch (IllegalArgumentException e) {
+      logger.warn("❌ Некорректное правило: {}", e.getMessage());
+      return invalidRule(e);
+    }
+
+    RuleDryRunResponse response = audienceAnalyticsService.dryRun(candidate,
+        Math.max(0, Math.min(sampleSize, MAX_DRY_RUN_SAMPLE)));
+    logger.info("✅ Пробный прогон: {} подходящих пользователей из {}",
+        response.getAudienceSize(), response.getScannedUsers());
+    return ResponseEntity.ok(response);
+  }
+
   @Operation(
       summary = "Получить все динамические правила",
       description = "Возвращает список всех созданных динамических правил рекомендаций"
@@ -96,6 +147,9 @@ public class DynamicRuleController {
 
       dynamicRuleRepository.deleteById(ruleId);
       logger.info("✅ Правило с ID {} успешно удалено", ruleId);
+
+      long version = dynamicRuleCache.remove(ruleId).getVersion();
+      logger.info("🔄 Кеш динамических правил обновлен, версия: {}", version);
       return ResponseEntity.noContent().build();
 
     } catch (Exception e) {
@@ -106,6 +160,37 @@ public class DynamicRuleController {
 
   // Вспомогательные методы для преобразования между DTO и Entity
 
+  /**
+   * Проверяет обязательные поля правила до компиляции: незаполненное поле — ошибка запроса,
+   * а не внутренняя ошибка сервера.
+   *
+   * @throws IllegalArgumentException если обязательное поле не заполнено
+   */
+  private static void validateRuleRequest(DynamicRuleRequest request) {
+    if (request.getProductName() == null || request.getProductName().isBlank()) {
+      throw new IllegalArgumentException("productName is required");
+    }
+    if (request.getProductId() == null) {
+      throw new IllegalArgumentException("productId is required");
+    }
+    if (request.getProductText() == null || request.getProductText().isBlank()) {
+      throw new IllegalArgumentException("productText is required");
+    }
+    if (request.getRule() == null || request.getRule().isEmpty()) {
+      throw new IllegalArgumentException("Rule has no queries");
+    }
+    for (RuleQueryRequest query : request.getRule()) {
+      if (query == null) {
+        throw new IllegalArgumentException("Rule query must not be null");
+      }
+    }
+  }
+
+  private static ResponseEntity<ErrorResponse> invalidRule(IllegalArgumentException e) {
+    return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new ErrorResponse("INVALID_RULE",
+        "Некорректное правило: " + e.getMessage()));
+  }
+
   private DynamicRule convertToEntity(DynamicRuleRequest request) {
     DynamicRule rule = new DynamicRule();
     rule.setProductName(request.getProductName());
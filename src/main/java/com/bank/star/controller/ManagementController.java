@@ -1,14 +1,28 @@
 // управление сервисом
 package com.bank.star.controller;
 
+import com.bank.star.dto.ErrorResponse;
+import com.bank.star.dto.RuleThresholdsDto;
+import com.bank.star.repository.TransactionSnapshot;
+import com.bank.star.repository.TransactionSnapshotManager;
+import com.bank.star.service.rules.DynamicRuleCache;
+import com.bank.star.service.rules.DynamicRuleSnapshot;
+import com.bank.star.service.rules.RuleOrderOptimizer;
+import com.bank.star.service.rules.RuleSetRegistry;
+import com.bank.star.service.rules.RuleSetSnapshot;
+import com.bank.star.service.rules.RuleThresholds;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.Parameter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/management")
@@ -17,6 +31,10 @@ import java.util.Map;
 public class ManagementController {
 
   private final com.bank.star.service.RecommendationService recommendationService;
+  private final RuleSetRegistry ruleSetRegistry;
+  private final DynamicRuleCache dynamicRuleCache;
+  private final RuleOrderOptimizer ruleOrderOptimizer;
+  private final Optional<TransactionSnapshotManager> transactionSnapshotManager;
 
   @Operation(
       summary = "Сброс кешей",
@@ -39,4 +57,122 @@ public class ManagementController {
         "version", "1.0.0"
     ));
   }
-}
\ No newline at end of file
+
+  @Operation(
+      summary = "Текущие пороги правил",
+      description = "Возвращает пороговые значения наборов правил и версию опубликованного снимка"
+  )
+  @GetMapping("/rule-thresholds")
+  public ResponseEntity<RuleThresholdsDto> getRuleThresholds() {
+    return ResponseEntity.ok(toDto(ruleSetRegistry.getSnapshot()));
+  }
+
+  @Operation(
+      summary = "Изменить пороги правил",
+      description = "Перестраивает наборы правил с новыми порогами и атомарно публикует новый снимок"
+  )
+  @PutMapping("/rule-thresholds")
+  public ResponseEntity<RuleThresholdsDto> updateRuleThresholds(
+      @RequestBody RuleThresholdsDto request) {
+    try {
+      RuleThresholds thresholds = new RuleThresholds(request.getInvest500SavingThreshold(),
+          request.getTopSavingDepositThreshold(), request.getSimpleCreditSpendThreshold());
+      return ResponseEntity.ok(toDto(ruleSetRegistry.updateThresholds(thresholds)));
+    } catch (IllegalArgumentException e) {
+      return ResponseEntity.badRequest().build();
+    }
+  }
+
+  @Operation(
+      summary = "Порядок проверки правил",
+      description = "Возвращает выученный порядок проверки дочерних правил композитных правил"
+  )
+  @GetMapping("/rule-order")
+  public ResponseEntity<Map<String, List<String>>> getRuleOrder() {
+    return ResponseEntity.ok(ruleOrderOptimizer.describeOrder(ruleSetRegistry.getSnapshot()));
+  }
+
+  @Operation(
+      summary = "Состояние кеша динамических правил",
+      description = "Возвращает версию снимка и количество скомпилированных динамических правил"
+  )
+  @GetMapping("/dynamic-rules")
+  public ResponseEntity<Map<String, Long>> getDynamicRuleCache() {
+    return ResponseEntity.ok(toCacheInfo(dynamicRuleCache.getSnapshot()));
+  }
+
+  @Operation(
+      summary = "Перезагрузить динамические правила",
+      description = "Перечитывает динамические правила из базы и публикует новый снимок кеша"
+  )
+  @PostMapping("/dynamic-rules/reload")
+  public ResponseEntity<Map<String, Long>> reloadDynamicRules() {
+    return ResponseEntity.ok(toCacheInfo(dynamicRuleCache.reload()));
+  }
+
+  @Operation(
+      summary = "Состояние снимка транзакций",
+      description = "Возвращает размер и версию данных текущего снимка, расписание и статистику обновлений"
+  )
+  @GetMapping("/transaction-snapshot")
+  public ResponseEntity<?> getTransactionSnapshot() {
+    return transactionSnapshotManager
+        .<ResponseEntity<?>>map(manager -> ResponseEntity.ok(toSnapshotInfo(manager)))
+        .orElseGet(this::snapshotDisabled);
+  }
+
+  @Operation(
+      summary = "Обновить снимок транзакций",
+      description = "Запускает построение нового снимка в фоне; запросы продолжают работать "
+          + "на текущем снимке до его атомарной замены"
+  )
+  @PostMapping("/transaction-snapshot/refresh")
+  public ResponseEntity<?> refreshTransactionSnapshot() {
+    return transactionSnapshotManager
+        .<ResponseEntity<?>>map(manager -> {
+          manager.refreshAsync(true);
+          return ResponseEntity.status(HttpStatus.ACCEPTED).body(toSnapshotInfo(manager));
+        })
+        .orElseGet(this::snapshotDisabled);
+  }
+
+  private ResponseEntity<?> snapshotDisabled() {
+    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorResponse("SNAPSHOT_DISABLED",
+        "Снимок транзакций отключен (recommendation.snapshot.enabled=false)"));
+  }
+
+  private Map<String, Object> toSnapshotInfo(TransactionSnapshotManager manager) {
+    Map<String, Object> info = new LinkedHashMap<>();
+    TransactionSnapshot snapshot = manager.getCurrent();
+    info.put("loaded", snapshot != null);
+    if (snapshot != null) {
+      info.put("loadedAt", snapshot.getLoadedAt());
+      info.put("datasetVersion", snapshot.getDatasetVersion());
+      info.put("users", snapshot.getUserCount());
+      info.put("activeUsers", snapshot.getActiveUserCount());
+      info.put("transactions", snapshot.getTransactionCount());
+    }
+    info.put("refreshing", manager.isRefreshing());
+    info.put("refreshIntervalMs", manager.getRefreshIntervalMs());
+    info.put("refreshes", manager.getRefreshCount());
+    info.put("skippedRefreshes", manager.getSkippedRefreshCount());
+    info.put("failedRefreshes", manager.getFailedRefreshCount());
+    info.put("lastAttemptAt", manager.getLastAttemptAt());
+    info.put("lastError", manager.getLastError());
+    return info;
+  }
+
+  private Map<String, Long> toCacheInfo(DynamicRuleSnapshot snapshot) {
+    return Map.of(
+        "version", snapshot.getVersion(),
+        "rules", (long) snapshot.size()
+    );
+  }
+
+  private RuleThresholdsDto toDto(RuleSetSnapshot snapshot) {
+    RuleThresholds thresholds = snapshot.getThresholds();
+    return new RuleThresholdsDto(thresholds.getInvest500SavingThreshold(),
+        thresholds.getTopSavingDepositThreshold(), thresholds.getSimpleCreditSpendThreshold(),
+        snapshot.getVersion());
+  }
+}
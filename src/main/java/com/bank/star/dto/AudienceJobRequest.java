@@ -0,0 +1,24 @@
+// DTO запроса на создание задачи вычисления аудитории
+package com.bank.star.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Запрос на асинхронное вычисление аудитории. Если не указаны ни продукт, "
+    + "ни правило, вычисляются пользователи без рекомендаций")
+public class AudienceJobRequest {
+
+  @Schema(description = "Название продукта", example = "Top Saving")
+  private String productName;
+
+  @Schema(description = "ID динамического правила (имеет приоритет над названием продукта)",
+      example = "a1b2c3d4-e5f6-7890-abcd-ef1234567890")
+  private UUID ruleId;
+}
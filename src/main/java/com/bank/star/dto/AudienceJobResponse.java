@@ -0,0 +1,55 @@
+// DTO состояния задачи вычисления аудитории
+package com.bank.star.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Состояние асинхронной задачи вычисления аудитории")
+public class AudienceJobResponse {
+
+  @Schema(description = "ID задачи", example = "5f0c7a1e-2b3d-4e5f-8a9b-0c1d2e3f4a5b")
+  private UUID jobId;
+
+  @Schema(description = "Название продукта (отсутствует для пользователей без рекомендаций)",
+      example = "Top Saving")
+  private String productName;
+
+  @Schema(description = "ID динамического правила, по которому создана задача")
+  private UUID ruleId;
+
+  @Schema(description = "Статус задачи", example = "RUNNING",
+      allowableValues = {"QUEUED", "RUNNING", "COMPLETED", "FAILED", "CANCELLED"})
+  private String status;
+
+  @Schema(description = "Количество проверенных пользователей", example = "12000")
+  private long processedUsers;
+
+  @Schema(description = "Общее количество активных пользователей", example = "50000")
+  private long totalUsers;
+
+  @Schema(description = "Количество пользователей, попавших в аудиторию", example = "3100")
+  private long matchedUsers;
+
+  @Schema(description = "Скорость обработки, пользователей в секунду", example = "8500.0")
+  private double throughputPerSecond;
+
+  @Schema(description = "Время создания задачи")
+  private Instant createdAt;
+
+  @Schema(description = "Время запуска задачи")
+  private Instant startedAt;
+
+  @Schema(description = "Время завершения задачи")
+  private Instant finishedAt;
+
+  @Schema(description = "Сообщение об ошибке (для статуса FAILED)")
+  private String error;
+}
@@ -0,0 +1,29 @@
+// DTO страницы результатов задачи вычисления аудитории
+package com.bank.star.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Страница результатов завершенной задачи вычисления аудитории")
+public class AudienceJobResultsResponse {
+
+  @Schema(description = "ID задачи", example = "5f0c7a1e-2b3d-4e5f-8a9b-0c1d2e3f4a5b")
+  private UUID jobId;
+
+  @Schema(description = "Смещение первой строки страницы", example = "0")
+  private long offset;
+
+  @Schema(description = "Общее количество пользователей в аудитории", example = "3100")
+  private long total;
+
+  @Schema(description = "Пользователи на странице")
+  private List<UserRecommendation> users;
+}
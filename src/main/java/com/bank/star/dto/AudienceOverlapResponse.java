@@ -0,0 +1,47 @@
+// DTO матрицы пересечений аудиторий продуктов
+package com.bank.star.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Попарные пересечения аудиторий всех продуктов (встроенных и динамических)")
+public class AudienceOverlapResponse {
+
+  @Schema(description = "Названия продуктов в порядке строк и столбцов матрицы")
+  private List<String> productNames;
+
+  @Schema(description = "Симметричная матрица: количество пользователей, подходящих под оба "
+      + "продукта; на диагонали — размер аудитории продукта")
+  private List<List<Long>> overlaps;
+
+  @Schema(description = "Количество пользователей без рекомендаций", example = "8300")
+  private long withoutRecommendations;
+
+  @Schema(description = "Количество проверенных активных пользователей", example = "12000")
+  private long scannedUsers;
+
+  @Schema(description = "Способ вычисления: snapshot (битовые карты снимка транзакций) или blocks "
+      + "(проверка блоками профилей)", example = "snapshot")
+  private String engine;
+
+  @Schema(description = "Версия встроенных правил", example = "3")
+  private long ruleSetVersion;
+
+  @Schema(description = "Версия динамических правил", example = "7")
+  private long dynamicRuleVersion;
+
+  @Schema(description = "Версия данных, по которым построена матрица",
+      example = "12000:5400000.00:2024-01-15 10:00:00.0")
+  private String datasetVersion;
+
+  @Schema(description = "Время построения матрицы")
+  private Instant createdAt;
+}
@@ -0,0 +1,55 @@
+// DTO результата пробного прогона динамического правила без сохранения
+package com.bank.star.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Аудитория динамического правила, проверенного по всей базе без сохранения")
+public class RuleDryRunResponse {
+
+  @Schema(description = "Название продукта правила", example = "Кредитная карта Плюс")
+  private String productName;
+
+  @Schema(description = "Количество подходящих пользователей", example = "420")
+  private long audienceSize;
+
+  @Schema(description = "Количество проверенных активных пользователей", example = "12000")
+  private long scannedUsers;
+
+  @Schema(description = "Первые подходящие пользователи в порядке ID")
+  private List<UUID> sample;
+
+  @Schema(description = "Пересечения аудитории правила с аудиториями существующих продуктов")
+  private List<Overlap> overlaps;
+
+  @Schema(description = "Способ вычисления: snapshot (битовые карты снимка транзакций) или blocks "
+      + "(проверка блоками профилей)", example = "snapshot")
+  private String engine;
+
+  @Schema(description = "Время вычисления в миллисекундах", example = "12")
+  private long evaluationTimeMs;
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  @Schema(description = "Пересечение с аудиторией существующего продукта")
+  public static class Overlap {
+
+    @Schema(description = "Название продукта", example = "Invest 500")
+    private String productName;
+
+    @Schema(description = "Размер аудитории продукта", example = "1500")
+    private long productUsers;
+
+    @Schema(description = "Пользователи, подходящие и под правило, и под продукт", example = "37")
+    private long overlapUsers;
+  }
+}
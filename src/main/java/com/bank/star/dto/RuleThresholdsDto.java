@@ -0,0 +1,28 @@
+// DTO пороговых значений наборов правил продуктов
+package com.bank.star.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Пороговые значения наборов правил продуктов")
+public class RuleThresholdsDto {
+
+  @Schema(description = "Invest 500: минимальная сумма пополнений SAVING (исключительно)", example = "1000")
+  private BigDecimal invest500SavingThreshold;
+
+  @Schema(description = "Top Saving: минимальная сумма пополнений DEBIT или SAVING (включительно)", example = "50000")
+  private BigDecimal topSavingDepositThreshold;
+
+  @Schema(description = "Простой кредит: минимальная сумма трат DEBIT (исключительно)", example = "100000")
+  private BigDecimal simpleCreditSpendThreshold;
+
+  @Schema(description = "Версия опубликованного снимка правил", example = "1", accessMode = Schema.AccessMode.READ_ONLY)
+  private Long version;
+}
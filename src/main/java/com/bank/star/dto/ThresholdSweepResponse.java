@@ -0,0 +1,55 @@
+// DTO размера аудитории порогового условия для набора порогов
+package com.bank.star.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Размер аудитории условия правила в зависимости от порога")
+public class ThresholdSweepResponse {
+
+  @Schema(description = "Тип продукта", example = "DEBIT")
+  private String productType;
+
+  @Schema(description = "Агрегат: DEPOSIT, WITHDRAW или COUNT", example = "DEPOSIT")
+  private String metric;
+
+  @Schema(description = "Оператор сравнения", example = ">=")
+  private String operator;
+
+  @Schema(description = "Отрицание условия", example = "false")
+  private boolean negate;
+
+  @Schema(description = "Количество проверенных активных пользователей", example = "12000")
+  private long scannedUsers;
+
+  @Schema(description = "Источник данных: snapshot (индекс снимка транзакций) или profiles "
+      + "(один проход по профилям)", example = "snapshot")
+  private String engine;
+
+  @Schema(description = "Время вычисления в миллисекундах", example = "3")
+  private long evaluationTimeMs;
+
+  @Schema(description = "Размер аудитории для каждого порога в порядке запроса")
+  private List<Point> points;
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  @Schema(description = "Размер аудитории при одном пороге")
+  public static class Point {
+
+    @Schema(description = "Порог", example = "50000")
+    private BigDecimal threshold;
+
+    @Schema(description = "Количество подходящих пользователей", example = "420")
+    private long users;
+  }
+}
@@ -0,0 +1,38 @@
+// Денежные суммы в минимальных единицах (копейках) для вычислений без BigDecimal
+package com.bank.star.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Преобразования денежных сумм между {@link BigDecimal} и long в минимальных единицах.
+ * Суммы транзакций хранятся как DECIMAL(15,2), поэтому внутри проверки правил они
+ * представляются целым числом копеек, а BigDecimal создается только на границе API.
+ */
+public final class MinorUnits {
+
+  /**
+   * Количество знаков после запятой у сумм: суммы хранятся в копейках.
+   */
+  public static final int SCALE = 2;
+
+  private MinorUnits() {
+  }
+
+  /**
+   * Переводит сумму в копейки.
+   *
+   * @throws ArithmeticException если у суммы больше двух знаков после запятой или она не
+   *                             помещается в long
+   */
+  public static long toMinorUnits(BigDecimal amount) {
+    return amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+  }
+
+  /**
+   * Переводит копейки в сумму с двумя знаками после запятой.
+   */
+  public static BigDecimal toAmount(long minorUnits) {
+    return BigDecimal.valueOf(minorUnits, SCALE);
+  }
+}
@@ -0,0 +1,634 @@
+// Сжатая битовая карта индексов пользователей (контейнеры в стиле Roaring)
+package com.bank.star.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Множество неотрицательных int — индексов пользователей {@link UserDictionary} — в виде
+ * сжатой битовой карты в стиле Roaring. Диапазон индексов делится на участки по 65536 значений
+ * (старшие 16 бит), и каждый непустой участок хранится контейнером одного из двух видов:
+ * отсортированным массивом младших 16 бит (до 4096 значений, 2 байта на значение) или битовой
+ * картой из 1024 long (8 КБ на участок). Поэтому и редкие множества (владельцы редкого продукта),
+ * и плотные (владельцы дебетовой карты) занимают немного памяти, а пересечение, объединение
+ * и разность выполняются по контейнерам без перебора отдельных пользователей.
+ * Операции {@link #and}, {@link #or} и {@link #andNot} возвращают новую карту и не меняют
+ * операнды. Изменение ({@link #add}, {@link #addRange}) не потокобезопасно; после заполнения
+ * карту можно читать из любых потоков, если она опубликована безопасно.
+ */
+public final class UserBitmap {
+
+  private static final int ARRAY_MAX = 4096;    // Больше значений хранит битовый контейнер
+  private static final int WORDS = 1024;        // 65536 бит битового контейнера
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private char[] keys;              // Старшие 16 бит участков по возрастанию
+  private Container[] containers;
+  private int size;
+
+  public UserBitmap() {
+    this(4);
+  }
+
+  private UserBitmap(int capacity) {
+    keys = new char[Math.max(1, capacity)];
+    containers = new Container[keys.length];
+  }
+
+  /**
+   * Создает карту из перечисленных индексов.
+   */
+  public static UserBitmap of(int... users) {
+    UserBitmap bitmap = new UserBitmap();
+    for (int user : users) {
+      bitmap.add(user);
+    }
+    return bitmap;
+  }
+
+  /**
+   * Создает карту из непрерывного диапазона индексов [from, to).
+   */
+  public static UserBitmap range(int from, int to) {
+    UserBitmap bitmap = new UserBitmap();
+    bitmap.addRange(from, to);
+    return bitmap;
+  }
+
+  /**
+   * Добавляет пользователя. Добавление по возрастанию индексов не требует поиска участка.
+   */
+  public void add(int user) {
+    checkUser(user);
+    int index = containerIndex((char) (user >>> 16));
+    containers[index] = containers[index].add((char) user);
+  }
+
+  /**
+   * Добавляет непрерывный диапазон пользователей [from, to).
+   */
+  public void addRange(int from, int to) {
+    checkUser(from);
+    if (to <= from) {
+      return;
+    }
+    for (int chunk = from >>> 16; chunk <= (to - 1) >>> 16; chunk++) {
+      int chunkStart = chunk << 16;
+      int low = Math.max(from, chunkStart) - chunkStart;
+      int high = (int) Math.min((long) to - chunkStart, CHUNK_SIZE);
+      int index = containerIndex((char) chunk);
+      containers[index] = containers[index].addRange(low, high);
+    }
+  }
+
+  public boolean contains(int user) {
+    if (user < 0) {
+      return false;
+    }
+    int index = find((char) (user >>> 16));
+    return index >= 0 && containers[index].contains((char) user);
+  }
+
+  /**
+   * Количество пользователей в карте.
+   */
+  public int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += containers[i].cardinality();
+    }
+    return cardinality;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Пересечение: пользователи, которые есть в обеих картах.
+   */
+  public UserBitmap and(UserBitmap other) {
+    UserBitmap result = new UserBitmap(Math.min(size, other.size));
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        result.append(keys[i], and(containers[i++], other.containers[j++]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Размер пересечения с другой картой; пересечение не строится.
+   */
+  public int andCardinality(UserBitmap other) {
+    int cardinality = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        cardinality += andCardinality(containers[i++], other.containers[j++]);
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * Объединение: пользователи, которые есть хотя бы в одной карте.
+   */
+  public UserBitmap or(UserBitmap other) {
+    UserBitmap result = new UserBitmap(size + other.size);
+    int i = 0;
+    int j = 0;
+    while (i < size || j < other.size) {
+      if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+        result.append(keys[i], containers[i++].copy());
+      } else if (i == size || keys[i] > other.keys[j]) {
+        result.append(other.keys[j], other.containers[j++].copy());
+      } else {
+        result.append(keys[i], or(containers[i++], other.containers[j++]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Разность: пользователи этой карты, которых нет в другой.
+   */
+  public UserBitmap andNot(UserBitmap other) {
+    UserBitmap result = new UserBitmap(size);
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      while (j < other.size && other.keys[j] < keys[i]) {
+        j++;
+      }
+      if (j < other.size && other.keys[j] == keys[i]) {
+        result.append(keys[i], andNot(containers[i], other.containers[j]));
+      } else {
+        result.append(keys[i], containers[i].copy());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Передает индексы пользователей по возрастанию.
+   */
+  public void forEach(IntConsumer consumer) {
+    for (int i = 0; i < size; i++) {
+      containers[i].forEach(keys[i] << 16, consumer);
+    }
+  }
+
+  /**
+   * Возвращает индексы пользователей по возрастанию.
+   */
+  public int[] toArray() {
+    int[] users = new int[cardinality()];
+    int position = 0;
+    for (int i = 0; i < size; i++) {
+      position = containers[i].fill(keys[i] << 16, users, position);
+    }
+    return users;
+  }
+
+  /**
+   * Возвращает не больше limit первых (наименьших) индексов пользователей по возрастанию.
+   */
+  public int[] toArray(int limit) {
+    int[] users = new int[Math.min(Math.max(0, limit), cardinality())];
+    int position = 0;
+    for (int i = 0; i < size && position < users.length; i++) {
+      if (containers[i].cardinality() <= users.length - position) {
+        position = containers[i].fill(keys[i] << 16, users, position);
+      } else {
+        int[] chunk = new int[containers[i].cardinality()];
+        containers[i].fill(keys[i] << 16, chunk, 0);
+        System.arraycopy(chunk, 0, users, position, users.length - position);
+        position = users.length;
+      }
+    }
+    return users;
+  }
+
+  @Override
+  public String toString() {
+    return "UserBitmap{cardinality=" + cardinality() + ", containers=" + size + '}';
+  }
+
+  private static void checkUser(int user) {
+    if (user < 0) {
+      throw new IllegalArgumentException("User index must not be negative: " + user);
+    }
+  }
+
+  private int find(char key) {
+    // Быстрый путь для заполнения по возрастанию
+    if (size > 0 && keys[size - 1] == key) {
+      return size - 1;
+    }
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  /**
+   * Возвращает индекс контейнера участка, создавая пустой контейнер при необходимости.
+   */
+  private int containerIndex(char key) {
+    int index = find(key);
+    if (index >= 0) {
+      return index;
+    }
+    index = -index - 1;
+    ensureCapacity();
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(containers, index, containers, index + 1, size - index);
+    keys[index] = key;
+    containers[index] = new ArrayContainer(new char[4], 0);
+    size++;
+    return index;
+  }
+
+  /**
+   * Дописывает контейнер после последнего (ключи идут по возрастанию); пустой пропускается.
+   */
+  private void append(char key, Container container) {
+    if (container.cardinality() == 0) {
+      return;
+    }
+    ensureCapacity();
+    keys[size] = key;
+    containers[size] = container;
+    size++;
+  }
+
+  private void ensureCapacity() {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      containers = Arrays.copyOf(containers, size * 2);
+    }
+  }
+
+  // Операции над контейнерами одного участка
+
+  private static Container and(Container left, Container right) {
+    if (left instanceof ArrayContainer array) {
+      return right instanceof ArrayContainer other ? array.and(other) : array.filter(right, true);
+    }
+    if (right instanceof ArrayContainer array) {
+      return array.filter(left, true);
+    }
+    return ((BitmapContainer) left).combine((BitmapContainer) right, Operation.AND);
+  }
+
+  private static int andCardinality(Container left, Container right) {
+    if (left instanceof BitmapContainer bitmap && right instanceof BitmapContainer other) {
+      int cardinality = 0;
+      for (int word = 0; word < WORDS; word++) {
+        cardinality += Long.bitCount(bitmap.words[word] & other.words[word]);
+      }
+      return cardinality;
+    }
+    return and(left, right).cardinality();
+  }
+
+  private static Container or(Container left, Container right) {
+    if (left instanceof ArrayContainer array && right instanceof ArrayContainer other) {
+      return array.or(other);
+    }
+    if (left instanceof BitmapContainer bitmap && right instanceof BitmapContainer other) {
+      return bitmap.combine(other, Operation.OR);
+    }
+    BitmapContainer bitmap = (BitmapContainer) (left instanceof BitmapContainer ? left : right);
+    ArrayContainer array = (ArrayContainer) (left instanceof ArrayContainer ? left : right);
+    BitmapContainer result = bitmap.copy();
+    for (int i = 0; i < array.cardinality; i++) {
+      result.add(array.values[i]);
+    }
+    return result;
+  }
+
+  private static Container andNot(Container left, Container right) {
+    if (left instanceof ArrayContainer array) {
+      return right instanceof ArrayContainer other
+          ? array.andNot(other)
+          : array.filter(right, false);
+    }
+    BitmapContainer bitmap = (BitmapContainer) left;
+    if (right instanceof BitmapContainer other) {
+      return bitmap.combine(other, Operation.AND_NOT);
+    }
+    ArrayContainer array = (ArrayContainer) right;
+    BitmapContainer result = bitmap.copy();
+    for (int i = 0; i < array.cardinality; i++) {
+      result.remove(array.values[i]);
+    }
+    return result.shrink();
+  }
+
+  private enum Operation {
+    AND, OR, AND_NOT
+  }
+
+  /**
+   * Контейнер одного участка из 65536 индексов.
+   */
+  private abstract static class Container {
+
+    abstract int cardinality();
+
+    abstract boolean contains(char low);
+
+    /**
+     * Добавляет значение; может вернуть контейнер другого вида.
+     */
+    abstract Container add(char low);
+
+    /**
+     * Добавляет значения [from, to) участка; может вернуть контейнер другого вида.
+     */
+    abstract Container addRange(int from, int to);
+
+    abstract Container copy();
+
+    abstract void forEach(int base, IntConsumer consumer);
+
+    abstract int fill(int base, int[] users, int position);
+  }
+
+  /**
+   * Отсортированный массив младших 16 бит (не больше {@link #ARRAY_MAX} значений).
+   */
+  private static final class ArrayContainer extends Container {
+
+    private char[] values;
+    private int cardinality;
+
+    ArrayContainer(char[] values, int cardinality) {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char low) {
+      return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+    }
+
+    @Override
+    Container add(char low) {
+      int position = cardinality > 0 && values[cardinality - 1] < low
+          ? -cardinality - 1
+          : Arrays.binarySearch(values, 0, cardinality, low);
+      if (position >= 0) {
+        return this;
+      }
+      if (cardinality == ARRAY_MAX) {
+        return toBitmap().add(low);
+      }
+      position = -position - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+      }
+      System.arraycopy(values, position, values, position + 1, cardinality - position);
+      values[position] = low;
+      cardinality++;
+      return this;
+    }
+
+    @Override
+    Container addRange(int from, int to) {
+      return toBitmap().addRange(from, to).shrink();
+    }
+
+    @Override
+    ArrayContainer copy() {
+      return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+    }
+
+    @Override
+    void forEach(int base, IntConsumer consumer) {
+      for (int i = 0; i < cardinality; i++) {
+        consumer.accept(base | values[i]);
+      }
+    }
+
+    @Override
+    int fill(int base, int[] users, int position) {
+      for (int i = 0; i < cardinality; i++) {
+        users[position++] = base | values[i];
+      }
+      return position;
+    }
+
+    ArrayContainer and(ArrayContainer other) {
+      char[] result = new char[Math.min(cardinality, other.cardinality)];
+      int count = 0;
+      int i = 0;
+      int j = 0;
+      while (i < cardinality && j < other.cardinality) {
+        if (values[i] < other.values[j]) {
+          i++;
+        } else if (values[i] > other.values[j]) {
+          j++;
+        } else {
+          result[count++] = values[i++];
+          j++;
+        }
+      }
+      return new ArrayContainer(result, count);
+    }
+
+    Container or(ArrayContainer other) {
+      char[] result = new char[cardinality + other.cardinality];
+      int count = 0;
+      int i = 0;
+      int j = 0;
+      while (i < cardinality || j < other.cardinality) {
+        if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+          result[count++] = values[i++];
+        } else if (i == cardinality || values[i] > other.values[j]) {
+          result[count++] = other.values[j++];
+        } else {
+          result[count++] = values[i++];
+          j++;
+        }
+      }
+      ArrayContainer union = new ArrayContainer(result, count);
+      return count > ARRAY_MAX ? union.toBitmap() : union;
+    }
+
+    ArrayContainer andNot(ArrayContainer other) {
+      char[] result = new char[cardinality];
+      int count = 0;
+      int j = 0;
+      for (int i = 0; i < cardinality; i++) {
+        while (j < other.cardinality && other.values[j] < values[i]) {
+          j++;
+        }
+        if (j == other.cardinality || other.values[j] != values[i]) {
+          result[count++] = values[i];
+        }
+      }
+      return new ArrayContainer(result, count);
+    }
+
+    /**
+     * Оставляет значения, которые есть (keep = true) или которых нет (keep = false) в другом
+     * контейнере.
+     */
+    ArrayContainer filter(Container other, boolean keep) {
+      char[] result = new char[cardinality];
+      int count = 0;
+      for (int i = 0; i < cardinality; i++) {
+        if (other.contains(values[i]) == keep) {
+          result[count++] = values[i];
+        }
+      }
+      return new ArrayContainer(result, count);
+    }
+
+    BitmapContainer toBitmap() {
+      BitmapContainer bitmap = new BitmapContainer(new long[WORDS], 0);
+      for (int i = 0; i < cardinality; i++) {
+        bitmap.add(values[i]);
+      }
+      return bitmap;
+    }
+  }
+
+  /**
+   * Битовая карта участка: 1024 слова по 64 бита.
+   */
+  private static final class BitmapContainer extends Container {
+
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    boolean contains(char low) {
+      return (words[low >>> 6] & (1L << low)) != 0;
+    }
+
+    @Override
+    BitmapContainer add(char low) {
+      long before = words[low >>> 6];
+      long after = before | (1L << low);
+      if (after != before) {
+        words[low >>> 6] = after;
+        cardinality++;
+      }
+      return this;
+    }
+
+    void remove(char low) {
+      long before = words[low >>> 6];
+      long after = before & ~(1L << low);
+      if (after != before) {
+        words[low >>> 6] = after;
+        cardinality--;
+      }
+    }
+
+    @Override
+    BitmapContainer addRange(int from, int to) {
+      int firstWord = from >>> 6;
+      int lastWord = (to - 1) >>> 6;
+      for (int word = firstWord; word <= lastWord; word++) {
+        long mask = -1L;
+        if (word == firstWord) {
+          mask &= -1L << from;
+        }
+        if (word == lastWord) {
+          mask &= -1L >>> -to;
+        }
+        cardinality += Long.bitCount(mask & ~words[word]);
+        words[word] |= mask;
+      }
+      return this;
+    }
+
+    @Override
+    BitmapContainer copy() {
+      return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    void forEach(int base, IntConsumer consumer) {
+      for (int word = 0; word < WORDS; word++) {
+        long bits = words[word];
+        while (bits != 0) {
+          consumer.accept(base | (word << 6) | Long.numberOfTrailingZeros(bits));
+          bits &= bits - 1;
+        }
+      }
+    }
+
+    @Override
+    int fill(int base, int[] users, int position) {
+      for (int word = 0; word < WORDS; word++) {
+        long bits = words[word];
+        while (bits != 0) {
+          users[position++] = base | (word << 6) | Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+        }
+      }
+      return position;
+    }
+
+    Container combine(BitmapContainer other, Operation operation) {
+      long[] result = new long[WORDS];
+      int count = 0;
+      for (int word = 0; word < WORDS; word++) {
+        result[word] = switch (operation) {
+          case AND -> words[word] & other.words[word];
+          case OR -> words[word] | other.words[word];
+          case AND_NOT -> words[word] & ~other.words[word];
+        };
+        count += Long.bitCount(result[word]);
+      }
+      return new BitmapContainer(result, count).shrink();
+    }
+
+    /**
+     * Переводит контейнер в массив, если значений стало не больше {@link #ARRAY_MAX}.
+     */
+    Container shrink() {
+      if (cardinality > ARRAY_MAX) {
+        return this;
+      }
+      char[] values = new char[Math.max(1, cardinality)];
+      int count = 0;
+      for (int word = 0; word < WORDS; word++) {
+        long bits = words[word];
+        while (bits != 0) {
+          values[count++] = (char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+          bits &= bits - 1;
+        }
+      }
+      return new ArrayContainer(values, count);
+    }
+  }
+}
@@ -0,0 +1,256 @@
+// Словарь пользователей: UUID -> плотный целочисленный индекс без объектов на запись
+package com.bank.star.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Словарь, сопоставляющий UUID пользователя плотному индексу 0..size()-1 в порядке добавления.
+ * UUID хранятся двумя массивами long (старшие и младшие 64 бита), а поиск идет по хеш-таблице
+ * с открытой адресацией и линейным пробированием, ячейки которой содержат индекс + 1
+ * (0 — пустая ячейка). На пользователя приходится 16 байт ключа и около 5 байт таблицы,
+ * без объектов UUID и Map.Entry, поэтому аудитории, снимки и битовые карты можно хранить
+ * как int-индексы этого словаря.
+ * Добавление не потокобезопасно; после заполнения словарь можно читать из любых потоков,
+ * если он опубликован безопасно (например, через final-поле неизменяемого снимка).
+ */
+public final class UserDictionary {
+
+  /**
+   * Порядок UUID, совпадающий со строковым порядком их канонического представления
+   * (ORDER BY id для UUID в нижнем регистре).
+   */
+  public static final Comparator<UUID> ID_ORDER = (left, right) -> compare(
+      left.getMostSignificantBits(), left.getLeastSignificantBits(),
+      right.getMostSignificantBits(), right.getLeastSignificantBits());
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] mostSignificantBits;
+  private long[] leastSignificantBits;
+  private int size;
+  private int[] table;  // Индекс + 1 или 0; длина — степень двойки
+  private int mask;
+
+  public UserDictionary() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize ожидаемое количество пользователей
+   */
+  public UserDictionary(int expectedSize) {
+    int capacity = Math.max(MIN_CAPACITY, expectedSize);
+    mostSignificantBits = new long[capacity];
+    leastSignificantBits = new long[capacity];
+    table = new int[tableSize(capacity)];
+    mask = table.length - 1;
+  }
+
+  /**
+   * Сравнивает UUID, заданные половинами, в порядке {@link #ID_ORDER}.
+   */
+  public static int compare(long leftMost, long leftLeast, long rightMost, long rightLeast) {
+    int result = Long.compareUnsigned(leftMost, rightMost);
+    return result != 0 ? result : Long.compareUnsigned(leftLeast, rightLeast);
+  }
+
+  /**
+   * Добавляет пользователя, если его еще нет.
+   *
+   * @return индекс пользователя
+   */
+  public int add(UUID userId) {
+    return add(userId.getMostSignificantBits(), userId.getLeastSignificantBits());
+  }
+
+  /**
+   * Добавляет пользователя, заданного половинами UUID, если его еще нет.
+   *
+   * @return индекс пользователя
+   */
+  public int add(long most, long least) {
+    int slot = hash(most, least) & mask;
+    while (table[slot] != 0) {
+      int index = table[slot] - 1;
+      if (mostSignificantBits[index] == most && leastSignificantBits[index] == least) {
+        return index;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == mostSignificantBits.length) {
+      int capacity = Math.multiplyExact(size, 2);
+      mostSignificantBits = Arrays.copyOf(mostSignificantBits, capacity);
+      leastSignificantBits = Arrays.copyOf(leastSignificantBits, capacity);
+    }
+    int index = size++;
+    mostSignificantBits[index] = most;
+    leastSignificantBits[index] = least;
+    if (tableSize(size) > table.length) {
+      rehash(tableSize(size));
+    } else {
+      table[slot] = index + 1;
+    }
+    return index;
+  }
+
+  /**
+   * Возвращает индекс пользователя.
+   *
+   * @return индекс или -1, если пользователя нет в словаре
+   */
+  public int indexOf(UUID userId) {
+    return indexOf(userId.getMostSignificantBits(), userId.getLeastSignificantBits());
+  }
+
+  public int indexOf(long most, long least) {
+    int slot = hash(most, least) & mask;
+    while (table[slot] != 0) {
+      int index = table[slot] - 1;
+      if (mostSignificantBits[index] == most && leastSignificantBits[index] == least) {
+        return index;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Возвращает UUID пользователя по индексу (объект создается при каждом вызове).
+   */
+  public UUID get(int index) {
+    return new UUID(getMostSignificantBits(index), getLeastSignificantBits(index));
+  }
+
+  public long getMostSignificantBits(int index) {
+    return mostSignificantBits[checkIndex(index)];
+  }
+
+  public long getLeastSignificantBits(int index) {
+    return leastSignificantBits[checkIndex(index)];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Возвращает индексы всех пользователей, упорядоченные по {@link #ID_ORDER}.
+   */
+  public int[] sortedIndexes() {
+    int[] indexes = new int[size];
+    for (int i = 0; i < size; i++) {
+      indexes[i] = i;
+    }
+    sort(indexes, 0, size - 1);
+    return indexes;
+  }
+
+  /**
+   * Возвращает позицию первого пользователя, который больше заданного UUID. Корректно только
+   * для словаря, индексы которого уже упорядочены по {@link #ID_ORDER}.
+   */
+  public int higherIndex(long most, long least) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (compare(mostSignificantBits[middle], leastSignificantBits[middle], most, least) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("User index " + index + " out of bounds for " + size);
+    }
+    return index;
+  }
+
+  private void rehash(int tableSize) {
+    table = new int[tableSize];
+    mask = tableSize - 1;
+    for (int index = 0; index < size; index++) {
+      int slot = hash(mostSignificantBits[index], leastSignificantBits[index]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = index + 1;
+    }
+  }
+
+  /**
+   * Размер таблицы для заданного количества записей: степень двойки с заполнением не выше 3/4.
+   */
+  private static int tableSize(int entries) {
+    long required = Math.max(MIN_CAPACITY, (long) entries * 4 / 3 + 1);
+    if (required > 1 << 30) {
+      throw new IllegalStateException("User dictionary is too large: " + entries);
+    }
+    return Integer.highestOneBit((int) required - 1) << 1;
+  }
+
+  private static int hash(long most, long least) {
+    // Финализатор MurmurHash3: биты UUID v4 случайны, но словарь не должен на это полагаться
+    long h = most * 31 + least;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  /**
+   * Быстрая сортировка индексов по UUID без упаковки в объекты.
+   */
+  private void sort(int[] indexes, int from, int to) {
+    while (to - from > 16) {
+      int pivot = indexes[(from + to) >>> 1];
+      long pivotMost = mostSignificantBits[pivot];
+      long pivotLeast = leastSignificantBits[pivot];
+      int left = from;
+      int right = to;
+      while (left <= right) {
+        while (compareAt(indexes[left], pivotMost, pivotLeast) < 0) {
+          left++;
+        }
+        while (compareAt(indexes[right], pivotMost, pivotLeast) > 0) {
+          right--;
+        }
+        if (left <= right) {
+          int swap = indexes[left];
+          indexes[left++] = indexes[right];
+          indexes[right--] = swap;
+        }
+      }
+      // Рекурсия по меньшей части ограничивает глубину стека логарифмом
+      if (right - from < to - left) {
+        sort(indexes, from, right);
+        from = left;
+      } else {
+        sort(indexes, left, to);
+        to = right;
+      }
+    }
+    for (int i = from + 1; i <= to; i++) {
+      int current = indexes[i];
+      int j = i - 1;
+      while (j >= from && compareAt(indexes[j], mostSignificantBits[current],
+          leastSignificantBits[current]) > 0) {
+        indexes[j + 1] = indexes[j];
+        j--;
+      }
+      indexes[j + 1] = current;
+    }
+  }
+
+  private int compareAt(int index, long most, long least) {
+    return compare(mostSignificantBits[index], leastSignificantBits[index], most, least);
+  }
+}
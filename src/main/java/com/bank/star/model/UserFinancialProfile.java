@@ -0,0 +1,119 @@
+// Агрегированный финансовый профиль пользователя (суммы и количество операций по типам продуктов)
+package com.bank.star.model;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Финансовый профиль пользователя, загружаемый одним сгруппированным запросом.
+ * Для каждого типа продукта хранит сумму пополнений, сумму трат и количество транзакций,
+ * что позволяет проверять все атомарные правила без повторных обращений к базе данных.
+ * Суммы хранятся в копейках ({@link MinorUnits}): правила сравнивают их как long,
+ * а BigDecimal создается только при обращении через getDepositSum / getWithdrawSum.
+ */
+public class UserFinancialProfile {
+
+  private final UUID userId;
+
+  // Агрегаты индексируются по ProductType.ordinal()
+  private final long[] depositSums = new long[ProductType.values().length];   // В копейках
+  private final long[] withdrawSums = new long[ProductType.values().length];  // В копейках
+  private final int[] transactionCounts = new int[ProductType.values().length];
+
+  /**
+   * Создает пустой профиль (без транзакций) для указанного пользователя.
+   *
+   * @param userId уникальный идентификатор пользователя
+   */
+  public UserFinancialProfile(UUID userId) {
+    this.userId = userId;
+  }
+
+  public UUID getUserId() {
+    return userId;
+  }
+
+  /**
+   * Устанавливает агрегаты по одному типу продукта.
+   *
+   * @param type             тип продукта
+   * @param depositSum       сумма пополнений
+   * @param withdrawSum      сумма трат
+   * @param transactionCount количество транзакций
+   */
+  public void setProductStats(ProductType type, BigDecimal depositSum, BigDecimal withdrawSum,
+      int transactionCount) {
+    setProductStatsMinor(type,
+        depositSum != null ? MinorUnits.toMinorUnits(depositSum) : 0,
+        withdrawSum != null ? MinorUnits.toMinorUnits(withdrawSum) : 0,
+        transactionCount);
+  }
+
+  /**
+   * Устанавливает агрегаты по одному типу продукта, суммы — в копейках.
+   *
+   * @param type             тип продукта
+   * @param depositMinor     сумма пополнений в копейках
+   * @param withdrawMinor    сумма трат в копейках
+   * @param transactionCount количество транзакций
+   */
+  public void setProductStatsMinor(ProductType type, long depositMinor, long withdrawMinor,
+      int transactionCount) {
+    depositSums[type.ordinal()] = depositMinor;
+    withdrawSums[type.ordinal()] = withdrawMinor;
+    transactionCounts[type.ordinal()] = transactionCount;
+  }
+
+  /**
+   * Проверяет, пользуется ли клиент продуктом указанного типа (есть хотя бы одна транзакция).
+   */
+  public boolean hasProductType(ProductType type) {
+    return transactionCounts[type.ordinal()] > 0;
+  }
+
+  /**
+   * Возвращает сумму пополнений по типу продукта (0, если операций нет).
+   */
+  public BigDecimal getDepositSum(ProductType type) {
+    return MinorUnits.toAmount(depositSums[type.ordinal()]);
+  }
+
+  /**
+   * Возвращает сумму пополнений по типу продукта в копейках.
+   */
+  public long getDepositSumMinor(ProductType type) {
+    return depositSums[type.ordinal()];
+  }
+
+  /**
+   * Возвращает сумму трат по типу продукта (0, если операций нет).
+   */
+  public BigDecimal getWithdrawSum(ProductType type) {
+    return MinorUnits.toAmount(withdrawSums[type.ordinal()]);
+  }
+
+  /**
+   * Возвращает сумму трат по типу продукта в копейках.
+   */
+  public long getWithdrawSumMinor(ProductType type) {
+    return withdrawSums[type.ordinal()];
+  }
+
+  /**
+   * Возвращает количество транзакций по типу продукта.
+   */
+  public int getTransactionCount(ProductType type) {
+    return transactionCounts[type.ordinal()];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("UserFinancialProfile{userId=").append(userId);
+    for (ProductType type : ProductType.values()) {
+      sb.append(", ").append(type.name()).append("=[deposit=").append(getDepositSum(type))
+          .append(", withdraw=").append(getWithdrawSum(type))
+          .append(", count=").append(getTransactionCount(type)).append(']');
+    }
+    return sb.append('}').toString();
+  }
+}
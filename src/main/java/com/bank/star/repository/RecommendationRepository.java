@@ -2,8 +2,14 @@
 package com.bank.star.repository;
 
 import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -140,6 +146,134 @@ public class RecommendationRepository {
     }
   }
 
+  /**
+   * Загружает финансовый профиль пользователя одним сгруппированным запросом: суммы пополнений,
+   * трат и количество транзакций по каждому типу продукта. Заменяет серию отдельных запросов
+   * userExists / userHasProductType / getTotal*AmountByProductType при проверке правил.
+   *
+   * @return профиль пользователя или Optional.empty(), если пользователь не найден
+   */
+  public Optional<UserFinancialProfile> findUserFinancialProfile(UUID userId) {
+    logger.debug("Loading financial profile for user {}", userId);
+
+    // LEFT JOIN от users: пользователь без транзакций дает одну строку с type = NULL,
+    // отсутствующий пользователь — ни одной строки
+    String sql = """
+        SELECT p.type AS product_type,
+               COALESCE(SUM(CASE WHEN t.type = 'DEPOSIT' THEN t.amount END), 0) AS deposit_sum,
+               COALESCE(SUM(CASE WHEN t.type = 'WITHDRAW' THEN t.amount END), 0) AS withdraw_sum,
+               COUNT(t.id) AS tx_count
+        FROM users u
+        LEFT JOIN transactions t ON t.user_id = u.id
+        LEFT JOIN products p ON t.product_id = p.id
+        WHERE u.id = ?
+        GROUP BY p.type
+        """;
+
+    try {
+      UserFinancialProfile profile = new UserFinancialProfile(userId);
+      int rows = jdbcTemplate.query(sql, rs -> {
+        int count = 0;
+        while (rs.next()) {
+          count++;
+          String type = rs.getString("product_type");
+          if (type != null) {
+            profile.setProductStats(ProductType.fromString(type),
+                rs.getBigDecimal("deposit_sum"),
+                rs.getBigDecimal("withdraw_sum"),
+                rs.getInt("tx_count"));
+          }
+        }
+        return count;
+      }, userId.toString());
+      return rows > 0 ? Optional.of(profile) : Optional.empty();
+    } catch (Exception e) {
+      logger.error("Error loading financial profile for user {}: {}", userId, e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Загружает финансовые профили группы пользователей одним сгруппированным запросом
+   * (IN-список, группировка по пользователю и типу продукта). Используется пакетной обработкой,
+   * чтобы количество запросов зависело от количества блоков, а не пользователей.
+   * Ошибки чтения пробрасываются вызывающему коду: блок, который не удалось прочитать,
+   * нельзя выдать за блок без пользователей.
+   *
+   * @param userIds идентификаторы пользователей блока
+   * @return профили найденных пользователей; отсутствующие пользователи в результат не попадают
+   * @throws org.springframework.dao.DataAccessException если запрос завершился ошибкой
+   */
+  public Map<UUID, UserFinancialProfile> findUserFinancialProfiles(Collection<UUID> userIds) {
+    if (userIds == null || userIds.isEmpty()) {
+      return Map.of();
+    }
+    logger.debug("Loading financial profiles for {} users", userIds.size());
+
+    String placeholders = String.join(",", Collections.nCopies(userIds.size(), "?"));
+    String sql = """
+        SELECT u.id AS user_id,
+               p.type AS product_type,
+               COALESCE(SUM(CASE WHEN t.type = 'DEPOSIT' THEN t.amount END), 0) AS deposit_sum,
+               COALESCE(SUM(CASE WHEN t.type = 'WITHDRAW' THEN t.amount END), 0) AS withdraw_sum,
+               COUNT(t.id) AS tx_count
+        FROM users u
+        LEFT JOIN transactions t ON t.user_id = u.id
+        LEFT JOIN products p ON t.product_id = p.id
+        WHERE u.id IN (%s)
+        GROUP BY u.id, p.type
+        """.formatted(placeholders);
+
+    Map<UUID, UserFinancialProfile> profiles = new HashMap<>();
+    jdbcTemplate.query(sql, rs -> {
+      UUID userId = UUID.fromString(rs.getString("user_id"));
+      UserFinancialProfile profile = profiles.computeIfAbsent(userId, UserFinancialProfile::new);
+      String type = rs.getString("product_type");
+      if (type != null) {
+        profile.setProductStats(ProductType.fromString(type),
+            rs.getBigDecimal("deposit_sum"),
+            rs.getBigDecimal("withdraw_sum"),
+            rs.getInt("tx_count"));
+      }
+    }, userIds.stream().map(UUID::toString).toArray());
+    return profiles;
+  }
+
+  /**
+   * Находит активных пользователей, агрегаты транзакций которых удовлетворяют условию HAVING.
+   * Вся аудитория продукта вычисляется одним запросом на стороне базы данных
+   * (см. RuleSqlCompiler). Условие может ссылаться на транзакции (t) и продукты (p).
+   *
+   * @param havingClause параметризованное условие над агрегатами пользователя
+   * @param parameters   параметры условия по порядку
+   * @return ID пользователей в порядке getAllActiveUserIds или Optional.empty() при ошибке
+   *         запроса (вызывающий код переходит на построчную проверку)
+   */
+  public Optional<List<UUID>> findActiveUserIdsHaving(String havingClause, List<Object> parameters) {
+    logger.debug("Finding active users having {}", havingClause);
+
+    // Активный пользователь — есть хотя бы одна транзакция с положительной суммой
+    String sql = """
+        SELECT u.id
+        FROM users u
+        JOIN transactions t ON t.user_id = u.id
+        LEFT JOIN products p ON t.product_id = p.id
+        GROUP BY u.id
+        HAVING MAX(CASE WHEN t.amount > 0 THEN 1 ELSE 0 END) = 1 AND (%s)
+        ORDER BY u.id
+        """.formatted(havingClause);
+
+    try {
+      return Optional.of(jdbcTemplate.queryForList(sql, String.class, parameters.toArray())
+          .stream()
+          .map(UUID::fromString)
+          .toList());
+    } catch (Exception e) {
+      logger.error("Error finding active users by condition: {}", e.getMessage());
+      return Optional.empty();
+    }
+  }
+
   /**
    * Проверяет существование пользователя
    */
@@ -178,6 +312,87 @@ public class RecommendationRepository {
     }
   }
 
+  /**
+   * Возвращает следующую страницу ID активных пользователей (keyset-пагинация).
+   * Страница начинается строго после afterUserId в порядке ORDER BY u.id, поэтому обход
+   * всей базы занимает память только под одну страницу и может быть продолжен с любого
+   * курсора — последнего ID предыдущей страницы. Запрос идет по первичному ключу users
+   * и останавливается на limit строк, без сортировки всех пользователей.
+   * Ошибки чтения пробрасываются вызывающему коду: пропущенную страницу нельзя выдать
+   * за конец данных.
+   *
+   * @param afterUserId курсор (ID последнего обработанного пользователя) или null для первой страницы
+   * @param limit       максимальный размер страницы
+   * @return ID пользователей в порядке getAllActiveUserIds; страница короче limit — последняя
+   */
+  public List<UUID> findActiveUserIdsAfter(UUID afterUserId, int limit) {
+    logger.debug("Getting {} active user IDs after {}", limit, afterUserId);
+
+    String sql = """
+        SELECT u.id
+        FROM users u
+        WHERE %s EXISTS (
+          SELECT 1 FROM transactions t WHERE t.user_id = u.id AND t.amount > 0
+        )
+        ORDER BY u.id
+        LIMIT ?
+        """.formatted(afterUserId != null ? "u.id > ? AND" : "");
+
+    Object[] parameters = afterUserId != null
+        ? new Object[]{afterUserId.toString(), limit}
+        : new Object[]{limit};
+    return jdbcTemplate.queryForList(sql, String.class, parameters).stream()
+        .map(UUID::fromString)
+        .toList();
+  }
+
+  /**
+   * Возвращает версию данных, по которым вычисляются аудитории: количество и сумму транзакций
+   * и дату последней транзакции. Любая вставка, удаление или изменение суммы транзакции меняет
+   * версию, поэтому ее можно сохранять вместе с промежуточными результатами пакетного анализа.
+   *
+   * @return версия данных или Optional.empty() при ошибке запроса
+   */
+  public Optional<String> findDatasetVersion() {
+    String sql = """
+        SELECT COUNT(*) AS transaction_count,
+               COALESCE(SUM(amount), 0) AS amount_sum,
+               MAX(transaction_date) AS last_transaction
+        FROM transactions
+        """;
+
+    try {
+      return Optional.ofNullable(jdbcTemplate.queryForObject(sql, (rs, rowNum) ->
+          rs.getLong("transaction_count") + ":"
+              + rs.getBigDecimal("amount_sum").toPlainString() + ":"
+              + rs.getTimestamp("last_transaction")));
+    } catch (Exception e) {
+      logger.error("Error getting dataset version: {}", e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Возвращает количество активных пользователей (с хотя бы одной транзакцией
+   * с положительной суммой), не загружая их ID.
+   */
+  public long countActiveUsers() {
+    String sql = """
+        SELECT COUNT(DISTINCT t.user_id)
+        FROM users u
+        JOIN transactions t ON u.id = t.user_id
+        WHERE t.amount > 0
+        """;
+
+    try {
+      Long count = jdbcTemplate.queryForObject(sql, Long.class);
+      return count != null ? count : 0;
+    } catch (Exception e) {
+      logger.error("Error counting active users: {}", e.getMessage());
+      return 0;
+    }
+  }
+
   /**
    * Получает список ID всех активных пользователей Активным считается пользователь, у которого есть
    * хотя бы одна транзакция
@@ -0,0 +1,189 @@
+// Репозиторий аналитических запросов поверх колоночного снимка транзакций в памяти
+package com.bank.star.repository;
+
+import com.bank.star.model.MinorUnits;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Реализация {@link RecommendationRepository}, отвечающая на запросы правил из
+ * {@link TransactionSnapshot}: таблица transactions JOIN products читается один раз, после чего
+ * проверка пользователя и обход активных пользователей сводятся к чтению массивов без JDBC.
+ * Снимок строится и заменяется в фоне {@link TransactionSnapshotManager}; пока первый снимок
+ * не построен, запросы выполняются базовой JDBC-реализацией. Проверка владения типом продукта
+ * (userHasProductType) — проверка бита в индексе владения снимка.
+ * Условия HAVING (findActiveUserIdsHaving) и диагностика по-прежнему выполняются в базе данных.
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(name = "recommendation.snapshot.enabled", havingValue = "true")
+public class SnapshotRecommendationRepository extends RecommendationRepository {
+
+  private static final int AVERAGE_SCALE = 16;  // Точность среднего (как у AVG над DECIMAL)
+
+  private final TransactionSnapshotManager snapshotManager;
+
+  public SnapshotRecommendationRepository(JdbcTemplate jdbcTemplate,
+      TransactionSnapshotManager snapshotManager) {
+    super(jdbcTemplate);
+    this.snapshotManager = snapshotManager;
+  }
+
+  /**
+   * Возвращает опубликованный снимок; метод никогда не ждет загрузки или обновления снимка.
+   *
+   * @return снимок или null, если первый снимок еще не построен
+   */
+  public TransactionSnapshot getSnapshot() {
+    return snapshotManager.getCurrent();
+  }
+
+  @Override
+  public boolean userExists(UUID userId) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.userExists(userId);
+    }
+    return current.indexOf(userId) >= 0;
+  }
+
+  @Override
+  public boolean userHasProductType(UUID userId, ProductType type) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.userHasProductType(userId, type);
+    }
+    int user = current.indexOf(userId);
+    return user >= 0 && current.ownsProductType(user, type);
+  }
+
+  @Override
+  public BigDecimal getTotalDepositAmountByProductType(UUID userId, ProductType type) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.getTotalDepositAmountByProductType(userId, type);
+    }
+    int user = current.indexOf(userId);
+    return user >= 0 ? MinorUnits.toAmount(current.getDepositSumMinor(user, type))
+        : BigDecimal.ZERO;
+  }
+
+  @Override
+  public BigDecimal getTotalSpendAmountByProductType(UUID userId, ProductType type) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.getTotalSpendAmountByProductType(userId, type);
+    }
+    int user = current.indexOf(userId);
+    return user >= 0 ? MinorUnits.toAmount(current.getWithdrawSumMinor(user, type))
+        : BigDecimal.ZERO;
+  }
+
+  @Override
+  public int getTransactionCountByProductType(UUID userId, ProductType type) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.getTransactionCountByProductType(userId, type);
+    }
+    int user = current.indexOf(userId);
+    return user >= 0 ? current.getTransactionCount(user, type) : 0;
+  }
+
+  @Override
+  public BigDecimal getAverageTransactionAmountByProductType(UUID userId, ProductType type) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.getAverageTransactionAmountByProductType(userId, type);
+    }
+    int user = current.indexOf(userId);
+    int count = user >= 0 ? current.getTransactionCount(user, type) : 0;
+    if (count == 0) {
+      return BigDecimal.ZERO;
+    }
+    long total = Math.addExact(current.getDepositSumMinor(user, type),
+        current.getWithdrawSumMinor(user, type));
+    return MinorUnits.toAmount(total)
+        .divide(BigDecimal.valueOf(count), AVERAGE_SCALE, RoundingMode.HALF_UP);
+  }
+
+  @Override
+  public Optional<UserFinancialProfile> findUserFinancialProfile(UUID userId) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.findUserFinancialProfile(userId);
+    }
+    int user = current.indexOf(userId);
+    return user >= 0 ? Optional.of(current.toProfile(user)) : Optional.empty();
+  }
+
+  @Override
+  public Map<UUID, UserFinancialProfile> findUserFinancialProfiles(Collection<UUID> userIds) {
+    if (userIds == null || userIds.isEmpty()) {
+      return Map.of();
+    }
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.findUserFinancialProfiles(userIds);
+    }
+    Map<UUID, UserFinancialProfile> profiles = new HashMap<>();
+    for (UUID userId : userIds) {
+      int user = current.indexOf(userId);
+      if (user >= 0) {
+        profiles.put(userId, current.toProfile(user));
+      }
+    }
+    return profiles;
+  }
+
+  @Override
+  public List<UUID> findActiveUserIdsAfter(UUID afterUserId, int limit) {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.findActiveUserIdsAfter(afterUserId, limit);
+    }
+    return current.getActiveUserIdsAfter(afterUserId, limit);
+  }
+
+  /**
+   * Возвращает версию данных, из которых построен текущий снимок: результаты, вычисленные
+   * по снимку, соответствуют именно ей, даже если таблицы уже изменились.
+   */
+  @Override
+  public Optional<String> findDatasetVersion() {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.findDatasetVersion();
+    }
+    return Optional.ofNullable(current.getDatasetVersion());
+  }
+
+  @Override
+  public long countActiveUsers() {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.countActiveUsers();
+    }
+    return current.getActiveUserCount();
+  }
+
+  @Override
+  public List<UUID> getAllActiveUserIds() {
+    TransactionSnapshot current = getSnapshot();
+    if (current == null) {
+      return super.getAllActiveUserIds();
+    }
+    return current.getActiveUserIdsAfter(null, Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,169 @@
+// Вторичный индекс снимка: активные пользователи, упорядоченные по сумме операций
+package com.bank.star.repository;
+
+import com.bank.star.model.UserBitmap;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемый индекс одного признака снимка транзакций — суммы пополнений или трат по типу
+ * продукта: активные пользователи, упорядоченные по возрастанию суммы в копейках. Пользователи,
+ * сумма которых больше (меньше, равна) порога, занимают непрерывный участок индекса, границы
+ * которого находятся двоичным поиском, поэтому аудитория порогового условия строится без
+ * проверки каждого пользователя. Индексы строятся вместе со снимком ({@link TransactionSnapshot}).
+ */
+public final class SumIndex {
+
+  private final long[] sums;   // Суммы в копейках по возрастанию
+  private final int[] users;   // Индексы пользователей в порядке sums
+
+  private SumIndex(long[] sums, int[] users) {
+    this.sums = sums;
+    this.users = users;
+  }
+
+  /**
+   * Строит индекс, упорядочивая переданные массивы на месте. Индекс подходит для любого
+   * целочисленного агрегата пользователя (например, количества транзакций).
+   *
+   * @param users индексы пользователей
+   * @param sums  суммы пользователей в копейках (в порядке users)
+   */
+  public static SumIndex build(int[] users, long[] sums) {
+    if (users.length != sums.length) {
+      throw new IllegalArgumentException("Users and sums must have the same length");
+    }
+    sort(sums, users, 0, users.length - 1);
+    return new SumIndex(sums, users);
+  }
+
+  /**
+   * Количество пользователей в индексе.
+   */
+  public int size() {
+    return users.length;
+  }
+
+  /**
+   * Возвращает позицию первого пользователя с суммой не меньше заданной.
+   */
+  public int lowerBound(long sumMinor) {
+    int low = 0;
+    int high = sums.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sums[middle] < sumMinor) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Возвращает позицию первого пользователя с суммой больше заданной.
+   */
+  public int upperBound(long sumMinor) {
+    int low = 0;
+    int high = sums.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sums[middle] <= sumMinor) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  public long getSumMinor(int position) {
+    return sums[position];
+  }
+
+  public int getUser(int position) {
+    return users[position];
+  }
+
+  /**
+   * Возвращает пользователей на позициях [from, to) в виде битовой карты.
+   */
+  public UserBitmap getUsers(int from, int to) {
+    UserBitmap bitmap = new UserBitmap();
+    if (from >= to) {
+      return bitmap;
+    }
+    // Добавление по возрастанию индексов заполняет карту без поиска участков
+    int[] range = Arrays.copyOfRange(users, from, to);
+    Arrays.sort(range);
+    for (int user : range) {
+      bitmap.add(user);
+    }
+    return bitmap;
+  }
+
+  @Override
+  public String toString() {
+    return "SumIndex{users=" + users.length + '}';
+  }
+
+  /**
+   * Быстрая сортировка пар (сумма, пользователь) без упаковки в объекты; при равных суммах
+   * пользователи упорядочиваются по индексу.
+   */
+  private static void sort(long[] sums, int[] users, int from, int to) {
+    while (to - from > 16) {
+      int middle = (from + to) >>> 1;
+      long pivotSum = sums[middle];
+      int pivotUser = users[middle];
+      int left = from;
+      int right = to;
+      while (left <= right) {
+        while (compare(sums[left], users[left], pivotSum, pivotUser) < 0) {
+          left++;
+        }
+        while (compare(sums[right], users[right], pivotSum, pivotUser) > 0) {
+          right--;
+        }
+        if (left <= right) {
+          swap(sums, users, left++, right--);
+        }
+      }
+      // Рекурсия по меньшей части ограничивает глубину стека логарифмом
+      if (right - from < to - left) {
+        sort(sums, users, from, right);
+        from = left;
+      } else {
+        sort(sums, users, left, to);
+        to = right;
+      }
+    }
+    for (int i = from + 1; i <= to; i++) {
+      long sum = sums[i];
+      int user = users[i];
+      int j = i - 1;
+      while (j >= from && compare(sums[j], users[j], sum, user) > 0) {
+        sums[j + 1] = sums[j];
+        users[j + 1] = users[j];
+        j--;
+      }
+      sums[j + 1] = sum;
+      users[j + 1] = user;
+    }
+  }
+
+  private static int compare(long leftSum, int leftUser, long rightSum, int rightUser) {
+    int result = Long.compare(leftSum, rightSum);
+    return result != 0 ? result : Integer.compare(leftUser, rightUser);
+  }
+
+  private static void swap(long[] sums, int[] users, int i, int j) {
+    long sum = sums[i];
+    sums[i] = sums[j];
+    sums[j] = sum;
+    int user = users[i];
+    users[i] = users[j];
+    users[j] = user;
+  }
+}
@@ -0,0 +1,413 @@
+// Колоночный снимок транзакций в памяти для проверки правил без обращений к базе данных
+package com.bank.star.repository;
+
+import com.bank.star.model.MinorUnits;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserBitmap;
+import com.bank.star.model.UserDictionary;
+import com.bank.star.model.UserFinancialProfile;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Неизменяемый снимок таблиц users и transactions JOIN products в колоночном виде.
+ * Пользователи кодируются словарем {@link UserDictionary}, индексы которого назначаются в порядке
+ * ORDER BY u.id, поэтому страница активных пользователей — непрерывный участок массива индексов.
+ * Транзакции хранятся столбцами примитивов:
+ * индекс пользователя, тип продукта, тип операции, сумма в копейках ({@link MinorUnits}) и дата
+ * в днях от эпохи. Агрегаты по пользователю и типу продукта вычисляются при построении снимка,
+ * поэтому проверка правил сводится к чтению элементов массивов.
+ * Индексы владения — сжатые битовые карты {@link UserBitmap} пользователей, у которых есть
+ * транзакции по типу продукта и по конкретному продукту, — заполняются в том же проходе по
+ * транзакциям: проверка USER_OF для пользователя сводится к проверке бита, а аудитории всей базы
+ * вычисляются пересечением и объединением карт.
+ * Для каждой суммы пополнений и трат по типу продукта строится индекс {@link SumIndex}: активные
+ * пользователи, упорядоченные по сумме, поэтому аудитория порогового условия — участок индекса,
+ * найденный двоичным поиском.
+ */
+public final class TransactionSnapshot {
+
+  /**
+   * Дата транзакции неизвестна.
+   */
+  public static final int NO_DATE = Integer.MIN_VALUE;
+
+  static final byte DEPOSIT = 0;
+  static final byte WITHDRAW = 1;
+
+  private static final int TYPES = ProductType.values().length;
+  private static final ProductType[] PRODUCT_TYPES = ProductType.values();
+
+  private final UserDictionary users;   // Индексы назначены в порядке UserDictionary.ID_ORDER
+  private final int[] activeUsers;      // Индексы активных пользователей по возрастанию
+  private final UserBitmap activeUserSet;
+  private final String[] productIds;    // ID продуктов в порядке первого появления
+  private final Map<String, Integer> productIndexes;
+
+  // Столбцы транзакций
+  private final int transactionCount;
+  private final int[] txUser;
+  private final int[] txProduct;        // Индекс в productIds
+  private final byte[] txProductType;   // ProductType.ordinal()
+  private final byte[] txType;          // DEPOSIT или WITHDRAW
+  private final long[] txAmount;        // Сумма в копейках
+  private final int[] txEpochDay;       // Дата в днях от 1970-01-01 или NO_DATE
+
+  // Агрегаты [индекс пользователя * TYPES + ProductType.ordinal()]
+  private final long[] depositSums;
+  private final long[] withdrawSums;
+  private final int[] transactionCounts;
+
+  // Индексы владения: пользователи с транзакциями по типу продукта и по продукту
+  private final UserBitmap[] productTypeOwners;
+  private final UserBitmap[] productOwners;
+
+  // Индексы активных пользователей по суммам [ProductType.ordinal()]
+  private final SumIndex[] depositIndexes;
+  private final SumIndex[] withdrawIndexes;
+
+  private final String datasetVersion;  // Версия данных на момент загрузки (null, если неизвестна)
+  private final Instant loadedAt;
+
+  private TransactionSnapshot(Builder builder, UserDictionary users, int[] userRemap,
+      String datasetVersion) {
+    int userCount = users.size();
+    this.users = users;
+    this.transactionCount = builder.transactionCount;
+    this.txUser = new int[transactionCount];
+    this.txProduct = Arrays.copyOf(builder.txProduct, transactionCount);
+    this.txProductType = Arrays.copyOf(builder.txProductType, transactionCount);
+    this.txType = Arrays.copyOf(builder.txType, transactionCount);
+    this.txAmount = Arrays.copyOf(builder.txAmount, transactionCount);
+    this.txEpochDay = Arrays.copyOf(builder.txEpochDay, transactionCount);
+    this.depositSums = new long[userCount * TYPES];
+    this.withdrawSums = new long[userCount * TYPES];
+    this.transactionCounts = new int[userCount * TYPES];
+    this.productIds = builder.productIds.toArray(new String[0]);
+    this.productIndexes = Map.copyOf(builder.productIndexes);
+    this.productTypeOwners = new UserBitmap[TYPES];
+    for (int type = 0; type < TYPES; type++) {
+      productTypeOwners[type] = new UserBitmap();
+    }
+    this.productOwners = new UserBitmap[productIds.length];
+    for (int product = 0; product < productIds.length; product++) {
+      productOwners[product] = new UserBitmap();
+    }
+
+    boolean[] active = new boolean[userCount];
+    for (int tx = 0; tx < transactionCount; tx++) {
+      int user = userRemap[builder.txUser[tx]];
+      txUser[tx] = user;
+      int slot = user * TYPES + txProductType[tx];
+      // Переполнение long невозможно на реальных данных, но не должно пройти незаметно
+      if (txType[tx] == DEPOSIT) {
+        depositSums[slot] = Math.addExact(depositSums[slot], txAmount[tx]);
+      } else {
+        withdrawSums[slot] = Math.addExact(withdrawSums[slot], txAmount[tx]);
+      }
+      transactionCounts[slot]++;
+      productTypeOwners[txProductType[tx]].add(user);
+      productOwners[txProduct[tx]].add(user);
+      if (txAmount[tx] > 0) {
+        active[user] = true;
+      }
+    }
+
+    int activeCount = 0;
+    for (boolean isActive : active) {
+      if (isActive) {
+        activeCount++;
+      }
+    }
+    this.activeUsers = new int[activeCount];
+    this.activeUserSet = new UserBitmap();
+    for (int user = 0, next = 0; user < userCount; user++) {
+      if (active[user]) {
+        activeUsers[next++] = user;
+        activeUserSet.add(user);
+      }
+    }
+    this.depositIndexes = new SumIndex[TYPES];
+    this.withdrawIndexes = new SumIndex[TYPES];
+    for (int type = 0; type < TYPES; type++) {
+      depositIndexes[type] = sumIndex(depositSums, type);
+      withdrawIndexes[type] = sumIndex(withdrawSums, type);
+    }
+    this.datasetVersion = datasetVersion;
+    this.loadedAt = Instant.now();
+  }
+
+  private SumIndex sumIndex(long[] aggregates, int type) {
+    long[] sums = new long[activeUsers.length];
+    for (int i = 0; i < activeUsers.length; i++) {
+      sums[i] = aggregates[activeUsers[i] * TYPES + type];
+    }
+    return SumIndex.build(activeUsers.clone(), sums);
+  }
+
+  /**
+   * Возвращает индекс пользователя в словаре.
+   *
+   * @return индекс или -1, если пользователя нет в снимке
+   */
+  public int indexOf(UUID userId) {
+    return users.indexOf(userId);
+  }
+
+  public UUID getUserId(int userIndex) {
+    return users.get(userIndex);
+  }
+
+  public int getUserCount() {
+    return users.size();
+  }
+
+  public int getTransactionCount() {
+    return transactionCount;
+  }
+
+  public int getActiveUserCount() {
+    return activeUsers.length;
+  }
+
+  /**
+   * Возвращает карту активных пользователей (с хотя бы одной транзакцией на ненулевую сумму).
+   * Карта принадлежит снимку и не должна изменяться.
+   */
+  public UserBitmap getActiveUsers() {
+    return activeUserSet;
+  }
+
+  public String getDatasetVersion() {
+    return datasetVersion;
+  }
+
+  public Instant getLoadedAt() {
+    return loadedAt;
+  }
+
+  // Агрегаты по пользователю и типу продукта
+
+  public long getDepositSumMinor(int userIndex, ProductType type) {
+    return depositSums[userIndex * TYPES + type.ordinal()];
+  }
+
+  public long getWithdrawSumMinor(int userIndex, ProductType type) {
+    return withdrawSums[userIndex * TYPES + type.ordinal()];
+  }
+
+  public int getTransactionCount(int userIndex, ProductType type) {
+    return transactionCounts[userIndex * TYPES + type.ordinal()];
+  }
+
+  // Индексы владения
+
+  /**
+   * Проверяет, есть ли у пользователя транзакции по типу продукта (USER_OF).
+   */
+  public boolean ownsProductType(int userIndex, ProductType type) {
+    return productTypeOwners[type.ordinal()].contains(userIndex);
+  }
+
+  /**
+   * Возвращает пользователей с транзакциями по типу продукта, включая неактивных.
+   * Карта принадлежит снимку и не должна изменяться.
+   */
+  public UserBitmap getProductTypeOwners(ProductType type) {
+    return productTypeOwners[type.ordinal()];
+  }
+
+  /**
+   * Проверяет, есть ли у пользователя транзакции по продукту.
+   */
+  public boolean ownsProduct(int userIndex, String productId) {
+    Integer product = productIndexes.get(productId);
+    return product != null && productOwners[product].contains(userIndex);
+  }
+
+  /**
+   * Возвращает пользователей с транзакциями по продукту или пустую карту, если транзакций по
+   * продукту нет. Карта принадлежит снимку и не должна изменяться.
+   */
+  public UserBitmap getProductOwners(String productId) {
+    Integer product = productIndexes.get(productId);
+    return product != null ? productOwners[product] : new UserBitmap();
+  }
+
+  /**
+   * Возвращает ID продуктов, по которым в снимке есть транзакции.
+   */
+  public List<String> getProductIds() {
+    return List.of(productIds);
+  }
+
+  // Индексы по суммам
+
+  /**
+   * Возвращает активных пользователей, упорядоченных по сумме пополнений по типу продукта.
+   */
+  public SumIndex getDepositSumIndex(ProductType type) {
+    return depositIndexes[type.ordinal()];
+  }
+
+  /**
+   * Возвращает активных пользователей, упорядоченных по сумме трат по типу продукта.
+   */
+  public SumIndex getWithdrawSumIndex(ProductType type) {
+    return withdrawIndexes[type.ordinal()];
+  }
+
+  /**
+   * Собирает финансовый профиль пользователя из агрегатов снимка.
+   */
+  public UserFinancialProfile toProfile(int userIndex) {
+    UserFinancialProfile profile = new UserFinancialProfile(users.get(userIndex));
+    for (ProductType type : PRODUCT_TYPES) {
+      int slot = userIndex * TYPES + type.ordinal();
+      if (transactionCounts[slot] > 0) {
+        profile.setProductStatsMinor(type, depositSums[slot], withdrawSums[slot],
+            transactionCounts[slot]);
+      }
+    }
+    return profile;
+  }
+
+  /**
+   * Возвращает страницу активных пользователей строго после курсора
+   * (как RecommendationRepository#findActiveUserIdsAfter).
+   */
+  public List<UUID> getActiveUserIdsAfter(UUID afterUserId, int limit) {
+    int from = 0;
+    if (afterUserId != null) {
+      // Первый пользователь словаря, который больше курсора
+      int firstUser = users.higherIndex(afterUserId.getMostSignificantBits(),
+          afterUserId.getLeastSignificantBits());
+      from = Arrays.binarySearch(activeUsers, firstUser);
+      from = from >= 0 ? from : -from - 1;
+    }
+    int to = (int) Math.min((long) from + limit, activeUsers.length);
+    List<UUID> page = new ArrayList<>(Math.max(0, to - from));
+    for (int i = from; i < to; i++) {
+      page.add(users.get(activeUsers[i]));
+    }
+    return page;
+  }
+
+  // Столбцы транзакций
+
+  public int getTransactionUser(int tx) {
+    return txUser[tx];
+  }
+
+  public String getTransactionProductId(int tx) {
+    return productIds[txProduct[tx]];
+  }
+
+  public ProductType getTransactionProductType(int tx) {
+    return PRODUCT_TYPES[txProductType[tx]];
+  }
+
+  public boolean isDeposit(int tx) {
+    return txType[tx] == DEPOSIT;
+  }
+
+  public long getTransactionAmountMinor(int tx) {
+    return txAmount[tx];
+  }
+
+  public int getTransactionEpochDay(int tx) {
+    return txEpochDay[tx];
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionSnapshot{users=" + users.size() + ", activeUsers=" + activeUsers.length
+        + ", transactions=" + transactionCount + ", loadedAt=" + loadedAt + '}';
+  }
+
+  /**
+   * Построитель снимка: пользователи и транзакции добавляются в порядке чтения из базы данных.
+   * Не потокобезопасен.
+   */
+  public static final class Builder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final UserDictionary users = new UserDictionary();  // Индексы в порядке добавления
+    private final List<String> productIds = new ArrayList<>();
+    private final Map<String, Integer> productIndexes = new HashMap<>();
+
+    private int transactionCount;
+    private int[] txUser = new int[INITIAL_CAPACITY];
+    private int[] txProduct = new int[INITIAL_CAPACITY];
+    private byte[] txProductType = new byte[INITIAL_CAPACITY];
+    private byte[] txType = new byte[INITIAL_CAPACITY];
+    private long[] txAmount = new long[INITIAL_CAPACITY];
+    private int[] txEpochDay = new int[INITIAL_CAPACITY];
+
+    public Builder addUser(UUID userId) {
+      users.add(userId);
+      return this;
+    }
+
+    /**
+     * Добавляет транзакцию; пользователь добавляется в словарь, если его еще нет.
+     *
+     * @param userId      ID пользователя
+     * @param productId   ID продукта
+     * @param productType тип продукта
+     * @param deposit     true для пополнения, false для траты
+     * @param amountMinor сумма в копейках
+     * @param epochDay    дата в днях от эпохи или {@link #NO_DATE}
+     */
+    public Builder addTransaction(UUID userId, String productId, ProductType productType,
+        boolean deposit, long amountMinor, int epochDay) {
+      int user = users.add(userId);
+      Integer product = productIndexes.get(productId);
+      if (product == null) {
+        product = productIds.size();
+        productIds.add(productId);
+        productIndexes.put(productId, product);
+      }
+      if (transactionCount == txUser.length) {
+        int capacity = Math.multiplyExact(txUser.length, 2);
+        txUser = Arrays.copyOf(txUser, capacity);
+        txProduct = Arrays.copyOf(txProduct, capacity);
+        txProductType = Arrays.copyOf(txProductType, capacity);
+        txType = Arrays.copyOf(txType, capacity);
+        txAmount = Arrays.copyOf(txAmount, capacity);
+        txEpochDay = Arrays.copyOf(txEpochDay, capacity);
+      }
+      txUser[transactionCount] = user;
+      txProduct[transactionCount] = product;
+      txProductType[transactionCount] = (byte) productType.ordinal();
+      txType[transactionCount] = deposit ? DEPOSIT : WITHDRAW;
+      txAmount[transactionCount] = amountMinor;
+      txEpochDay[transactionCount] = epochDay;
+      transactionCount++;
+      return this;
+    }
+
+    /**
+     * Строит снимок: сортирует словарь пользователей, вычисляет агрегаты и индексы владения.
+     *
+     * @param datasetVersion версия данных, из которых построен снимок, или null
+     */
+    public TransactionSnapshot build(String datasetVersion) {
+      int[] order = users.sortedIndexes();
+      UserDictionary sorted = new UserDictionary(order.length);
+      int[] remap = new int[order.length];  // Индекс добавления -> индекс в словаре снимка
+      for (int index : order) {
+        remap[index] = sorted.add(users.getMostSignificantBits(index),
+            users.getLeastSignificantBits(index));
+      }
+      return new TransactionSnapshot(this, sorted, remap, datasetVersion);
+    }
+  }
+}
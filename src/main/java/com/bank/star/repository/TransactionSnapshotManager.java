@@ -0,0 +1,243 @@
+// Фоновое обновление снимка транзакций с атомарной заменой
+package com.bank.star.repository;
+
+import com.bank.star.model.MinorUnits;
+import com.bank.star.model.ProductType;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Управляет текущим {@link TransactionSnapshot}: новый снимок строится в фоновом потоке
+ * (двойная буферизация), проверяется и публикуется атомарной заменой volatile-ссылки.
+ * Читатели берут ссылку один раз на запрос и дорабатывают на ней, поэтому замена не блокирует
+ * запросы рекомендаций; старый снимок освобождается сборщиком мусора, когда его отпускает
+ * последний читатель. Одновременно строится не больше одного снимка: повторный запуск во время
+ * обновления возвращает уже выполняющееся обновление, поэтому в памяти не больше двух снимков.
+ * Снимок отклоняется, если версия данных (RecommendationRepository#findDatasetVersion)
+ * изменилась за время загрузки; плановое обновление пропускается, если версия не изменилась.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendation.snapshot.enabled", havingValue = "true")
+public class TransactionSnapshotManager {
+
+  private static final Logger logger = LoggerFactory.getLogger(TransactionSnapshotManager.class);
+
+  private final JdbcTemplate jdbcTemplate;
+  private final RecommendationRepository database;  // JDBC-репозиторий (не снимок)
+  private final ExecutorService executor;
+
+  @Value("${recommendation.snapshot.fetch-size:10000}")
+  private int fetchSize = 10000;
+
+  @Value("${recommendation.snapshot.refresh-interval-ms:300000}")
+  private long refreshIntervalMs = 300000;
+
+  private volatile TransactionSnapshot current;
+  private final AtomicReference<CompletableFuture<TransactionSnapshot>> inFlight =
+      new AtomicReference<>();
+
+  // Статистика обновлений
+  private final AtomicLong refreshes = new AtomicLong();
+  private final AtomicLong skippedRefreshes = new AtomicLong();
+  private final AtomicLong failedRefreshes = new AtomicLong();
+  private volatile Instant lastAttemptAt;
+  private volatile String lastError;
+
+  public TransactionSnapshotManager(JdbcTemplate jdbcTemplate,
+      @Qualifier("recommendationRepository") RecommendationRepository database,
+      @Qualifier("snapshotRefreshExecutor") ExecutorService executor) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.database = database;
+    this.executor = executor;
+  }
+
+  /**
+   * Возвращает опубликованный снимок, никогда не дожидаясь обновления.
+   *
+   * @return снимок или null, если первый снимок еще не построен
+   */
+  public TransactionSnapshot getCurrent() {
+    return current;
+  }
+
+  /**
+   * Первый снимок строится в фоне после старта; до его публикации запросы выполняются через JDBC.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void loadOnStartup() {
+    refreshAsync(false);
+  }
+
+  /**
+   * Плановое обновление раз в recommendation.snapshot.refresh-interval-ms.
+   */
+  @Scheduled(initialDelayString = "${recommendation.snapshot.refresh-interval-ms:300000}",
+      fixedDelayString = "${recommendation.snapshot.refresh-interval-ms:300000}")
+  public void scheduledRefresh() {
+    refreshAsync(false);
+  }
+
+  /**
+   * Запускает обновление в фоновом потоке. Если обновление уже выполняется, возвращает его.
+   *
+   * @param force строить снимок, даже если версия данных не изменилась
+   * @return опубликованный в результате снимок (или текущий, если обновление пропущено)
+   */
+  public CompletableFuture<TransactionSnapshot> refreshAsync(boolean force) {
+    CompletableFuture<TransactionSnapshot> promise = new CompletableFuture<>();
+    CompletableFuture<TransactionSnapshot> running = inFlight.compareAndExchange(null, promise);
+    if (running != null) {
+      return running;
+    }
+    try {
+      executor.execute(() -> {
+        TransactionSnapshot result = null;
+        Throwable failure = null;
+        try {
+          result = refresh(force);
+        } catch (Throwable e) {
+          failure = e;
+        }
+        // Обновление снимается с учета до завершения, чтобы ожидающие видели его законченным
+        inFlight.compareAndSet(promise, null);
+        if (failure != null) {
+          promise.completeExceptionally(failure);
+        } else {
+          promise.complete(result);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      inFlight.compareAndSet(promise, null);
+      promise.completeExceptionally(e);
+    }
+    return promise;
+  }
+
+  /**
+   * Строит, проверяет и публикует снимок в текущем потоке.
+   *
+   * @param force строить снимок, даже если версия данных не изменилась
+   * @return опубликованный снимок (или текущий, если обновление пропущено)
+   * @throws IllegalStateException если данные изменились во время загрузки
+   */
+  public synchronized TransactionSnapshot refresh(boolean force) {
+    lastAttemptAt = Instant.now();
+    try {
+      String version = database.findDatasetVersion().orElse(null);
+      TransactionSnapshot previous = current;
+      if (!force && previous != null && version != null
+          && version.equals(previous.getDatasetVersion())) {
+        skippedRefreshes.incrementAndGet();
+        logger.debug("Transaction snapshot is up to date (version {})", version);
+        return previous;
+      }
+
+      long start = System.nanoTime();
+      TransactionSnapshot loaded = load(version);
+      validate(loaded);
+      current = loaded;
+      refreshes.incrementAndGet();
+      lastError = null;
+      logger.info("📸 Transaction snapshot {} in {} ms: {} users ({} active), {} transactions",
+          previous == null ? "loaded" : "replaced", (System.nanoTime() - start) / 1_000_000,
+          loaded.getUserCount(), loaded.getActiveUserCount(), loaded.getTransactionCount());
+      return loaded;
+    } catch (RuntimeException e) {
+      failedRefreshes.incrementAndGet();
+      lastError = e.getMessage();
+      logger.error("❌ Transaction snapshot refresh failed, keeping the current snapshot: {}",
+          e.getMessage());
+      throw e;
+    }
+  }
+
+  public boolean isRefreshing() {
+    return inFlight.get() != null;
+  }
+
+  public long getRefreshIntervalMs() {
+    return refreshIntervalMs;
+  }
+
+  public long getRefreshCount() {
+    return refreshes.get();
+  }
+
+  public long getSkippedRefreshCount() {
+    return skippedRefreshes.get();
+  }
+
+  public long getFailedRefreshCount() {
+    return failedRefreshes.get();
+  }
+
+  public Instant getLastAttemptAt() {
+    return lastAttemptAt;
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  private TransactionSnapshot load(String datasetVersion) {
+    TransactionSnapshot.Builder builder = new TransactionSnapshot.Builder();
+
+    jdbcTemplate.query("SELECT id FROM users",
+        (RowCallbackHandler) rs -> builder.addUser(UUID.fromString(rs.getString(1))));
+
+    String sql = """
+        SELECT t.user_id, t.product_id, p.type AS product_type, t.type, t.amount, t.transaction_date
+        FROM transactions t
+        JOIN products p ON t.product_id = p.id
+        """;
+    jdbcTemplate.query(connection -> {
+      PreparedStatement statement = connection.prepareStatement(sql);
+      statement.setFetchSize(fetchSize);
+      return statement;
+    }, rs -> {
+      Timestamp date = rs.getTimestamp("transaction_date");
+      builder.addTransaction(UUID.fromString(rs.getString("user_id")),
+          rs.getString("product_id"),
+          ProductType.fromString(rs.getString("product_type")),
+          "DEPOSIT".equals(rs.getString("type")),
+          MinorUnits.toMinorUnits(rs.getBigDecimal("amount")),
+          date != null ? (int) date.toLocalDateTime().toLocalDate().toEpochDay()
+              : TransactionSnapshot.NO_DATE);
+    });
+
+    return builder.build(datasetVersion);
+  }
+
+  /**
+   * Проверяет, что снимок согласован: версия данных известна и не изменилась за время загрузки.
+   */
+  private void validate(TransactionSnapshot loaded) {
+    if (loaded.getDatasetVersion() == null) {
+      throw new IllegalStateException("Dataset version is unavailable");
+    }
+    String versionAfter = database.findDatasetVersion().orElse(null);
+    if (!Objects.equals(loaded.getDatasetVersion(), versionAfter)) {
+      throw new IllegalStateException("Dataset changed during snapshot load ("
+          + loaded.getDatasetVersion() + " -> " + versionAfter + ")");
+    }
+  }
+}
@@ -0,0 +1,182 @@
+// Обход активных пользователей страницами и блоками для пакетного анализа
+package com.bank.star.service;
+
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.repository.SnapshotRecommendationRepository;
+import com.bank.star.repository.TransactionSnapshot;
+import com.bank.star.service.rules.RuleGraph;
+import com.bank.star.service.rules.SnapshotFacts;
+import com.bank.star.service.rules.UserBlock;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Общий обход клиентской базы для {@link BatchAnalysisService}
+ * и {@link AudienceAnalyticsService}.
+ * Активные пользователи читаются страницами keyset-пагинации (recommendation.batch.page-size),
+ * страница делится на блоки по recommendation.batch.block-size, и блоки обрабатываются
+ * параллельно на ограниченном пуле batchAnalysisExecutor (см. BatchExecutorConfig) с объединением
+ * результатов в исходном порядке пользователей. Ошибка любого блока пробрасывается вызывающему
+ * коду: частичный результат не выдается за полный.
+ * Если загружен снимок транзакций, вместо обхода используются его факты
+ * ({@link SnapshotFacts}).
+ */
+@Component
+public class ActiveUserScanner {
+
+  private final RecommendationRepository repository;
+  private final Executor executor;  // Ограниченный пул для параллельной обработки блоков
+  private final int blockSize;
+  private final int pageSize;       // Размер страницы ID активных пользователей
+
+  public ActiveUserScanner(RecommendationRepository repository,
+      @Qualifier("batchAnalysisExecutor") Executor executor,
+      @Value("${recommendation.batch.block-size:500}") int blockSize,
+      @Value("${recommendation.batch.page-size:10000}") int pageSize) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Batch block size must be positive: " + blockSize);
+    }
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Batch page size must be positive: " + pageSize);
+    }
+    this.repository = repository;
+    this.executor = executor;
+    this.blockSize = blockSize;
+    this.pageSize = pageSize;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Обходит активных пользователей страницами по recommendation.batch.page-size
+   * (keyset-пагинация, см. RecommendationRepository#findActiveUserIdsAfter). В памяти
+   * одновременно находится одна страница ID, и обход можно продолжить с любого курсора.
+   *
+   * @param startAfter   курсор — ID пользователя, после которого начинается обход, или null
+   * @param pageConsumer обработчик страницы (в порядке getAllActiveUserIds)
+   * @return ID последнего переданного пользователя или startAfter, если страниц не было
+   */
+  UUID forEachActiveUserPage(UUID startAfter, Consumer<List<UUID>> pageConsumer) {
+    UUID cursor = startAfter;
+    while (true) {
+      List<UUID> page = repository.findActiveUserIdsAfter(cursor, pageSize);
+      if (page.isEmpty()) {
+        return cursor;
+      }
+      pageConsumer.accept(page);
+      cursor = page.get(page.size() - 1);
+      if (page.size() < pageSize) {
+        return cursor;
+      }
+    }
+  }
+
+  /**
+   * Создает блок пользователей и загружает их профили одним запросом.
+   */
+  UserBlock loadBlock(List<UUID> users) {
+    UserBlock block = UserBlock.of(users);
+    block.load(repository::findUserFinancialProfiles);
+    return block;
+  }
+
+  /**
+   * Делит список на части по blockSize, обрабатывает части на пуле executor и объединяет
+   * результаты в порядке частей. Ошибка части пробрасывается вызывающему коду (исходное
+   * исключение, без обертки CompletionException): пропущенная часть сделала бы результат
+   * неполным.
+   */
+  <T, R> List<R> partitioned(List<T> items, Function<List<T>, List<R>> task) {
+    List<CompletableFuture<List<R>>> parts = new ArrayList<>();
+    for (int from = 0; from < items.size(); from += blockSize) {
+      List<T> part = items.subList(from, Math.min(from + blockSize, items.size()));
+      parts.add(CompletableFuture.supplyAsync(() -> task.apply(part), executor));
+    }
+
+    List<R> merged = new ArrayList<>();
+    for (CompletableFuture<List<R>> part : parts) {
+      try {
+        merged.addAll(part.join());
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        if (e.getCause() instanceof Error error) {
+          throw error;
+        }
+        throw e;
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Возвращает факты снимка транзакций для вычисления по битовым картам, если репозиторий
+   * отвечает по снимку, снимок уже загружен и в графе нет правил неизвестного вида.
+   */
+  Optional<SnapshotFacts> snapshotFacts(RuleGraph graph) {
+    return snapshotFacts(graph, transactionSnapshot());
+  }
+
+  /**
+   * Возвращает факты указанного снимка, если в графе нет правил неизвестного вида.
+   */
+  Optional<SnapshotFacts> snapshotFacts(RuleGraph graph, Optional<TransactionSnapshot> snapshot) {
+    return graph.hasOpaqueRules() ? Optional.empty() : snapshot.map(SnapshotFacts::of);
+  }
+
+  /**
+   * Возвращает версию данных, по которым вычисляются аудитории: версию снимка транзакций,
+   * если вычисление идет по его фактам, иначе версию таблицы транзакций
+   * (RecommendationRepository#findDatasetVersion).
+   *
+   * @return версия данных или Optional.empty(), если она неизвестна
+   */
+  Optional<String> datasetVersion(Optional<SnapshotFacts> facts) {
+    return facts.isPresent()
+        ? Optional.ofNullable(facts.get().getSnapshot().getDatasetVersion())
+        : repository.findDatasetVersion();
+  }
+
+  /**
+   * Проверяет, отвечает ли репозиторий по снимку транзакций (recommendation.snapshot.enabled),
+   * даже если первый снимок еще строится.
+   */
+  boolean isSnapshotEnabled() {
+    return repository instanceof SnapshotRecommendationRepository;
+  }
+
+  /**
+   * Возвращает версию данных, по которым сейчас отвечает репозиторий при обходе блоками:
+   * версию загруженного снимка транзакций или RecommendationRepository#findDatasetVersion.
+   */
+  Optional<String> datasetVersion() {
+    Optional<TransactionSnapshot> snapshot = transactionSnapshot();
+    return snapshot.isPresent()
+        ? Optional.ofNullable(snapshot.get().getDatasetVersion())
+        : repository.findDatasetVersion();
+  }
+
+  /**
+   * Возвращает загруженный снимок транзакций, если репозиторий отвечает по снимку.
+   */
+  Optional<TransactionSnapshot> transactionSnapshot() {
+    if (repository instanceof SnapshotRecommendationRepository snapshotRepository) {
+      return Optional.ofNullable(snapshotRepository.getSnapshot());
+    }
+    return Optional.empty();
+  }
+}
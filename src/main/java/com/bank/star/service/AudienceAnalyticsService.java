@@ -0,0 +1,374 @@
+// Аналитика аудиторий: подбор порогов, пробный прогон правил и пересечения аудиторий
+package com.bank.star.service;
+
+import com.bank.star.dto.RuleDryRunResponse;
+import com.bank.star.dto.ThresholdSweepResponse;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserBitmap;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.repository.SumIndex;
+import com.bank.star.repository.TransactionSnapshot;
+import com.bank.star.service.rules.CompiledDynamicRule;
+import com.bank.star.service.rules.ProfileCondition;
+import com.bank.star.service.rules.RuleGraph;
+import com.bank.star.service.rules.RuleGraphCompiler;
+import com.bank.star.service.rules.SnapshotFacts;
+import com.bank.star.service.rules.UserBlock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Сервис аналитики аудиторий для маркетинга и авторов правил.
+ * Размер аудитории порогового условия для многих порогов сразу ({@link #sweepThresholds})
+ * вычисляется по значениям агрегата, упорядоченным один раз ({@link SumIndex}).
+ * Несохраненное динамическое правило проверяется по всей базе вместе с аудиториями
+ * существующих продуктов за один проход ({@link #dryRun}).
+ * Попарные пересечения аудиторий всех продуктов ({@link #getOverlapMatrix()}) считаются за один
+ * проход подсчетом мощности пересечений и переиспользуются, пока не изменились правила и данные.
+ * Обход клиентской базы общий с {@link BatchAnalysisService} ({@link ActiveUserScanner}).
+ */
+@Service
+public class AudienceAnalyticsService {
+
+  private static final Logger logger = LoggerFactory.getLogger(AudienceAnalyticsService.class);
+
+  private final RuleGraphCompiler ruleGraphCompiler;
+  private final RecommendationRepository repository;
+  private final ActiveUserScanner scanner;
+  private final long overlapTtlMinutes;  // Срок жизни матрицы, если версия данных неизвестна
+  private final Object overlapLock = new Object();  // Матрица пересечений строится одним потоком
+
+  private volatile AudienceOverlapMatrix overlapMatrix;  // Последняя матрица пересечений
+
+  public AudienceAnalyticsService(RuleGraphCompiler ruleGraphCompiler,
+      RecommendationRepository repository, ActiveUserScanner scanner,
+      @Value("${recommendation.batch.audience.ttl-minutes:30}") long overlapTtlMinutes) {
+    this.ruleGraphCompiler = ruleGraphCompiler;
+    this.repository = repository;
+    this.scanner = scanner;
+    this.overlapTtlMinutes = overlapTtlMinutes;
+  }
+
+  /**
+   * Вычисляет размер аудитории порогового условия (атомарного условия встроенного правила или
+   * условия динамического правила) для каждого из порогов. Значения агрегата активных
+   * пользователей упорядочиваются один раз — индексом снимка транзакций ({@link SumIndex})
+   * или после одного прохода по профилям, — после чего размер аудитории для порога находится
+   * двоичным поиском, без повторной проверки пользователей.
+   *
+   * @param term       условие; его порог заменяется каждым из thresholds
+   * @param thresholds пороги
+   * @return размеры аудиторий в порядке порогов
+   * @throws IllegalArgumentException если порог не подходит условию
+   * @throws IllegalStateException    если у условия нет порога (сравнение пополнений с тратами)
+   */
+  public ThresholdSweepResponse sweepThresholds(ProfileCondition term,
+      List<BigDecimal> thresholds) {
+    long start = System.nanoTime();
+    List<ProfileCondition> conditions = new ArrayList<>(thresholds.size());
+    for (BigDecimal threshold : thresholds) {
+      conditions.add(term.withThreshold(threshold));
+    }
+
+    Optional<TransactionSnapshot> snapshot = scanner.transactionSnapshot();
+    SumIndex index = snapshot.isPresent()
+        ? metricIndex(snapshot.get(), term)
+        : metricIndex(term);
+    List<ThresholdSweepResponse.Point> points = new ArrayList<>(conditions.size());
+    for (int i = 0; i < conditions.size(); i++) {
+      int[] range = conditions.get(i).matchingRange(index);
+      long users = range[1] - range[0];
+      points.add(new ThresholdSweepResponse.Point(thresholds.get(i),
+          term.isNegated() ? index.size() - users : users));
+    }
+
+    long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+    logger.info("📈 Threshold sweep for {}: {} thresholds over {} users in {} ms", term,
+        thresholds.size(), index.size(), elapsedMs);
+    return new ThresholdSweepResponse(term.getProductType().name(), metricName(term),
+        term.getComparison().getSymbol(), term.isNegated(), index.size(),
+        snapshot.isPresent() ? "snapshot" : "profiles", elapsedMs, points);
+  }
+
+  private static String metricName(ProfileCondition term) {
+    return switch (term.getMetric()) {
+      case DEPOSIT_SUM -> "DEPOSIT";
+      case WITHDRAW_SUM -> "WITHDRAW";
+      case TRANSACTION_COUNT -> "COUNT";
+      case BALANCE -> "BALANCE";
+    };
+  }
+
+  /**
+   * Индекс агрегата условия по снимку: суммы уже упорядочены снимком, количество транзакций
+   * упорядочивается по агрегатам снимка.
+   */
+  private static SumIndex metricIndex(TransactionSnapshot snapshot, ProfileCondition term) {
+    ProductType type = term.getProductType();
+    return switch (term.getMetric()) {
+      case DEPOSIT_SUM -> snapshot.getDepositSumIndex(type);
+      case WITHDRAW_SUM -> snapshot.getWithdrawSumIndex(type);
+      default -> {
+        int[] users = snapshot.getActiveUsers().toArray();
+        long[] counts = new long[users.length];
+        for (int i = 0; i < users.length; i++) {
+          counts[i] = snapshot.getTransactionCount(users[i], type);
+        }
+        yield SumIndex.build(users, counts);
+      }
+    };
+  }
+
+  /**
+   * Индекс агрегата условия по профилям активных пользователей: один проход по страницам,
+   * профили читаются блоками по recommendation.batch.block-size. Ошибка чтения блока
+   * пробрасывается: индекс без части пользователей занизил бы размеры аудиторий.
+   */
+  private SumIndex metricIndex(ProfileCondition term) {
+    long[][] values = {new long[1024]};
+    int[] count = new int[1];
+    scanner.forEachActiveUserPage(null, page -> {
+      List<long[]> blocks = scanner.partitioned(page, chunk -> {
+        Map<UUID, UserFinancialProfile> profiles = repository.findUserFinancialProfiles(chunk);
+        long[] blockValues = new long[chunk.size()];
+        int blockCount = 0;
+        for (UUID userId : chunk) {
+          UserFinancialProfile profile = profiles.get(userId);
+          if (profile != null) {
+            blockValues[blockCount++] = term.metricValue(profile);
+          }
+        }
+        return List.of(Arrays.copyOf(blockValues, blockCount));
+      });
+      for (long[] blockValues : blocks) {
+        if (count[0] + blockValues.length > values[0].length) {
+          values[0] = Arrays.copyOf(values[0],
+              Math.max(values[0].length * 2, count[0] + blockValues.length));
+        }
+        System.arraycopy(blockValues, 0, values[0], count[0], blockValues.length);
+        count[0] += blockValues.length;
+      }
+    });
+    int[] positions = new int[count[0]];
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = i;
+    }
+    return SumIndex.build(positions, Arrays.copyOf(values[0], count[0]));
+  }
+
+  /**
+   * Проверяет несохраненное динамическое правило по всей базе: размер аудитории, первые
+   * подходящие пользователи и пересечения с аудиториями продуктов текущего графа правил.
+   * Правило и продукты вычисляются за один проход по общим фактам — по битовым картам снимка
+   * транзакций, если он загружен, иначе блоками профилей. Push-down в базу данных не используется:
+   * пересечения требуют аудиторий всех продуктов.
+   *
+   * @param candidate  скомпилированное правило
+   * @param sampleSize сколько подходящих пользователей вернуть
+   * @return результат прогона
+   */
+  public RuleDryRunResponse dryRun(CompiledDynamicRule candidate, int sampleSize) {
+    long start = System.nanoTime();
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    List<String> rootNames = graph.getRootNames();
+    int roots = rootNames.size();
+    long[] productUsers = new long[roots];
+    long[] overlapUsers = new long[roots];
+    long audienceSize;
+    long scannedUsers;
+    List<UUID> sample;
+
+    Optional<SnapshotFacts> facts = scanner.snapshotFacts(graph);
+    if (facts.isPresent()) {
+      UserBitmap audience = candidate.evaluate(facts.get());
+      RuleGraph.BitmapEvaluator evaluator = graph.newBitmapEvaluator(facts.get());
+      for (int root = 0; root < roots; root++) {
+        UserBitmap users = evaluator.matches(root);
+        productUsers[root] = users.cardinality();
+        overlapUsers[root] = users.andCardinality(audience);
+      }
+      TransactionSnapshot snapshot = facts.get().getSnapshot();
+      audienceSize = audience.cardinality();
+      scannedUsers = snapshot.getActiveUserCount();
+      sample = new ArrayList<>();
+      for (int user : audience.toArray(sampleSize)) {
+        sample.add(snapshot.getUserId(user));
+      }
+    } else {
+      long[] totals = new long[2];  // Подходящие и проверенные пользователи
+      List<UUID> selected = new ArrayList<>();
+      scanner.forEachActiveUserPage(null, page -> {
+        totals[1] += page.size();
+        List<DryRunBlock> blocks = scanner.partitioned(page, chunk -> {
+          UserBlock block = scanner.loadBlock(chunk);
+          BitSet audience = candidate.evaluateBatch(block);
+          RuleGraph.BlockEvaluator evaluator = graph.newBlockEvaluator(block);
+          DryRunBlock result = new DryRunBlock(roots);
+          result.audienceSize = audience.cardinality();
+          for (int root = 0; root < roots; root++) {
+            BitSet users = evaluator.matches(root);
+            result.productUsers[root] = users.cardinality();
+            users.and(audience);
+            result.overlapUsers[root] = users.cardinality();
+          }
+          for (int i = audience.nextSetBit(0); i >= 0 && result.sample.size() < sampleSize;
+              i = audience.nextSetBit(i + 1)) {
+            result.sample.add(block.getUserId(i));
+          }
+          return List.of(result);
+        });
+        for (DryRunBlock block : blocks) {
+          totals[0] += block.audienceSize;
+          for (int root = 0; root < roots; root++) {
+            productUsers[root] += block.productUsers[root];
+            overlapUsers[root] += block.overlapUsers[root];
+          }
+          for (UUID userId : block.sample) {
+            if (selected.size() < sampleSize) {
+              selected.add(userId);
+            }
+          }
+        }
+      });
+      audienceSize = totals[0];
+      scannedUsers = totals[1];
+      sample = selected;
+    }
+
+    List<RuleDryRunResponse.Overlap> overlaps = new ArrayList<>(roots);
+    for (int root = 0; root < roots; root++) {
+      overlaps.add(new RuleDryRunResponse.Overlap(rootNames.get(root), productUsers[root],
+          overlapUsers[root]));
+    }
+    long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+    String productName = candidate.getProduct().getName();
+    logger.info("🧪 Dry run of rule for {}: {} of {} users in {} ms", productName, audienceSize,
+        scannedUsers, elapsedMs);
+    return new RuleDryRunResponse(productName, audienceSize, scannedUsers, sample, overlaps,
+        facts.isPresent() ? "snapshot" : "blocks", elapsedMs);
+  }
+
+  /**
+   * Возвращает попарные пересечения аудиторий всех продуктов (встроенных и динамических)
+   * и количество пользователей без рекомендаций. Матрица строится заново, если изменился смысл
+   * правил (RuleGraph#getFingerprint: при переупорядочивании условий матрица не устаревает)
+   * или версия данных (версия снимка транзакций или
+   * RecommendationRepository#findDatasetVersion); если версия данных неизвестна, матрица
+   * живет recommendation.batch.audience.ttl-minutes. Одновременные запросы ждут одного построения.
+   * @return матрица пересечений
+   */
+  public AudienceOverlapMatrix getOverlapMatrix() {
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    Optional<SnapshotFacts> facts = scanner.snapshotFacts(graph);
+    String datasetVersion = scanner.datasetVersion(facts).orElse(null);
+    AudienceOverlapMatrix current = overlapMatrix;
+    if (isFresh(current, graph, datasetVersion)) {
+      return current;
+    }
+    synchronized (overlapLock) {
+      current = overlapMatrix;
+      if (isFresh(current, graph, datasetVersion)) {
+        return current;
+      }
+      AudienceOverlapMatrix computed = computeOverlapMatrix(graph, facts, datasetVersion);
+      overlapMatrix = computed;
+      return computed;
+    }
+  }
+
+  private boolean isFresh(AudienceOverlapMatrix matrix, RuleGraph graph, String datasetVersion) {
+    return matrix != null
+        && matrix.isBuiltFrom(graph.getFingerprint(), datasetVersion)
+        && (datasetVersion != null || matrix.getCreatedAt()
+            .plus(Duration.ofMinutes(overlapTtlMinutes)).isAfter(Instant.now()));
+  }
+
+  /**
+   * Один проход по активным пользователям: аудитории всех корней графа вычисляются вместе,
+   * и для каждой пары считается только мощность пересечения — списки пользователей не строятся.
+   * По снимку транзакций пересечения считаются по контейнерам битовых карт всей базы,
+   * иначе — по {@link BitSet} каждого блока с суммированием по блокам.
+   */
+  private AudienceOverlapMatrix computeOverlapMatrix(RuleGraph graph,
+      Optional<SnapshotFacts> facts, String datasetVersion) {
+    long start = System.nanoTime();
+    int roots = graph.getRootNames().size();
+    AudienceOverlapMatrix.Builder counts = new AudienceOverlapMatrix.Builder(roots);
+
+    if (facts.isPresent()) {
+      RuleGraph.BitmapEvaluator evaluator = graph.newBitmapEvaluator(facts.get());
+      UserBitmap[] audiences = new UserBitmap[roots];
+      UserBitmap withoutRecommendations = facts.get().getUsers();
+      for (int root = 0; root < roots; root++) {
+        audiences[root] = evaluator.matches(root);
+        withoutRecommendations = withoutRecommendations.andNot(audiences[root]);
+        counts.addOverlap(root, root, audiences[root].cardinality());
+        for (int other = 0; other < root; other++) {
+          counts.addOverlap(root, other, audiences[root].andCardinality(audiences[other]));
+        }
+      }
+      counts.addWithoutRecommendations(withoutRecommendations.cardinality());
+      counts.addScannedUsers(facts.get().getSnapshot().getActiveUserCount());
+    } else {
+      scanner.forEachActiveUserPage(null, page -> {
+        counts.addScannedUsers(page.size());
+        List<AudienceOverlapMatrix.Builder> blocks = scanner.partitioned(page, chunk -> {
+          UserBlock block = scanner.loadBlock(chunk);
+          RuleGraph.BlockEvaluator evaluator = graph.newBlockEvaluator(block);
+          AudienceOverlapMatrix.Builder blockCounts = new AudienceOverlapMatrix.Builder(roots);
+          BitSet[] audiences = new BitSet[roots];
+          BitSet withoutRecommendations = block.getPresentUsers();
+          for (int root = 0; root < roots; root++) {
+            audiences[root] = evaluator.matches(root);
+            withoutRecommendations.andNot(audiences[root]);
+            blockCounts.addOverlap(root, root, audiences[root].cardinality());
+            for (int other = 0; other < root; other++) {
+              BitSet both = (BitSet) audiences[root].clone();
+              both.and(audiences[other]);
+              blockCounts.addOverlap(root, other, both.cardinality());
+            }
+          }
+          blockCounts.addWithoutRecommendations(withoutRecommendations.cardinality());
+          return List.of(blockCounts);
+        });
+        blocks.forEach(counts::addAll);
+      });
+    }
+
+    AudienceOverlapMatrix matrix = counts.build(graph.getRuleSetVersion(),
+        graph.getDynamicRuleVersion(), graph.getFingerprint(), datasetVersion, Instant.now(),
+        facts.isPresent() ? "snapshot" : "blocks", graph.getRootNames());
+    logger.info("✅ Audience overlap matrix computed in {} ms: {}",
+        (System.nanoTime() - start) / 1_000_000, matrix);
+    return matrix;
+  }
+
+  /**
+   * Результат пробного прогона правила по одному блоку пользователей.
+   */
+  private static final class DryRunBlock {
+    private final long[] productUsers;
+    private final long[] overlapUsers;
+    private final List<UUID> sample = new ArrayList<>();
+    private long audienceSize;
+
+    private DryRunBlock(int roots) {
+      productUsers = new long[roots];
+      overlapUsers = new long[roots];
+    }
+  }
+}
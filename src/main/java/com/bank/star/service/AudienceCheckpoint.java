@@ -0,0 +1,285 @@
+// Контрольная точка вычисления снимка аудиторий на локальном диске
+package com.bank.star.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Контрольная точка прохода {@link BatchAnalysisService} по всей клиентской базе.
+ * Найденные пользователи каждой аудитории дописываются в отдельный файл part-N.bin
+ * (по 16 байт на UUID), а файл checkpoint.bin атомарно заменяется при каждом сохранении и
+ * хранит курсор (последний обработанный ID), количество записей в каждом файле, отпечаток
+ * правил и версию данных. При продолжении файлы аудиторий обрезаются до сохраненных длин,
+ * поэтому пользователи, дописанные после последнего сохранения, не дублируются.
+ * Ошибки ввода-вывода не прерывают анализ: контрольная точка отключается до конца прохода.
+ * Экземпляр используется одним потоком.
+ */
+final class AudienceCheckpoint {
+
+  private static final Logger logger = LoggerFactory.getLogger(AudienceCheckpoint.class);
+
+  private static final int MAGIC = 0x41554443;  // "AUDC"
+  private static final int FORMAT_VERSION = 1;
+  private static final int UUID_BYTES = 16;
+  private static final String STATE_FILE = "checkpoint.bin";
+
+  private final Path directory;
+  private String ruleFingerprint;
+  private String datasetVersion;
+  private DataOutputStream[] parts;  // Открытые на дозапись файлы аудиторий
+  private long[] counts;             // Количество записанных UUID в каждом файле
+  private boolean disabled;
+
+  /**
+   * Сохраненный прогресс прохода.
+   */
+  static final class Progress {
+
+    private final UUID cursor;
+    private final int scannedUsers;
+    private final List<List<UUID>> lists;
+
+    Progress(UUID cursor, int scannedUsers, List<List<UUID>> lists) {
+      this.cursor = cursor;
+      this.scannedUsers = scannedUsers;
+      this.lists = lists;
+    }
+
+    UUID getCursor() {
+      return cursor;
+    }
+
+    int getScannedUsers() {
+      return scannedUsers;
+    }
+
+    /**
+     * Пользователи, найденные до контрольной точки, по спискам в порядке обхода.
+     */
+    List<List<UUID>> getLists() {
+      return lists;
+    }
+  }
+
+  AudienceCheckpoint(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Проверяет, осталась ли в каталоге сохраненная контрольная точка.
+   */
+  static boolean exists(Path directory) {
+    return Files.exists(directory.resolve(STATE_FILE));
+  }
+
+  /**
+   * Открывает контрольную точку для прохода. Если на диске есть точка, сохраненная для тех же
+   * правил, версии данных и количества списков, возвращается ее прогресс и запись продолжается
+   * после него; иначе старые файлы удаляются и проход начинается сначала.
+   *
+   * @param ruleFingerprint отпечаток правил (RuleGraph#getFingerprint)
+   * @param datasetVersion  версия данных на начало прохода
+   * @param listCount       количество списков (аудитории продуктов и пользователи без рекомендаций)
+   * @return сохраненный прогресс или Optional.empty(), если проход начинается сначала
+   */
+  Optional<Progress> open(String ruleFingerprint, String datasetVersion, int listCount) {
+    this.ruleFingerprint = ruleFingerprint;
+    this.datasetVersion = datasetVersion;
+    Optional<Progress> progress = readProgress(listCount);
+    try {
+      Files.createDirectories(directory);
+      counts = new long[listCount];
+      if (progress.isPresent()) {
+        for (int list = 0; list < listCount; list++) {
+          counts[list] = progress.get().getLists().get(list).size();
+          try (FileChannel channel = FileChannel.open(part(list), StandardOpenOption.WRITE)) {
+            channel.truncate(counts[list] * UUID_BYTES);
+          }
+        }
+      } else {
+        deleteFiles();
+      }
+      parts = new DataOutputStream[listCount];
+      for (int list = 0; list < listCount; list++) {
+        parts[list] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+            part(list), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+      }
+    } catch (IOException e) {
+      disable("open", e);
+      return Optional.empty();
+    }
+    return progress;
+  }
+
+  /**
+   * Дописывает найденных пользователей в файл списка.
+   */
+  void append(int list, List<UUID> users) {
+    if (disabled || users.isEmpty()) {
+      return;
+    }
+    try {
+      for (UUID userId : users) {
+        parts[list].writeLong(userId.getMostSignificantBits());
+        parts[list].writeLong(userId.getLeastSignificantBits());
+      }
+      counts[list] += users.size();
+    } catch (IOException e) {
+      disable("append", e);
+    }
+  }
+
+  /**
+   * Сохраняет контрольную точку: все дописанные пользователи сбрасываются на диск, затем
+   * атомарно заменяется файл состояния.
+   *
+   * @param cursor       ID последнего обработанного пользователя
+   * @param scannedUsers количество обработанных пользователей
+   */
+  void save(UUID cursor, int scannedUsers) {
+    if (disabled) {
+      return;
+    }
+    try {
+      for (DataOutputStream part : parts) {
+        part.flush();
+      }
+      Path temporary = directory.resolve(STATE_FILE + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(ruleFingerprint);
+        out.writeUTF(datasetVersion);
+        out.writeLong(cursor.getMostSignificantBits());
+        out.writeLong(cursor.getLeastSignificantBits());
+        out.writeInt(scannedUsers);
+        out.writeInt(counts.length);
+        for (long count : counts) {
+          out.writeLong(count);
+        }
+      }
+      Files.move(temporary, directory.resolve(STATE_FILE), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      logger.debug("Audience checkpoint saved at {} ({} users)", cursor, scannedUsers);
+    } catch (IOException e) {
+      disable("save", e);
+    }
+  }
+
+  /**
+   * Завершает проход: контрольная точка больше не нужна и удаляется.
+   */
+  void complete() {
+    close();
+    try {
+      deleteFiles();
+    } catch (IOException e) {
+      logger.warn("Failed to delete audience checkpoint in {}: {}", directory, e.getMessage());
+    }
+  }
+
+  /**
+   * Закрывает файлы, оставляя последнюю сохраненную точку для продолжения прохода.
+   */
+  void close() {
+    if (parts == null) {
+      return;
+    }
+    for (DataOutputStream part : parts) {
+      try {
+        part.close();
+      } catch (IOException e) {
+        logger.warn("Failed to close audience checkpoint file: {}", e.getMessage());
+      }
+    }
+    parts = null;
+  }
+
+  private Optional<Progress> readProgress(int listCount) {
+    Path state = directory.resolve(STATE_FILE);
+    if (!Files.exists(state)) {
+      return Optional.empty();
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(state)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        logger.warn("⚠️ Unsupported audience checkpoint format in {}, starting over", directory);
+        return Optional.empty();
+      }
+      String savedFingerprint = in.readUTF();
+      String savedDatasetVersion = in.readUTF();
+      if (!savedFingerprint.equals(ruleFingerprint) || !savedDatasetVersion.equals(datasetVersion)) {
+        logger.info("Audience checkpoint is outdated (rules or data changed), starting over");
+        return Optional.empty();
+      }
+      UUID cursor = new UUID(in.readLong(), in.readLong());
+      int scannedUsers = in.readInt();
+      if (in.readInt() != listCount) {
+        logger.info("Audience checkpoint has a different number of audiences, starting over");
+        return Optional.empty();
+      }
+      List<List<UUID>> lists = new ArrayList<>(listCount);
+      for (int list = 0; list < listCount; list++) {
+        lists.add(readUsers(part(list), in.readLong()));
+      }
+      return Optional.of(new Progress(cursor, scannedUsers, lists));
+    } catch (IOException e) {
+      logger.warn("⚠️ Failed to read audience checkpoint in {}, starting over: {}", directory,
+          e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  private static List<UUID> readUsers(Path part, long count) throws IOException {
+    List<UUID> users = new ArrayList<>((int) count);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(part)))) {
+      for (long i = 0; i < count; i++) {
+        users.add(new UUID(in.readLong(), in.readLong()));
+      }
+    }
+    return users;
+  }
+
+  private Path part(int list) {
+    return directory.resolve("part-" + list + ".bin");
+  }
+
+  private void deleteFiles() throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.toList()) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(STATE_FILE) || (name.startsWith("part-") && name.endsWith(".bin"))) {
+          Files.delete(file);
+        }
+      }
+    }
+  }
+
+  private void disable(String operation, IOException e) {
+    logger.warn("⚠️ Audience checkpoint {} failed in {}, continuing without checkpoints: {}",
+        operation, directory, e.getMessage());
+    disabled = true;
+    close();
+  }
+}
@@ -0,0 +1,292 @@
+// Асинхронная задача вычисления аудитории продукта
+package com.bank.star.service;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Future;
+
+/**
+ * Состояние задачи вычисления аудитории ({@link AudienceJobService}).
+ * Счетчики изменяются только потоком задачи и читаются любыми потоками; переходы между
+ * статусами синхронизированы, чтобы отмена не гонялась с запуском задачи.
+ * Курсор и длина файла результата фиксируются после каждого обработанного блока: по ним
+ * задача продолжается после перезапуска приложения ({@link AudienceJobStore}).
+ */
+public class AudienceJob {
+
+  /**
+   * Статус задачи.
+   */
+  public enum Status {
+    QUEUED,     // Ожидает свободного потока
+    RUNNING,    // Выполняется
+    COMPLETED,  // Результат сохранен на диске
+    FAILED,     // Завершилась ошибкой
+    CANCELLED;  // Отменена
+
+    public boolean isFinished() {
+      return this == COMPLETED || this == FAILED || this == CANCELLED;
+    }
+  }
+
+  private final UUID id;
+  private final String productName;  // null — пользователи без рекомендаций
+  private final UUID ruleId;         // ID динамического правила, если задача создана по нему
+  private final Path resultFile;
+  private final Instant createdAt;
+
+  private volatile Status status = Status.QUEUED;
+  private volatile Instant startedAt;       // Первый запуск задачи (сохраняется при продолжении)
+  private volatile Instant runStartedAt;    // Запуск в текущем процессе
+  private volatile long runStartProcessedUsers;  // Пользователей, проверенных до runStartedAt
+  private volatile Instant finishedAt;
+  private volatile long totalUsers;
+  private volatile long processedUsers;
+  private volatile long matchedUsers;
+  private volatile String error;
+  private volatile boolean cancelRequested;
+  private volatile Future<?> future;
+  private volatile UUID cursor;        // Последний пользователь, обработанный до resultLength
+  private volatile long resultLength;  // Длина файла результата на момент фиксации курсора
+  private volatile String ruleFingerprint;  // Отпечаток правил, по которым записан результат
+  private volatile String datasetVersion;   // Версия данных или null, если неизвестна
+
+  AudienceJob(UUID id, String productName, UUID ruleId, Path resultFile) {
+    this(id, productName, ruleId, resultFile, Instant.now());
+  }
+
+  private AudienceJob(UUID id, String productName, UUID ruleId, Path resultFile,
+      Instant createdAt) {
+    this.id = id;
+    this.productName = productName;
+    this.ruleId = ruleId;
+    this.resultFile = resultFile;
+    this.createdAt = createdAt;
+  }
+
+  /**
+   * Восстанавливает задачу, сохраненную до перезапуска приложения. Незавершенная задача
+   * возвращается в статус QUEUED и продолжается с сохраненного курсора.
+   */
+  static AudienceJob restore(UUID id, String productName, UUID ruleId, Path resultFile,
+      Instant createdAt, Status status, Instant startedAt, Instant finishedAt, long totalUsers,
+      long processedUsers, long matchedUsers, String error, UUID cursor, long resultLength,
+      String ruleFingerprint, String datasetVersion) {
+    AudienceJob job = new AudienceJob(id, productName, ruleId, resultFile, createdAt);
+    job.status = status.isFinished() ? status : Status.QUEUED;
+    job.startedAt = startedAt;
+    job.finishedAt = finishedAt;
+    job.totalUsers = totalUsers;
+    job.processedUsers = processedUsers;
+    job.matchedUsers = matchedUsers;
+    job.error = error;
+    job.cursor = cursor;
+    job.resultLength = resultLength;
+    job.ruleFingerprint = ruleFingerprint;
+    job.datasetVersion = datasetVersion;
+    return job;
+  }
+
+  public UUID getId() {
+    return id;
+  }
+
+  public String getProductName() {
+    return productName;
+  }
+
+  public UUID getRuleId() {
+    return ruleId;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public Instant getStartedAt() {
+    return startedAt;
+  }
+
+  public Instant getFinishedAt() {
+    return finishedAt;
+  }
+
+  public long getTotalUsers() {
+    return totalUsers;
+  }
+
+  public long getProcessedUsers() {
+    return processedUsers;
+  }
+
+  public long getMatchedUsers() {
+    return matchedUsers;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  Path getResultFile() {
+    return resultFile;
+  }
+
+  UUID getCursor() {
+    return cursor;
+  }
+
+  long getResultLength() {
+    return resultLength;
+  }
+
+  String getRuleFingerprint() {
+    return ruleFingerprint;
+  }
+
+  String getDatasetVersion() {
+    return datasetVersion;
+  }
+
+  /**
+   * Проверяет, записан ли сохраненный прогресс по указанным правилам и известной версии данных:
+   * только тогда задачу можно продолжить с курсора.
+   */
+  boolean isBuiltFrom(String ruleFingerprint, String datasetVersion) {
+    return this.datasetVersion != null
+        && Objects.equals(this.ruleFingerprint, ruleFingerprint)
+        && this.datasetVersion.equals(datasetVersion);
+  }
+
+  /**
+   * Запоминает правила и версию данных, по которым записывается результат.
+   */
+  void setInputs(String ruleFingerprint, String datasetVersion) {
+    this.ruleFingerprint = ruleFingerprint;
+    this.datasetVersion = datasetVersion;
+  }
+
+  boolean isCancelRequested() {
+    return cancelRequested;
+  }
+
+  /**
+   * Скорость обработки, пользователей в секунду (0, пока задача не запущена). Для задачи,
+   * продолженной после перезапуска, учитываются только пользователи, проверенные в текущем
+   * процессе.
+   */
+  public double getThroughputPerSecond() {
+    Instant runStart = runStartedAt;
+    Instant start = runStart != null ? runStart : startedAt;
+    if (start == null) {
+      return 0;
+    }
+    long processed = processedUsers - (runStart != null ? runStartProcessedUsers : 0);
+    Instant end = finishedAt != null ? finishedAt : Instant.now();
+    long millis = Math.max(1, Duration.between(start, end).toMillis());
+    return processed * 1000.0 / millis;
+  }
+
+  void setFuture(Future<?> future) {
+    this.future = future;
+  }
+
+  /**
+   * Переводит задачу в статус RUNNING.
+   *
+   * @return false, если задача уже отменена и выполнять ее не нужно
+   */
+  synchronized boolean markRunning(long totalUsers) {
+    if (cancelRequested || status != Status.QUEUED) {
+      return false;
+    }
+    Instant now = Instant.now();
+    this.totalUsers = totalUsers;
+    if (startedAt == null) {
+      this.startedAt = now;
+    }
+    this.runStartProcessedUsers = processedUsers;
+    this.runStartedAt = now;
+    this.status = Status.RUNNING;
+    return true;
+  }
+
+  void incrementMatchedUsers() {
+    matchedUsers++;
+  }
+
+  /**
+   * Фиксирует прогресс: все пользователи до курсора включительно проверены, а их результат
+   * записан в первые resultLength байт файла.
+   */
+  void commitProgress(UUID cursor, long processedUsers, long resultLength) {
+    this.cursor = cursor;
+    this.processedUsers = processedUsers;
+    this.resultLength = resultLength;
+  }
+
+  /**
+   * Сбрасывает прогресс, если файл результата потерян или изменились правила либо данные,
+   * и задачу нужно начать сначала.
+   */
+  void resetProgress() {
+    this.cursor = null;
+    this.processedUsers = 0;
+    this.runStartProcessedUsers = 0;
+    this.matchedUsers = 0;
+    this.resultLength = 0;
+  }
+
+  void markCompleted() {
+    finish(Status.COMPLETED, null);
+  }
+
+  void markFailed(String error) {
+    finish(Status.FAILED, error);
+  }
+
+  void markCancelled() {
+    finish(Status.CANCELLED, null);
+  }
+
+  /**
+   * Запрашивает отмену: задача в очереди не будет запущена, выполняющаяся — прерывается.
+   */
+  void requestCancel() {
+    synchronized (this) {
+      if (status.isFinished()) {
+        return;
+      }
+      cancelRequested = true;
+      if (status == Status.QUEUED) {
+        finish(Status.CANCELLED, null);
+      }
+    }
+    Future<?> current = future;
+    if (current != null) {
+      current.cancel(true);
+    }
+  }
+
+  private synchronized void finish(Status status, String error) {
+    if (this.status.isFinished()) {
+      return;
+    }
+    this.error = error;
+    this.finishedAt = Instant.now();
+    this.status = status;
+  }
+
+  @Override
+  public String toString() {
+    return "AudienceJob{id=" + id + ", product=" + (productName != null ? productName : "<none>")
+        + ", status=" + status + ", processed=" + processedUsers + "/" + totalUsers
+        + ", matched=" + matchedUsers + '}';
+  }
+}
@@ -0,0 +1,361 @@
+// Асинхронные задачи вычисления аудиторий: прогресс, отмена и хранение результатов
+package com.bank.star.service;
+
+import com.bank.star.dto.UserRecommendation;
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.service.rules.CompiledDynamicRule;
+import com.bank.star.service.rules.DynamicRuleCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Сервис асинхронных задач аудиторий.
+ * Задача вычисляет аудиторию продукта (или пользователей без рекомендаций) потоковым проходом
+ * {@link BatchAnalysisService} на отдельном пуле audienceJobExecutor и записывает результат
+ * в файл на локальном диске (строка "userId\tполное имя"). Ход выполнения доступен в
+ * {@link AudienceJob}; завершенные задачи и их файлы удаляются по истечении
+ * recommendation.jobs.result-ttl-minutes.
+ * Реестр задач и курсор каждой задачи сохраняются рядом с результатами ({@link AudienceJobStore}):
+ * после перезапуска приложения (например, деплоя) задачи восстанавливаются, а прерванные
+ * продолжаются с последнего обработанного блока, дописывая файл результата.
+ */
+@Service
+public class AudienceJobService {
+
+  private static final Logger logger = LoggerFactory.getLogger(AudienceJobService.class);
+
+  private static final String RESULT_FILE_SUFFIX = ".tsv";
+
+  private final BatchAnalysisService batchAnalysisService;
+  private final RecommendationRepository repository;
+  private final DynamicRuleCache dynamicRuleCache;
+  private final ExecutorService executor;
+  private final Path resultDirectory;
+  private final Duration resultTtl;
+  private final AudienceJobStore store;
+
+  private final Map<UUID, AudienceJob> jobs = new ConcurrentHashMap<>();  // ID задачи -> задача
+
+  public AudienceJobService(BatchAnalysisService batchAnalysisService,
+      RecommendationRepository repository,
+      DynamicRuleCache dynamicRuleCache,
+      @Qualifier("audienceJobExecutor") ExecutorService executor,
+      @Value("${recommendation.jobs.result-dir:${java.io.tmpdir}/audience-jobs}") String resultDirectory,
+      @Value("${recommendation.jobs.result-ttl-minutes:1440}") long resultTtlMinutes) {
+    this.batchAnalysisService = batchAnalysisService;
+    this.repository = repository;
+    this.dynamicRuleCache = dynamicRuleCache;
+    this.executor = executor;
+    this.resultDirectory = Paths.get(resultDirectory);
+    this.resultTtl = Duration.ofMinutes(resultTtlMinutes);
+    this.store = new AudienceJobStore(this.resultDirectory);
+  }
+
+  /**
+   * После запуска приложения восстанавливает задачи, сохраненные до остановки. Незавершенные
+   * задачи снова ставятся в очередь и продолжаются с сохраненного курсора.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void restoreJobs() {
+    for (AudienceJob job : store.loadAll()) {
+      if (jobs.putIfAbsent(job.getId(), job) != null || job.getStatus().isFinished()) {
+        continue;
+      }
+      try {
+        job.setFuture(executor.submit(() -> run(job)));
+        logger.info("♻️ Audience job {} restored for {}, resuming after {} users", job.getId(),
+            describe(job), job.getProcessedUsers());
+      } catch (RejectedExecutionException e) {
+        deleteResultFile(job);
+        job.markFailed("Audience job queue is full after restart");
+        store.save(job);
+        logger.warn("⚠️ Audience job queue is full, restored job {} failed", job.getId());
+      }
+    }
+  }
+
+  /**
+   * Ставит задачу вычисления аудитории в очередь.
+   * Если указан ruleId, выгружается аудитория самого динамического правила (другие правила
+   * того же продукта не учитываются); если не указаны ни продукт, ни правило — выбираются
+   * пользователи без рекомендаций.
+   * @param productName название продукта (может быть null)
+   * @param ruleId ID динамического правила (может быть null)
+   * @return созданная задача в статусе QUEUED
+   * @throws IllegalArgumentException если продукт или правило неизвестны
+   * @throws RejectedExecutionException если очередь задач переполнена
+   */
+  public AudienceJob submit(String productName, UUID ruleId) {
+    String resolvedProduct = resolveProductName(productName, ruleId);
+
+    UUID jobId = UUID.randomUUID();
+    AudienceJob job = new AudienceJob(jobId, resolvedProduct, ruleId,
+        resultDirectory.resolve(jobId + RESULT_FILE_SUFFIX));
+    jobs.put(jobId, job);
+    store.save(job);
+    try {
+      job.setFuture(executor.submit(() -> run(job)));
+    } catch (RejectedExecutionException e) {
+      jobs.remove(jobId);
+      store.delete(jobId);
+      logger.warn("⚠️ Audience job queue is full, rejecting job for {}", describe(job));
+      throw e;
+    }
+
+    logger.info("📥 Audience job {} queued for {}", jobId, describe(job));
+    return job;
+  }
+
+  public Optional<AudienceJob> getJob(UUID jobId) {
+    return Optional.ofNullable(jobs.get(jobId));
+  }
+
+  /**
+   * Возвращает все задачи, начиная с самых новых.
+   */
+  public List<AudienceJob> getJobs() {
+    List<AudienceJob> result = new ArrayList<>(jobs.values());
+    result.sort(Comparator.comparing(AudienceJob::getCreatedAt).reversed());
+    return result;
+  }
+
+  /**
+   * Отменяет задачу: задача в очереди сразу получает статус CANCELLED, выполняющаяся
+   * прерывается после обработки текущего блока. Завершенные задачи не изменяются.
+   * @param jobId ID задачи
+   * @return задача или пустой Optional, если она не найдена
+   */
+  public Optional<AudienceJob> cancel(UUID jobId) {
+    AudienceJob job = jobs.get(jobId);
+    if (job == null) {
+      return Optional.empty();
+    }
+    job.requestCancel();
+    if (job.getStatus().isFinished()) {
+      store.save(job);
+    }
+    logger.info("🛑 Cancel requested for audience job {} (status {})", jobId, job.getStatus());
+    return Optional.of(job);
+  }
+
+  /**
+   * Читает страницу результатов завершенной задачи.
+   * @param job задача в статусе COMPLETED
+   * @param offset количество пропускаемых строк
+   * @param limit максимальное количество строк
+   * @return пользователи в порядке выгрузки
+   * @throws IllegalStateException если задача не завершена успешно
+   */
+  public List<UserRecommendation> getResults(AudienceJob job, long offset, int limit)
+      throws IOException {
+    if (job.getStatus() != AudienceJob.Status.COMPLETED) {
+      throw new IllegalStateException("Audience job " + job.getId() + " is " + job.getStatus());
+    }
+    try (Stream<String> lines = Files.lines(job.getResultFile(), StandardCharsets.UTF_8)) {
+      return lines.skip(offset)
+          .limit(limit)
+          .map(AudienceJobService::parseLine)
+          .toList();
+    }
+  }
+
+  /**
+   * Удаляет завершенные задачи старше recommendation.jobs.result-ttl-minutes вместе с их файлами.
+   */
+  @Scheduled(initialDelayString = "${recommendation.jobs.cleanup-interval-ms:60000}",
+      fixedDelayString = "${recommendation.jobs.cleanup-interval-ms:60000}")
+  public void removeExpiredJobs() {
+    Instant expiredBefore = Instant.now().minus(resultTtl);
+    jobs.values().removeIf(job -> {
+      Instant finishedAt = job.getFinishedAt();
+      if (!job.getStatus().isFinished() || finishedAt == null || finishedAt.isAfter(expiredBefore)) {
+        return false;
+      }
+      deleteResultFile(job);
+      store.delete(job.getId());
+      logger.info("🧹 Audience job {} expired and removed", job.getId());
+      return true;
+    });
+  }
+
+  private void run(AudienceJob job) {
+    if (!job.markRunning(repository.countActiveUsers())) {
+      logger.info("🛑 Audience job {} cancelled before start", job.getId());
+      return;
+    }
+    logger.info("🚀 Audience job {} started for {}", job.getId(), describe(job));
+
+    try {
+      Files.createDirectories(resultDirectory);
+      CompiledDynamicRule rule = job.getRuleId() != null ? findRule(job.getRuleId()) : null;
+      String ruleFingerprint = rule != null ? rule.getFingerprint()
+          : batchAnalysisService.getRuleFingerprint();
+      String datasetVersion = batchAnalysisService.getDatasetVersion().orElse(null);
+      if (job.getCursor() != null && !job.isBuiltFrom(ruleFingerprint, datasetVersion)) {
+        // Результат, записанный по другим правилам или данным, не продолжается
+        logger.info("♻️ Rules or data of audience job {} changed since it was interrupted, "
+            + "starting over", job.getId());
+        job.resetProgress();
+      } else if (job.getCursor() != null && !truncateResultFile(job)) {
+        logger.warn("⚠️ Result file of audience job {} is missing, starting over", job.getId());
+        job.resetProgress();
+      }
+      job.setInputs(ruleFingerprint, datasetVersion);
+      store.save(job);
+      UUID startAfter = job.getCursor();
+      long processedBefore = job.getProcessedUsers();
+      try (BufferedWriter writer = openResultFile(job)) {
+        Consumer<UserRecommendation> sink = user -> {
+          try {
+            writer.write(user.getUserId() + "\t" + sanitize(user.getFullName()));
+            writer.newLine();
+            job.incrementMatchedUsers();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        };
+        BatchAnalysisService.StreamProgress progress = (cursor, processed) -> {
+          try {
+            writer.flush();
+            job.commitProgress(cursor, processedBefore + processed,
+                Files.size(job.getResultFile()));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          store.save(job);
+        };
+        if (rule != null) {
+          batchAnalysisService.streamUsersForRule(rule, startAfter, sink, progress);
+        } else if (job.getProductName() == null) {
+          batchAnalysisService.streamUsersWithoutRecommendations(startAfter, sink, progress);
+        } else {
+          batchAnalysisService.streamUsersForProduct(job.getProductName(), startAfter, sink,
+              progress);
+        }
+      }
+      job.markCompleted();
+      store.save(job);
+      logger.info("✅ Audience job {} completed: {} users matched, {} users/s", job.getId(),
+          job.getMatchedUsers(), Math.round(job.getThroughputPerSecond()));
+    } catch (Exception e) {
+      if (!job.isCancelRequested() && e instanceof CancellationException) {
+        // Поток прерван остановкой приложения: курсор и файл результата остаются для продолжения
+        logger.info("⏸️ Audience job {} interrupted after {} users, will resume after restart",
+            job.getId(), job.getProcessedUsers());
+        return;
+      }
+      deleteResultFile(job);
+      if (job.isCancelRequested()) {
+        job.markCancelled();
+        logger.info("🛑 Audience job {} cancelled after {} users", job.getId(),
+            job.getProcessedUsers());
+      } else {
+        job.markFailed(e.getMessage());
+        logger.error("❌ Audience job {} failed: {}", job.getId(), e.getMessage(), e);
+      }
+      store.save(job);
+    }
+  }
+
+  /**
+   * Обрезает файл результата до длины, зафиксированной вместе с курсором: строки, дописанные
+   * после последнего сохранения, будут записаны заново.
+   * @return false, если файла нет или он короче сохраненной длины
+   */
+  private boolean truncateResultFile(AudienceJob job) throws IOException {
+    Path resultFile = job.getResultFile();
+    if (!Files.exists(resultFile) || Files.size(resultFile) < job.getResultLength()) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(resultFile, StandardOpenOption.WRITE)) {
+      channel.truncate(job.getResultLength());
+    }
+    return true;
+  }
+
+  private BufferedWriter openResultFile(AudienceJob job) throws IOException {
+    if (job.getCursor() != null) {
+      return Files.newBufferedWriter(job.getResultFile(), StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    // Задача начинается сначала: прежнее содержимое файла отбрасывается
+    return Files.newBufferedWriter(job.getResultFile(), StandardCharsets.UTF_8);
+  }
+
+  private String resolveProductName(String productName, UUID ruleId) {
+    if (ruleId != null) {
+      return findRule(ruleId).getProduct().getName();
+    }
+    if (productName != null && !batchAnalysisService.isKnownProduct(productName)) {
+      throw new IllegalArgumentException("Unknown product name: " + productName);
+    }
+    return productName;
+  }
+
+  /**
+   * Находит динамическое правило в текущем снимке кэша правил.
+   * @throws IllegalArgumentException если правило неизвестно
+   */
+  private CompiledDynamicRule findRule(UUID ruleId) {
+    return dynamicRuleCache.getSnapshot().getRules().stream()
+        .filter(rule -> ruleId.equals(rule.getRuleId()))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("Unknown dynamic rule: " + ruleId));
+  }
+
+  private void deleteResultFile(AudienceJob job) {
+    try {
+      Files.deleteIfExists(job.getResultFile());
+    } catch (IOException e) {
+      logger.warn("Failed to delete result file {}: {}", job.getResultFile(), e.getMessage());
+    }
+  }
+
+  private static String sanitize(String fullName) {
+    return fullName == null ? "" : fullName.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
+  private static UserRecommendation parseLine(String line) {
+    int separator = line.indexOf('\t');
+    return new UserRecommendation(UUID.fromString(line.substring(0, separator)),
+        line.substring(separator + 1));
+  }
+
+  private static String describe(AudienceJob job) {
+    if (job.getRuleId() != null) {
+      return "dynamic rule " + job.getRuleId() + " (product " + job.getProductName() + ")";
+    }
+    return job.getProductName() != null ? "product " + job.getProductName()
+        : "users without recommendations";
+  }
+}
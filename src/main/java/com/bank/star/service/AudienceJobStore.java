@@ -0,0 +1,178 @@
+// Хранение состояния задач аудиторий на локальном диске
+package com.bank.star.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Реестр задач {@link AudienceJobService} на локальном диске: для каждой задачи рядом с файлом
+ * результата хранится файл &lt;jobId&gt;.state, который атомарно заменяется при каждом
+ * сохранении. Файл содержит параметры задачи, статус, счетчики, курсор (последний
+ * обработанный ID), длину файла результата на момент фиксации курсора, а также отпечаток
+ * правил и версию данных, по которым записан результат. После перезапуска приложения
+ * задачи читаются из каталога, и незавершенные продолжаются с курсора.
+ * Ошибки ввода-вывода при сохранении не прерывают задачу: они только записываются в лог.
+ */
+final class AudienceJobStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(AudienceJobStore.class);
+
+  private static final int MAGIC = 0x41554A42;  // "AUJB"
+  private static final int FORMAT_VERSION = 1;
+  private static final String STATE_SUFFIX = ".state";
+
+  private final Path directory;
+
+  AudienceJobStore(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Сохраняет текущее состояние задачи.
+   */
+  synchronized void save(AudienceJob job) {
+    try {
+      Files.createDirectories(directory);
+      Path temporary = directory.resolve(job.getId() + STATE_SUFFIX + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeUuid(out, job.getId());
+        writeString(out, job.getProductName());
+        writeUuid(out, job.getRuleId());
+        out.writeUTF(job.getResultFile().getFileName().toString());
+        writeInstant(out, job.getCreatedAt());
+        out.writeUTF(job.getStatus().name());
+        writeInstant(out, job.getStartedAt());
+        writeInstant(out, job.getFinishedAt());
+        out.writeLong(job.getTotalUsers());
+        out.writeLong(job.getProcessedUsers());
+        out.writeLong(job.getMatchedUsers());
+        writeString(out, job.getError());
+        writeUuid(out, job.getCursor());
+        out.writeLong(job.getResultLength());
+        writeString(out, job.getRuleFingerprint());
+        writeString(out, job.getDatasetVersion());
+      }
+      Files.move(temporary, stateFile(job.getId()), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Failed to save state of audience job {}: {}", job.getId(), e.getMessage());
+    }
+  }
+
+  /**
+   * Читает все сохраненные задачи. Поврежденные файлы состояния пропускаются.
+   */
+  synchronized List<AudienceJob> loadAll() {
+    List<AudienceJob> jobs = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return jobs;
+    }
+    try (DirectoryStream<Path> states = Files.newDirectoryStream(directory, "*" + STATE_SUFFIX)) {
+      for (Path state : states) {
+        try {
+          jobs.add(read(state));
+        } catch (IOException | IllegalArgumentException e) {
+          logger.warn("⚠️ Skipping unreadable audience job state {}: {}", state, e.getMessage());
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to list audience job states in {}: {}", directory, e.getMessage());
+    }
+    return jobs;
+  }
+
+  /**
+   * Удаляет сохраненное состояние задачи.
+   */
+  synchronized void delete(UUID jobId) {
+    try {
+      Files.deleteIfExists(stateFile(jobId));
+    } catch (IOException e) {
+      logger.warn("Failed to delete state of audience job {}: {}", jobId, e.getMessage());
+    }
+  }
+
+  private AudienceJob read(Path state) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(state)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("unsupported format");
+      }
+      UUID id = readUuid(in);
+      String productName = readString(in);
+      UUID ruleId = readUuid(in);
+      Path resultFile = directory.resolve(in.readUTF());
+      Instant createdAt = readInstant(in);
+      AudienceJob.Status status = AudienceJob.Status.valueOf(in.readUTF());
+      Instant startedAt = readInstant(in);
+      Instant finishedAt = readInstant(in);
+      long totalUsers = in.readLong();
+      long processedUsers = in.readLong();
+      long matchedUsers = in.readLong();
+      String error = readString(in);
+      UUID cursor = readUuid(in);
+      long resultLength = in.readLong();
+      String ruleFingerprint = readString(in);
+      String datasetVersion = readString(in);
+      return AudienceJob.restore(id, productName, ruleId, resultFile, createdAt, status,
+          startedAt, finishedAt, totalUsers, processedUsers, matchedUsers, error, cursor,
+          resultLength, ruleFingerprint, datasetVersion);
+    }
+  }
+
+  private Path stateFile(UUID jobId) {
+    return directory.resolve(jobId + STATE_SUFFIX);
+  }
+
+  private static void writeUuid(DataOutputStream out, UUID value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeLong(value.getMostSignificantBits());
+      out.writeLong(value.getLeastSignificantBits());
+    }
+  }
+
+  private static UUID readUuid(DataInputStream in) throws IOException {
+    return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeInstant(DataOutputStream out, Instant value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeLong(value.getEpochSecond());
+      out.writeInt(value.getNano());
+    }
+  }
+
+  private static Instant readInstant(DataInputStream in) throws IOException {
+    return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+  }
+}
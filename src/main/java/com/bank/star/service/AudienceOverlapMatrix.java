@@ -0,0 +1,182 @@
+// Попарные пересечения аудиторий всех продуктов, вычисленные за один проход по клиентской базе
+package com.bank.star.service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Неизменяемая матрица пересечений аудиторий: для каждой пары продуктов (встроенных
+ * и динамических) — количество пользователей, подходящих под оба продукта; на диагонали —
+ * размер аудитории продукта. Отдельно хранится количество пользователей без рекомендаций.
+ * Матрица вычисляется {@link AudienceAnalyticsService#getOverlapMatrix()} подсчетом мощности
+ * пересечений без построения списков пользователей и привязана к смыслу правил
+ * (RuleGraph#getFingerprint) и версии данных, по которым она построена.
+ */
+public final class AudienceOverlapMatrix {
+
+  private final long ruleSetVersion;       // Версия встроенных правил
+  private final long dynamicRuleVersion;   // Версия динамических правил
+  private final String ruleFingerprint;    // Отпечаток правил
+  private final String datasetVersion;     // Версия данных или null, если неизвестна
+  private final Instant createdAt;
+  private final String engine;             // snapshot или blocks
+  private final List<String> productNames;
+  private final long[][] overlaps;         // Симметричная матрица в порядке productNames
+  private final long withoutRecommendations;
+  private final long scannedUsers;
+
+  private AudienceOverlapMatrix(long ruleSetVersion, long dynamicRuleVersion,
+      String ruleFingerprint, String datasetVersion, Instant createdAt, String engine,
+      List<String> productNames, Builder builder) {
+    this.ruleSetVersion = ruleSetVersion;
+    this.dynamicRuleVersion = dynamicRuleVersion;
+    this.ruleFingerprint = ruleFingerprint;
+    this.datasetVersion = datasetVersion;
+    this.createdAt = createdAt;
+    this.engine = engine;
+    this.productNames = List.copyOf(productNames);
+    this.overlaps = new long[builder.overlaps.length][];
+    for (int product = 0; product < overlaps.length; product++) {
+      overlaps[product] = builder.overlaps[product].clone();
+    }
+    this.withoutRecommendations = builder.withoutRecommendations;
+    this.scannedUsers = builder.scannedUsers;
+  }
+
+  public List<String> getProductNames() {
+    return productNames;
+  }
+
+  /**
+   * Количество пользователей, подходящих под оба продукта (по индексам в getProductNames).
+   */
+  public long getOverlap(int product, int otherProduct) {
+    return overlaps[product][otherProduct];
+  }
+
+  /**
+   * Количество пользователей, подходящих под оба продукта.
+   *
+   * @return размер пересечения или -1, если один из продуктов неизвестен
+   */
+  public long getOverlap(String productName, String otherProductName) {
+    int product = productNames.indexOf(productName);
+    int otherProduct = productNames.indexOf(otherProductName);
+    return product < 0 || otherProduct < 0 ? -1 : overlaps[product][otherProduct];
+  }
+
+  /**
+   * Размер аудитории продукта (диагональ матрицы).
+   */
+  public long getAudienceSize(int product) {
+    return overlaps[product][product];
+  }
+
+  public long getWithoutRecommendations() {
+    return withoutRecommendations;
+  }
+
+  public long getScannedUsers() {
+    return scannedUsers;
+  }
+
+  public long getRuleSetVersion() {
+    return ruleSetVersion;
+  }
+
+  public long getDynamicRuleVersion() {
+    return dynamicRuleVersion;
+  }
+
+  public String getRuleFingerprint() {
+    return ruleFingerprint;
+  }
+
+  public String getDatasetVersion() {
+    return datasetVersion;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public String getEngine() {
+    return engine;
+  }
+
+  /**
+   * Проверяет, построена ли матрица по указанным правилам и версии данных.
+   *
+   * @param ruleFingerprint отпечаток правил (RuleGraph#getFingerprint)
+   * @param datasetVersion  версия данных или null, если она неизвестна
+   */
+  public boolean isBuiltFrom(String ruleFingerprint, String datasetVersion) {
+    return this.ruleFingerprint.equals(ruleFingerprint)
+        && Objects.equals(this.datasetVersion, datasetVersion);
+  }
+
+  @Override
+  public String toString() {
+    return "AudienceOverlapMatrix{products=" + productNames.size() + ", withoutRecommendations="
+        + withoutRecommendations + ", scannedUsers=" + scannedUsers + ", engine=" + engine
+        + ", createdAt=" + createdAt + '}';
+  }
+
+  /**
+   * Накопитель счетчиков: результаты блоков пользователей складываются в общий построитель.
+   * Не потокобезопасен.
+   */
+  static final class Builder {
+
+    private final long[][] overlaps;
+    private long withoutRecommendations;
+    private long scannedUsers;
+
+    /**
+     * @param products количество продуктов
+     */
+    Builder(int products) {
+      overlaps = new long[products][products];
+    }
+
+    /**
+     * Добавляет пользователей, подходящих под оба продукта; при product == otherProduct —
+     * к размеру аудитории продукта.
+     */
+    void addOverlap(int product, int otherProduct, long users) {
+      overlaps[product][otherProduct] += users;
+      if (product != otherProduct) {
+        overlaps[otherProduct][product] += users;
+      }
+    }
+
+    void addWithoutRecommendations(long users) {
+      withoutRecommendations += users;
+    }
+
+    void addScannedUsers(long users) {
+      scannedUsers += users;
+    }
+
+    /**
+     * Добавляет счетчики другого построителя с тем же количеством продуктов.
+     */
+    void addAll(Builder other) {
+      for (int product = 0; product < overlaps.length; product++) {
+        for (int otherProduct = 0; otherProduct < overlaps.length; otherProduct++) {
+          overlaps[product][otherProduct] += other.overlaps[product][otherProduct];
+        }
+      }
+      withoutRecommendations += other.withoutRecommendations;
+      scannedUsers += other.scannedUsers;
+    }
+
+    AudienceOverlapMatrix build(long ruleSetVersion, long dynamicRuleVersion,
+        String ruleFingerprint, String datasetVersion, Instant createdAt, String engine,
+        List<String> productNames) {
+      return new AudienceOverlapMatrix(ruleSetVersion, dynamicRuleVersion, ruleFingerprint,
+          datasetVersion, createdAt, engine, productNames, this);
+    }
+  }
+}
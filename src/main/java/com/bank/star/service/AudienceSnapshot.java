@@ -0,0 +1,209 @@
+// Снимок аудиторий всех продуктов, вычисленных за один проход по клиентской базе
+package com.bank.star.service;
+
+import com.bank.star.model.UserDictionary;
+
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Неизменяемый снимок аудиторий: для каждого продукта (встроенного и динамического) — ID
+ * подходящих пользователей, а также пользователи без рекомендаций.
+ * Снимок вычисляется {@link BatchAnalysisService#getAudienceSnapshot()} за один проход
+ * и привязан к смыслу правил (RuleGraph#getFingerprint) и версии данных, по которым он построен:
+ * при изменении только порядка проверки условий снимок не устаревает.
+ * Пользователи хранятся один раз в {@link UserDictionary}, а аудитории — массивами int-индексов
+ * словаря; списки UUID, возвращаемые наружу, — представления, создающие UUID при чтении.
+ */
+public final class AudienceSnapshot {
+
+  private final long ruleSetVersion;                // Версия встроенных правил
+  private final long dynamicRuleVersion;            // Версия динамических правил
+  private final String ruleFingerprint;             // Отпечаток правил или null, если неизвестен
+  private final String datasetVersion;              // Версия данных или null, если неизвестна
+  private final Instant createdAt;
+  private final int scannedUsers;                   // Количество проверенных пользователей
+  private final UserDictionary users;               // Все пользователи снимка
+  private final Map<String, List<UUID>> audiences;  // Аудитории по названию продукта
+  private final List<UUID> withoutRecommendations;
+
+  AudienceSnapshot(long ruleSetVersion, long dynamicRuleVersion, Instant createdAt,
+      int scannedUsers, Map<String, List<UUID>> audiences, List<UUID> withoutRecommendations) {
+    this(ruleSetVersion, dynamicRuleVersion, null, null, createdAt, scannedUsers,
+        toBuilder(audiences, withoutRecommendations), List.copyOf(audiences.keySet()));
+  }
+
+  private AudienceSnapshot(long ruleSetVersion, long dynamicRuleVersion, String ruleFingerprint,
+      String datasetVersion, Instant createdAt, int scannedUsers, Builder builder,
+      List<String> productNames) {
+    this.ruleSetVersion = ruleSetVersion;
+    this.dynamicRuleVersion = dynamicRuleVersion;
+    this.ruleFingerprint = ruleFingerprint;
+    this.datasetVersion = datasetVersion;
+    this.createdAt = createdAt;
+    this.scannedUsers = scannedUsers;
+    this.users = builder.users;
+    Map<String, List<UUID>> lists = new LinkedHashMap<>();
+    for (int list = 0; list < productNames.size(); list++) {
+      lists.put(productNames.get(list), builder.view(list));
+    }
+    this.audiences = Collections.unmodifiableMap(lists);
+    this.withoutRecommendations = builder.view(productNames.size());
+  }
+
+  private static Builder toBuilder(Map<String, List<UUID>> audiences,
+      List<UUID> withoutRecommendations) {
+    Builder builder = new Builder(audiences.size() + 1);
+    int list = 0;
+    for (List<UUID> users : audiences.values()) {
+      builder.addAll(list++, users);
+    }
+    builder.addAll(list, withoutRecommendations);
+    return builder;
+  }
+
+  /**
+   * Возвращает аудиторию продукта.
+   *
+   * @param productName название продукта
+   * @return ID подходящих пользователей или пустой список, если продукт неизвестен
+   */
+  public List<UUID> getUsers(String productName) {
+    return audiences.getOrDefault(productName, List.of());
+  }
+
+  public Set<String> getProductNames() {
+    return audiences.keySet();
+  }
+
+  public List<UUID> getWithoutRecommendations() {
+    return withoutRecommendations;
+  }
+
+  public long getRuleSetVersion() {
+    return ruleSetVersion;
+  }
+
+  public long getDynamicRuleVersion() {
+    return dynamicRuleVersion;
+  }
+
+  public String getRuleFingerprint() {
+    return ruleFingerprint;
+  }
+
+  public String getDatasetVersion() {
+    return datasetVersion;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public int getScannedUsers() {
+    return scannedUsers;
+  }
+
+  /**
+   * Возвращает количество различных пользователей во всех списках снимка.
+   */
+  public int getUserCount() {
+    return users.size();
+  }
+
+  /**
+   * Проверяет, построен ли снимок по указанным правилам и версии данных.
+   *
+   * @param ruleFingerprint отпечаток правил (RuleGraph#getFingerprint)
+   * @param datasetVersion  версия данных или null, если она неизвестна
+   */
+  public boolean isBuiltFrom(String ruleFingerprint, String datasetVersion) {
+    return Objects.equals(this.ruleFingerprint, ruleFingerprint)
+        && Objects.equals(this.datasetVersion, datasetVersion);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sizes = new StringBuilder();
+    audiences.forEach((productName, users) ->
+        sizes.append(productName).append('=').append(users.size()).append(", "));
+    return "AudienceSnapshot{" + sizes + "withoutRecommendations=" + withoutRecommendations.size()
+        + ", scannedUsers=" + scannedUsers + ", createdAt=" + createdAt + '}';
+  }
+
+  /**
+   * Построитель снимка: пользователи дописываются в списки (аудитории корней по порядку,
+   * последний — пользователи без рекомендаций) и кодируются индексами общего словаря.
+   * Не потокобезопасен.
+   */
+  static final class Builder {
+
+    private final UserDictionary users = new UserDictionary();
+    private final int[][] lists;
+    private final int[] sizes;
+
+    /**
+     * @param listCount количество списков (аудитории продуктов и пользователи без рекомендаций)
+     */
+    Builder(int listCount) {
+      lists = new int[listCount][16];
+      sizes = new int[listCount];
+    }
+
+    void addAll(int list, List<UUID> userIds) {
+      int required = sizes[list] + userIds.size();
+      if (required > lists[list].length) {
+        lists[list] = Arrays.copyOf(lists[list], Math.max(required, lists[list].length * 2));
+      }
+      for (UUID userId : userIds) {
+        lists[list][sizes[list]++] = users.add(userId);
+      }
+    }
+
+    /**
+     * Строит снимок; список с индексом productNames.size() — пользователи без рекомендаций.
+     */
+    AudienceSnapshot build(long ruleSetVersion, long dynamicRuleVersion, String ruleFingerprint,
+        String datasetVersion, Instant createdAt, int scannedUsers, List<String> productNames) {
+      return new AudienceSnapshot(ruleSetVersion, dynamicRuleVersion, ruleFingerprint,
+          datasetVersion, createdAt, scannedUsers, this, productNames);
+    }
+
+    private List<UUID> view(int list) {
+      return new UserList(users, Arrays.copyOf(lists[list], sizes[list]));
+    }
+  }
+
+  /**
+   * Неизменяемый список UUID поверх индексов словаря.
+   */
+  private static final class UserList extends AbstractList<UUID> implements RandomAccess {
+
+    private final UserDictionary users;
+    private final int[] indexes;
+
+    UserList(UserDictionary users, int[] indexes) {
+      this.users = users;
+      this.indexes = indexes;
+    }
+
+    @Override
+    public UUID get(int position) {
+      return users.get(indexes[position]);
+    }
+
+    @Override
+    public int size() {
+      return indexes.length;
+    }
+  }
+}
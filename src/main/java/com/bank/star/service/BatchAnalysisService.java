@@ -3,124 +3,603 @@
 package com.bank.star.service;
 
 import com.bank.star.dto.UserRecommendation;
-import com.bank.star.service.rules.ProductRuleSets;
+import com.bank.star.model.UserBitmap;
+import com.bank.star.service.rules.CompiledDynamicRule;
+import com.bank.star.service.rules.RuleGraph;
+import com.bank.star.service.rules.RuleGraphCompiler;
+import com.bank.star.service.rules.RuleSqlCompiler;
+import com.bank.star.service.rules.SnapshotFacts;
+import com.bank.star.service.rules.UserBlock;
 import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.repository.TransactionSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
- * Сервис для пакетного анализа всей клиентской базы
- * Находит всех пользователей, подходящих под условия конкретных продуктов
- * Используется для массовых маркетинговых кампаний и аналитики
+ * Сервис пакетного анализа всей клиентской базы: находит аудитории продуктов и пользователей
+ * без рекомендаций для маркетинговых кампаний и аналитики.
+ * Все наборы правил проверяются по общему графу {@link RuleGraph}, поэтому условия, общие для
+ * нескольких продуктов, вычисляются один раз. Граф вычисляется одним из трех способов:
+ * если загружен снимок транзакций, то по всей базе сразу операциями над сжатыми битовыми
+ * картами ({@link RuleGraph.BitmapEvaluator}); при включенном push-down аудитория продукта
+ * вычисляется одним SQL-запросом ({@link RuleSqlCompiler}); в остальных случаях активные
+ * пользователи обходятся страницами и параллельными блоками ({@link ActiveUserScanner},
+ * {@link UserBlock}), где каждое условие вычисляется для всего блока в виде {@link BitSet}.
+ * Аудитории всех продуктов вычисляются вместе за один проход ({@link #getAudienceSnapshot()})
+ * и переиспользуются, пока не изменились правила и данные. Проход по блокам периодически
+ * сохраняет контрольную точку на диск и после перезапуска продолжается с нее.
+ * Подбор порогов, пробный прогон правил и пересечения аудиторий —
+ * в {@link AudienceAnalyticsService}.
  */
 @Service
 public class BatchAnalysisService {
 
   private static final Logger logger = LoggerFactory.getLogger(BatchAnalysisService.class);
 
-  private final ProductRuleSets productRuleSets;
+  private static final int MAX_LOGGED_DIFFERENCES = 10;  // Сколько расхождений выводить в лог
+
+  private final RuleGraphCompiler ruleGraphCompiler;
   private final RecommendationRepository repository;
   private final UserNameResolver userNameResolver;
+  private final ActiveUserScanner scanner;  // Обход активных пользователей страницами и блоками
+  private final Executor resumeExecutor;    // Пул для продолжения прерванного прохода
+  private final boolean pushDownEnabled;  // Вычислять аудиторию продукта в базе данных
+  private final boolean pushDownVerify;   // Сверять результат push-down с проверкой по блокам
+  private final long audienceTtlMinutes;
+  private final boolean checkpointEnabled;
+  private final String checkpointDirectory;
+  private final int checkpointIntervalPages;  // Страниц между сохранениями контрольной точки
+  private final Object audienceLock = new Object();  // Снимок аудиторий строится одним потоком
 
-  // Константы для названий продуктов
-  private static final String INVEST_500 = "Invest 500";
-  private static final String TOP_SAVING = "Top Saving";
-  private static final String SIMPLE_CREDIT = "Простой кредит";
+  private volatile AudienceSnapshot audienceSnapshot;  // Последний снимок аудиторий
 
-  public BatchAnalysisService(ProductRuleSets productRuleSets,
+  public BatchAnalysisService(RuleGraphCompiler ruleGraphCompiler,
       RecommendationRepository repository,
-      UserNameResolver userNameResolver) {
-    this.productRuleSets = productRuleSets;
+      UserNameResolver userNameResolver,
+      ActiveUserScanner scanner,
+      @Qualifier("audienceJobExecutor") Executor resumeExecutor,
+      @Value("${recommendation.batch.push-down.enabled:false}") boolean pushDownEnabled,
+      @Value("${recommendation.batch.push-down.verify:false}") boolean pushDownVerify,
+      @Value("${recommendation.batch.audience.ttl-minutes:30}") long audienceTtlMinutes,
+      @Value("${recommendation.batch.checkpoint.enabled:false}") boolean checkpointEnabled,
+      @Value("${recommendation.batch.checkpoint.dir:${java.io.tmpdir}/audience-checkpoint}")
+      String checkpointDirectory,
+      @Value("${recommendation.batch.checkpoint.interval-pages:10}")
+      int checkpointIntervalPages) {
+    if (checkpointIntervalPages <= 0) {
+      throw new IllegalArgumentException("Checkpoint interval must be positive: "
+          + checkpointIntervalPages);
+    }
+    this.ruleGraphCompiler = ruleGraphCompiler;
     this.repository = repository;
     this.userNameResolver = userNameResolver;
+    this.scanner = scanner;
+    this.resumeExecutor = resumeExecutor;
+    this.pushDownEnabled = pushDownEnabled;
+    this.pushDownVerify = pushDownVerify;
+    this.audienceTtlMinutes = audienceTtlMinutes;
+    this.checkpointEnabled = checkpointEnabled;
+    this.checkpointDirectory = checkpointDirectory;
+    this.checkpointIntervalPages = checkpointIntervalPages;
   }
 
   /**
-   * Находит всех пользователей, подходящих для указанного продукта
-   * @param productName название продукта ("Invest 500", "Top Saving", "Простой кредит")
-   * @return список подходящих пользователей
+   * Находит ID всех пользователей, подходящих для указанного продукта, без загрузки имен.
+   * Имена нужны только для отображаемых строк и загружаются отдельно для выводимой страницы;
+   * выгрузка аудитории с именами — {@link #streamUsersForProduct(String, Consumer)}.
+   * @param productName название продукта ("Invest 500", "Top Saving", "Простой кредит"
+   *                    или продукт динамического правила)
+   * @return ID подходящих пользователей в порядке getAllActiveUserIds
    */
-  public List<UserRecommendation> getUsersForProduct(String productName) {
+  public List<UUID> findUserIdsForProduct(String productName) {
     logger.info("🔍 Starting batch analysis for product: {}", productName);
 
-    List<UUID> allUserIds = repository.getAllActiveUserIds();
-    List<UserRecommendation> eligibleUsers = new ArrayList<>();
+    // Граф берется один раз на весь прогон: все пользователи проверяются по одной версии правил
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    int rootIndex = graph.getRootIndex(productName);
+    if (rootIndex < 0) {
+      logger.warn("Unknown product name: {}", productName);
+      return List.of();
+    }
 
-    for (UUID userId : allUserIds) {
-      try {
-        boolean isEligible = isUserEligibleForProduct(userId, productName);
+    Optional<SnapshotFacts> facts = scanner.snapshotFacts(graph);
+    if (facts.isPresent()) {
+      List<UUID> eligibleUserIds = userIds(facts.get().getSnapshot(),
+          graph.newBitmapEvaluator(facts.get()).matches(rootIndex));
+      logger.info("✅ Found {} eligible users for {} on bitmaps", eligibleUserIds.size(),
+          productName);
+      return eligibleUserIds;
+    }
 
-        if (isEligible) {
-          String fullName = userNameResolver.getUserFullName(userId);
-          eligibleUsers.add(new UserRecommendation(userId, fullName));
-          logger.debug("✅ User {} eligible for {}", fullName, productName);
-        }
-      } catch (Exception e) {
-        logger.warn("Error processing user {}: {}", userId, e.getMessage(), e);
-      }
+    Optional<List<UUID>> pushedDown = pushDownEnabled
+        ? findUsersInDatabase(graph, rootIndex, productName)
+        : Optional.empty();
+    List<UUID> eligibleUserIds;
+    if (pushedDown.isPresent() && !pushDownVerify) {
+      eligibleUserIds = pushedDown.get();
+    } else {
+      eligibleUserIds = findUsersByBlocks(productName,
+          block -> graph.newBlockEvaluator(block).matches(rootIndex));
+      pushedDown.ifPresent(users -> verifyPushDown(productName, users, eligibleUserIds));
     }
 
-    logger.info("✅ Found {} eligible users for {}", eligibleUsers.size(), productName);
-    return eligibleUsers;
+    logger.info("✅ Found {} eligible users for {}", eligibleUserIds.size(), productName);
+    return eligibleUserIds;
+  }
+
+  /**
+   * Находит ID всех пользователей, которые не подходят ни под один из продуктов
+   * (встроенных и динамических), без загрузки имен.
+   * @return ID пользователей в порядке getAllActiveUserIds
+   */
+  public List<UUID> findUserIdsWithoutRecommendations() {
+    logger.info("🔍 Finding users without any recommendations");
+
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    Optional<SnapshotFacts> facts = scanner.snapshotFacts(graph);
+    List<UUID> userIds = facts.isPresent()
+        ? userIds(facts.get().getSnapshot(), facts.get().getUsers()
+            .andNot(graph.newBitmapEvaluator(facts.get()).matchesAny()))
+        : findUsersByBlocks("no recommendations", block -> {
+          BitSet withoutRecommendations = block.getPresentUsers();
+          withoutRecommendations.andNot(graph.newBlockEvaluator(block).matchesAny());
+          return withoutRecommendations;
+        });
+
+    logger.info("✅ Found {} users without recommendations", userIds.size());
+    return userIds;
+  }
+
+  /**
+   * Проверяет, есть ли продукт с таким названием в текущих правилах.
+   */
+  public boolean isKnownProduct(String productName) {
+    return ruleGraphCompiler.getGraph().getRootIndex(productName) >= 0;
+  }
+
+  /**
+   * Возвращает отпечаток текущих правил (RuleGraph#getFingerprint).
+   */
+  public String getRuleFingerprint() {
+    return ruleGraphCompiler.getGraph().getFingerprint();
+  }
+
+  /**
+   * Возвращает версию данных, по которым выполняется потоковая выгрузка: версию загруженного
+   * снимка транзакций или таблицы транзакций.
+   * @return версия данных или Optional.empty(), если она неизвестна
+   */
+  public Optional<String> getDatasetVersion() {
+    return scanner.datasetVersion();
   }
 
   /**
-   * Проверяет, подходит ли пользователь для указанного продукта
-   * @param userId идентификатор пользователя
+   * Потоково выгружает аудиторию продукта: активные пользователи читаются страницами,
+   * проверяются блоками по мере чтения, и подходящие пользователи сразу передаются потребителю.
+   * В памяти одновременно находится не больше одной страницы ID, независимо от размера аудитории.
    * @param productName название продукта
-   * @return true если пользователь подходит для продукта
-   */
-  private boolean isUserEligibleForProduct(UUID userId, String productName) {
-    return switch (productName) {
-      case INVEST_500 -> productRuleSets.getInvest500RuleSet().isEligible(userId);
-      case TOP_SAVING -> productRuleSets.getTopSavingRuleSet().isEligible(userId);
-      case SIMPLE_CREDIT -> productRuleSets.getSimpleCreditRuleSet().isEligible(userId);
-      default -> {
-        logger.warn("Unknown product name: {}", productName);
-        yield false;
+   * @param sink потребитель строк выгрузки (в порядке getAllActiveUserIds)
+   * @return количество выгруженных пользователей
+   * @throws IllegalArgumentException если продукт неизвестен
+   */
+  public long streamUsersForProduct(String productName, Consumer<UserRecommendation> sink) {
+    return streamUsersForProduct(productName, null, sink, (cursor, processed) -> { });
+  }
+
+  /**
+   * Потоково выгружает аудиторию продукта, начиная после курсора, с уведомлением о ходе
+   * обработки. Выгрузка прерывается {@link CancellationException}, если поток был прерван
+   * (например, при отмене задачи через Future.cancel(true)).
+   * @param productName название продукта
+   * @param startAfter курсор — ID пользователя, после которого продолжается выгрузка, или null
+   * @param sink потребитель строк выгрузки
+   * @param progress получает курсор и количество проверенных пользователей после каждого блока
+   * @return количество выгруженных пользователей
+   */
+  public long streamUsersForProduct(String productName, UUID startAfter,
+      Consumer<UserRecommendation> sink, StreamProgress progress) {
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    int rootIndex = graph.getRootIndex(productName);
+    if (rootIndex < 0) {
+      throw new IllegalArgumentException("Unknown product name: " + productName);
+    }
+    logger.info("📤 Streaming audience for product: {}", productName);
+    return streamUsers(startAfter, block -> graph.newBlockEvaluator(block).matches(rootIndex),
+        sink, progress);
+  }
+
+  /**
+   * Потоково выгружает аудиторию одного динамического правила
+   * (см. {@link #streamUsersForProduct(String, UUID, Consumer, StreamProgress)}). В отличие от
+   * аудитории продукта, другие правила с тем же названием продукта не учитываются.
+   * @param rule скомпилированное динамическое правило
+   * @param startAfter курсор — ID пользователя, после которого продолжается выгрузка, или null
+   * @param sink потребитель строк выгрузки
+   * @param progress получает курсор и количество проверенных пользователей после каждого блока
+   * @return количество выгруженных пользователей
+   */
+  public long streamUsersForRule(CompiledDynamicRule rule, UUID startAfter,
+      Consumer<UserRecommendation> sink, StreamProgress progress) {
+    logger.info("📤 Streaming audience for dynamic rule: {}", rule.getRuleId());
+    return streamUsers(startAfter, rule::evaluateBatch, sink, progress);
+  }
+
+  /**
+   * Потоково выгружает пользователей без рекомендаций (см. {@link #streamUsersForProduct}).
+   * @param sink потребитель строк выгрузки
+   * @return количество выгруженных пользователей
+   */
+  public long streamUsersWithoutRecommendations(Consumer<UserRecommendation> sink) {
+    return streamUsersWithoutRecommendations(null, sink, (cursor, processed) -> { });
+  }
+
+  /**
+   * Потоково выгружает пользователей без рекомендаций, начиная после курсора, с уведомлением
+   * о ходе обработки (см. {@link #streamUsersForProduct(String, UUID, Consumer, StreamProgress)}).
+   */
+  public long streamUsersWithoutRecommendations(UUID startAfter,
+      Consumer<UserRecommendation> sink, StreamProgress progress) {
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    logger.info("📤 Streaming users without recommendations");
+    return streamUsers(startAfter, block -> {
+      BitSet withoutRecommendations = block.getPresentUsers();
+      withoutRecommendations.andNot(graph.newBlockEvaluator(block).matchesAny());
+      return withoutRecommendations;
+    }, sink, progress);
+  }
+
+  private long streamUsers(UUID startAfter, Function<UserBlock, BitSet> selector,
+      Consumer<UserRecommendation> sink, StreamProgress progress) {
+    long start = System.nanoTime();
+    long[] exported = new long[1];
+    long[] processed = new long[1];
+    scanner.forEachActiveUserPage(startAfter, page -> {
+      int blockSize = scanner.getBlockSize();
+      for (int from = 0; from < page.size(); from += blockSize) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new CancellationException("Audience streaming cancelled after "
+              + processed[0] + " users");
+        }
+        List<UUID> chunk = page.subList(from, Math.min(from + blockSize, page.size()));
+        processed[0] += chunk.size();
+        UserBlock block = scanner.loadBlock(chunk);
+        List<UUID> selected = userIds(block, selector.apply(block));
+        if (!selected.isEmpty()) {
+          Map<UUID, String> names = userNameResolver.getUserFullNames(selected);
+          for (UUID userId : selected) {
+            sink.accept(new UserRecommendation(userId,
+                names.getOrDefault(userId, UserNameResolver.DEFAULT_NAME)));
+          }
+          exported[0] += selected.size();
+        }
+        progress.blockProcessed(chunk.get(chunk.size() - 1), processed[0]);
       }
-    };
+    });
+
+    logger.info("✅ Streamed {} users in {} ms", exported[0],
+        (System.nanoTime() - start) / 1_000_000);
+    return exported[0];
   }
 
   /**
-   * Находит всех пользователей, которые не подходят ни под один из продуктов
-   * @return список пользователей без рекомендаций
+   * Возвращает снимок аудиторий всех продуктов. Снимок строится заново, если его еще нет,
+   * если изменился смысл правил (RuleGraph#getFingerprint: при переупорядочивании условий снимок
+   * не устаревает) или версия данных (версия снимка транзакций или
+   * RecommendationRepository#findDatasetVersion); если версия данных неизвестна, снимок живет
+   * recommendation.batch.audience.ttl-minutes. Одновременные запросы ждут одного построения.
+   * @return снимок аудиторий
    */
-  public List<UserRecommendation> getUsersWithoutRecommendations() {
-    logger.info("🔍 Finding users without any recommendations");
+  public AudienceSnapshot getAudienceSnapshot() {
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    Optional<SnapshotFacts> facts = scanner.snapshotFacts(graph);
+    String datasetVersion = scanner.datasetVersion(facts).orElse(null);
+    AudienceSnapshot current = audienceSnapshot;
+    if (isFresh(current, graph, datasetVersion)) {
+      return current;
+    }
+    synchronized (audienceLock) {
+      current = audienceSnapshot;
+      if (isFresh(current, graph, datasetVersion)) {
+        return current;
+      }
+      AudienceSnapshot computed = computeAudienceSnapshot(graph, facts, datasetVersion);
+      audienceSnapshot = computed;
+      return computed;
+    }
+  }
 
-    List<UUID> allUserIds = repository.getAllActiveUserIds();
-    List<UserRecommendation> usersWithoutRecommendations = new ArrayList<>();
+  /**
+   * Строит снимок аудиторий заново, не дожидаясь изменения правил или истечения срока жизни.
+   * @return новый снимок аудиторий
+   */
+  public AudienceSnapshot refreshAudienceSnapshot() {
+    RuleGraph graph = ruleGraphCompiler.getGraph();
+    Optional<SnapshotFacts> facts = scanner.snapshotFacts(graph);
+    String datasetVersion = scanner.datasetVersion(facts).orElse(null);
+    synchronized (audienceLock) {
+      AudienceSnapshot computed = computeAudienceSnapshot(graph, facts, datasetVersion);
+      audienceSnapshot = computed;
+      return computed;
+    }
+  }
 
-    for (UUID userId : allUserIds) {
-      try {
-        if (!hasAnyRecommendation(userId)) {
-          String fullName = userNameResolver.getUserFullName(userId);
-          usersWithoutRecommendations.add(new UserRecommendation(userId, fullName));
-          logger.debug("❌ User {} has no recommendations", fullName);
+  /**
+   * После запуска приложения продолжает проход, прерванный остановкой (например, деплоем),
+   * если на диске осталась его контрольная точка. Проход выполняется в фоне на пуле
+   * audienceJobExecutor и публикует снимок аудиторий; устаревшая контрольная точка отбрасывается
+   * при открытии. Если аудитории будут вычисляться по снимку транзакций, проход не продолжается:
+   * он держал бы audienceLock на время полного обхода через JDBC, хотя после загрузки снимка
+   * аудитории строятся по битовым картам без контрольных точек.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void resumeInterruptedAudienceComputation() {
+    if (!checkpointEnabled || !AudienceCheckpoint.exists(Paths.get(checkpointDirectory))) {
+      return;
+    }
+    if (scanner.isSnapshotEnabled() && !ruleGraphCompiler.getGraph().hasOpaqueRules()) {
+      logger.info("♻️ Found audience checkpoint in {}, skipping resume: audiences will be "
+          + "computed from the transaction snapshot", checkpointDirectory);
+      return;
+    }
+    logger.info("♻️ Found audience checkpoint in {}, resuming in background", checkpointDirectory);
+    try {
+      resumeExecutor.execute(() -> {
+        try {
+          getAudienceSnapshot();
+        } catch (Exception e) {
+          logger.error("Error resuming audience computation: {}", e.getMessage(), e);
         }
-      } catch (Exception e) {
-        logger.warn("Error processing user {}: {}", userId, e.getMessage(), e);
+      });
+    } catch (RejectedExecutionException e) {
+      logger.warn("⚠️ Audience job queue is full, audience computation will resume on demand");
+    }
+  }
+
+  private boolean isFresh(AudienceSnapshot snapshot, RuleGraph graph, String datasetVersion) {
+    return snapshot != null
+        && snapshot.isBuiltFrom(graph.getFingerprint(), datasetVersion)
+        && (datasetVersion != null || snapshot.getCreatedAt()
+            .plus(Duration.ofMinutes(audienceTtlMinutes)).isAfter(Instant.now()));
+  }
+
+  /**
+   * Один проход по активным пользователям: для каждого блока все корни графа вычисляются
+   * одним вычислителем (общие условия считаются один раз), а пользователи без рекомендаций —
+   * как найденные пользователи блока за вычетом объединения всех аудиторий.
+   * При recommendation.batch.checkpoint.enabled каждые checkpoint.interval-pages страниц
+   * прогресс сохраняется на диск ({@link AudienceCheckpoint}); прерванный проход продолжается
+   * с сохраненного курсора, если не изменились правила (RuleGraph#getFingerprint) и данные
+   * (RecommendationRepository#findDatasetVersion).
+   */
+  private AudienceSnapshot computeAudienceSnapshot(RuleGraph graph,
+      Optional<SnapshotFacts> facts, String datasetVersion) {
+    if (facts.isPresent()) {
+      return computeAudienceSnapshot(graph, facts.get(), datasetVersion);
+    }
+    logger.info("🔍 Computing audiences for all {} products in one pass",
+        graph.getRootNames().size());
+    long start = System.nanoTime();
+    int roots = graph.getRootNames().size();
+
+    // Аудитории корней по порядку, последний список — пользователи без рекомендаций
+    AudienceSnapshot.Builder lists = new AudienceSnapshot.Builder(roots + 1);
+    int[] scannedUsers = new int[1];
+    UUID cursor = null;
+
+    if (checkpointEnabled && datasetVersion == null) {
+      logger.warn("⚠️ Dataset version is unavailable, computing audiences without checkpoints");
+    }
+    AudienceCheckpoint checkpoint = checkpointEnabled && datasetVersion != null
+        ? new AudienceCheckpoint(Paths.get(checkpointDirectory))
+        : null;
+    if (checkpoint != null) {
+      Optional<AudienceCheckpoint.Progress> progress = checkpoint.open(graph.getFingerprint(),
+          datasetVersion, roots + 1);
+      if (progress.isPresent()) {
+        cursor = progress.get().getCursor();
+        scannedUsers[0] = progress.get().getScannedUsers();
+        for (int list = 0; list <= roots; list++) {
+          lists.addAll(list, progress.get().getLists().get(list));
+        }
+        logger.info("♻️ Resuming audience computation after {} users from checkpoint in {}",
+            scannedUsers[0], checkpointDirectory);
       }
     }
 
-    logger.info("✅ Found {} users without recommendations", usersWithoutRecommendations.size());
-    return usersWithoutRecommendations;
+    int[] pagesSinceCheckpoint = new int[1];
+    try {
+      scanner.forEachActiveUserPage(cursor, page -> {
+        // Ошибка любого блока страницы прерывает проход до записи страницы в контрольную
+        // точку: курсор продвигается только через страницы, все блоки которых обработаны
+        List<List<List<UUID>>> blocks = scanner.partitioned(page, chunk -> {
+          UserBlock block = scanner.loadBlock(chunk);
+          RuleGraph.BlockEvaluator evaluator = graph.newBlockEvaluator(block);
+          List<List<UUID>> blockLists = new ArrayList<>(roots + 1);
+          BitSet withoutRecommendations = block.getPresentUsers();
+          for (int root = 0; root < roots; root++) {
+            BitSet users = evaluator.matches(root);
+            withoutRecommendations.andNot(users);
+            blockLists.add(userIds(block, users));
+          }
+          blockLists.add(userIds(block, withoutRecommendations));
+          return List.of(blockLists);
+        });
+        scannedUsers[0] += page.size();
+        for (List<List<UUID>> blockLists : blocks) {
+          for (int list = 0; list <= roots; list++) {
+            lists.addAll(list, blockLists.get(list));
+            if (checkpoint != null) {
+              checkpoint.append(list, blockLists.get(list));
+            }
+          }
+        }
+        if (checkpoint != null && ++pagesSinceCheckpoint[0] >= checkpointIntervalPages) {
+          checkpoint.save(page.get(page.size() - 1), scannedUsers[0]);
+          pagesSinceCheckpoint[0] = 0;
+        }
+      });
+    } catch (RuntimeException e) {
+      if (checkpoint != null) {
+        // Последняя сохраненная точка остается на диске для следующей попытки
+        checkpoint.close();
+      }
+      throw e;
+    }
+    if (checkpoint != null) {
+      checkpoint.complete();
+    }
+
+    AudienceSnapshot snapshot = lists.build(graph.getRuleSetVersion(),
+        graph.getDynamicRuleVersion(), graph.getFingerprint(), datasetVersion, Instant.now(),
+        scannedUsers[0], graph.getRootNames());
+    logger.info("✅ Audience snapshot computed in {} ms: {}",
+        (System.nanoTime() - start) / 1_000_000, snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Вычисляет аудитории всех продуктов по снимку транзакций: каждый узел графа — одна операция
+   * над битовыми картами всей базы, пользователи без рекомендаций — разность активных
+   * пользователей и объединения аудиторий.
+   */
+  private AudienceSnapshot computeAudienceSnapshot(RuleGraph graph, SnapshotFacts facts,
+      String datasetVersion) {
+    logger.info("🔍 Computing audiences for all {} products on bitmaps",
+        graph.getRootNames().size());
+    long start = System.nanoTime();
+    int roots = graph.getRootNames().size();
+    TransactionSnapshot snapshot = facts.getSnapshot();
+    RuleGraph.BitmapEvaluator evaluator = graph.newBitmapEvaluator(facts);
+
+    AudienceSnapshot.Builder lists = new AudienceSnapshot.Builder(roots + 1);
+    UserBitmap withoutRecommendations = facts.getUsers();
+    for (int root = 0; root < roots; root++) {
+      UserBitmap users = evaluator.matches(root);
+      withoutRecommendations = withoutRecommendations.andNot(users);
+      lists.addAll(root, userIds(snapshot, users));
+    }
+    lists.addAll(roots, userIds(snapshot, withoutRecommendations));
+
+    AudienceSnapshot audiences = lists.build(graph.getRuleSetVersion(),
+        graph.getDynamicRuleVersion(), graph.getFingerprint(), datasetVersion, Instant.now(),
+        snapshot.getActiveUserCount(), graph.getRootNames());
+    logger.info("✅ Audience snapshot computed on bitmaps in {} ms ({} facts): {}",
+        (System.nanoTime() - start) / 1_000_000, facts.getFactEvaluations(), audiences);
+    return audiences;
+  }
+
+  /**
+   * Переводит индексы пользователей снимка в ID; порядок индексов совпадает с порядком
+   * getAllActiveUserIds.
+   */
+  private static List<UUID> userIds(TransactionSnapshot snapshot, UserBitmap users) {
+    List<UUID> userIds = new ArrayList<>(users.cardinality());
+    users.forEach(user -> userIds.add(snapshot.getUserId(user)));
+    return userIds;
+  }
+
+  private static List<UUID> userIds(UserBlock block, BitSet users) {
+    List<UUID> userIds = new ArrayList<>(users.cardinality());
+    for (int i = users.nextSetBit(0); i >= 0; i = users.nextSetBit(i + 1)) {
+      userIds.add(block.getUserId(i));
+    }
+    return userIds;
   }
 
   /**
-   * Проверяет, есть ли у пользователя рекомендации для любого из продуктов
-   * @param userId идентификатор пользователя
-   * @return true если есть хотя бы одна рекомендация
+   * Вычисляет аудиторию продукта одним SQL-запросом.
+   *
+   * @return ID пользователей или Optional.empty(), если продукт не компилируется в SQL
+   *         или запрос завершился ошибкой
    */
-  private boolean hasAnyRecommendation(UUID userId) {
-    return productRuleSets.getInvest500RuleSet().isEligible(userId) ||
-        productRuleSets.getTopSavingRuleSet().isEligible(userId) ||
-        productRuleSets.getSimpleCreditRuleSet().isEligible(userId);
+  private Optional<List<UUID>> findUsersInDatabase(RuleGraph graph, int rootIndex,
+      String productName) {
+    Optional<RuleSqlCompiler.HavingClause> clause = RuleSqlCompiler.compile(graph, rootIndex);
+    if (clause.isEmpty()) {
+      logger.info("Product {} cannot be pushed down to SQL, using block evaluation", productName);
+      return Optional.empty();
+    }
+    logger.debug("Push-down condition for {}: {}", productName, clause.get());
+    return repository.findActiveUserIdsHaving(clause.get().getSql(),
+        clause.get().getParameters());
+  }
+
+  /**
+   * Сверяет аудиторию push-down с проверкой по блокам; при расхождении используется
+   * результат проверки по блокам.
+   */
+  private void verifyPushDown(String productName, List<UUID> pushedDown, List<UUID> evaluated) {
+    if (pushedDown.equals(evaluated)) {
+      logger.info("✅ Push-down audience for {} verified: {} users", productName,
+          evaluated.size());
+      return;
+    }
+    Set<UUID> onlyInDatabase = new LinkedHashSet<>(pushedDown);
+    evaluated.forEach(onlyInDatabase::remove);
+    Set<UUID> onlyInEvaluator = new LinkedHashSet<>(evaluated);
+    pushedDown.forEach(onlyInEvaluator::remove);
+    logger.warn("⚠️ Push-down audience mismatch for {}: database {} users, evaluator {} users, "
+            + "only in database {}, only in evaluator {}", productName, pushedDown.size(),
+        evaluated.size(), onlyInDatabase.stream().limit(MAX_LOGGED_DIFFERENCES).toList(),
+        onlyInEvaluator.stream().limit(MAX_LOGGED_DIFFERENCES).toList());
+  }
+
+  /**
+   * Разбивает активных пользователей на блоки, загружает профили каждого блока одним запросом
+   * и выбирает пользователей блока функцией selector. Блоки обрабатываются параллельно;
+   * ошибка в блоке пробрасывается вызывающему коду.
+   *
+   * @return ID выбранных пользователей в порядке getAllActiveUserIds
+   */
+  private List<UUID> findUsersByBlocks(String description, Function<UserBlock, BitSet> selector) {
+    long start = System.nanoTime();
+    List<UUID> selected = new ArrayList<>();
+    long[] scannedUsers = new long[1];
+    scanner.forEachActiveUserPage(null, page -> {
+      scannedUsers[0] += page.size();
+      selected.addAll(scanner.partitioned(page, chunk -> {
+        UserBlock block = scanner.loadBlock(chunk);
+        return userIds(block, selector.apply(block));
+      }));
+    });
+    logger.debug("Block evaluation for {}: {} users in {} ms", description, scannedUsers[0],
+        (System.nanoTime() - start) / 1_000_000);
+    return selected;
+  }
+
+  /**
+   * Уведомление о ходе потоковой выгрузки: вызывается после того, как все подходящие
+   * пользователи блока переданы потребителю.
+   */
+  @FunctionalInterface
+  public interface StreamProgress {
+
+    /**
+     * @param cursor ID последнего проверенного пользователя — с него можно продолжить выгрузку
+     * @param processedUsers количество пользователей, проверенных с начала этого вызова
+     */
+    void blockProcessed(UUID cursor, long processedUsers);
   }
-}
\ No newline at end of file
+}
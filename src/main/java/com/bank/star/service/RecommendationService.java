@@ -9,15 +9,19 @@ import com.bank.star.dto.RecommendationResponse;
 import com.bank.star.exception.UserNotFoundException;
 import com.bank.star.model.ProductType;
 import com.bank.star.model.RuleStatistics;
-import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.model.UserFinancialProfile;
 import com.bank.star.repository.RuleStatisticsRepository;
+import com.bank.star.service.rules.DynamicRuleCache;
+import com.bank.star.service.rules.DynamicRuleEngine;
+import com.bank.star.service.rules.DynamicRuleSnapshot;
+import com.bank.star.service.rules.EvaluationContext;
 import com.bank.star.service.rules.ProductRuleSets;
+import com.bank.star.service.rules.RuleSetSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
 import java.util.*;
 
 @Service
@@ -27,8 +31,9 @@ public class RecommendationService {
 
   private final ProductRuleSets productRuleSets;              // Наборы правил для продуктов
   private final com.bank.star.repository.RecommendationRepository repository;  // Репозиторий данных пользователя
-  private final DynamicRuleRepository dynamicRuleRepository;  // Репозиторий динамических правил
+  private final DynamicRuleCache dynamicRuleCache;            // Кеш скомпилированных динамических правил
   private final RuleStatisticsRepository statisticsRepository; // Репозиторий статистики выполнения правил
+  private final DynamicRuleEngine dynamicRuleEngine;          // Движок динамических правил
 
   // Предопределенные продукты для рекомендаций с их описанием и ID
   private final Map<String, ProductRecommendation> products = Map.of(
@@ -54,18 +59,21 @@ public class RecommendationService {
    *
    * @param productRuleSets        наборы правил для продуктов
    * @param repository             репозиторий данных пользователя
-   * @param dynamicRuleRepository  репозиторий динамических правил
+   * @param dynamicRuleCache       кеш динамических правил
    * @param statisticsRepository   репозиторий статистики выполнения правил
+   * @param dynamicRuleEngine      движок динамических правил
    */
   @Autowired
   public RecommendationService(ProductRuleSets productRuleSets,
       com.bank.star.repository.RecommendationRepository repository,
-      DynamicRuleRepository dynamicRuleRepository,
-      RuleStatisticsRepository statisticsRepository) {
+      DynamicRuleCache dynamicRuleCache,
+      RuleStatisticsRepository statisticsRepository,
+      DynamicRuleEngine dynamicRuleEngine) {
     this.productRuleSets = productRuleSets;
     this.repository = repository;
-    this.dynamicRuleRepository = dynamicRuleRepository;
+    this.dynamicRuleCache = dynamicRuleCache;
     this.statisticsRepository = statisticsRepository;
+    this.dynamicRuleEngine = dynamicRuleEngine;
   }
 
   /**
@@ -83,36 +91,33 @@ public class RecommendationService {
       throw new IllegalArgumentException("User ID cannot be null");
     }
 
-    if (!repository.userExists(userId)) {
-      throw new UserNotFoundException("User not found: " + userId);
-    }
-
-    // Диагностика типов транзакций для отладки
-    repository.diagnoseTransactionTypes(userId);
+    // Контекст запроса: профиль загружается одним сгруппированным запросом,
+    // а общие атомарные факты разных наборов правил вычисляются однократно
+    EvaluationContext context = EvaluationContext.forUser(userId,
+        repository::findUserFinancialProfile);
+    UserFinancialProfile profile = context.getProfile()
+        .orElseThrow(() -> new UserNotFoundException("User not found: " + userId));
 
     List<ProductRecommendation> recommendations = new ArrayList<>();
 
-    // Детальная диагностика правил для отладки
-    logger.info("🔍 DETAILED DIAGNOSTICS for user {}:", userId);
-
-    // Проверяем каждое условие отдельно для Simple Credit (для диагностики)
-    boolean noCredit = repository.userHasProductType(userId, ProductType.CREDIT);
-    BigDecimal debitDeposits = repository.getTotalDepositAmountByProductType(userId, ProductType.DEBIT);
-    BigDecimal debitSpend = repository.getTotalSpendAmountByProductType(userId, ProductType.DEBIT);
-
-    logger.info("🔍 SimpleCredit conditions:");
-    logger.info("🔍   - No CREDIT products: {}", !noCredit);
-    logger.info("🔍   - DEBIT deposits: {}, DEBIT spend: {}", debitDeposits, debitSpend);
-    logger.info("🔍   - Deposits > Spend: {}", debitDeposits != null && debitSpend != null && debitDeposits.compareTo(debitSpend) > 0);
-    logger.info("🔍   - Spend > 100K: {}", debitSpend != null && debitSpend.compareTo(new BigDecimal("100000")) > 0);
+    // Диагностика правил для отладки строится по уже загруженному профилю, без запросов к БД
+    if (logger.isDebugEnabled()) {
+      logger.debug("🔍 DETAILED DIAGNOSTICS for user {}: {}", userId, profile);
+      logger.debug("🔍 SimpleCredit conditions: no CREDIT products: {}, DEBIT deposits: {}, "
+              + "DEBIT spend: {}, deposits > spend: {}",
+          !profile.hasProductType(ProductType.CREDIT), profile.getDepositSum(ProductType.DEBIT),
+          profile.getWithdrawSum(ProductType.DEBIT),
+          profile.getDepositSumMinor(ProductType.DEBIT) > profile.getWithdrawSumMinor(ProductType.DEBIT));
+    }
 
-    // Проверяем eligibility для каждого набора правил
-    boolean simpleCreditEligible = productRuleSets.getSimpleCreditRuleSet().isEligible(userId);
-    boolean topSavingEligible = productRuleSets.getTopSavingRuleSet().isEligible(userId);
-    boolean invest500Eligible = productRuleSets.getInvest500RuleSet().isEligible(userId);
+    // Проверяем eligibility для каждого набора правил по одному снимку правил
+    RuleSetSnapshot ruleSets = productRuleSets.getSnapshot();
+    boolean simpleCreditEligible = ruleSets.getSimpleCreditRuleSet().isEligible(context);
+    boolean topSavingEligible = ruleSets.getTopSavingRuleSet().isEligible(context);
+    boolean invest500Eligible = ruleSets.getInvest500RuleSet().isEligible(context);
 
-    logger.info("🔍 Final eligibility - SimpleCredit: {}, TopSaving: {}, Invest500: {}",
-        simpleCreditEligible, topSavingEligible, invest500Eligible);
+    logger.info("🔍 Final eligibility - SimpleCredit: {}, TopSaving: {}, Invest500: {} ({} facts evaluated)",
+        simpleCreditEligible, topSavingEligible, invest500Eligible, context.getFactEvaluations());
 
     // Добавляем все подходящие продукты в список рекомендаций
     if (simpleCreditEligible) {
@@ -130,6 +135,14 @@ public class RecommendationService {
       logger.info("🔍 ADDED Invest 500");
     }
 
+    // Динамические правила проверяются по тому же профилю и кешу фактов, без запросов на условие
+    for (ProductRecommendation dynamic : dynamicRuleEngine.getRecommendations(context)) {
+      if (!recommendations.contains(dynamic)) {
+        recommendations.add(dynamic);
+        logger.info("🔍 ADDED {} (dynamic rule)", dynamic.getName());
+      }
+    }
+
     // После формирования рекомендаций обновляем статистику выполнения правил
     updateRuleStatistics(recommendations);
 
@@ -140,22 +153,24 @@ public class RecommendationService {
   /**
    * Обновляет статистику выполнения правил на основе предоставленных рекомендаций.
    * Для каждого рекомендованного продукта находит соответствующее правило и увеличивает счетчик.
+   * ID правила берется из текущего снимка кеша динамических правил, без запроса к базе.
    *
    * @param recommendations список рекомендованных продуктов
    */
   private void updateRuleStatistics(List<ProductRecommendation> recommendations) {
+    DynamicRuleSnapshot snapshot = dynamicRuleCache.getSnapshot();
     for (ProductRecommendation recommendation : recommendations) {
-      dynamicRuleRepository.findByProductId(recommendation.getId())
-          .ifPresent(rule -> {
+      snapshot.findRuleIdByProductId(recommendation.getId())
+          .ifPresent(ruleId -> {
             // Ищем существующую статистику или создаем новую
-            RuleStatistics statistics = statisticsRepository.findByRuleId(rule.getId())
-                .orElseGet(() -> new RuleStatistics(rule.getId()));
+            RuleStatistics statistics = statisticsRepository.findByRuleId(ruleId)
+                .orElseGet(() -> new RuleStatistics(ruleId));
 
             // Увеличиваем счетчик выполнения
             statistics.incrementCount();
             statisticsRepository.save(statistics);
 
-            logger.debug("Updated statistics for rule {}: {}", rule.getId(),
+            logger.debug("Updated statistics for rule {}: {}", ruleId,
                 statistics.getExecutionCount());
           });
     }
@@ -21,6 +21,7 @@ import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
@@ -171,25 +172,26 @@ public class TelegramBotService extends TelegramLongPollingBot {
     sendMessage(chatId, "⏳ Запускаю анализ базы данных... Это может занять несколько секунд.");
 
     try {
-      List<UserRecommendation> users;
+      List<UUID> userIds;
       String productName;
 
-      // Исправленный switch expression без return внутри
+      // Все аудитории берутся из одного снимка: он вычисляется за один проход по базе
+      // и переиспользуется последующими нажатиями кнопок
       switch (buttonText) {
         case "💎 Invest 500":
-          users = batchAnalysisService.getUsersForProduct("Invest 500");
           productName = "Invest 500";
+          userIds = batchAnalysisService.getAudienceSnapshot().getUsers(productName);
           break;
         case "🏦 Top Saving":
-          users = batchAnalysisService.getUsersForProduct("Top Saving");
           productName = "Top Saving";
+          userIds = batchAnalysisService.getAudienceSnapshot().getUsers(productName);
           break;
         case "💳 Простой кредит":
-          users = batchAnalysisService.getUsersForProduct("Простой кредит");
           productName = "Простой кредит";
+          userIds = batchAnalysisService.getAudienceSnapshot().getUsers(productName);
           break;
         case "❌ Без рекомендаций":
-          users = batchAnalysisService.getUsersWithoutRecommendations();
+          userIds = batchAnalysisService.getAudienceSnapshot().getWithoutRecommendations();
           productName = "без рекомендаций";
           break;
         default:
@@ -197,7 +199,7 @@ public class TelegramBotService extends TelegramLongPollingBot {
           return;
       }
 
-      sendBatchAnalysisResults(chatId, users, productName);
+      sendBatchAnalysisResults(chatId, userIds, productName);
 
     } catch (Exception e) {
       logger.error("Error during batch analysis", e);
@@ -207,12 +209,13 @@ public class TelegramBotService extends TelegramLongPollingBot {
 
   /**
    * Форматирует и отправляет результаты пакетного анализа
+   * Имена загружаются одним запросом и только для отображаемых пользователей
    * @param chatId идентификатор чата
-   * @param users список найденных пользователей
+   * @param userIds список ID найденных пользователей
    * @param productName название продукта
    */
-  private void sendBatchAnalysisResults(Long chatId, List<UserRecommendation> users, String productName) {
-    if (users.isEmpty()) {
+  private void sendBatchAnalysisResults(Long chatId, List<UUID> userIds, String productName) {
+    if (userIds.isEmpty()) {
       sendMessageWithKeyboard(chatId,
           String.format("📭 Не найдено пользователей для продукта \"%s\"", productName),
           createMainKeyboard());
@@ -221,16 +224,21 @@ public class TelegramBotService extends TelegramLongPollingBot {
 
     StringBuilder message = new StringBuilder();
     message.append(String.format("🎯 <b>Пользователи для \"%s\"</b>\n\n", productName));
-    message.append(String.format("📊 <b>Найдено:</b> %d пользователей\n\n", users.size()));
+    message.append(String.format("📊 <b>Найдено:</b> %d пользователей\n\n", userIds.size()));
 
     // Ограничим вывод первыми 15 пользователями чтобы не превысить лимиты Telegram
-    int maxDisplay = Math.min(users.size(), 15);
+    int maxDisplay = Math.min(userIds.size(), 15);
+    List<UUID> displayed = userIds.subList(0, maxDisplay);
+    Map<UUID, String> names = userNameResolver.getUserFullNames(displayed);
     for (int i = 0; i < maxDisplay; i++) {
-      message.append((i + 1) + ". ").append(users.get(i).toString()).append("\n\n");
+      UUID userId = displayed.get(i);
+      UserRecommendation user = new UserRecommendation(userId,
+          names.getOrDefault(userId, UserNameResolver.DEFAULT_NAME));
+      message.append((i + 1) + ". ").append(user).append("\n\n");
     }
 
-    if (users.size() > maxDisplay) {
-      message.append(String.format("... и еще %d пользователей", users.size() - maxDisplay));
+    if (userIds.size() > maxDisplay) {
+      message.append(String.format("... и еще %d пользователей", userIds.size() - maxDisplay));
     }
 
     message.append("\n💡 <i>Для получения рекомендаций конкретного пользователя введите его UUID или имя</i>");
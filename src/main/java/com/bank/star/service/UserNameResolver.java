@@ -2,18 +2,39 @@
  * Компонент для разрешения имен пользователей в идентификаторы и получения
  * полных имен пользователей по их ID.
  * Обеспечивает взаимодействие с базой данных для получения информации о пользователях.
+ * Полные имена кешируются в ограниченном LRU-кеше; для списков пользователей имена
+ * загружаются пакетно ({@link #getUserFullNames(Collection)}) запросами с IN-списком.
  */
 package com.bank.star.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Component
 public class UserNameResolver {
 
+  private static final Logger logger = LoggerFactory.getLogger(UserNameResolver.class);
+
+  public static final String DEFAULT_NAME = "Уважаемый клиент";  // Имя по умолчанию
+  static final int DEFAULT_CACHE_SIZE = 10_000;
+  static final int IN_LIST_CHUNK_SIZE = 500;  // Максимум параметров в одном IN-списке
+
   private final JdbcTemplate jdbcTemplate;  // JdbcTemplate для работы с базой данных
+  private final Map<UUID, String> nameCache; // LRU-кеш полных имен (доступ под synchronized)
 
   /**
    * Конструктор с внедрением зависимости JdbcTemplate.
@@ -21,7 +42,25 @@ public class UserNameResolver {
    * @param jdbcTemplate JdbcTemplate для выполнения SQL-запросов
    */
   public UserNameResolver(JdbcTemplate jdbcTemplate) {
+    this(jdbcTemplate, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Конструктор с размером кеша имен.
+   *
+   * @param jdbcTemplate JdbcTemplate для выполнения SQL-запросов
+   * @param cacheSize    максимальное количество имен в кеше
+   */
+  @Autowired
+  public UserNameResolver(JdbcTemplate jdbcTemplate,
+      @Value("${recommendation.names.cache-size:10000}") int cacheSize) {
     this.jdbcTemplate = jdbcTemplate;
+    this.nameCache = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+        return size() > cacheSize;
+      }
+    };
   }
 
   /**
@@ -50,13 +89,79 @@ public class UserNameResolver {
    * @return полное имя пользователя или "Уважаемый клиент", если пользователь не найден
    */
   public String getUserFullName(UUID userId) {
+    String cached = getCached(userId);
+    if (cached != null) {
+      return cached;
+    }
     try {
       // Предполагается, что в базе данных first_name и last_name хранятся раздельно
       String sql = "SELECT first_name || ' ' || last_name as full_name FROM users WHERE id = ?";
-      return jdbcTemplate.queryForObject(sql, String.class, userId.toString());
+      String fullName = jdbcTemplate.queryForObject(sql, String.class, userId.toString());
+      if (fullName != null) {
+        putCached(Map.of(userId, fullName));
+      }
+      return fullName;
     } catch (Exception e) {
       // В случае ошибки возвращаем значение по умолчанию
-      return "Уважаемый клиент";
+      return DEFAULT_NAME;
+    }
+  }
+
+  /**
+   * Получает полные имена группы пользователей. Имена, которых нет в кеше, загружаются
+   * запросами с IN-списком по {@value #IN_LIST_CHUNK_SIZE} ID, а не отдельным запросом
+   * на каждого пользователя.
+   *
+   * @param userIds идентификаторы пользователей
+   * @return полные имена по ID; для ненайденных пользователей и при ошибке БД — {@link #DEFAULT_NAME}
+   */
+  public Map<UUID, String> getUserFullNames(Collection<UUID> userIds) {
+    Map<UUID, String> names = new HashMap<>();
+    List<UUID> missing = new ArrayList<>();
+    for (UUID userId : new LinkedHashSet<>(userIds)) {
+      String cached = getCached(userId);
+      if (cached != null) {
+        names.put(userId, cached);
+      } else {
+        missing.add(userId);
+      }
+    }
+
+    for (int from = 0; from < missing.size(); from += IN_LIST_CHUNK_SIZE) {
+      List<UUID> chunk = missing.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, missing.size()));
+      String sql = "SELECT id, first_name || ' ' || last_name AS full_name FROM users WHERE id IN ("
+          + String.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+      try {
+        Map<UUID, String> loaded = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+          loaded.put(UUID.fromString(rs.getString("id")), rs.getString("full_name"));
+        }, chunk.stream().map(UUID::toString).toArray());
+        putCached(loaded);
+        names.putAll(loaded);
+      } catch (Exception e) {
+        logger.warn("Error loading names for {} users: {}", chunk.size(), e.getMessage());
+      }
+    }
+
+    for (UUID userId : missing) {
+      names.putIfAbsent(userId, DEFAULT_NAME);
+    }
+    return names;
+  }
+
+  private String getCached(UUID userId) {
+    synchronized (nameCache) {
+      return nameCache.get(userId);
+    }
+  }
+
+  private void putCached(Map<UUID, String> names) {
+    synchronized (nameCache) {
+      names.forEach((userId, fullName) -> {
+        if (fullName != null) {
+          nameCache.put(userId, fullName);
+        }
+      });
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+/**
+ * Атомарное правило над финансовым профилем пользователя.
+ * Условие хранится в виде {@link ProfileCondition}, поэтому встроенные и динамические правила
+ * имеют общий канонический ключ факта (вид агрегата, тип продукта, порог), а отрицание
+ * (например, NO_PRODUCT_INVEST) использует тот же факт, что и прямое условие.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.UserFinancialProfile;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+public final class AtomicRule implements RecommendationRule {
+
+  private final String ruleName;                                               // Имя правила
+  private final ProfileCondition condition;                                    // Условие (с отрицанием)
+  private final Function<UUID, Optional<UserFinancialProfile>> profileLoader; // Загрузчик профиля
+  private final Function<Collection<UUID>, Map<UUID, UserFinancialProfile>> blockLoader; // Профили блока
+
+  AtomicRule(String ruleName, ProfileCondition condition,
+      Function<UUID, Optional<UserFinancialProfile>> profileLoader,
+      Function<Collection<UUID>, Map<UUID, UserFinancialProfile>> blockLoader) {
+    this.ruleName = ruleName;
+    this.condition = condition;
+    this.profileLoader = profileLoader;
+    this.blockLoader = blockLoader;
+  }
+
+  @Override
+  public boolean isEligible(UUID userId) {
+    return isEligible(EvaluationContext.forUser(userId, profileLoader));
+  }
+
+  @Override
+  public boolean isEligible(EvaluationContext context) {
+    return condition.matches(context);
+  }
+
+  @Override
+  public boolean isEligible(UserFinancialProfile profile) {
+    return condition.matches(profile);
+  }
+
+  /**
+   * Проверяет правило для всего блока: профили блока загружаются одним запросом (если еще
+   * не загружены), факт вычисляется один раз на блок, отрицание — инверсия множества
+   * в пределах найденных пользователей.
+   */
+  @Override
+  public BitSet evaluateBatch(UserBlock block) {
+    block.load(blockLoader);
+    BitSet result = block.evaluateFact(condition.getFactKey(), condition);
+    if (condition.isNegated()) {
+      result.flip(0, block.size());
+      result.and(block.getPresentUsers());
+    }
+    return result;
+  }
+
+  /**
+   * Возвращает условие правила (с учетом отрицания).
+   */
+  public ProfileCondition getCondition() {
+    return condition;
+  }
+
+  @Override
+  public String getRuleName() {
+    return ruleName;
+  }
+
+  @Override
+  public String toString() {
+    return ruleName;
+  }
+}
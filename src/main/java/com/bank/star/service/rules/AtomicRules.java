@@ -6,12 +6,14 @@ import com.bank.star.repository.RecommendationRepository;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
-import java.util.UUID;
 
 /**
  * Компонент, содержащий атомарные (базовые) правила для рекомендательной системы.
  * Атомарные правила представляют собой неделимые проверки, которые могут комбинироваться
  * для создания более сложных условий рекомендаций.
+ * Все проверки выполняются над финансовым профилем пользователя
+ * {@link com.bank.star.model.UserFinancialProfile}, который загружается одним запросом;
+ * при пакетной проверке профили блока пользователей загружаются одним запросом на блок.
  */
 @Component
 public class AtomicRules {
@@ -34,37 +36,20 @@ public class AtomicRules {
    * @return правило RecommendationRule, проверяющее наличие продукта
    */
   public RecommendationRule hasProductType(ProductType type) {
-    return new RecommendationRule() {
-      @Override
-      public boolean isEligible(UUID userId) {
-        return repository.userHasProductType(userId, type);
-      }
-
-      @Override
-      public String getRuleName() {
-        return "HAS_PRODUCT_" + type.name();
-      }
-    };
+    return atomicRule("HAS_PRODUCT_" + type.name(),
+        ProfileCondition.transactionCount(type, ProfileCondition.Comparison.GT, 0, false));
   }
 
   /**
    * Атомарное правило: проверяет отсутствие у пользователя продукта указанного типа.
+   * Использует тот же факт, что и {@link #hasProductType(ProductType)}, с отрицанием.
    *
    * @param type тип продукта для проверки
    * @return правило RecommendationRule, проверяющее отсутствие продукта
    */
   public RecommendationRule hasNoProductType(ProductType type) {
-    return new RecommendationRule() {
-      @Override
-      public boolean isEligible(UUID userId) {
-        return !repository.userHasProductType(userId, type);
-      }
-
-      @Override
-      public String getRuleName() {
-        return "NO_PRODUCT_" + type.name();
-      }
-    };
+    return atomicRule("NO_PRODUCT_" + type.name(),
+        ProfileCondition.transactionCount(type, ProfileCondition.Comparison.GT, 0, true));
   }
 
   /**
@@ -76,18 +61,8 @@ public class AtomicRules {
    * @return правило RecommendationRule для проверки суммы пополнений
    */
   public RecommendationRule depositGreaterThan(ProductType type, BigDecimal threshold) {
-    return new RecommendationRule() {
-      @Override
-      public boolean isEligible(UUID userId) {
-        BigDecimal deposit = repository.getTotalDepositAmountByProductType(userId, type);
-        return deposit != null && deposit.compareTo(threshold) > 0;
-      }
-
-      @Override
-      public String getRuleName() {
-        return "DEPOSIT_" + type.name() + "_GT_" + threshold;
-      }
-    };
+    return atomicRule(ProfileCondition.sum(ProfileCondition.Metric.DEPOSIT_SUM, type,
+        ProfileCondition.Comparison.GT, threshold, false));
   }
 
   /**
@@ -99,18 +74,8 @@ public class AtomicRules {
    * @return правило RecommendationRule для проверки суммы пополнений
    */
   public RecommendationRule depositGreaterOrEqual(ProductType type, BigDecimal threshold) {
-    return new RecommendationRule() {
-      @Override
-      public boolean isEligible(UUID userId) {
-        BigDecimal deposit = repository.getTotalDepositAmountByProductType(userId, type);
-        return deposit != null && deposit.compareTo(threshold) >= 0;
-      }
-
-      @Override
-      public String getRuleName() {
-        return "DEPOSIT_" + type.name() + "_GTE_" + threshold;
-      }
-    };
+    return atomicRule(ProfileCondition.sum(ProfileCondition.Metric.DEPOSIT_SUM, type,
+        ProfileCondition.Comparison.GTE, threshold, false));
   }
 
   /**
@@ -122,18 +87,8 @@ public class AtomicRules {
    * @return правило RecommendationRule для проверки суммы трат
    */
   public RecommendationRule spendGreaterThan(ProductType type, BigDecimal threshold) {
-    return new RecommendationRule() {
-      @Override
-      public boolean isEligible(UUID userId) {
-        BigDecimal spend = repository.getTotalSpendAmountByProductType(userId, type);
-        return spend != null && spend.compareTo(threshold) > 0;
-      }
-
-      @Override
-      public String getRuleName() {
-        return "SPEND_" + type.name() + "_GT_" + threshold;
-      }
-    };
+    return atomicRule(ProfileCondition.sum(ProfileCondition.Metric.WITHDRAW_SUM, type,
+        ProfileCondition.Comparison.GT, threshold, false));
   }
 
   /**
@@ -144,18 +99,27 @@ public class AtomicRules {
    * @return правило RecommendationRule для проверки положительного баланса
    */
   public RecommendationRule positiveBalance(ProductType type) {
-    return new RecommendationRule() {
-      @Override
-      public boolean isEligible(UUID userId) {
-        BigDecimal deposit = repository.getTotalDepositAmountByProductType(userId, type);
-        BigDecimal spend = repository.getTotalSpendAmountByProductType(userId, type);
-        return deposit != null && spend != null && deposit.compareTo(spend) > 0;
-      }
+    return atomicRule(ProfileCondition.balance(type, ProfileCondition.Comparison.GT, false));
+  }
 
-      @Override
-      public String getRuleName() {
-        return "POSITIVE_BALANCE_" + type.name();
-      }
-    };
+  /**
+   * Создает атомарное правило, имя которого совпадает с каноническим ключом факта.
+   */
+  private RecommendationRule atomicRule(ProfileCondition condition) {
+    return atomicRule(condition.getFactKey(), condition);
+  }
+
+  /**
+   * Создает атомарное правило на основе условия над финансовым профилем.
+   * Ключ факта условия используется в {@link EvaluationContext} и {@link RuleGraph}, поэтому
+   * одинаковые условия из разных наборов правил вычисляются один раз на пользователя.
+   *
+   * @param ruleName  имя правила
+   * @param condition условие над профилем пользователя
+   * @return атомарное правило
+   */
+  private RecommendationRule atomicRule(String ruleName, ProfileCondition condition) {
+    return new AtomicRule(ruleName, condition, repository::findUserFinancialProfile,
+        repository::findUserFinancialProfiles);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,202 @@
+/**
+ * Динамическое правило, скомпилированное из {@link DynamicRule} в массив условий над профилем.
+ * Все условия правила объединяются по AND; отрицание отдельного условия задается флагом negate.
+ * Компиляция выполняется один раз на правило, проверка не обращается к базе данных.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.dto.ProductRecommendation;
+import com.bank.star.model.DynamicRule;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.model.UserBitmap;
+import com.bank.star.model.UserFinancialProfile;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public final class CompiledDynamicRule {
+
+  // ACTIVE_USER_OF: активным считается клиент с 5 и более транзакциями по продукту
+  static final int ACTIVE_USER_MIN_TRANSACTIONS = 5;
+
+  private final UUID ruleId;
+  private final ProductRecommendation product;
+  private final ProfileCondition[] conditions;
+
+  private CompiledDynamicRule(UUID ruleId, ProductRecommendation product,
+      ProfileCondition[] conditions) {
+    this.ruleId = ruleId;
+    this.product = product;
+    this.conditions = conditions;
+  }
+
+  /**
+   * Компилирует сохраненное правило.
+   *
+   * @param rule динамическое правило с условиями
+   * @return скомпилированное правило
+   * @throws IllegalArgumentException если правило не содержит условий или аргументы условия некорректны
+   */
+  public static CompiledDynamicRule compile(DynamicRule rule) {
+    List<RuleQuery> queries = rule.getQueries();
+    if (queries == null || queries.isEmpty()) {
+      throw new IllegalArgumentException("Rule " + rule.getId() + " has no queries");
+    }
+
+    ProfileCondition[] conditions = new ProfileCondition[queries.size()];
+    for (int i = 0; i < conditions.length; i++) {
+      conditions[i] = compileQuery(queries.get(i));
+    }
+
+    ProductRecommendation product = new ProductRecommendation(rule.getProductName(),
+        rule.getProductId(), rule.getProductText());
+    return new CompiledDynamicRule(rule.getId(), product, conditions);
+  }
+
+  /**
+   * Преобразует одно условие правила в {@link ProfileCondition}.
+   * Форматы аргументов:
+   * USER_OF / ACTIVE_USER_OF: [тип продукта];
+   * TRANSACTION_SUM_COMPARE: [тип продукта, DEPOSIT|WITHDRAW, оператор, число];
+   * TRANSACTION_SUM_COMPARE_DEPOSIT_WITHDRAW: [тип продукта, оператор].
+   */
+  static ProfileCondition compileQuery(RuleQuery query) {
+    if (query.getQuery() == null) {
+      throw new IllegalArgumentException("Query type must not be null");
+    }
+    ProductType type = ProductType.fromString(requireArgument(query, 0));
+    boolean negated = query.isNegate();
+
+    return switch (query.getQuery()) {
+      case USER_OF -> ProfileCondition.transactionCount(type,
+          ProfileCondition.Comparison.GT, 0, negated);
+      case ACTIVE_USER_OF -> ProfileCondition.transactionCount(type,
+          ProfileCondition.Comparison.GTE, ACTIVE_USER_MIN_TRANSACTIONS, negated);
+      case TRANSACTION_SUM_COMPARE -> {
+        ProfileCondition.Metric metric = switch (requireArgument(query, 1).trim().toUpperCase()) {
+          case "DEPOSIT" -> ProfileCondition.Metric.DEPOSIT_SUM;
+          case "WITHDRAW" -> ProfileCondition.Metric.WITHDRAW_SUM;
+          default -> throw new IllegalArgumentException(
+              "Unknown transaction type: " + query.getArgument(1));
+        };
+        ProfileCondition.Comparison comparison =
+            ProfileCondition.Comparison.fromSymbol(requireArgument(query, 2));
+        BigDecimal threshold;
+        try {
+          threshold = new BigDecimal(requireArgument(query, 3).trim());
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid amount: " + query.getArgument(3));
+        }
+        yield ProfileCondition.sum(metric, type, comparison, threshold, negated);
+      }
+      case TRANSACTION_SUM_COMPARE_DEPOSIT_WITHDRAW -> ProfileCondition.balance(type,
+          ProfileCondition.Comparison.fromSymbol(requireArgument(query, 1)), negated);
+    };
+  }
+
+  private static String requireArgument(RuleQuery query, int index) {
+    String argument = query.getArgument(index);
+    if (argument == null) {
+      throw new IllegalArgumentException(
+          "Missing argument " + index + " for " + query.getQuery() + ": " + query.getArguments());
+    }
+    return argument;
+  }
+
+  /**
+   * Проверяет правило в рамках контекста запроса (факты запоминаются в контексте).
+   */
+  public boolean isEligible(EvaluationContext context) {
+    for (ProfileCondition condition : conditions) {
+      if (!condition.matches(context)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Проверяет правило для всего блока с загруженными профилями: факты условий вычисляются
+   * один раз на блок и делятся с другими правилами, проверяемыми по тому же блоку.
+   *
+   * @return пользователи блока, подходящие под правило
+   */
+  public BitSet evaluateBatch(UserBlock block) {
+    BitSet result = block.getPresentUsers();
+    for (ProfileCondition condition : conditions) {
+      BitSet fact = block.evaluateFact(condition.getFactKey(), condition);
+      if (condition.isNegated()) {
+        result.andNot(fact);
+      } else {
+        result.and(fact);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Проверяет правило для всей базы по фактам снимка транзакций: пересечение карт условий,
+   * отрицание — разность.
+   *
+   * @return индексы подходящих пользователей снимка
+   */
+  public UserBitmap evaluate(SnapshotFacts facts) {
+    UserBitmap result = facts.getUsers();
+    for (ProfileCondition condition : conditions) {
+      UserBitmap fact = facts.evaluateFact(condition.getFactKey(), condition);
+      result = condition.isNegated() ? result.andNot(fact) : result.and(fact);
+    }
+    return result;
+  }
+
+  /**
+   * Проверяет правило по заранее загруженному профилю.
+   */
+  public boolean isEligible(UserFinancialProfile profile) {
+    for (ProfileCondition condition : conditions) {
+      if (!condition.matches(profile)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public UUID getRuleId() {
+    return ruleId;
+  }
+
+  public ProductRecommendation getProduct() {
+    return product;
+  }
+
+  /**
+   * Возвращает отпечаток смысла правила: ID и условия, упорядоченные по ключу факта
+   * (аналог RuleGraph#getFingerprint для одного правила).
+   */
+  public String getFingerprint() {
+    List<String> keys = new ArrayList<>(conditions.length);
+    for (ProfileCondition condition : conditions) {
+      keys.add(condition.toString());
+    }
+    Collections.sort(keys);
+    return ruleId + ":AND(" + String.join(",", keys) + ")";
+  }
+
+  /**
+   * Возвращает условия правила в исходном порядке.
+   */
+  public List<ProfileCondition> getConditions() {
+    return List.of(conditions);
+  }
+
+  @Override
+  public String toString() {
+    return "CompiledDynamicRule{ruleId=" + ruleId + ", product='" + product.getName()
+        + "', conditions=" + List.of(conditions) + '}';
+  }
+}
@@ -1,18 +1,37 @@
 /**
  * Класс композитных правил, реализующий логические операции AND/OR над несколькими правилами.
  * Позволяет создавать сложные условия из атомарных или других композитных правил.
+ * Во время проверки правило собирает статистику по дочерним правилам (доля истинных результатов
+ * и выборочно время проверки); {@link #reordered()} строит копию с порядком проверки, при котором
+ * вычисление завершается как можно раньше. Порядок самого экземпляра не меняется, поэтому
+ * в пределах одного снимка {@link RuleSetSnapshot} правила проверяются детерминированно.
  */
 package com.bank.star.service.rules;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 public class CompositeRule implements RecommendationRule {
 
-  private final List<RecommendationRule> rules;  // Дочерние правила
+  // Время проверки дочерних правил измеряется примерно для каждой 16-й проверки
+  static final int COST_SAMPLE_RATE = 16;
+  // Минимальное количество проверок композитного правила для пересчета порядка
+  static final long MIN_EVALUATIONS_FOR_REORDER = 100;
+
+  private final RecommendationRule[] children;   // Дочерние правила в порядке объявления
+  private final List<RecommendationRule> rules;  // Неизменяемое представление children
   private final String ruleName;                 // Имя композитного правила
   private final Operator operator;               // Логический оператор (AND/OR)
+  private final int[] order;                     // Порядок проверки (индексы в children)
+  private final ChildStatistics statistics;      // Статистика, общая для всех копий правила
 
   /**
    * Перечисление логических операторов для композитных правил.
@@ -30,27 +49,154 @@ public class CompositeRule implements RecommendationRule {
    * @param rules      массив дочерних правил
    */
   public CompositeRule(String ruleName, Operator operator, RecommendationRule... rules) {
+    this(ruleName, operator, rules.clone(), IntStream.range(0, rules.length).toArray(),
+        new ChildStatistics(rules.length));
+  }
+
+  private CompositeRule(String ruleName, Operator operator, RecommendationRule[] children,
+      int[] order, ChildStatistics statistics) {
     this.ruleName = ruleName;
     this.operator = operator;
-    this.rules = Arrays.asList(rules);
+    this.children = children;
+    this.rules = Collections.unmodifiableList(Arrays.asList(children));
+    this.order = order;
+    this.statistics = statistics;
   }
 
   /**
    * Проверяет соответствие пользователя композитному правилу.
    * В зависимости от оператора применяет логику "все" (AND) или "хотя бы одно" (OR).
+   * Совместимый вариант: дочерние правила проверяются независимо, без общего кеша фактов.
    *
    * @param userId уникальный идентификатор пользователя
    * @return true, если пользователь соответствует условиям композитного правила
    */
   @Override
   public boolean isEligible(UUID userId) {
-    if (operator == Operator.AND) {
-      // Для AND: все правила должны вернуть true
-      return rules.stream().allMatch(rule -> rule.isEligible(userId));
-    } else { // OR
-      // Для OR: хотя бы одно правило должно вернуть true
-      return rules.stream().anyMatch(rule -> rule.isEligible(userId));
+    boolean and = operator == Operator.AND;
+    for (int index : order) {
+      // Для AND: первое ложное условие завершает проверку, для OR — первое истинное
+      if (children[index].isEligible(userId) != and) {
+        return !and;
+      }
+    }
+    return and;
+  }
+
+  /**
+   * Проверяет соответствие композитному правилу в рамках контекста запроса.
+   * Контекст передается всем дочерним правилам, поэтому общие атомарные факты
+   * вычисляются однократно для всего дерева и всех наборов правил запроса.
+   * Дочерние правила проверяются в порядке {@link #getEvaluationOrder()} с ранним выходом.
+   *
+   * @param context контекст проверки пользователя
+   * @return true, если пользователь соответствует условиям композитного правила
+   */
+  @Override
+  public boolean isEligible(EvaluationContext context) {
+    boolean and = operator == Operator.AND;
+    boolean sampleCost = ThreadLocalRandom.current().nextInt(COST_SAMPLE_RATE) == 0;
+    statistics.evaluations.increment();
+
+    for (int index : order) {
+      boolean result;
+      if (sampleCost) {
+        long start = System.nanoTime();
+        result = children[index].isEligible(context);
+        statistics.recordCost(index, System.nanoTime() - start);
+      } else {
+        result = children[index].isEligible(context);
+      }
+      statistics.recordResult(index, result);
+
+      if (result != and) {
+        return !and;
+      }
+    }
+    return and;
+  }
+
+  /**
+   * Проверяет композитное правило для блока пользователей: результаты дочерних правил
+   * объединяются побитовыми операциями (AND — and, OR — or). Проверка завершается досрочно,
+   * если для AND не осталось подходящих пользователей, а для OR подходят все пользователи блока.
+   *
+   * @param block блок пользователей
+   * @return множество индексов подходящих пользователей блока
+   */
+  @Override
+  public BitSet evaluateBatch(UserBlock block) {
+    boolean and = operator == Operator.AND;
+    BitSet result = null;
+    for (int index : order) {
+      BitSet child = children[index].evaluateBatch(block);
+      if (result == null) {
+        result = child;
+      } else if (and) {
+        result.and(child);
+      } else {
+        result.or(child);
+      }
+      if (and ? result.isEmpty() : result.cardinality() == block.size()) {
+        break;
+      }
     }
+    return result != null ? result : new BitSet(block.size());
+  }
+
+  /**
+   * Возвращает копию правила с порядком проверки, выученным по накопленной статистике.
+   * Дочерние композитные правила перестраиваются рекурсивно. Дочернее правило раньше проверяется,
+   * если у него меньше средняя стоимость на один решающий результат (ложный для AND, истинный для OR);
+   * при равенстве сохраняется порядок объявления, поэтому результат детерминирован.
+   *
+   * @return новое правило с измененным порядком или этот же экземпляр, если порядок не изменился
+   */
+  public CompositeRule reordered() {
+    RecommendationRule[] reorderedChildren = children.clone();
+    boolean childrenChanged = false;
+    for (int i = 0; i < reorderedChildren.length; i++) {
+      if (reorderedChildren[i] instanceof CompositeRule composite) {
+        reorderedChildren[i] = composite.reordered();
+        childrenChanged |= reorderedChildren[i] != children[i];
+      }
+    }
+
+    int[] learnedOrder = statistics.evaluations.sum() >= MIN_EVALUATIONS_FOR_REORDER
+        ? learnOrder() : order;
+    boolean orderChanged = !Arrays.equals(learnedOrder, order);
+    if (!childrenChanged && !orderChanged) {
+      return this;
+    }
+    // Статистика общая: копия продолжает обучение с накопленных значений
+    return new CompositeRule(ruleName, operator, childrenChanged ? reorderedChildren : children,
+        learnedOrder, statistics);
+  }
+
+  private int[] learnOrder() {
+    // Для правил без замеров времени берется средняя стоимость измеренных соседей
+    double measuredCost = 0;
+    int measured = 0;
+    for (int i = 0; i < children.length; i++) {
+      if (statistics.costSamples[i].sum() > 0) {
+        measuredCost += getChildAverageCostNanos(i);
+        measured++;
+      }
+    }
+    double defaultCost = measured > 0 ? measuredCost / measured : 0.0;
+
+    double[] scores = new double[children.length];
+    for (int i = 0; i < children.length; i++) {
+      // Сглаживание Лапласа: правила без статистики получают долю 0.5
+      double passRate = (statistics.passes[i].sum() + 1.0) / (statistics.results[i].sum() + 2.0);
+      double decisiveRate = operator == Operator.AND ? 1.0 - passRate : passRate;
+      double cost = statistics.costSamples[i].sum() > 0 ? getChildAverageCostNanos(i) : defaultCost;
+      scores[i] = (cost + 1.0) / decisiveRate;
+    }
+    return IntStream.range(0, children.length).boxed()
+        .sorted(Comparator.<Integer>comparingDouble(i -> scores[i]).thenComparingInt(i -> i))
+        .mapToInt(Integer::intValue)
+        .toArray();
   }
 
   /**
@@ -63,15 +209,74 @@ public class CompositeRule implements RecommendationRule {
     return ruleName;
   }
 
+  public Operator getOperator() {
+    return operator;
+  }
+
   /**
    * Возвращает список дочерних правил.
    *
-   * @return неизменяемый список дочерних правил
+   * @return неизменяемый список дочерних правил в порядке объявления
    */
   public List<RecommendationRule> getChildRules() {
     return rules;
   }
 
+  /**
+   * Возвращает дочерние правила в текущем порядке проверки.
+   *
+   * @return неизменяемый список дочерних правил
+   */
+  public List<RecommendationRule> getEvaluationOrder() {
+    List<RecommendationRule> ordered = new ArrayList<>(order.length);
+    for (int index : order) {
+      ordered.add(children[index]);
+    }
+    return Collections.unmodifiableList(ordered);
+  }
+
+  /**
+   * Возвращает позицию дочернего правила в порядке проверки.
+   *
+   * @param childIndex индекс дочернего правила в порядке объявления
+   * @return позиция (с нуля) в текущем порядке проверки
+   */
+  public int getChildPosition(int childIndex) {
+    for (int position = 0; position < order.length; position++) {
+      if (order[position] == childIndex) {
+        return position;
+      }
+    }
+    throw new IndexOutOfBoundsException("Child index out of range: " + childIndex);
+  }
+
+  /**
+   * Возвращает долю истинных результатов дочернего правила (NaN, если правило не проверялось).
+   *
+   * @param childIndex индекс дочернего правила в порядке объявления
+   */
+  public double getChildPassRate(int childIndex) {
+    long results = statistics.results[childIndex].sum();
+    return results == 0 ? Double.NaN : (double) statistics.passes[childIndex].sum() / results;
+  }
+
+  /**
+   * Возвращает среднее измеренное время проверки дочернего правила в наносекундах.
+   *
+   * @param childIndex индекс дочернего правила в порядке объявления
+   */
+  public double getChildAverageCostNanos(int childIndex) {
+    long samples = statistics.costSamples[childIndex].sum();
+    return samples == 0 ? 0.0 : (double) statistics.costNanos[childIndex].sum() / samples;
+  }
+
+  /**
+   * Возвращает количество проверок композитного правила (по всем копиям).
+   */
+  public long getEvaluationCount() {
+    return statistics.evaluations.sum();
+  }
+
   /**
    * Создает композитное правило с оператором AND.
    *
@@ -93,4 +298,44 @@ public class CompositeRule implements RecommendationRule {
   public static CompositeRule or(String name, RecommendationRule... rules) {
     return new CompositeRule(name, Operator.OR, rules);
   }
-}
\ No newline at end of file
+
+  /**
+   * Счетчики по дочерним правилам. LongAdder не создает конкуренции между потоками
+   * пакетной обработки, проверяющими одно и то же правило.
+   */
+  private static final class ChildStatistics {
+
+    private final LongAdder evaluations = new LongAdder();  // Проверки композитного правила
+    private final LongAdder[] results;                       // Проверки дочернего правила
+    private final LongAdder[] passes;                        // Истинные результаты
+    private final LongAdder[] costNanos;                     // Суммарное измеренное время
+    private final LongAdder[] costSamples;                   // Количество измерений времени
+
+    private ChildStatistics(int size) {
+      results = newAdders(size);
+      passes = newAdders(size);
+      costNanos = newAdders(size);
+      costSamples = newAdders(size);
+    }
+
+    private static LongAdder[] newAdders(int size) {
+      LongAdder[] adders = new LongAdder[size];
+      for (int i = 0; i < size; i++) {
+        adders[i] = new LongAdder();
+      }
+      return adders;
+    }
+
+    private void recordResult(int index, boolean result) {
+      results[index].increment();
+      if (result) {
+        passes[index].increment();
+      }
+    }
+
+    private void recordCost(int index, long nanos) {
+      costNanos[index].add(nanos);
+      costSamples[index].increment();
+    }
+  }
+}
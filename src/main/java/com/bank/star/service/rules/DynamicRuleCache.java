@@ -0,0 +1,178 @@
+/**
+ * Кеш скомпилированных динамических правил.
+ * Правила загружаются из базы один раз при старте приложения и хранятся в неизменяемом
+ * {@link DynamicRuleSnapshot}. Изменения через {@link com.bank.star.controller.DynamicRuleController}
+ * публикуют новую копию снимка с увеличенной версией (copy-on-write), поэтому запросы рекомендаций
+ * читают правила без блокировок и без обращений к dynamic_rules / rule_queries / query_arguments.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.DynamicRule;
+import com.bank.star.repository.DynamicRuleRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Component
+public class DynamicRuleCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(DynamicRuleCache.class);
+
+  private final DynamicRuleRepository dynamicRuleRepository;
+
+  // Текущий снимок; читается без блокировок, заменяется целиком под монитором кеша
+  private volatile DynamicRuleSnapshot snapshot = DynamicRuleSnapshot.empty();
+  private volatile boolean loaded;
+
+  public DynamicRuleCache(DynamicRuleRepository dynamicRuleRepository) {
+    this.dynamicRuleRepository = dynamicRuleRepository;
+  }
+
+  /**
+   * Загружает правила при старте приложения.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void loadOnStartup() {
+    reload();
+  }
+
+  /**
+   * Возвращает текущий снимок правил. Если правила еще не загружены (запрос пришел
+   * до окончания старта), загружает их.
+   *
+   * @return неизменяемый снимок скомпилированных правил
+   */
+  public DynamicRuleSnapshot getSnapshot() {
+    if (!loaded) {
+      reload();
+    }
+    return snapshot;
+  }
+
+  /**
+   * Возвращает версию текущего снимка.
+   */
+  public long getVersion() {
+    return getSnapshot().getVersion();
+  }
+
+  /**
+   * Перечитывает все правила из базы и публикует новый снимок. Уже скомпилированные правила
+   * с теми же ID переиспользуются. При ошибке чтения текущий снимок сохраняется.
+   *
+   * @return опубликованный снимок
+   */
+  public synchronized DynamicRuleSnapshot reload() {
+    List<DynamicRule> rules;
+    try {
+      rules = dynamicRuleRepository.findAll();
+    } catch (Exception e) {
+      logger.error("Error loading dynamic rules: {}", e.getMessage());
+      return snapshot;
+    }
+
+    Map<UUID, CompiledDynamicRule> previous = snapshot.getRulesById();
+    Map<UUID, CompiledDynamicRule> compiled = new LinkedHashMap<>();
+    Map<UUID, UUID> ruleIds = new HashMap<>();
+    for (DynamicRule rule : rules) {
+      CompiledDynamicRule existing = rule.getId() != null ? previous.get(rule.getId()) : null;
+      CompiledDynamicRule result = existing != null ? existing : compile(rule);
+      if (result != null) {
+        compiled.put(rule.getId(), result);
+      }
+      if (rule.getId() != null && rule.getProductId() != null) {
+        ruleIds.putIfAbsent(rule.getProductId(), rule.getId());
+      }
+    }
+
+    DynamicRuleSnapshot published = publish(compiled, ruleIds);
+    loaded = true;
+    logger.info("✅ Dynamic rule cache loaded: {} of {} rules compiled (version {})",
+        published.size(), rules.size(), published.getVersion());
+    return published;
+  }
+
+  /**
+   * Добавляет (или заменяет) сохраненное правило в кеше.
+   *
+   * @param rule сохраненное правило с присвоенным ID
+   * @return опубликованный снимок
+   */
+  public synchronized DynamicRuleSnapshot put(DynamicRule rule) {
+    if (!loaded) {
+      return reload();
+    }
+    Map<UUID, CompiledDynamicRule> copy = new LinkedHashMap<>(snapshot.getRulesById());
+    Map<UUID, UUID> ruleIds = new HashMap<>(snapshot.getRuleIdsByProductId());
+    CompiledDynamicRule compiled = compile(rule);
+    if (compiled != null) {
+      copy.put(rule.getId(), compiled);
+    } else if (rule.getId() != null) {
+      copy.remove(rule.getId());
+    }
+    if (rule.getId() != null) {
+      ruleIds.values().remove(rule.getId());
+      if (rule.getProductId() != null) {
+        ruleIds.putIfAbsent(rule.getProductId(), rule.getId());
+      }
+    }
+    return publish(copy, ruleIds);
+  }
+
+  /**
+   * Удаляет правило из кеша.
+   *
+   * @param ruleId ID удаленного правила
+   * @return опубликованный снимок
+   */
+  public synchronized DynamicRuleSnapshot remove(UUID ruleId) {
+    if (!loaded) {
+      return reload();
+    }
+    Map<UUID, CompiledDynamicRule> copy = new LinkedHashMap<>(snapshot.getRulesById());
+    Map<UUID, UUID> ruleIds = new HashMap<>(snapshot.getRuleIdsByProductId());
+    copy.remove(ruleId);
+    ruleIds.values().remove(ruleId);
+    // Продукт удаленного правила может остаться у другого правила
+    for (CompiledDynamicRule rule : copy.values()) {
+      ruleIds.putIfAbsent(rule.getProduct().getId(), rule.getRuleId());
+    }
+    return publish(copy, ruleIds);
+  }
+
+  private DynamicRuleSnapshot publish(Map<UUID, CompiledDynamicRule> rulesById,
+      Map<UUID, UUID> ruleIdsByProductId) {
+    DynamicRuleSnapshot next = new DynamicRuleSnapshot(snapshot.getVersion() + 1, rulesById,
+        ruleIdsByProductId);
+    snapshot = next;
+    return next;
+  }
+
+  /**
+   * Компилирует правило. Правила без условий (записи встроенных продуктов) и правила
+   * с некорректными аргументами пропускаются.
+   *
+   * @return скомпилированное правило или null, если правило не участвует в проверке
+   */
+  private CompiledDynamicRule compile(DynamicRule rule) {
+    if (rule.getId() == null || rule.getQueries() == null || rule.getQueries().isEmpty()) {
+      return null;
+    }
+    try {
+      CompiledDynamicRule compiled = CompiledDynamicRule.compile(rule);
+      logger.debug("Compiled dynamic rule {}: {}", rule.getId(), compiled);
+      return compiled;
+    } catch (Exception e) {
+      logger.warn("⚠️ Skipping invalid dynamic rule {}: {}", rule.getId(), e.getMessage());
+      return null;
+    }
+  }
+}
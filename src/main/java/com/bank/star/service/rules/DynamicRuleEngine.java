@@ -0,0 +1,72 @@
+/**
+ * Движок проверки динамических правил, созданных через {@link com.bank.star.controller.DynamicRuleController}.
+ * Скомпилированные правила берутся из снимка {@link DynamicRuleCache}; проверка выполняется
+ * по уже загруженному профилю пользователя в {@link EvaluationContext}, поэтому количество запросов
+ * к базе не зависит от количества правил и условий.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.dto.ProductRecommendation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Component
+public class DynamicRuleEngine {
+
+  private static final Logger logger = LoggerFactory.getLogger(DynamicRuleEngine.class);
+
+  private final DynamicRuleCache dynamicRuleCache;
+
+  public DynamicRuleEngine(DynamicRuleCache dynamicRuleCache) {
+    this.dynamicRuleCache = dynamicRuleCache;
+  }
+
+  /**
+   * Возвращает скомпилированные динамические правила текущего снимка.
+   *
+   * @return неизменяемый список скомпилированных правил
+   */
+  public List<CompiledDynamicRule> getCompiledRules() {
+    return dynamicRuleCache.getSnapshot().getRules();
+  }
+
+  /**
+   * Возвращает продукты динамических правил, которым соответствует пользователь.
+   *
+   * @param context контекст проверки пользователя
+   * @return список рекомендованных продуктов (пустой для отсутствующего пользователя)
+   */
+  public List<ProductRecommendation> getRecommendations(EvaluationContext context) {
+    return getRecommendations(dynamicRuleCache.getSnapshot(), context);
+  }
+
+  /**
+   * Возвращает продукты динамических правил указанного снимка, которым соответствует пользователь.
+   * Позволяет пакетной обработке проверять всех пользователей по одному снимку.
+   *
+   * @param snapshot снимок скомпилированных правил
+   * @param context  контекст проверки пользователя
+   * @return список рекомендованных продуктов (пустой для отсутствующего пользователя)
+   */
+  public List<ProductRecommendation> getRecommendations(DynamicRuleSnapshot snapshot,
+      EvaluationContext context) {
+    List<CompiledDynamicRule> rules = snapshot.getRules();
+    if (rules.isEmpty() || context.getProfile().isEmpty()) {
+      return List.of();
+    }
+
+    List<ProductRecommendation> recommendations = new ArrayList<>();
+    for (CompiledDynamicRule rule : rules) {
+      if (rule.isEligible(context)) {
+        recommendations.add(rule.getProduct());
+      }
+    }
+    logger.debug("🔍 Dynamic rules for user {}: {} of {} matched (rules version {})",
+        context.getUserId(), recommendations.size(), rules.size(), snapshot.getVersion());
+    return recommendations;
+  }
+}
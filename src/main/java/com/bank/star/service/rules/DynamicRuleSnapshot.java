@@ -0,0 +1,73 @@
+/**
+ * Неизменяемый снимок скомпилированных динамических правил.
+ * Публикуется {@link DynamicRuleCache} целиком (copy-on-write), поэтому запросы рекомендаций
+ * читают согласованный список правил без блокировок.
+ */
+package com.bank.star.service.rules;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+public final class DynamicRuleSnapshot {
+
+  private final long version;                               // Версия снимка (растет при каждом изменении)
+  private final List<CompiledDynamicRule> rules;            // Правила в порядке загрузки
+  private final Map<UUID, CompiledDynamicRule> rulesById;   // ID правила -> скомпилированное правило
+  private final Map<UUID, UUID> ruleIdsByProductId;         // ID продукта -> ID правила (все записи)
+
+  DynamicRuleSnapshot(long version, Map<UUID, CompiledDynamicRule> rulesById,
+      Map<UUID, UUID> ruleIdsByProductId) {
+    this.version = version;
+    this.rulesById = Collections.unmodifiableMap(new LinkedHashMap<>(rulesById));
+    this.rules = List.copyOf(rulesById.values());
+    this.ruleIdsByProductId = Map.copyOf(ruleIdsByProductId);
+  }
+
+  /**
+   * Пустой снимок (правила еще не загружены).
+   */
+  static DynamicRuleSnapshot empty() {
+    return new DynamicRuleSnapshot(0, Map.of(), Map.of());
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public List<CompiledDynamicRule> getRules() {
+    return rules;
+  }
+
+  /**
+   * Возвращает неизменяемое отображение ID правила -> скомпилированное правило.
+   */
+  Map<UUID, CompiledDynamicRule> getRulesById() {
+    return rulesById;
+  }
+
+  /**
+   * Возвращает неизменяемое отображение ID продукта -> ID правила.
+   */
+  Map<UUID, UUID> getRuleIdsByProductId() {
+    return ruleIdsByProductId;
+  }
+
+  /**
+   * Находит правило продукта среди всех загруженных записей dynamic_rules, включая записи
+   * без условий (встроенные продукты), без обращения к базе.
+   *
+   * @param productId ID продукта
+   * @return ID правила или Optional.empty(), если у продукта нет правила
+   */
+  public Optional<UUID> findRuleIdByProductId(UUID productId) {
+    return Optional.ofNullable(ruleIdsByProductId.get(productId));
+  }
+
+  public int size() {
+    return rules.size();
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Контекст проверки правил в рамках одного запроса рекомендаций.
+ * Лениво загружает финансовый профиль пользователя (не более одного раза) и запоминает
+ * результат каждого атомарного факта, чтобы одинаковые условия из разных наборов правил
+ * (например, положительный баланс по DEBIT в Top Saving и Простом кредите) вычислялись однократно.
+ * Контекст не потокобезопасен и не должен переиспользоваться между запросами.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.UserFinancialProfile;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class EvaluationContext {
+
+  private final UUID userId;                                                   // Проверяемый пользователь
+  private final Function<UUID, Optional<UserFinancialProfile>> profileLoader; // Загрузчик профиля
+  private final Map<String, Boolean> facts = new HashMap<>();                  // Вычисленные факты
+
+  private Optional<UserFinancialProfile> profile;  // null, пока профиль не загружен
+  private int factEvaluations;                     // Количество фактически вычисленных фактов
+
+  private EvaluationContext(UUID userId,
+      Function<UUID, Optional<UserFinancialProfile>> profileLoader,
+      Optional<UserFinancialProfile> profile) {
+    this.userId = userId;
+    this.profileLoader = profileLoader;
+    this.profile = profile;
+  }
+
+  /**
+   * Создает контекст, который загрузит профиль пользователя при первом обращении.
+   *
+   * @param userId        уникальный идентификатор пользователя
+   * @param profileLoader функция загрузки профиля (обычно RecommendationRepository::findUserFinancialProfile)
+   * @return новый контекст проверки
+   */
+  public static EvaluationContext forUser(UUID userId,
+      Function<UUID, Optional<UserFinancialProfile>> profileLoader) {
+    return new EvaluationContext(userId, profileLoader, null);
+  }
+
+  /**
+   * Создает контекст для уже загруженного профиля.
+   *
+   * @param profile финансовый профиль пользователя
+   * @return новый контекст проверки
+   */
+  public static EvaluationContext of(UserFinancialProfile profile) {
+    return new EvaluationContext(profile.getUserId(), null, Optional.of(profile));
+  }
+
+  public UUID getUserId() {
+    return userId;
+  }
+
+  /**
+   * Возвращает профиль пользователя, загружая его при первом вызове.
+   *
+   * @return профиль или Optional.empty(), если пользователь не найден
+   */
+  public Optional<UserFinancialProfile> getProfile() {
+    if (profile == null) {
+      Optional<UserFinancialProfile> loaded = profileLoader.apply(userId);
+      profile = loaded != null ? loaded : Optional.empty();
+    }
+    return profile;
+  }
+
+  /**
+   * Возвращает запомненное значение факта или вычисляет его по профилю.
+   * Для отсутствующего пользователя любой факт ложен.
+   *
+   * @param key  канонический ключ факта (имя атомарного правила)
+   * @param fact условие над профилем пользователя
+   * @return значение факта
+   */
+  public boolean evaluateFact(String key, Predicate<UserFinancialProfile> fact) {
+    Boolean cached = facts.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    factEvaluations++;
+    boolean value = getProfile().map(fact::test).orElse(false);
+    facts.put(key, value);
+    return value;
+  }
+
+  /**
+   * Возвращает количество фактически вычисленных (не взятых из кеша) фактов.
+   */
+  public int getFactEvaluations() {
+    return factEvaluations;
+  }
+}
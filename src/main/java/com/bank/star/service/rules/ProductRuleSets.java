@@ -1,32 +1,39 @@
 /**
- * Компонент, содержащий наборы правил для конкретных банковских продуктов.
- * Определяет бизнес-логику рекомендаций в виде композитных правил,
- * объединяющих атомарные проверки.
+ * Компонент, предоставляющий наборы правил для конкретных банковских продуктов.
+ * Деревья правил не создаются при каждом вызове: они берутся из текущего неизменяемого
+ * снимка {@link RuleSetRegistry}. Для согласованной проверки нескольких продуктов
+ * предпочтительно один раз получить снимок через {@link #getSnapshot()}.
  */
 package com.bank.star.service.rules;
 
-import com.bank.star.model.ProductType;
 import org.springframework.stereotype.Component;
 
-import java.math.BigDecimal;
-
 @Component
 public class ProductRuleSets {
 
-  private final AtomicRules atomicRules;  // Сервис атомарных правил
+  // Названия продуктов, для которых определены наборы правил
+  public static final String INVEST_500 = "Invest 500";
+  public static final String TOP_SAVING = "Top Saving";
+  public static final String SIMPLE_CREDIT = "Простой кредит";
+
+  private final RuleSetRegistry registry;  // Реестр предварительно построенных наборов правил
 
-  // Константы для пороговых значений суммы
-  private static final BigDecimal SAVING_THRESHOLD_1K = new BigDecimal("1000");
-  private static final BigDecimal DEPOSIT_THRESHOLD_50K = new BigDecimal("50000");
-  private static final BigDecimal SPEND_THRESHOLD_100K = new BigDecimal("100000");
+  /**
+   * Конструктор с внедрением зависимости реестра наборов правил.
+   *
+   * @param registry реестр наборов правил
+   */
+  public ProductRuleSets(RuleSetRegistry registry) {
+    this.registry = registry;
+  }
 
   /**
-   * Конструктор с внедрением зависимости сервиса атомарных правил.
+   * Возвращает текущий неизменяемый снимок всех наборов правил.
    *
-   * @param atomicRules сервис атомарных правил
+   * @return снимок наборов правил
    */
-  public ProductRuleSets(AtomicRules atomicRules) {
-    this.atomicRules = atomicRules;
+  public RuleSetSnapshot getSnapshot() {
+    return registry.getSnapshot();
   }
 
   /**
@@ -34,36 +41,25 @@ public class ProductRuleSets {
    * Условия:
    * 1. Пользователь имеет дебетовый продукт (DEBIT)
    * 2. Пользователь НЕ имеет инвестиционного продукта (INVEST)
-   * 3. Сумма пополнений сберегательного продукта (SAVING) > 1,000
+   * 3. Сумма пополнений сберегательного продукта (SAVING) > recommendation.rules.invest500.saving-threshold
    *
    * @return композитное правило для рекомендации "Invest 500"
    */
   public RecommendationRule getInvest500RuleSet() {
-    return CompositeRule.and("INVEST_500_RULES",
-        atomicRules.hasProductType(ProductType.DEBIT),
-        atomicRules.hasNoProductType(ProductType.INVEST),
-        atomicRules.depositGreaterThan(ProductType.SAVING, SAVING_THRESHOLD_1K)
-    );
+    return registry.getSnapshot().getInvest500RuleSet();
   }
 
   /**
    * Возвращает набор правил для продукта "Top Saving".
    * Условия:
    * 1. Пользователь имеет дебетовый продукт (DEBIT)
-   * 2. Сумма пополнений по DEBIT или SAVING >= 50,000 (оператор OR)
+   * 2. Сумма пополнений по DEBIT или SAVING >= recommendation.rules.topsaving.deposit-threshold
    * 3. Положительный баланс по DEBIT (пополнения > траты)
    *
    * @return композитное правило для рекомендации "Top Saving"
    */
   public RecommendationRule getTopSavingRuleSet() {
-    return CompositeRule.and("TOP_SAVING_RULES",
-        atomicRules.hasProductType(ProductType.DEBIT),
-        CompositeRule.or("HIGH_DEPOSITS",
-            atomicRules.depositGreaterOrEqual(ProductType.DEBIT, DEPOSIT_THRESHOLD_50K),
-            atomicRules.depositGreaterOrEqual(ProductType.SAVING, DEPOSIT_THRESHOLD_50K)
-        ),
-        atomicRules.positiveBalance(ProductType.DEBIT)
-    );
+    return registry.getSnapshot().getTopSavingRuleSet();
   }
 
   /**
@@ -71,15 +67,11 @@ public class ProductRuleSets {
    * Условия:
    * 1. Пользователь НЕ имеет кредитного продукта (CREDIT)
    * 2. Положительный баланс по DEBIT (пополнения > траты)
-   * 3. Сумма трат по DEBIT > 100,000
+   * 3. Сумма трат по DEBIT > recommendation.rules.simplecredit.spend-threshold
    *
    * @return композитное правило для рекомендации "Простой кредит"
    */
   public RecommendationRule getSimpleCreditRuleSet() {
-    return CompositeRule.and("SIMPLE_CREDIT_RULES",
-        atomicRules.hasNoProductType(ProductType.CREDIT),
-        atomicRules.positiveBalance(ProductType.DEBIT),
-        atomicRules.spendGreaterThan(ProductType.DEBIT, SPEND_THRESHOLD_100K)
-    );
+    return registry.getSnapshot().getSimpleCreditRuleSet();
   }
-}
\ No newline at end of file
+}
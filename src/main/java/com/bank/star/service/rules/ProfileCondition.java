@@ -0,0 +1,337 @@
+/**
+ * Атомарное условие над финансовым профилем пользователя: агрегат (количество транзакций, сумма
+ * пополнений или трат, баланс) по типу продукта, сравниваемый с порогом, с необязательным отрицанием.
+ * Используется встроенными правилами {@link AtomicRules} и скомпилированными динамическими правилами
+ * {@link CompiledDynamicRule}: аргументы разбираются один раз, а проверка сводится к чтению агрегата
+ * профиля и одному сравнению без выделения памяти. Пороги сумм переводятся в копейки
+ * ({@link MinorUnits}) при создании условия, поэтому суммы профиля сравниваются как long.
+ * Канонический ключ факта не зависит от отрицания, поэтому одинаковые условия вычисляются
+ * в {@link EvaluationContext} и {@link RuleGraph} однократно.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.MinorUnits;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.SumIndex;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.function.Predicate;
+
+public final class ProfileCondition implements Predicate<UserFinancialProfile> {
+
+  /**
+   * Агрегат профиля, который сравнивается с порогом.
+   */
+  public enum Metric {
+    TRANSACTION_COUNT,  // Количество транзакций по типу продукта
+    DEPOSIT_SUM,        // Сумма пополнений по типу продукта
+    WITHDRAW_SUM,       // Сумма трат по типу продукта
+    BALANCE             // Сравнение суммы пополнений с суммой трат
+  }
+
+  /**
+   * Оператор сравнения из аргументов правила.
+   */
+  public enum Comparison {
+    GT(">"),
+    GTE(">="),
+    LT("<"),
+    LTE("<="),
+    EQ("=");
+
+    private final String symbol;
+
+    Comparison(String symbol) {
+      this.symbol = symbol;
+    }
+
+    public String getSymbol() {
+      return symbol;
+    }
+
+    /**
+     * Проверяет результат compareTo (левая часть относительно правой).
+     */
+    public boolean matches(int comparison) {
+      return switch (this) {
+        case GT -> comparison > 0;
+        case GTE -> comparison >= 0;
+        case LT -> comparison < 0;
+        case LTE -> comparison <= 0;
+        case EQ -> comparison == 0;
+      };
+    }
+
+    /**
+     * Преобразует символ оператора (">", ">=", "<", "<=", "=") в Comparison.
+     */
+    public static Comparison fromSymbol(String value) {
+      if (value != null) {
+        for (Comparison comparison : values()) {
+          if (comparison.symbol.equals(value.trim())) {
+            return comparison;
+          }
+        }
+      }
+      throw new IllegalArgumentException("Unknown comparison operator: " + value);
+    }
+  }
+
+  private final Metric metric;
+  private final ProductType productType;
+  private final Comparison comparison;
+  private final BigDecimal threshold;   // Порог для сумм (для BALANCE не используется)
+  private final long thresholdMinor;    // Порог для сумм в копейках, округленный вниз
+  private final int thresholdTie;       // Результат сравнения суммы, равной thresholdMinor, с порогом
+  private final int countThreshold;     // Порог для количества транзакций
+  private final boolean negated;        // Результат условия инвертируется
+  private final String factKey;         // Канонический ключ факта без учета отрицания
+
+  private ProfileCondition(Metric metric, ProductType productType, Comparison comparison,
+      BigDecimal threshold, int countThreshold, boolean negated) {
+    this.metric = metric;
+    this.productType = productType;
+    this.comparison = comparison;
+    this.threshold = threshold;
+    // Порог с долями копейки (или вне диапазона long) не равен ни одной сумме: сумма,
+    // равная округленному порогу, меньше исходного (или больше при переполнении вниз)
+    if (threshold == null) {
+      this.thresholdMinor = 0;
+      this.thresholdTie = 0;
+    } else {
+      BigDecimal scaled = threshold.movePointRight(MinorUnits.SCALE);
+      BigDecimal floor = scaled.setScale(0, RoundingMode.FLOOR);
+      if (floor.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) > 0) {
+        this.thresholdMinor = Long.MAX_VALUE;
+        this.thresholdTie = -1;
+      } else if (floor.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) < 0) {
+        this.thresholdMinor = Long.MIN_VALUE;
+        this.thresholdTie = 1;
+      } else {
+        this.thresholdMinor = floor.longValueExact();
+        this.thresholdTie = floor.compareTo(scaled) == 0 ? 0 : -1;
+      }
+    }
+    this.countThreshold = countThreshold;
+    this.negated = negated;
+    this.factKey = buildFactKey();
+  }
+
+  /**
+   * Условие на количество транзакций по типу продукта.
+   */
+  public static ProfileCondition transactionCount(ProductType type, Comparison comparison,
+      int threshold, boolean negated) {
+    return new ProfileCondition(Metric.TRANSACTION_COUNT, type, comparison, null, threshold,
+        negated);
+  }
+
+  /**
+   * Условие на сумму пополнений или трат по типу продукта.
+   */
+  public static ProfileCondition sum(Metric metric, ProductType type, Comparison comparison,
+      BigDecimal threshold, boolean negated) {
+    if (metric != Metric.DEPOSIT_SUM && metric != Metric.WITHDRAW_SUM) {
+      throw new IllegalArgumentException("Metric is not a sum: " + metric);
+    }
+    if (threshold == null) {
+      throw new IllegalArgumentException("Threshold must not be null");
+    }
+    BigDecimal normalized = threshold.stripTrailingZeros();
+    if (normalized.scale() < 0) {
+      normalized = normalized.setScale(0);
+    }
+    return new ProfileCondition(metric, type, comparison, normalized, 0, negated);
+  }
+
+  /**
+   * Условие сравнения суммы пополнений с суммой трат по типу продукта.
+   */
+  public static ProfileCondition balance(ProductType type, Comparison comparison,
+      boolean negated) {
+    return new ProfileCondition(Metric.BALANCE, type, comparison, null, 0, negated);
+  }
+
+  /**
+   * Возвращает то же условие без отрицания (канонический атомарный факт).
+   */
+  public ProfileCondition positive() {
+    return negated
+        ? new ProfileCondition(metric, productType, comparison, threshold, countThreshold, false)
+        : this;
+  }
+
+  /**
+   * Вычисляет условие без учета отрицания.
+   *
+   * @param profile финансовый профиль пользователя
+   * @return значение атомарного факта
+   */
+  @Override
+  public boolean test(UserFinancialProfile profile) {
+    return test(profile.getDepositSumMinor(productType), profile.getWithdrawSumMinor(productType),
+        profile.getTransactionCount(productType));
+  }
+
+  /**
+   * Вычисляет условие без учета отрицания по агрегатам пользователя для типа продукта условия
+   * (например, по столбцам снимка транзакций, без сборки профиля).
+   *
+   * @param depositSumMinor  сумма пополнений в копейках
+   * @param withdrawSumMinor сумма трат в копейках
+   * @param transactionCount количество транзакций
+   * @return значение атомарного факта
+   */
+  public boolean test(long depositSumMinor, long withdrawSumMinor, int transactionCount) {
+    return switch (metric) {
+      case TRANSACTION_COUNT -> comparison.matches(
+          Integer.compare(transactionCount, countThreshold));
+      case DEPOSIT_SUM -> comparison.matches(compareToThreshold(depositSumMinor));
+      case WITHDRAW_SUM -> comparison.matches(compareToThreshold(withdrawSumMinor));
+      case BALANCE -> comparison.matches(Long.compare(depositSumMinor, withdrawSumMinor));
+    };
+  }
+
+  /**
+   * Сравнивает сумму в копейках с порогом условия (как BigDecimal#compareTo).
+   */
+  private int compareToThreshold(long amountMinor) {
+    int result = Long.compare(amountMinor, thresholdMinor);
+    return result != 0 ? result : thresholdTie;
+  }
+
+  /**
+   * Возвращает позиции [from, to) индекса, упорядоченного по агрегату условия (сумме в копейках
+   * или количеству транзакций, см. {@link #metricValue}), на которых условие истинно без учета
+   * отрицания. Пользователи с суммой, равной округленному порогу, относятся к меньшим, большим
+   * или равным порогу так же, как в {@link #compareToThreshold}.
+   *
+   * @param index пользователи, упорядоченные по агрегату условия
+   * @return массив из двух элементов: from и to
+   * @throws IllegalStateException для условия BALANCE, у которого нет порога
+   */
+  public int[] matchingRange(SumIndex index) {
+    requireThreshold();
+    long key = metric == Metric.TRANSACTION_COUNT ? countThreshold : thresholdMinor;
+    int tie = metric == Metric.TRANSACTION_COUNT ? 0 : thresholdTie;
+    int lower = index.lowerBound(key);
+    int upper = index.upperBound(key);
+    int lessEnd = tie < 0 ? upper : lower;       // Конец значений меньше порога
+    int greaterStart = tie > 0 ? lower : upper;  // Начало значений больше порога
+    return switch (comparison) {
+      case GT -> new int[]{greaterStart, index.size()};
+      case GTE -> new int[]{lessEnd, index.size()};
+      case LT -> new int[]{0, lessEnd};
+      case LTE -> new int[]{0, greaterStart};
+      case EQ -> new int[]{lessEnd, greaterStart};
+    };
+  }
+
+  /**
+   * Возвращает агрегат профиля, который условие сравнивает с порогом: сумму в копейках
+   * или количество транзакций.
+   *
+   * @throws IllegalStateException для условия BALANCE, у которого нет порога
+   */
+  public long metricValue(UserFinancialProfile profile) {
+    requireThreshold();
+    return switch (metric) {
+      case DEPOSIT_SUM -> profile.getDepositSumMinor(productType);
+      case WITHDRAW_SUM -> profile.getWithdrawSumMinor(productType);
+      default -> profile.getTransactionCount(productType);
+    };
+  }
+
+  /**
+   * Возвращает то же условие с другим порогом.
+   *
+   * @param threshold новый порог: сумма или целое количество транзакций
+   * @throws IllegalArgumentException если порог количества транзакций не целый
+   * @throws IllegalStateException    для условия BALANCE, у которого нет порога
+   */
+  public ProfileCondition withThreshold(BigDecimal threshold) {
+    requireThreshold();
+    if (metric != Metric.TRANSACTION_COUNT) {
+      return sum(metric, productType, comparison, threshold, negated);
+    }
+    try {
+      return transactionCount(productType, comparison, threshold.intValueExact(), negated);
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Transaction count threshold must be an integer: "
+          + threshold);
+    }
+  }
+
+  private void requireThreshold() {
+    if (metric == Metric.BALANCE) {
+      throw new IllegalStateException("Condition has no threshold: " + factKey);
+    }
+  }
+
+  /**
+   * Вычисляет условие с учетом отрицания по заранее загруженному профилю.
+   */
+  public boolean matches(UserFinancialProfile profile) {
+    return test(profile) != negated;
+  }
+
+  /**
+   * Вычисляет условие с учетом отрицания; сам факт запоминается в контексте без отрицания,
+   * поэтому условие и его отрицание используют одно вычисление.
+   */
+  public boolean matches(EvaluationContext context) {
+    return context.evaluateFact(factKey, this) != negated;
+  }
+
+  public Metric getMetric() {
+    return metric;
+  }
+
+  public ProductType getProductType() {
+    return productType;
+  }
+
+  public Comparison getComparison() {
+    return comparison;
+  }
+
+  public BigDecimal getThreshold() {
+    return metric == Metric.TRANSACTION_COUNT ? BigDecimal.valueOf(countThreshold) : threshold;
+  }
+
+  /**
+   * Проверяет, является ли условие фактом владения продуктом (HAS_PRODUCT: транзакций больше 0).
+   */
+  public boolean isOwnership() {
+    return metric == Metric.TRANSACTION_COUNT && comparison == Comparison.GT && countThreshold == 0;
+  }
+
+  public boolean isNegated() {
+    return negated;
+  }
+
+  public String getFactKey() {
+    return factKey;
+  }
+
+  private String buildFactKey() {
+    String type = productType.name();
+    return switch (metric) {
+      case TRANSACTION_COUNT -> isOwnership()
+          ? "HAS_PRODUCT_" + type
+          : "TX_COUNT_" + type + "_" + comparison.name() + "_" + countThreshold;
+      case DEPOSIT_SUM -> "DEPOSIT_" + type + "_" + comparison.name() + "_" + threshold.toPlainString();
+      case WITHDRAW_SUM -> "SPEND_" + type + "_" + comparison.name() + "_" + threshold.toPlainString();
+      case BALANCE -> comparison == Comparison.GT
+          ? "POSITIVE_BALANCE_" + type
+          : "BALANCE_" + type + "_" + comparison.name();
+    };
+  }
+
+  @Override
+  public String toString() {
+    return (negated ? "NOT " : "") + factKey;
+  }
+}
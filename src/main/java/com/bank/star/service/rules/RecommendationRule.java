@@ -5,18 +5,78 @@
  */
 package com.bank.star.service.rules;
 
+import com.bank.star.model.UserFinancialProfile;
+
+import java.util.BitSet;
+import java.util.List;
 import java.util.UUID;
 
 public interface RecommendationRule {
 
   /**
    * Проверяет, соответствует ли пользователь условиям правила.
+   * Совместимый вариант: каждый вызов создает собственный контекст и загружает профиль заново,
+   * поэтому при проверке нескольких правил предпочтителен {@link #isEligible(EvaluationContext)}.
    *
    * @param userId уникальный идентификатор пользователя
    * @return true, если пользователь соответствует условиям правила, false в противном случае
    */
   boolean isEligible(UUID userId);
 
+  /**
+   * Проверяет соответствие пользователя условиям правила в рамках контекста запроса.
+   * Атомарные факты вычисляются не более одного раза на контекст.
+   *
+   * @param context контекст проверки с профилем пользователя и кешем фактов
+   * @return true, если пользователь соответствует условиям правила, false в противном случае
+   */
+  boolean isEligible(EvaluationContext context);
+
+  /**
+   * Проверяет соответствие пользователя условиям правила по заранее загруженному
+   * финансовому профилю, без обращений к базе данных.
+   *
+   * @param profile агрегированный финансовый профиль пользователя
+   * @return true, если пользователь соответствует условиям правила, false в противном случае
+   */
+  default boolean isEligible(UserFinancialProfile profile) {
+    return isEligible(EvaluationContext.of(profile));
+  }
+
+  /**
+   * Проверяет правило для группы пользователей.
+   *
+   * @param users пользователи блока
+   * @return множество индексов (в списке users) подходящих пользователей
+   */
+  default BitSet evaluateBatch(List<UUID> users) {
+    return evaluateBatch(UserBlock.of(users));
+  }
+
+  /**
+   * Проверяет правило для блока пользователей. Реализация по умолчанию проверяет пользователей
+   * по одному; атомарные и композитные правила вычисляют результат для всего блока сразу.
+   *
+   * @param block блок пользователей с общими профилями и кешем фактов
+   * @return множество индексов подходящих пользователей блока
+   */
+  default BitSet evaluateBatch(UserBlock block) {
+    BitSet result = new BitSet(block.size());
+    for (int i = 0; i < block.size(); i++) {
+      boolean eligible;
+      if (block.isLoaded()) {
+        UserFinancialProfile profile = block.getProfile(i);
+        eligible = profile != null && isEligible(profile);
+      } else {
+        eligible = isEligible(block.getUserId(i));
+      }
+      if (eligible) {
+        result.set(i);
+      }
+    }
+    return result;
+  }
+
   /**
    * Возвращает имя правила для идентификации и логирования.
    *
@@ -0,0 +1,622 @@
+/**
+ * Общий граф (DAG) всех наборов правил продуктов: встроенных и динамических.
+ * Атомарные условия канонизируются по ключу факта (вид агрегата, тип продукта, порог), отрицание
+ * хранится на ребре, а структурно одинаковые поддеревья AND/OR объединяются в один узел.
+ * Поэтому, например, positiveBalance(DEBIT) из Top Saving и Простого кредита — один узел графа,
+ * который вычисляется для пользователя не более одного раза.
+ * Граф неизменяем; для проверки пользователей используется {@link Evaluator}, по одному на поток,
+ * для проверки блока пользователей целиком — {@link BlockEvaluator}, а для проверки всей базы
+ * по снимку транзакций — {@link BitmapEvaluator}.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.UserBitmap;
+import com.bank.star.model.UserFinancialProfile;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class RuleGraph {
+
+  // Виды узлов
+  private static final byte LEAF = 0;    // Атомарное условие над профилем
+  private static final byte AND = 1;
+  private static final byte OR = 2;
+  private static final byte OPAQUE = 3;  // Правило неизвестного вида, проверяется через контекст
+
+  // Состояние узла в памяти вычислителя
+  private static final byte UNKNOWN = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+
+  private final long ruleSetVersion;           // Версия снимка встроенных правил
+  private final long dynamicRuleVersion;       // Версия снимка динамических правил
+  private final byte[] kinds;                  // Вид узла
+  private final String[] keys;                 // Канонический ключ узла
+  private final ProfileCondition[] conditions; // Условие листа (без отрицания)
+  private final RecommendationRule[] opaqueRules;
+  private final int[][] children;              // Ссылки на дочерние узлы: (id << 1) | отрицание
+  private final List<String> rootNames;        // Названия продуктов
+  private final int[] rootRefs;                // Ссылки на корневые узлы продуктов
+  private final Map<String, Integer> rootIndexes;
+  private final int leafCount;                 // Количество уникальных атомарных условий
+  private final int atomicReferences;          // Количество атомарных условий в исходных деревьях
+  private final boolean hasOpaqueRules;        // Есть правила неизвестного вида
+  private volatile String fingerprint;         // Вычисляется при первом обращении
+
+  private RuleGraph(Builder builder, long ruleSetVersion, long dynamicRuleVersion) {
+    int size = builder.kinds.size();
+    this.ruleSetVersion = ruleSetVersion;
+    this.dynamicRuleVersion = dynamicRuleVersion;
+    this.kinds = new byte[size];
+    boolean opaque = false;
+    for (int i = 0; i < size; i++) {
+      kinds[i] = builder.kinds.get(i);
+      opaque |= kinds[i] == OPAQUE;
+    }
+    this.hasOpaqueRules = opaque;
+    this.keys = builder.keys.toArray(new String[0]);
+    this.conditions = builder.conditions.toArray(new ProfileCondition[0]);
+    this.opaqueRules = builder.opaqueRules.toArray(new RecommendationRule[0]);
+    this.children = builder.children.toArray(new int[0][]);
+    this.rootNames = List.copyOf(builder.roots.keySet());
+    this.rootRefs = builder.roots.values().stream().mapToInt(Integer::intValue).toArray();
+    Map<String, Integer> indexes = new HashMap<>();
+    for (int i = 0; i < rootNames.size(); i++) {
+      indexes.put(rootNames.get(i), i);
+    }
+    this.rootIndexes = Collections.unmodifiableMap(indexes);
+    this.leafCount = builder.leafCount;
+    this.atomicReferences = builder.atomicReferences;
+  }
+
+  /**
+   * Компилирует встроенные и динамические наборы правил в общий граф.
+   * Композитные правила переносятся в порядке {@link CompositeRule#getEvaluationOrder()}.
+   *
+   * @param ruleSets     снимок встроенных наборов правил
+   * @param dynamicRules снимок скомпилированных динамических правил
+   * @return неизменяемый граф правил
+   */
+  public static RuleGraph compile(RuleSetSnapshot ruleSets, DynamicRuleSnapshot dynamicRules) {
+    Builder builder = new Builder();
+    ruleSets.getRuleSets().forEach((productName, rule) ->
+        builder.addRoot(productName, builder.ref(rule)));
+    for (CompiledDynamicRule rule : dynamicRules.getRules()) {
+      builder.addRoot(rule.getProduct().getName(), builder.conditionsRef(rule.getConditions()));
+    }
+    return new RuleGraph(builder, ruleSets.getVersion(), dynamicRules.getVersion());
+  }
+
+  public long getRuleSetVersion() {
+    return ruleSetVersion;
+  }
+
+  public long getDynamicRuleVersion() {
+    return dynamicRuleVersion;
+  }
+
+  /**
+   * Возвращает названия продуктов (корней графа): сначала встроенные, затем динамические.
+   */
+  public List<String> getRootNames() {
+    return rootNames;
+  }
+
+  /**
+   * Возвращает индекс корня продукта или -1, если продукт неизвестен.
+   */
+  public int getRootIndex(String productName) {
+    Integer index = rootIndexes.get(productName);
+    return index != null ? index : -1;
+  }
+
+  public int getNodeCount() {
+    return kinds.length;
+  }
+
+  /**
+   * Количество уникальных атомарных условий (листьев графа).
+   */
+  public int getLeafCount() {
+    return leafCount;
+  }
+
+  /**
+   * Количество атомарных условий в исходных деревьях до объединения общих подвыражений.
+   */
+  public int getAtomicReferences() {
+    return atomicReferences;
+  }
+
+  /**
+   * Проверяет, есть ли в графе правила неизвестного вида: такие правила проверяются только
+   * по профилям ({@link Evaluator}, {@link BlockEvaluator}), но не {@link BitmapEvaluator}.
+   */
+  public boolean hasOpaqueRules() {
+    return hasOpaqueRules;
+  }
+
+  /**
+   * Возвращает отпечаток смысла правил: названия продуктов и канонические ключи их деревьев,
+   * в которых дочерние узлы AND/OR упорядочены по ключу. В отличие от версий снимков, отпечаток
+   * не зависит от порядка проверки условий (см. RuleOrderOptimizer) и от перезапуска приложения,
+   * поэтому подходит для проверки сохраненных на диске результатов и ключей кешей.
+   * Вычисляется один раз для графа.
+   *
+   * @return SHA-256 в шестнадцатеричном виде
+   */
+  public String getFingerprint() {
+    String computed = fingerprint;
+    if (computed == null) {
+      computed = computeFingerprint();
+      fingerprint = computed;
+    }
+    return computed;
+  }
+
+  private String computeFingerprint() {
+    String[] canonical = new String[kinds.length];
+    StringBuilder description = new StringBuilder();
+    for (int i = 0; i < rootNames.size(); i++) {
+      description.append(rootNames.get(i)).append('=')
+          .append(canonicalKey(rootRefs[i], canonical)).append(';');
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(
+          digest.digest(description.toString().getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private String canonicalKey(int ref, String[] canonical) {
+    int nodeId = ref >>> 1;
+    String key = canonical[nodeId];
+    if (key == null) {
+      key = switch (kinds[nodeId]) {
+        case LEAF -> keys[nodeId];
+        case OPAQUE -> "OPAQUE:" + opaqueRules[nodeId].getRuleName();
+        default -> {
+          List<String> childKeys = new ArrayList<>(children[nodeId].length);
+          for (int childRef : children[nodeId]) {
+            childKeys.add(canonicalKey(childRef, canonical));
+          }
+          Collections.sort(childKeys);
+          yield (kinds[nodeId] == AND ? "AND(" : "OR(") + String.join(",", childKeys) + ")";
+        }
+      };
+      canonical[nodeId] = key;
+    }
+    return (ref & 1) != 0 ? "!" + key : key;
+  }
+
+  // Структура графа для компиляторов (например, RuleSqlCompiler)
+
+  int getRootRef(int rootIndex) {
+    return rootRefs[rootIndex];
+  }
+
+  boolean isLeaf(int nodeId) {
+    return kinds[nodeId] == LEAF;
+  }
+
+  boolean isAnd(int nodeId) {
+    return kinds[nodeId] == AND;
+  }
+
+  boolean isOr(int nodeId) {
+    return kinds[nodeId] == OR;
+  }
+
+  ProfileCondition getLeafCondition(int nodeId) {
+    return conditions[nodeId];
+  }
+
+  int[] getChildRefs(int nodeId) {
+    return children[nodeId];
+  }
+
+  /**
+   * Создает вычислитель графа. Вычислитель не потокобезопасен и переиспользуется для
+   * последовательной проверки пользователей одним потоком.
+   */
+  public Evaluator newEvaluator() {
+    return new Evaluator();
+  }
+
+  /**
+   * Создает вычислитель графа для блока пользователей с загруженными профилями.
+   *
+   * @param block блок пользователей
+   * @return вычислитель блока (не потокобезопасен)
+   */
+  public BlockEvaluator newBlockEvaluator(UserBlock block) {
+    return new BlockEvaluator(block);
+  }
+
+  /**
+   * Создает вычислитель графа для всей клиентской базы по фактам снимка транзакций.
+   *
+   * @param facts факты снимка
+   * @return вычислитель (не потокобезопасен)
+   * @throws IllegalStateException если в графе есть правила неизвестного вида
+   */
+  public BitmapEvaluator newBitmapEvaluator(SnapshotFacts facts) {
+    if (hasOpaqueRules) {
+      throw new IllegalStateException("Rule graph has rules that cannot be evaluated on bitmaps");
+    }
+    return new BitmapEvaluator(facts);
+  }
+
+  @Override
+  public String toString() {
+    return "RuleGraph{roots=" + rootNames.size() + ", nodes=" + kinds.length + ", leaves="
+        + leafCount + ", atomicReferences=" + atomicReferences + ", ruleSetVersion="
+        + ruleSetVersion + ", dynamicRuleVersion=" + dynamicRuleVersion + '}';
+  }
+
+  /**
+   * Вычислитель графа для одного пользователя за раз. Каждый узел вычисляется не более
+   * одного раза на пользователя; результаты хранятся в байтовом массиве и сбрасываются
+   * в {@link #reset(UserFinancialProfile)} без новых выделений памяти.
+   */
+  public final class Evaluator {
+
+    private final byte[] memo = new byte[kinds.length];
+    private UserFinancialProfile profile;
+    private EvaluationContext opaqueContext;  // Создается только для правил неизвестного вида
+    private long atomicEvaluations;           // Вычисленные атомарные условия за все время
+
+    private Evaluator() {
+    }
+
+    /**
+     * Переключает вычислитель на профиль следующего пользователя.
+     *
+     * @param profile финансовый профиль пользователя
+     * @return этот вычислитель
+     */
+    public Evaluator reset(UserFinancialProfile profile) {
+      Arrays.fill(memo, UNKNOWN);
+      this.profile = profile;
+      this.opaqueContext = null;
+      return this;
+    }
+
+    /**
+     * Проверяет продукт по индексу корня.
+     */
+    public boolean matches(int rootIndex) {
+      return evaluate(rootRefs[rootIndex]);
+    }
+
+    /**
+     * Проверяет, подходит ли пользователь хотя бы под один продукт графа.
+     */
+    public boolean matchesAny() {
+      for (int ref : rootRefs) {
+        if (evaluate(ref)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public long getAtomicEvaluations() {
+      return atomicEvaluations;
+    }
+
+    private boolean evaluate(int ref) {
+      int id = ref >>> 1;
+      byte state = memo[id];
+      if (state == UNKNOWN) {
+        state = compute(id) ? TRUE : FALSE;
+        memo[id] = state;
+      }
+      return (state == TRUE) != ((ref & 1) != 0);
+    }
+
+    private boolean compute(int id) {
+      switch (kinds[id]) {
+        case LEAF -> {
+          atomicEvaluations++;
+          return conditions[id].test(profile);
+        }
+        case AND -> {
+          for (int child : children[id]) {
+            if (!evaluate(child)) {
+              return false;
+            }
+          }
+          return true;
+        }
+        case OR -> {
+          for (int child : children[id]) {
+            if (evaluate(child)) {
+              return true;
+            }
+          }
+          return false;
+        }
+        default -> {
+          if (opaqueContext == null) {
+            opaqueContext = EvaluationContext.of(profile);
+          }
+          return opaqueRules[id].isEligible(opaqueContext);
+        }
+      }
+    }
+  }
+
+  /**
+   * Вычислитель графа для блока пользователей. Каждый узел вычисляется один раз на блок в виде
+   * {@link BitSet} (бит i — i-й пользователь блока): листья — через
+   * {@link UserBlock#evaluateFact}, AND/OR — побитовыми операциями, отрицание — инверсией
+   * в пределах пользователей с найденным профилем.
+   */
+  public final class BlockEvaluator {
+
+    private final UserBlock block;
+    private final BitSet present;                        // Пользователи с найденным профилем
+    private final BitSet[] memo = new BitSet[kinds.length];
+
+    private BlockEvaluator(UserBlock block) {
+      if (!block.isLoaded()) {
+        throw new IllegalStateException("User block profiles are not loaded");
+      }
+      this.block = block;
+      this.present = block.getPresentUsers();
+    }
+
+    /**
+     * Возвращает пользователей блока, подходящих под продукт с индексом корня.
+     * Результат — копия, вызывающий код может изменять ее.
+     */
+    public BitSet matches(int rootIndex) {
+      return evaluate(rootRefs[rootIndex]);
+    }
+
+    /**
+     * Возвращает пользователей блока, подходящих хотя бы под один продукт графа.
+     */
+    public BitSet matchesAny() {
+      BitSet result = new BitSet(block.size());
+      for (int ref : rootRefs) {
+        result.or(evaluate(ref));
+        if (result.equals(present)) {
+          break;
+        }
+      }
+      return result;
+    }
+
+    private BitSet evaluate(int ref) {
+      int id = ref >>> 1;
+      BitSet value = memo[id];
+      if (value == null) {
+        value = compute(id);
+        memo[id] = value;
+      }
+      BitSet result = (BitSet) value.clone();
+      if ((ref & 1) != 0) {
+        result.flip(0, block.size());
+        result.and(present);
+      }
+      return result;
+    }
+
+    private BitSet compute(int id) {
+      switch (kinds[id]) {
+        case LEAF -> {
+          return block.evaluateFact(keys[id], conditions[id]);
+        }
+        case AND -> {
+          BitSet result = (BitSet) present.clone();
+          for (int child : children[id]) {
+            result.and(evaluate(child));
+            if (result.isEmpty()) {
+              break;
+            }
+          }
+          return result;
+        }
+        case OR -> {
+          BitSet result = new BitSet(block.size());
+          for (int child : children[id]) {
+            result.or(evaluate(child));
+            if (result.equals(present)) {
+              break;
+            }
+          }
+          return result;
+        }
+        default -> {
+          return opaqueRules[id].evaluateBatch(block);
+        }
+      }
+    }
+  }
+
+  /**
+   * Вычислитель графа для всей клиентской базы. Каждый узел вычисляется один раз в виде сжатой
+   * битовой карты {@link UserBitmap} индексов пользователей снимка: листья — через
+   * {@link SnapshotFacts#evaluateFact} (владение продуктом — из индекса владения), AND/OR —
+   * пересечением и объединением карт, отрицание — разностью (ANDNOT) с активными пользователями.
+   */
+  public final class BitmapEvaluator {
+
+    private final SnapshotFacts facts;
+    private final UserBitmap present;                        // Активные пользователи снимка
+    private final UserBitmap[] memo = new UserBitmap[kinds.length];
+
+    private BitmapEvaluator(SnapshotFacts facts) {
+      this.facts = facts;
+      this.present = facts.getUsers();
+    }
+
+    /**
+     * Возвращает пользователей, подходящих под продукт с индексом корня.
+     * Карта может разделяться с другими узлами и не должна изменяться.
+     */
+    public UserBitmap matches(int rootIndex) {
+      return evaluate(rootRefs[rootIndex]);
+    }
+
+    /**
+     * Возвращает пользователей, подходящих хотя бы под один продукт графа.
+     */
+    public UserBitmap matchesAny() {
+      UserBitmap result = new UserBitmap();
+      for (int ref : rootRefs) {
+        result = result.or(evaluate(ref));
+      }
+      return result;
+    }
+
+    private UserBitmap evaluate(int ref) {
+      UserBitmap value = node(ref >>> 1);
+      return (ref & 1) != 0 ? present.andNot(value) : value;
+    }
+
+    private UserBitmap node(int id) {
+      UserBitmap value = memo[id];
+      if (value == null) {
+        value = compute(id);
+        memo[id] = value;
+      }
+      return value;
+    }
+
+    private UserBitmap compute(int id) {
+      switch (kinds[id]) {
+        case LEAF -> {
+          return facts.evaluateFact(keys[id], conditions[id]);
+        }
+        case AND -> {
+          UserBitmap result = present;
+          for (int child : children[id]) {
+            // Отрицание внутри AND — разность без построения дополнения
+            result = (child & 1) != 0
+                ? result.andNot(node(child >>> 1))
+                : result.and(node(child >>> 1));
+            if (result.isEmpty()) {
+              break;
+            }
+          }
+          return result;
+        }
+        case OR -> {
+          UserBitmap result = new UserBitmap();
+          for (int child : children[id]) {
+            result = result.or(evaluate(child));
+          }
+          return result;
+        }
+        default -> throw new IllegalStateException("Opaque rule cannot be evaluated on bitmaps: "
+            + opaqueRules[id].getRuleName());
+      }
+    }
+  }
+
+  /**
+   * Построитель графа: хеш-консинг узлов по каноническому ключу.
+   */
+  private static final class Builder {
+
+    private final List<Byte> kinds = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<ProfileCondition> conditions = new ArrayList<>();
+    private final List<RecommendationRule> opaqueRules = new ArrayList<>();
+    private final List<int[]> children = new ArrayList<>();
+    private final Map<String, Integer> nodeIds = new HashMap<>();
+    private final Map<String, Integer> roots = new LinkedHashMap<>();
+    private int leafCount;
+    private int atomicReferences;
+
+    private void addRoot(String productName, int ref) {
+      Integer existing = roots.get(productName);
+      // Несколько правил одного продукта объединяются по OR
+      roots.put(productName, existing == null ? ref : compositeRef(OR, new int[]{existing, ref}));
+    }
+
+    private int ref(RecommendationRule rule) {
+      if (rule instanceof AtomicRule atomic) {
+        return conditionRef(atomic.getCondition());
+      }
+      if (rule instanceof CompositeRule composite) {
+        List<RecommendationRule> ordered = composite.getEvaluationOrder();
+        int[] refs = new int[ordered.size()];
+        for (int i = 0; i < refs.length; i++) {
+          refs[i] = ref(ordered.get(i));
+        }
+        return compositeRef(composite.getOperator() == CompositeRule.Operator.AND ? AND : OR, refs);
+      }
+      // Правило неизвестного вида не объединяется с другими
+      return node("OPAQUE@" + System.identityHashCode(rule) + ":" + rule.getRuleName(), OPAQUE,
+          null, rule, null) << 1;
+    }
+
+    private int conditionsRef(List<ProfileCondition> ruleConditions) {
+      int[] refs = new int[ruleConditions.size()];
+      for (int i = 0; i < refs.length; i++) {
+        refs[i] = conditionRef(ruleConditions.get(i));
+      }
+      return compositeRef(AND, refs);
+    }
+
+    private int conditionRef(ProfileCondition condition) {
+      atomicReferences++;
+      int before = kinds.size();
+      int id = node(condition.getFactKey(), LEAF, condition.positive(), null, null);
+      if (kinds.size() > before) {
+        leafCount++;
+      }
+      return (id << 1) | (condition.isNegated() ? 1 : 0);
+    }
+
+    private int compositeRef(byte kind, int[] refs) {
+      if (refs.length == 1) {
+        return refs[0];
+      }
+      StringBuilder key = new StringBuilder(kind == AND ? "AND(" : "OR(");
+      for (int i = 0; i < refs.length; i++) {
+        if (i > 0) {
+          key.append(',');
+        }
+        if ((refs[i] & 1) != 0) {
+          key.append('!');
+        }
+        key.append(keys.get(refs[i] >>> 1));
+      }
+      return node(key.append(')').toString(), kind, null, null, refs) << 1;
+    }
+
+    private int node(String key, byte kind, ProfileCondition condition, RecommendationRule opaque,
+        int[] refs) {
+      Integer existing = nodeIds.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      int id = kinds.size();
+      kinds.add(kind);
+      keys.add(key);
+      conditions.add(condition);
+      opaqueRules.add(opaque);
+      children.add(refs);
+      nodeIds.put(key, id);
+      return id;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Компилятор общего графа правил {@link RuleGraph}.
+ * Граф строится из текущих снимков встроенных ({@link RuleSetRegistry}) и динамических
+ * ({@link DynamicRuleCache}) правил и перестраивается только при смене версии любого из них.
+ */
+package com.bank.star.service.rules;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+@Component
+public class RuleGraphCompiler {
+
+  private static final Logger logger = LoggerFactory.getLogger(RuleGraphCompiler.class);
+
+  private final ProductRuleSets productRuleSets;
+  private final DynamicRuleCache dynamicRuleCache;
+
+  private volatile RuleGraph graph;  // Последний скомпилированный граф
+
+  public RuleGraphCompiler(ProductRuleSets productRuleSets, DynamicRuleCache dynamicRuleCache) {
+    this.productRuleSets = productRuleSets;
+    this.dynamicRuleCache = dynamicRuleCache;
+  }
+
+  /**
+   * Возвращает граф для текущих версий правил, компилируя его при необходимости.
+   * Пакетный прогон должен брать граф один раз, чтобы все пользователи проверялись по одной версии.
+   *
+   * @return неизменяемый граф правил
+   */
+  public RuleGraph getGraph() {
+    RuleSetSnapshot ruleSets = productRuleSets.getSnapshot();
+    DynamicRuleSnapshot dynamicRules = dynamicRuleCache.getSnapshot();
+    RuleGraph current = graph;
+    if (current != null && current.getRuleSetVersion() == ruleSets.getVersion()
+        && current.getDynamicRuleVersion() == dynamicRules.getVersion()) {
+      return current;
+    }
+
+    // Одновременная компиляция двумя потоками безвредна: графы одинаковы и неизменяемы
+    RuleGraph compiled = RuleGraph.compile(ruleSets, dynamicRules);
+    graph = compiled;
+    logger.info("🧩 Rule graph compiled: {} atomic conditions -> {} shared leaves, {}",
+        compiled.getAtomicReferences(), compiled.getLeafCount(), compiled);
+    return compiled;
+  }
+}
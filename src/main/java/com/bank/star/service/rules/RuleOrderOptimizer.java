@@ -0,0 +1,111 @@
+/**
+ * Периодически пересчитывает порядок проверки дочерних правил в композитных правилах
+ * по накопленной статистике и публикует его новым снимком {@link RuleSetRegistry}.
+ * Выученный порядок, доля истинных результатов и среднее время проверки дочерних правил
+ * доступны в метриках recommendation.rules.child.* (теги rule — имя композитного правила,
+ * child — индекс дочернего правила в порядке объявления).
+ */
+package com.bank.star.service.rules;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+@Component
+public class RuleOrderOptimizer {
+
+  private static final Logger logger = LoggerFactory.getLogger(RuleOrderOptimizer.class);
+
+  private final RuleSetRegistry ruleSetRegistry;
+  private final MeterRegistry meterRegistry;
+
+  public RuleOrderOptimizer(RuleSetRegistry ruleSetRegistry, MeterRegistry meterRegistry) {
+    this.ruleSetRegistry = ruleSetRegistry;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Регистрирует метрики для всех композитных правил текущего снимка. Значения читаются
+   * из актуального снимка при каждом опросе, поэтому метрики отражают опубликованный порядок.
+   */
+  @PostConstruct
+  public void registerMetrics() {
+    for (Map.Entry<String, CompositeRule> entry : findComposites(ruleSetRegistry.getSnapshot())
+        .entrySet()) {
+      String name = entry.getKey();
+      for (int i = 0; i < entry.getValue().getChildRules().size(); i++) {
+        int childIndex = i;
+        registerGauge("recommendation.rules.child.position", name, childIndex,
+            rule -> rule.getChildPosition(childIndex));
+        registerGauge("recommendation.rules.child.pass.rate", name, childIndex,
+            rule -> rule.getChildPassRate(childIndex));
+        registerGauge("recommendation.rules.child.cost.nanos", name, childIndex,
+            rule -> rule.getChildAverageCostNanos(childIndex));
+      }
+    }
+  }
+
+  /**
+   * Пересчитывает порядок проверки правил (интервал recommendation.rules.reorder.interval-ms).
+   */
+  @Scheduled(initialDelayString = "${recommendation.rules.reorder.interval-ms:60000}",
+      fixedDelayString = "${recommendation.rules.reorder.interval-ms:60000}")
+  public void reorder() {
+    try {
+      long before = ruleSetRegistry.getSnapshot().getVersion();
+      RuleSetSnapshot snapshot = ruleSetRegistry.reorderRules();
+      if (snapshot.getVersion() != before) {
+        logger.info("📐 Learned rule order: {}", describeOrder(snapshot));
+      }
+    } catch (Exception e) {
+      logger.error("Error reordering rules: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Возвращает текущий порядок проверки дочерних правил для всех композитных правил.
+   *
+   * @param snapshot снимок наборов правил
+   * @return имя композитного правила -> имена дочерних правил в порядке проверки
+   */
+  public Map<String, List<String>> describeOrder(RuleSetSnapshot snapshot) {
+    Map<String, List<String>> result = new LinkedHashMap<>();
+    findComposites(snapshot).forEach((name, rule) -> result.put(name,
+        rule.getEvaluationOrder().stream().map(RecommendationRule::getRuleName).toList()));
+    return result;
+  }
+
+  private void registerGauge(String metric, String ruleName, int childIndex,
+      ToDoubleFunction<CompositeRule> value) {
+    Gauge.builder(metric, ruleSetRegistry, registry -> {
+          CompositeRule rule = findComposites(registry.getSnapshot()).get(ruleName);
+          return rule != null && childIndex < rule.getChildRules().size()
+              ? value.applyAsDouble(rule) : Double.NaN;
+        })
+        .tag("rule", ruleName)
+        .tag("child", String.valueOf(childIndex))
+        .register(meterRegistry);
+  }
+
+  private static Map<String, CompositeRule> findComposites(RuleSetSnapshot snapshot) {
+    Map<String, CompositeRule> composites = new LinkedHashMap<>();
+    snapshot.getRuleSets().values().forEach(rule -> collect(rule, composites));
+    return composites;
+  }
+
+  private static void collect(RecommendationRule rule, Map<String, CompositeRule> composites) {
+    if (rule instanceof CompositeRule composite) {
+      composites.put(composite.getRuleName(), composite);
+      composite.getChildRules().forEach(child -> collect(child, composites));
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/**
+ * Реестр наборов правил продуктов.
+ * Строит деревья правил один раз из порогов recommendation.rules.* и публикует их как
+ * неизменяемый снимок {@link RuleSetSnapshot}. При изменении порогов новый снимок строится
+ * целиком и атомарно подменяет предыдущий: читатели никогда не видят частично обновленных правил
+ * и не создают объектов правил во время проверки пользователей.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Component
+public class RuleSetRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(RuleSetRegistry.class);
+
+  private final AtomicRules atomicRules;                          // Фабрика атомарных правил
+  private final AtomicReference<RuleSetSnapshot> current = new AtomicReference<>();
+
+  /**
+   * Конструктор с порогами из конфигурации.
+   *
+   * @param atomicRules                фабрика атомарных правил
+   * @param invest500SavingThreshold   recommendation.rules.invest500.saving-threshold
+   * @param topSavingDepositThreshold  recommendation.rules.topsaving.deposit-threshold
+   * @param simpleCreditSpendThreshold recommendation.rules.simplecredit.spend-threshold
+   */
+  @Autowired
+  public RuleSetRegistry(AtomicRules atomicRules,
+      @Value("${recommendation.rules.invest500.saving-threshold:1000}") BigDecimal invest500SavingThreshold,
+      @Value("${recommendation.rules.topsaving.deposit-threshold:50000}") BigDecimal topSavingDepositThreshold,
+      @Value("${recommendation.rules.simplecredit.spend-threshold:100000}") BigDecimal simpleCreditSpendThreshold) {
+    this(atomicRules, new RuleThresholds(invest500SavingThreshold, topSavingDepositThreshold,
+        simpleCreditSpendThreshold));
+  }
+
+  /**
+   * Конструктор с явно заданными порогами.
+   *
+   * @param atomicRules фабрика атомарных правил
+   * @param thresholds  начальные пороговые значения
+   */
+  public RuleSetRegistry(AtomicRules atomicRules, RuleThresholds thresholds) {
+    this.atomicRules = atomicRules;
+    this.current.set(buildSnapshot(1L, thresholds));
+    logger.info("📐 Rule sets built: {}", current.get());
+  }
+
+  /**
+   * Возвращает текущий снимок наборов правил. Вызывающий код должен брать снимок один раз
+   * на запрос или пакетный прогон, чтобы все проверки выполнялись по одной версии правил.
+   *
+   * @return текущий неизменяемый снимок
+   */
+  public RuleSetSnapshot getSnapshot() {
+    return current.get();
+  }
+
+  /**
+   * Перестраивает наборы правил с новыми порогами и атомарно публикует новый снимок.
+   * Если пороги не изменились, возвращается текущий снимок.
+   *
+   * @param thresholds новые пороговые значения
+   * @return опубликованный снимок
+   */
+  public RuleSetSnapshot updateThresholds(RuleThresholds thresholds) {
+    while (true) {
+      RuleSetSnapshot previous = current.get();
+      if (previous.getThresholds().equals(thresholds)) {
+        return previous;
+      }
+      RuleSetSnapshot next = buildSnapshot(previous.getVersion() + 1, thresholds);
+      if (current.compareAndSet(previous, next)) {
+        logger.info("📐 Rule sets swapped: {} -> {}", previous, next);
+        return next;
+      }
+    }
+  }
+
+  /**
+   * Публикует снимок, в котором композитные правила проверяют дочерние правила в порядке,
+   * выученном по накопленной статистике ({@link CompositeRule#reordered()}). Пороги и версия
+   * статистики сохраняются; если порядок не изменился, возвращается текущий снимок.
+   *
+   * @return опубликованный снимок
+   */
+  public RuleSetSnapshot reorderRules() {
+    while (true) {
+      RuleSetSnapshot previous = current.get();
+      RecommendationRule invest500 = reordered(previous.getInvest500RuleSet());
+      RecommendationRule topSaving = reordered(previous.getTopSavingRuleSet());
+      RecommendationRule simpleCredit = reordered(previous.getSimpleCreditRuleSet());
+      if (invest500 == previous.getInvest500RuleSet()
+          && topSaving == previous.getTopSavingRuleSet()
+          && simpleCredit == previous.getSimpleCreditRuleSet()) {
+        return previous;
+      }
+      RuleSetSnapshot next = new RuleSetSnapshot(previous.getVersion() + 1,
+          previous.getThresholds(), invest500, topSaving, simpleCredit);
+      if (current.compareAndSet(previous, next)) {
+        logger.info("📐 Rule evaluation order updated: {} -> {}", previous, next);
+        return next;
+      }
+    }
+  }
+
+  private static RecommendationRule reordered(RecommendationRule rule) {
+    return rule instanceof CompositeRule composite ? composite.reordered() : rule;
+  }
+
+  /**
+   * Строит все деревья правил для указанных порогов.
+   */
+  private RuleSetSnapshot buildSnapshot(long version, RuleThresholds thresholds) {
+    return new RuleSetSnapshot(version, thresholds,
+        buildInvest500RuleSet(thresholds.getInvest500SavingThreshold()),
+        buildTopSavingRuleSet(thresholds.getTopSavingDepositThreshold()),
+        buildSimpleCreditRuleSet(thresholds.getSimpleCreditSpendThreshold()));
+  }
+
+  /**
+   * Набор правил для продукта "Invest 500".
+   * Условия:
+   * 1. Пользователь имеет дебетовый продукт (DEBIT)
+   * 2. Пользователь НЕ имеет инвестиционного продукта (INVEST)
+   * 3. Сумма пополнений сберегательного продукта (SAVING) > порога (по умолчанию 1,000)
+   */
+  private RecommendationRule buildInvest500RuleSet(BigDecimal savingThreshold) {
+    return CompositeRule.and("INVEST_500_RULES",
+        atomicRules.hasProductType(ProductType.DEBIT),
+        atomicRules.hasNoProductType(ProductType.INVEST),
+        atomicRules.depositGreaterThan(ProductType.SAVING, savingThreshold)
+    );
+  }
+
+  /**
+   * Набор правил для продукта "Top Saving".
+   * Условия:
+   * 1. Пользователь имеет дебетовый продукт (DEBIT)
+   * 2. Сумма пополнений по DEBIT или SAVING >= порога (по умолчанию 50,000)
+   * 3. Положительный баланс по DEBIT (пополнения > траты)
+   */
+  private RecommendationRule buildTopSavingRuleSet(BigDecimal depositThreshold) {
+    return CompositeRule.and("TOP_SAVING_RULES",
+        atomicRules.hasProductType(ProductType.DEBIT),
+        CompositeRule.or("HIGH_DEPOSITS",
+            atomicRules.depositGreaterOrEqual(ProductType.DEBIT, depositThreshold),
+            atomicRules.depositGreaterOrEqual(ProductType.SAVING, depositThreshold)
+        ),
+        atomicRules.positiveBalance(ProductType.DEBIT)
+    );
+  }
+
+  /**
+   * Набор правил для продукта "Простой кредит".
+   * Условия:
+   * 1. Пользователь НЕ имеет кредитного продукта (CREDIT)
+   * 2. Положительный баланс по DEBIT (пополнения > траты)
+   * 3. Сумма трат по DEBIT > порога (по умолчанию 100,000)
+   */
+  private RecommendationRule buildSimpleCreditRuleSet(BigDecimal spendThreshold) {
+    return CompositeRule.and("SIMPLE_CREDIT_RULES",
+        atomicRules.hasNoProductType(ProductType.CREDIT),
+        atomicRules.positiveBalance(ProductType.DEBIT),
+        atomicRules.spendGreaterThan(ProductType.DEBIT, spendThreshold)
+    );
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Неизменяемый снимок наборов правил продуктов.
+ * Деревья правил строятся один раз при публикации снимка и затем только читаются,
+ * поэтому один снимок можно безопасно использовать из любого количества потоков,
+ * а пакетный анализ получает согласованные правила на все время прогона.
+ */
+package com.bank.star.service.rules;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class RuleSetSnapshot {
+
+  private final long version;                                // Версия снимка (растет при каждой замене)
+  private final RuleThresholds thresholds;                   // Пороги, из которых построены правила
+  private final RecommendationRule invest500RuleSet;
+  private final RecommendationRule topSavingRuleSet;
+  private final RecommendationRule simpleCreditRuleSet;
+  private final Map<String, RecommendationRule> ruleSetsByProduct; // Название продукта -> набор правил
+
+  RuleSetSnapshot(long version, RuleThresholds thresholds, RecommendationRule invest500RuleSet,
+      RecommendationRule topSavingRuleSet, RecommendationRule simpleCreditRuleSet) {
+    this.version = version;
+    this.thresholds = thresholds;
+    this.invest500RuleSet = invest500RuleSet;
+    this.topSavingRuleSet = topSavingRuleSet;
+    this.simpleCreditRuleSet = simpleCreditRuleSet;
+
+    Map<String, RecommendationRule> byProduct = new LinkedHashMap<>();
+    byProduct.put(ProductRuleSets.INVEST_500, invest500RuleSet);
+    byProduct.put(ProductRuleSets.TOP_SAVING, topSavingRuleSet);
+    byProduct.put(ProductRuleSets.SIMPLE_CREDIT, simpleCreditRuleSet);
+    this.ruleSetsByProduct = Collections.unmodifiableMap(byProduct);
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public RuleThresholds getThresholds() {
+    return thresholds;
+  }
+
+  public RecommendationRule getInvest500RuleSet() {
+    return invest500RuleSet;
+  }
+
+  public RecommendationRule getTopSavingRuleSet() {
+    return topSavingRuleSet;
+  }
+
+  public RecommendationRule getSimpleCreditRuleSet() {
+    return simpleCreditRuleSet;
+  }
+
+  /**
+   * Возвращает набор правил по названию продукта.
+   *
+   * @param productName название продукта ("Invest 500", "Top Saving", "Простой кредит")
+   * @return набор правил или null, если продукт неизвестен
+   */
+  public RecommendationRule getRuleSet(String productName) {
+    return ruleSetsByProduct.get(productName);
+  }
+
+  /**
+   * Возвращает все наборы правил в порядке Invest 500, Top Saving, Простой кредит.
+   *
+   * @return неизменяемое отображение название продукта -> набор правил
+   */
+  public Map<String, RecommendationRule> getRuleSets() {
+    return ruleSetsByProduct;
+  }
+
+  @Override
+  public String toString() {
+    return "RuleSetSnapshot{version=" + version + ", thresholds=" + thresholds + '}';
+  }
+}
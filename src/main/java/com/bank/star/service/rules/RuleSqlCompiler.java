@@ -0,0 +1,131 @@
+// Компиляция правил продуктов в SQL для вычисления аудитории в базе данных
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Компилятор продукта общего графа правил {@link RuleGraph} в условие HAVING одного
+ * параметризованного SQL-запроса (push-down в базу данных).
+ * Каждое атомарное условие превращается в сравнение условного агрегата (COUNT/SUM с CASE по типу
+ * продукта и типу транзакции), AND/OR и отрицание — в соответствующие логические операторы.
+ * Агрегаты совпадают с агрегатами {@link com.bank.star.model.UserFinancialProfile}, поэтому
+ * результат запроса совпадает с построчной проверкой правил.
+ * Правила неизвестного вида (не {@link AtomicRule}/{@link CompositeRule}) не компилируются.
+ */
+public final class RuleSqlCompiler {
+
+  private RuleSqlCompiler() {
+  }
+
+  /**
+   * Скомпилированное условие HAVING с параметрами в порядке появления знаков "?".
+   */
+  public static final class HavingClause {
+
+    private final String sql;
+    private final List<Object> parameters;
+
+    private HavingClause(String sql, List<Object> parameters) {
+      this.sql = sql;
+      this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public List<Object> getParameters() {
+      return parameters;
+    }
+
+    @Override
+    public String toString() {
+      return sql + " " + parameters;
+    }
+  }
+
+  /**
+   * Компилирует продукт графа в условие HAVING над строками транзакций пользователя
+   * (псевдонимы: t — transactions, p — products).
+   *
+   * @param graph     граф правил
+   * @param rootIndex индекс корня продукта в графе
+   * @return условие HAVING или Optional.empty(), если продукт содержит некомпилируемые правила
+   */
+  public static Optional<HavingClause> compile(RuleGraph graph, int rootIndex) {
+    StringBuilder sql = new StringBuilder();
+    List<Object> parameters = new ArrayList<>();
+    if (!appendRef(graph, graph.getRootRef(rootIndex), sql, parameters)) {
+      return Optional.empty();
+    }
+    return Optional.of(new HavingClause(sql.toString(), parameters));
+  }
+
+  private static boolean appendRef(RuleGraph graph, int ref, StringBuilder sql,
+      List<Object> parameters) {
+    int id = ref >>> 1;
+    boolean negated = (ref & 1) != 0;
+    if (negated) {
+      sql.append("NOT (");
+    }
+    boolean compiled;
+    if (graph.isLeaf(id)) {
+      appendCondition(graph.getLeafCondition(id), sql, parameters);
+      compiled = true;
+    } else if (graph.isAnd(id) || graph.isOr(id)) {
+      String operator = graph.isAnd(id) ? " AND " : " OR ";
+      int[] children = graph.getChildRefs(id);
+      sql.append('(');
+      compiled = true;
+      for (int i = 0; i < children.length && compiled; i++) {
+        if (i > 0) {
+          sql.append(operator);
+        }
+        compiled = appendRef(graph, children[i], sql, parameters);
+      }
+      sql.append(')');
+    } else {
+      compiled = false;
+    }
+    if (negated) {
+      sql.append(')');
+    }
+    return compiled;
+  }
+
+  private static void appendCondition(ProfileCondition condition, StringBuilder sql,
+      List<Object> parameters) {
+    ProductType type = condition.getProductType();
+    String operator = condition.getComparison().getSymbol();
+    switch (condition.getMetric()) {
+      case TRANSACTION_COUNT -> {
+        sql.append("COUNT(CASE WHEN p.type = ? THEN t.id END) ").append(operator).append(" ?");
+        parameters.add(type.name());
+        parameters.add(condition.getThreshold().intValueExact());
+      }
+      case DEPOSIT_SUM, WITHDRAW_SUM -> {
+        appendSum(condition.getMetric() == ProfileCondition.Metric.DEPOSIT_SUM
+            ? "DEPOSIT" : "WITHDRAW", type, sql, parameters);
+        sql.append(' ').append(operator).append(" ?");
+        parameters.add(condition.getThreshold());
+      }
+      case BALANCE -> {
+        appendSum("DEPOSIT", type, sql, parameters);
+        sql.append(' ').append(operator).append(' ');
+        appendSum("WITHDRAW", type, sql, parameters);
+      }
+    }
+  }
+
+  private static void appendSum(String transactionType, ProductType type, StringBuilder sql,
+      List<Object> parameters) {
+    sql.append("COALESCE(SUM(CASE WHEN p.type = ? AND t.type = ? THEN t.amount END), 0)");
+    parameters.add(type.name());
+    parameters.add(transactionType);
+  }
+}
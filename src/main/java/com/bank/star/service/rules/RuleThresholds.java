@@ -0,0 +1,79 @@
+/**
+ * Пороговые значения сумм для наборов правил продуктов.
+ * Значения задаются свойствами recommendation.rules.* и могут быть изменены во время работы сервиса
+ * через {@link RuleSetRegistry#updateThresholds(RuleThresholds)}.
+ */
+package com.bank.star.service.rules;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+@Getter
+public final class RuleThresholds {
+
+  private final BigDecimal invest500SavingThreshold;    // Invest 500: пополнения SAVING > порога
+  private final BigDecimal topSavingDepositThreshold;   // Top Saving: пополнения DEBIT/SAVING >= порога
+  private final BigDecimal simpleCreditSpendThreshold;  // Простой кредит: траты DEBIT > порога
+
+  /**
+   * Создает набор пороговых значений.
+   *
+   * @param invest500SavingThreshold   порог пополнений SAVING для Invest 500
+   * @param topSavingDepositThreshold  порог пополнений DEBIT/SAVING для Top Saving
+   * @param simpleCreditSpendThreshold порог трат DEBIT для Простого кредита
+   * @throws IllegalArgumentException если порог не задан или отрицательный
+   */
+  public RuleThresholds(BigDecimal invest500SavingThreshold, BigDecimal topSavingDepositThreshold,
+      BigDecimal simpleCreditSpendThreshold) {
+    this.invest500SavingThreshold = requireNonNegative(invest500SavingThreshold, "invest500");
+    this.topSavingDepositThreshold = requireNonNegative(topSavingDepositThreshold, "topsaving");
+    this.simpleCreditSpendThreshold = requireNonNegative(simpleCreditSpendThreshold, "simplecredit");
+  }
+
+  /**
+   * Возвращает пороги по умолчанию (совпадают с application.properties).
+   */
+  public static RuleThresholds defaults() {
+    return new RuleThresholds(new BigDecimal("1000"), new BigDecimal("50000"),
+        new BigDecimal("100000"));
+  }
+
+  private static BigDecimal requireNonNegative(BigDecimal value, String name) {
+    if (value == null || value.signum() < 0) {
+      throw new IllegalArgumentException("Threshold for " + name + " must be non-negative: " + value);
+    }
+    // Нормализуем масштаб, чтобы 50000 и 50000.00 давали одинаковые имена атомарных правил
+    BigDecimal normalized = value.stripTrailingZeros();
+    return normalized.scale() < 0 ? normalized.setScale(0) : normalized;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RuleThresholds that)) {
+      return false;
+    }
+    return invest500SavingThreshold.compareTo(that.invest500SavingThreshold) == 0
+        && topSavingDepositThreshold.compareTo(that.topSavingDepositThreshold) == 0
+        && simpleCreditSpendThreshold.compareTo(that.simpleCreditSpendThreshold) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(invest500SavingThreshold, topSavingDepositThreshold,
+        simpleCreditSpendThreshold);
+  }
+
+  @Override
+  public String toString() {
+    return "RuleThresholds{" +
+        "invest500=" + invest500SavingThreshold.toPlainString() +
+        ", topSaving=" + topSavingDepositThreshold.toPlainString() +
+        ", simpleCredit=" + simpleCreditSpendThreshold.toPlainString() +
+        '}';
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Факты правил для всей клиентской базы, вычисленные по снимку транзакций
+ * ({@link TransactionSnapshot}) в виде сжатых битовых карт {@link UserBitmap}: бит — индекс
+ * пользователя в словаре снимка. В отличие от {@link UserBlock}, профили не собираются:
+ * факт владения продуктом (USER_OF, HAS_PRODUCT) берется из индекса владения снимка, пороговые
+ * условия на суммы (встроенные и TRANSACTION_SUM_COMPARE) — участком индекса по сумме
+ * ({@link SumIndex}), найденным двоичным поиском, а остальные условия вычисляются одним проходом
+ * по агрегатам активных пользователей.
+ * Каждый факт вычисляется один раз; объект не потокобезопасен и используется одним потоком.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserBitmap;
+import com.bank.star.repository.SumIndex;
+import com.bank.star.repository.TransactionSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class SnapshotFacts {
+
+  private final TransactionSnapshot snapshot;
+  private final UserBitmap users;                               // Активные пользователи снимка
+  private final Map<String, UserBitmap> facts = new HashMap<>(); // Вычисленные факты
+  private int factEvaluations;              // Количество вычисленных (не взятых из кеша) фактов
+
+  private SnapshotFacts(TransactionSnapshot snapshot) {
+    this.snapshot = snapshot;
+    this.users = snapshot.getActiveUsers();
+  }
+
+  /**
+   * Создает набор фактов по снимку; факты вычисляются при первом обращении.
+   */
+  public static SnapshotFacts of(TransactionSnapshot snapshot) {
+    return new SnapshotFacts(snapshot);
+  }
+
+  public TransactionSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Возвращает проверяемых пользователей — активных пользователей снимка (как страницы
+   * RecommendationRepository#findActiveUserIdsAfter). Карта не должна изменяться.
+   */
+  public UserBitmap getUsers() {
+    return users;
+  }
+
+  /**
+   * Возвращает пользователей, для которых факт истинен. Результат кешируется по ключу
+   * и не должен изменяться.
+   *
+   * @param key       канонический ключ факта
+   * @param condition условие без отрицания
+   * @return активные пользователи с истинным фактом
+   */
+  public UserBitmap evaluateFact(String key, ProfileCondition condition) {
+    UserBitmap cached = facts.get(key);
+    if (cached == null) {
+      factEvaluations++;
+      cached = compute(condition);
+      facts.put(key, cached);
+    }
+    return cached;
+  }
+
+  /**
+   * Возвращает количество фактически вычисленных фактов.
+   */
+  public int getFactEvaluations() {
+    return factEvaluations;
+  }
+
+  private UserBitmap compute(ProfileCondition condition) {
+    ProductType type = condition.getProductType();
+    if (condition.isOwnership()) {
+      // Индекс владения включает неактивных пользователей
+      return users.and(snapshot.getProductTypeOwners(type));
+    }
+    if (condition.getMetric() == ProfileCondition.Metric.DEPOSIT_SUM
+        || condition.getMetric() == ProfileCondition.Metric.WITHDRAW_SUM) {
+      SumIndex index = condition.getMetric() == ProfileCondition.Metric.DEPOSIT_SUM
+          ? snapshot.getDepositSumIndex(type)
+          : snapshot.getWithdrawSumIndex(type);
+      int[] range = condition.matchingRange(index);
+      return index.getUsers(range[0], range[1]);
+    }
+    UserBitmap result = new UserBitmap();
+    users.forEach(user -> {
+      if (condition.test(snapshot.getDepositSumMinor(user, type),
+          snapshot.getWithdrawSumMinor(user, type), snapshot.getTransactionCount(user, type))) {
+        result.add(user);
+      }
+    });
+    return result;
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Блок пользователей для пакетной проверки правил ({@link RecommendationRule#evaluateBatch(UserBlock)}).
+ * Профили всех пользователей блока загружаются одним запросом, а каждый атомарный факт вычисляется
+ * один раз для всего блока в виде {@link BitSet}: бит i соответствует i-му пользователю блока.
+ * Блок не потокобезопасен и используется одним потоком.
+ */
+package com.bank.star.service.rules;
+
+import com.bank.star.model.UserFinancialProfile;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public final class UserBlock {
+
+  private final List<UUID> users;                          // Пользователи блока по порядку
+  private final Map<String, BitSet> facts = new HashMap<>(); // Вычисленные факты блока
+
+  private UserFinancialProfile[] profiles;  // null, пока профили не загружены
+  private BitSet presentUsers;              // Пользователи, для которых найден профиль
+  private int factEvaluations;              // Количество вычисленных (не взятых из кеша) фактов
+
+  private UserBlock(List<UUID> users) {
+    this.users = List.copyOf(users);
+  }
+
+  /**
+   * Создает блок, профили которого будут загружены при первой проверке атомарного правила.
+   *
+   * @param users пользователи блока
+   * @return новый блок
+   */
+  public static UserBlock of(List<UUID> users) {
+    return new UserBlock(users);
+  }
+
+  /**
+   * Создает блок с уже загруженными профилями.
+   *
+   * @param users    пользователи блока
+   * @param profiles профили по ID пользователя (отсутствующие пользователи не подходят ни под одно правило)
+   * @return новый блок
+   */
+  public static UserBlock of(List<UUID> users, Map<UUID, UserFinancialProfile> profiles) {
+    UserBlock block = new UserBlock(users);
+    block.assignProfiles(profiles);
+    return block;
+  }
+
+  public int size() {
+    return users.size();
+  }
+
+  public List<UUID> getUsers() {
+    return users;
+  }
+
+  public UUID getUserId(int index) {
+    return users.get(index);
+  }
+
+  public boolean isLoaded() {
+    return profiles != null;
+  }
+
+  /**
+   * Загружает профили блока, если они еще не загружены.
+   *
+   * @param loader загрузчик профилей группы пользователей (обычно
+   *               RecommendationRepository::findUserFinancialProfiles)
+   */
+  public void load(Function<Collection<UUID>, Map<UUID, UserFinancialProfile>> loader) {
+    if (profiles == null) {
+      Map<UUID, UserFinancialProfile> loaded = loader.apply(users);
+      assignProfiles(loaded != null ? loaded : Map.of());
+    }
+  }
+
+  private void assignProfiles(Map<UUID, UserFinancialProfile> loaded) {
+    profiles = new UserFinancialProfile[users.size()];
+    presentUsers = new BitSet(users.size());
+    for (int i = 0; i < profiles.length; i++) {
+      profiles[i] = loaded.get(users.get(i));
+      if (profiles[i] != null) {
+        presentUsers.set(i);
+      }
+    }
+  }
+
+  /**
+   * Возвращает профиль пользователя блока или null, если пользователь не найден.
+   */
+  public UserFinancialProfile getProfile(int index) {
+    requireLoaded();
+    return profiles[index];
+  }
+
+  /**
+   * Возвращает копию множества пользователей, для которых найден профиль.
+   */
+  public BitSet getPresentUsers() {
+    requireLoaded();
+    return (BitSet) presentUsers.clone();
+  }
+
+  /**
+   * Возвращает множество пользователей блока, для которых факт истинен.
+   * Факт вычисляется по всем профилям блока один раз; вызывающий код получает копию
+   * и может изменять ее.
+   *
+   * @param key  канонический ключ факта
+   * @param fact условие над профилем пользователя
+   * @return копия множества пользователей с истинным фактом
+   */
+  public BitSet evaluateFact(String key, Predicate<UserFinancialProfile> fact) {
+    requireLoaded();
+    BitSet cached = facts.get(key);
+    if (cached == null) {
+      factEvaluations++;
+      cached = new BitSet(profiles.length);
+      for (int i = presentUsers.nextSetBit(0); i >= 0; i = presentUsers.nextSetBit(i + 1)) {
+        if (fact.test(profiles[i])) {
+          cached.set(i);
+        }
+      }
+      facts.put(key, cached);
+    }
+    return (BitSet) cached.clone();
+  }
+
+  /**
+   * Возвращает количество фактически вычисленных фактов блока.
+   */
+  public int getFactEvaluations() {
+    return factEvaluations;
+  }
+
+  private void requireLoaded() {
+    if (profiles == null) {
+      throw new IllegalStateException("User block profiles are not loaded");
+    }
+  }
+}
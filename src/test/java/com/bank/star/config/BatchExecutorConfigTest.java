@@ -0,0 +1,71 @@
+package com.bank.star.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchExecutorConfigTest {
+
+  private static final int THREADS = 2;
+  private static final int QUEUE_CAPACITY = THREADS * 4;
+
+  private final ExecutorService executor =
+      new BatchExecutorConfig().batchAnalysisExecutor(THREADS, 10);
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    executor.shutdownNow();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void batchAnalysisExecutor_shouldBlockSubmitterInsteadOfRunningBlockOnIt() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    List<String> threadNames = new CopyOnWriteArrayList<>();
+    Runnable block = () -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      threadNames.add(Thread.currentThread().getName());
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        running.decrementAndGet();
+      }
+    };
+    // Потоки пула заняты, очередь заполнена
+    for (int i = 0; i < THREADS + QUEUE_CAPACITY; i++) {
+      executor.execute(block);
+    }
+
+    // Следующий блок ждет места в очереди, а не выполняется потоком, который его поставил
+    Thread submitter = new Thread(() -> executor.execute(block), "submitter");
+    submitter.start();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (submitter.getState() != Thread.State.WAITING) {
+      assertTrue(System.nanoTime() < deadline, "Submitter did not block");
+      Thread.sleep(5);
+    }
+    assertFalse(threadNames.contains("submitter"));
+
+    release.countDown();
+    submitter.join(5000);
+    assertFalse(submitter.isAlive());
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(THREADS + QUEUE_CAPACITY + 1, threadNames.size());
+    assertTrue(threadNames.stream().allMatch(name -> name.startsWith("batch-analysis-")));
+    assertEquals(THREADS, maxRunning.get());
+  }
+}
@@ -0,0 +1,159 @@
+package com.bank.star.controller;
+
+import com.bank.star.dto.ThresholdSweepResponse;
+import com.bank.star.dto.UserRecommendation;
+import com.bank.star.model.ProductType;
+import com.bank.star.service.AudienceAnalyticsService;
+import com.bank.star.service.BatchAnalysisService;
+import com.bank.star.service.rules.ProfileCondition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.info.BuildProperties;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class AudienceControllerTest {
+
+  private static final UUID USER_1 = UUID.fromString("cd515076-5d8a-44be-930e-8d4fcb79f42d");
+  private static final UUID USER_2 = UUID.fromString("d4a4d619-9a0c-4fc5-b0cb-76c49409546b");
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private BatchAnalysisService batchAnalysisService;
+
+  @MockBean
+  private AudienceAnalyticsService audienceAnalyticsService;
+
+  @MockBean
+  private BuildProperties buildProperties;
+
+  @BeforeEach
+  void setup() {
+    when(buildProperties.getName()).thenReturn("bank-star");
+    when(buildProperties.getVersion()).thenReturn("1.0.0");
+    when(buildProperties.getTime()).thenReturn(java.time.Instant.now());
+    when(buildProperties.getArtifact()).thenReturn("bank-service");
+    when(buildProperties.getGroup()).thenReturn("com.bank.star");
+
+    when(batchAnalysisService.isKnownProduct("Top Saving")).thenReturn(true);
+    when(batchAnalysisService.streamUsersForProduct(eq("Top Saving"), any()))
+        .thenAnswer(invocation -> {
+          Consumer<UserRecommendation> sink = invocation.getArgument(1);
+          sink.accept(new UserRecommendation(USER_1, "Иван Инвесторов"));
+          sink.accept(new UserRecommendation(USER_2, "Петр \"Копилка\", мл."));
+          return 2L;
+        });
+  }
+
+  private String export(String url) throws Exception {
+    MvcResult started = mockMvc.perform(get(url))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+    MvcResult result = mockMvc.perform(asyncDispatch(started))
+        .andExpect(status().isOk())
+        .andReturn();
+    return result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void exportProductAudience_shouldStreamNdjson() throws Exception {
+    String body = export("/api/v1/audiences/export?product=Top Saving");
+
+    assertEquals("{\"userId\":\"" + USER_1 + "\",\"fullName\":\"Иван Инвесторов\"}\n"
+        + "{\"userId\":\"" + USER_2 + "\",\"fullName\":\"Петр \\\"Копилка\\\", мл.\"}\n", body);
+  }
+
+  @Test
+  void exportProductAudience_shouldStreamCsvWithEscapedFields() throws Exception {
+    String body = export("/api/v1/audiences/export?product=Top Saving&format=csv");
+
+    assertEquals("user_id,full_name\n"
+        + USER_1 + ",Иван Инвесторов\n"
+        + USER_2 + ",\"Петр \"\"Копилка\"\", мл.\"\n", body);
+  }
+
+  @Test
+  void exportProductAudience_shouldRejectUnknownProductAndFormat() throws Exception {
+    mockMvc.perform(get("/api/v1/audiences/export?product=Unknown"))
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.errorCode").value("PRODUCT_NOT_FOUND"));
+    mockMvc.perform(get("/api/v1/audiences/export?product=Top Saving&format=xml"))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.errorCode").value("INVALID_FORMAT"));
+
+    verify(batchAnalysisService, never()).streamUsersForProduct(any(), any());
+  }
+
+  @Test
+  void exportUsersWithoutRecommendations_shouldStreamCsv() throws Exception {
+    when(batchAnalysisService.streamUsersWithoutRecommendations(any())).thenAnswer(invocation -> {
+      Consumer<UserRecommendation> sink = invocation.getArgument(0);
+      sink.accept(new UserRecommendation(USER_1, "Алексей Безпродуктов"));
+      return 1L;
+    });
+
+    String body = export("/api/v1/audiences/without-recommendations/export?format=csv");
+
+    assertEquals("user_id,full_name\n" + USER_1 + ",Алексей Безпродуктов\n", body);
+  }
+
+  @Test
+  void sweepThresholds_shouldBuildTermFromParameters() throws Exception {
+    when(audienceAnalyticsService.sweepThresholds(any(), any())).thenReturn(
+        new ThresholdSweepResponse("DEBIT", "DEPOSIT", ">=", false, 4, "snapshot", 1, List.of(
+            new ThresholdSweepResponse.Point(new BigDecimal("50000"), 2),
+            new ThresholdSweepResponse.Point(new BigDecimal("100000"), 1))));
+
+    mockMvc.perform(get("/api/v1/audiences/threshold-sweep?productType=debit&metric=DEPOSIT"
+            + "&operator=>=&thresholds=50000,100000"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.points[0].users").value(2))
+        .andExpect(jsonPath("$.points[1].threshold").value(100000));
+
+    ArgumentCaptor<ProfileCondition> term = ArgumentCaptor.forClass(ProfileCondition.class);
+    verify(audienceAnalyticsService).sweepThresholds(term.capture(),
+        eq(List.of(new BigDecimal("50000"), new BigDecimal("100000"))));
+    assertEquals(ProfileCondition.Metric.DEPOSIT_SUM, term.getValue().getMetric());
+    assertEquals(ProductType.DEBIT, term.getValue().getProductType());
+    assertEquals(ProfileCondition.Comparison.GTE, term.getValue().getComparison());
+  }
+
+  @Test
+  void sweepThresholds_shouldRejectInvalidTerm() throws Exception {
+    mockMvc.perform(get("/api/v1/audiences/threshold-sweep?productType=DEBIT&metric=BALANCE"
+            + "&operator=>&thresholds=1"))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.errorCode").value("INVALID_TERM"));
+    mockMvc.perform(get("/api/v1/audiences/threshold-sweep?productType=DEBIT&metric=COUNT"
+            + "&operator=~&thresholds=1"))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.errorCode").value("INVALID_TERM"));
+
+    verify(audienceAnalyticsService, never()).sweepThresholds(any(), any());
+  }
+}
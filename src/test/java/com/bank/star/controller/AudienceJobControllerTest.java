@@ -0,0 +1,146 @@
+package com.bank.star.controller;
+
+import com.bank.star.dto.UserRecommendation;
+import com.bank.star.service.AudienceJob;
+import com.bank.star.service.AudienceJobService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.info.BuildProperties;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class AudienceJobControllerTest {
+
+  private static final UUID JOB_ID = UUID.fromString("5f0c7a1e-2b3d-4e5f-8a9b-0c1d2e3f4a5b");
+  private static final UUID USER_1 = UUID.fromString("cd515076-5d8a-44be-930e-8d4fcb79f42d");
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private AudienceJobService audienceJobService;
+
+  @MockBean
+  private BuildProperties buildProperties;
+
+  @BeforeEach
+  void setup() {
+    when(buildProperties.getName()).thenReturn("bank-star");
+    when(buildProperties.getVersion()).thenReturn("1.0.0");
+    when(buildProperties.getTime()).thenReturn(Instant.now());
+    when(buildProperties.getArtifact()).thenReturn("bank-service");
+    when(buildProperties.getGroup()).thenReturn("com.bank.star");
+  }
+
+  private static AudienceJob job(AudienceJob.Status status) {
+    AudienceJob job = mock(AudienceJob.class);
+    when(job.getId()).thenReturn(JOB_ID);
+    when(job.getProductName()).thenReturn("Top Saving");
+    when(job.getStatus()).thenReturn(status);
+    when(job.getProcessedUsers()).thenReturn(40L);
+    when(job.getTotalUsers()).thenReturn(100L);
+    when(job.getMatchedUsers()).thenReturn(12L);
+    when(job.getCreatedAt()).thenReturn(Instant.now());
+    return job;
+  }
+
+  @Test
+  void submitJob_shouldReturnAcceptedJob() throws Exception {
+    AudienceJob job = job(AudienceJob.Status.QUEUED);
+    when(audienceJobService.submit("Top Saving", null)).thenReturn(job);
+
+    mockMvc.perform(post("/api/v1/audience-jobs")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"productName\":\"Top Saving\"}"))
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.jobId").value(JOB_ID.toString()))
+        .andExpect(jsonPath("$.status").value("QUEUED"));
+  }
+
+  @Test
+  void submitJob_shouldRejectUnknownProductAndFullQueue() throws Exception {
+    when(audienceJobService.submit(eq("Unknown"), isNull()))
+        .thenThrow(new IllegalArgumentException("Unknown product name: Unknown"));
+    when(audienceJobService.submit(eq("Top Saving"), isNull()))
+        .thenThrow(new RejectedExecutionException("queue is full"));
+
+    mockMvc.perform(post("/api/v1/audience-jobs")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"productName\":\"Unknown\"}"))
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.errorCode").value("PRODUCT_NOT_FOUND"));
+    mockMvc.perform(post("/api/v1/audience-jobs")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"productName\":\"Top Saving\"}"))
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(jsonPath("$.errorCode").value("JOB_QUEUE_FULL"));
+  }
+
+  @Test
+  void getJob_shouldReturnProgressOrNotFound() throws Exception {
+    AudienceJob job = job(AudienceJob.Status.RUNNING);
+    when(audienceJobService.getJob(JOB_ID)).thenReturn(Optional.of(job));
+
+    mockMvc.perform(get("/api/v1/audience-jobs/" + JOB_ID))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.status").value("RUNNING"))
+        .andExpect(jsonPath("$.processedUsers").value(40))
+        .andExpect(jsonPath("$.totalUsers").value(100));
+    mockMvc.perform(get("/api/v1/audience-jobs/" + UUID.randomUUID()))
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.errorCode").value("JOB_NOT_FOUND"));
+  }
+
+  @Test
+  void cancelJob_shouldReturnCancelledJob() throws Exception {
+    AudienceJob job = job(AudienceJob.Status.CANCELLED);
+    when(audienceJobService.cancel(JOB_ID)).thenReturn(Optional.of(job));
+
+    mockMvc.perform(delete("/api/v1/audience-jobs/" + JOB_ID))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.status").value("CANCELLED"));
+  }
+
+  @Test
+  void getResults_shouldPageCompletedJobAndRejectRunningJob() throws Exception {
+    AudienceJob completed = job(AudienceJob.Status.COMPLETED);
+    when(audienceJobService.getJob(JOB_ID)).thenReturn(Optional.of(completed));
+    when(audienceJobService.getResults(completed, 10, 5))
+        .thenReturn(List.of(new UserRecommendation(USER_1, "Иван Инвесторов")));
+
+    mockMvc.perform(get("/api/v1/audience-jobs/" + JOB_ID + "/results?offset=10&limit=5"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.total").value(12))
+        .andExpect(jsonPath("$.users[0].userId").value(USER_1.toString()))
+        .andExpect(jsonPath("$.users[0].fullName").value("Иван Инвесторов"));
+
+    AudienceJob running = job(AudienceJob.Status.RUNNING);
+    when(audienceJobService.getJob(JOB_ID)).thenReturn(Optional.of(running));
+    mockMvc.perform(get("/api/v1/audience-jobs/" + JOB_ID + "/results"))
+        .andExpect(status().isConflict())
+        .andExpect(jsonPath("$.errorCode").value("JOB_NOT_COMPLETED"));
+    verify(audienceJobService, never()).getResults(eq(running), any(Long.class), any(Integer.class));
+  }
+}
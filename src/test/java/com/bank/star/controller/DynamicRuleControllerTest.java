@@ -2,9 +2,13 @@ package com.bank.star.controller;
 
 import com.bank.star.dto.DynamicRuleRequest;
 import com.bank.star.dto.DynamicRuleResponse;
+import com.bank.star.dto.RuleDryRunResponse;
 import com.bank.star.dto.RuleQueryRequest;
 import com.bank.star.model.QueryType;
 import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.service.AudienceAnalyticsService;
+import com.bank.star.service.rules.CompiledDynamicRule;
+import com.bank.star.service.rules.DynamicRuleCache;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -20,6 +24,11 @@ import java.util.List;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -42,6 +51,12 @@ class DynamicRuleControllerTest {
   @MockBean
   private BuildProperties buildProperties; // Мок BuildProperties
 
+  @MockBean
+  private AudienceAnalyticsService audienceAnalyticsService;
+
+  @Autowired
+  private DynamicRuleCache dynamicRuleCache;
+
   private final UUID testRuleId = UUID.fromString("a1b2c3d4-e5f6-7890-abcd-ef1234567890");
 
   private final UUID testProductId = UUID.fromString("147f6a0f-3b91-413b-ab99-87f081d60d5a");
@@ -81,6 +96,85 @@ class DynamicRuleControllerTest {
         .andExpect(jsonPath("$.productName").value("Test Product"));
   }
 
+  @Test
+  void createRule_withInvalidRule_shouldReturnBadRequestWithoutSaving() throws Exception {
+    long version = dynamicRuleCache.getVersion();
+    List<DynamicRuleRequest> requests = List.of(
+        new DynamicRuleRequest("Test Product", testProductId, "Test product description",
+            List.of(new RuleQueryRequest(QueryType.USER_OF, List.of("UNKNOWN"), false))),
+        new DynamicRuleRequest("Test Product", testProductId, "Test product description",
+            List.of(new RuleQueryRequest(QueryType.TRANSACTION_SUM_COMPARE,
+                List.of("DEBIT", "DEPOSIT", ">"), false))),
+        new DynamicRuleRequest("Test Product", null, "Test product description",
+            List.of(new RuleQueryRequest(QueryType.USER_OF, List.of("DEBIT"), false))));
+
+    for (DynamicRuleRequest request : requests) {
+      mockMvc.perform(post("/api/v1/rules")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(objectMapper.writeValueAsString(request)))
+          .andExpect(status().isBadRequest())
+          .andExpect(jsonPath("$.errorCode").value("INVALID_RULE"));
+    }
+    verify(dynamicRuleRepository, never()).save(any());
+    assertEquals(version, dynamicRuleCache.getVersion());
+  }
+
+  @Test
+  void dryRunRule_shouldEvaluateWithoutSavingOrCaching() throws Exception {
+    RuleDryRunResponse result = new RuleDryRunResponse("Test Product", 2, 10,
+        List.of(testRuleId), List.of(new RuleDryRunResponse.Overlap("Invest 500", 3, 1)),
+        "blocks", 5);
+    when(audienceAnalyticsService.dryRun(any(CompiledDynamicRule.class), eq(1000)))
+        .thenReturn(result);
+    long version = dynamicRuleCache.getVersion();
+
+    mockMvc.perform(post("/api/v1/rules/dry-run")
+            .param("sampleSize", "5000")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(createValidRuleRequest())))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.audienceSize").value(2))
+        .andExpect(jsonPath("$.sample[0]").value(testRuleId.toString()))
+        .andExpect(jsonPath("$.overlaps[0].overlapUsers").value(1));
+
+    verify(dynamicRuleRepository, never()).save(any());
+    assertEquals(version, dynamicRuleCache.getVersion());
+  }
+
+  @Test
+  void dryRunRule_withInvalidRule_shouldReturnBadRequest() throws Exception {
+    DynamicRuleRequest request = new DynamicRuleRequest("Test Product", testProductId,
+        "Test product description",
+        List.of(new RuleQueryRequest(QueryType.USER_OF, List.of("UNKNOWN"), false)));
+
+    mockMvc.perform(post("/api/v1/rules/dry-run")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.errorCode").value("INVALID_RULE"));
+    verify(audienceAnalyticsService, never()).dryRun(any(), anyInt());
+  }
+
+  @Test
+  void dryRunRule_withMissingProductFields_shouldReturnBadRequest() throws Exception {
+    List<RuleQueryRequest> rule =
+        List.of(new RuleQueryRequest(QueryType.USER_OF, List.of("DEBIT"), false));
+    List<DynamicRuleRequest> requests = List.of(
+        new DynamicRuleRequest(null, testProductId, "Test product description", rule),
+        new DynamicRuleRequest("Test Product", null, "Test product description", rule),
+        new DynamicRuleRequest("Test Product", testProductId, null, rule),
+        new DynamicRuleRequest("Test Product", testProductId, "Test product description", null));
+
+    for (DynamicRuleRequest request : requests) {
+      mockMvc.perform(post("/api/v1/rules/dry-run")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content(objectMapper.writeValueAsString(request)))
+          .andExpect(status().isBadRequest())
+          .andExpect(jsonPath("$.errorCode").value("INVALID_RULE"));
+    }
+    verify(audienceAnalyticsService, never()).dryRun(any(), anyInt());
+  }
+
   @Test
   void deleteRule_withExistingRule_shouldReturnNoContent() throws Exception {
     when(dynamicRuleRepository.existsById(testRuleId)).thenReturn(true);
@@ -89,6 +183,29 @@ class DynamicRuleControllerTest {
         .andExpect(status().isNoContent());
   }
 
+  @Test
+  void createAndDeleteRule_shouldInvalidateCompiledRuleCache() throws Exception {
+    when(dynamicRuleRepository.save(any())).thenAnswer(invocation -> {
+      com.bank.star.model.DynamicRule rule = invocation.getArgument(0);
+      rule.setId(testRuleId);
+      return rule;
+    });
+    when(dynamicRuleRepository.existsById(testRuleId)).thenReturn(true);
+    long initialVersion = dynamicRuleCache.getVersion();
+
+    mockMvc.perform(post("/api/v1/rules")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(createValidRuleRequest())))
+        .andExpect(status().isOk());
+    assertEquals(initialVersion + 1, dynamicRuleCache.getVersion());
+    assertEquals(testRuleId, dynamicRuleCache.getSnapshot().getRules().get(0).getRuleId());
+
+    mockMvc.perform(delete("/api/v1/rules/{ruleId}", testRuleId))
+        .andExpect(status().isNoContent());
+    assertEquals(initialVersion + 2, dynamicRuleCache.getVersion());
+    assertEquals(0, dynamicRuleCache.getSnapshot().size());
+  }
+
   @Test
   void deleteRule_withNonExistentRule_shouldReturnNotFound() throws Exception {
     when(dynamicRuleRepository.existsById(testRuleId)).thenReturn(false);
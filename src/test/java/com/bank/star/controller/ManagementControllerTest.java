@@ -60,4 +60,37 @@ class ManagementControllerTest {
         .andExpect(jsonPath("$.name").value("recommendation-service"))
         .andExpect(jsonPath("$.version").value("1.0.0"));
   }
+
+  @Test
+  void getRuleThresholds_shouldReturnConfiguredThresholds() throws Exception {
+    mockMvc.perform(get("/management/rule-thresholds")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.invest500SavingThreshold").value(1000))
+        .andExpect(jsonPath("$.topSavingDepositThreshold").value(50000))
+        .andExpect(jsonPath("$.simpleCreditSpendThreshold").value(100000))
+        .andExpect(jsonPath("$.version").exists());
+  }
+
+  @Test
+  void getDynamicRuleCache_shouldReturnVersionAndRuleCount() throws Exception {
+    mockMvc.perform(get("/management/dynamic-rules")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.version").isNumber())
+        .andExpect(jsonPath("$.rules").value(0));
+  }
+
+  @Test
+  void refreshTransactionSnapshot_shouldStartBackgroundRefreshAndReportStatus() throws Exception {
+    mockMvc.perform(post("/management/transaction-snapshot/refresh"))
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.refreshIntervalMs").isNumber());
+
+    mockMvc.perform(get("/management/transaction-snapshot")
+            .accept(MediaType.APPLICATION_JSON))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.loaded").isBoolean())
+        .andExpect(jsonPath("$.refreshing").isBoolean());
+  }
 }
@@ -0,0 +1,99 @@
+package com.bank.star.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserBitmapTest {
+
+  private static UserBitmap random(Random random, BitSet expected, int bound, double density) {
+    UserBitmap bitmap = new UserBitmap();
+    for (int user = 0; user < bound; user++) {
+      if (random.nextDouble() < density) {
+        expected.set(user);
+      }
+    }
+    // Порядок добавления не должен влиять на результат
+    int[] users = expected.stream().toArray();
+    for (int i = users.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = users[i];
+      users[i] = users[j];
+      users[j] = swap;
+    }
+    for (int user : users) {
+      bitmap.add(user);
+    }
+    return bitmap;
+  }
+
+  private static void assertSameUsers(BitSet expected, UserBitmap actual) {
+    assertArrayEquals(expected.stream().toArray(), actual.toArray());
+    assertEquals(expected.cardinality(), actual.cardinality());
+  }
+
+  @Test
+  void operations_shouldMatchBitSetForSparseAndDenseContainers() {
+    Random random = new Random(7);
+    // Плотность 0.5 дает битовые контейнеры, 0.01 — массивы; участки перекрываются частично
+    double[][] densities = {{0.5, 0.01}, {0.01, 0.02}, {0.5, 0.3}, {0.07, 0.06}};
+    for (double[] density : densities) {
+      BitSet left = new BitSet();
+      BitSet right = new BitSet();
+      UserBitmap leftBitmap = random(random, left, 200_000, density[0]);
+      UserBitmap rightBitmap = random(random, right, 150_000, density[1]);
+      assertSameUsers(left, leftBitmap);
+
+      BitSet and = (BitSet) left.clone();
+      and.and(right);
+      BitSet or = (BitSet) left.clone();
+      or.or(right);
+      BitSet andNot = (BitSet) left.clone();
+      andNot.andNot(right);
+      BitSet reverseAndNot = (BitSet) right.clone();
+      reverseAndNot.andNot(left);
+
+      assertSameUsers(and, leftBitmap.and(rightBitmap));
+      assertSameUsers(and, rightBitmap.and(leftBitmap));
+      assertSameUsers(or, leftBitmap.or(rightBitmap));
+      assertSameUsers(andNot, leftBitmap.andNot(rightBitmap));
+      assertSameUsers(reverseAndNot, rightBitmap.andNot(leftBitmap));
+      assertEquals(and.cardinality(), leftBitmap.andCardinality(rightBitmap));
+      assertEquals(and.cardinality(), rightBitmap.andCardinality(leftBitmap));
+      assertArrayEquals(left.stream().limit(70_000).toArray(), leftBitmap.toArray(70_000));
+      // Операции не меняют операнды
+      assertSameUsers(left, leftBitmap);
+      assertSameUsers(right, rightBitmap);
+    }
+  }
+
+  @Test
+  void contains_shouldTestSingleUsers() {
+    UserBitmap bitmap = UserBitmap.of(3, 70_000, 5);
+
+    assertTrue(bitmap.contains(3));
+    assertTrue(bitmap.contains(70_000));
+    assertFalse(bitmap.contains(4));
+    assertFalse(bitmap.contains(-1));
+    assertFalse(new UserBitmap().contains(0));
+    assertArrayEquals(new int[]{3, 5, 70_000}, bitmap.toArray());
+    assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+  }
+
+  @Test
+  void addRange_shouldAddContiguousUsersAcrossContainers() {
+    UserBitmap bitmap = UserBitmap.of(10);
+    bitmap.addRange(65_530, 131_080);
+    bitmap.addRange(5, 8);
+
+    BitSet expected = new BitSet();
+    expected.set(10);
+    expected.set(65_530, 131_080);
+    expected.set(5, 8);
+    assertSameUsers(expected, bitmap);
+    assertSameUsers(new BitSet(), UserBitmap.range(4, 4));
+  }
+}
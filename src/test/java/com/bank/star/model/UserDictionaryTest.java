@@ -0,0 +1,67 @@
+package com.bank.star.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserDictionaryTest {
+
+  @Test
+  void add_shouldAssignDenseIndexesAndFindThemAfterGrowth() {
+    UserDictionary dictionary = new UserDictionary();
+    List<UUID> users = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      users.add(UUID.randomUUID());
+      assertEquals(i, dictionary.add(users.get(i)));
+    }
+
+    assertEquals(users.size(), dictionary.size());
+    for (int i = 0; i < users.size(); i++) {
+      assertEquals(i, dictionary.add(users.get(i)));
+      assertEquals(i, dictionary.indexOf(users.get(i)));
+      assertEquals(users.get(i), dictionary.get(i));
+    }
+    assertEquals(-1, dictionary.indexOf(UUID.randomUUID()));
+    assertThrows(IndexOutOfBoundsException.class, () -> dictionary.get(users.size()));
+  }
+
+  @Test
+  void sortedIndexes_shouldFollowStringOrderOfIds() {
+    UserDictionary dictionary = new UserDictionary();
+    List<UUID> users = new ArrayList<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      // Половины с установленным старшим битом проверяют беззнаковое сравнение
+      UUID userId = new UUID(random.nextLong(), random.nextLong());
+      users.add(userId);
+      dictionary.add(userId);
+    }
+    users.sort((left, right) -> left.toString().compareTo(right.toString()));
+
+    int[] sorted = dictionary.sortedIndexes();
+
+    for (int position = 0; position < sorted.length; position++) {
+      assertEquals(users.get(position), dictionary.get(sorted[position]));
+    }
+  }
+
+  @Test
+  void higherIndex_shouldFindFirstGreaterUserInSortedDictionary() {
+    UUID first = UUID.fromString("1f9b149c-6577-448a-bc94-16bea229b71a");
+    UUID second = UUID.fromString("cd515076-5d8a-44be-930e-8d4fcb79f42d");
+    UserDictionary dictionary = new UserDictionary();
+    dictionary.add(first);
+    dictionary.add(second);
+
+    assertEquals(0, dictionary.higherIndex(0, 0));
+    assertEquals(1, dictionary.higherIndex(first.getMostSignificantBits(),
+        first.getLeastSignificantBits()));
+    assertEquals(2, dictionary.higherIndex(second.getMostSignificantBits(),
+        second.getLeastSignificantBits()));
+  }
+}
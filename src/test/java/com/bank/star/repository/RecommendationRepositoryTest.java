@@ -4,11 +4,18 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.test.context.jdbc.Sql;
 import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -103,4 +110,77 @@ class RecommendationRepositoryTest {
     // DEBIT списания: 15000.00
     assertEquals(0, new BigDecimal("15000.00").compareTo(result));
   }
-}
\ No newline at end of file
+
+  @Test
+  void findUserFinancialProfile_WhenUserExists_ShouldAggregateAllProductTypes() {
+    // Act
+    Optional<UserFinancialProfile> result = repository.findUserFinancialProfile(existingUserId);
+
+    // Assert
+    assertTrue(result.isPresent());
+    UserFinancialProfile profile = result.get();
+    // Согласно test-data.sql: DEBIT пополнения 20000, траты 15000; SAVING пополнения 1500
+    assertTrue(profile.hasProductType(ProductType.DEBIT));
+    assertTrue(profile.hasProductType(ProductType.SAVING));
+    assertFalse(profile.hasProductType(ProductType.CREDIT));
+    assertFalse(profile.hasProductType(ProductType.INVEST));
+    assertEquals(2, profile.getTransactionCount(ProductType.DEBIT));
+    assertEquals(0, new BigDecimal("20000.00").compareTo(profile.getDepositSum(ProductType.DEBIT)));
+    assertEquals(0, new BigDecimal("15000.00").compareTo(profile.getWithdrawSum(ProductType.DEBIT)));
+    assertEquals(0, new BigDecimal("1500.00").compareTo(profile.getDepositSum(ProductType.SAVING)));
+    assertEquals(0, BigDecimal.ZERO.compareTo(profile.getDepositSum(ProductType.CREDIT)));
+  }
+
+  @Test
+  void findUserFinancialProfile_WhenUserNotFound_ShouldReturnEmpty() {
+    // Act
+    Optional<UserFinancialProfile> result = repository.findUserFinancialProfile(nonExistingUserId);
+
+    // Assert
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  void findUserFinancialProfiles_ShouldLoadBlockInOneCallAndSkipUnknownUsers() {
+    // Act
+    Map<UUID, UserFinancialProfile> result = repository.findUserFinancialProfiles(
+        List.of(existingUserId, nonExistingUserId));
+
+    // Assert
+    assertEquals(1, result.size());
+    UserFinancialProfile profile = result.get(existingUserId);
+    UserFinancialProfile single = repository.findUserFinancialProfile(existingUserId).orElseThrow();
+    for (ProductType type : ProductType.values()) {
+      assertEquals(single.getTransactionCount(type), profile.getTransactionCount(type));
+      assertEquals(0, single.getDepositSum(type).compareTo(profile.getDepositSum(type)));
+      assertEquals(0, single.getWithdrawSum(type).compareTo(profile.getWithdrawSum(type)));
+    }
+    assertTrue(repository.findUserFinancialProfiles(List.of()).isEmpty());
+  }
+
+  @Test
+  void findUserFinancialProfiles_WhenQueryFails_ShouldThrowInsteadOfReturningEmptyBlock() {
+    // База недоступна: блок нельзя выдать за блок без пользователей
+    RecommendationRepository unavailable = new RecommendationRepository(
+        new JdbcTemplate(new DriverManagerDataSource("jdbc:unavailable:bank")));
+
+    assertThrows(DataAccessException.class,
+        () -> unavailable.findUserFinancialProfiles(List.of(existingUserId)));
+  }
+
+  @Test
+  void findActiveUserIdsAfter_ShouldTraverseSameUsersAsGetAllActiveUserIdsPageByPage() {
+    // Act
+    List<UUID> firstPage = repository.findActiveUserIdsAfter(null, 3);
+    List<UUID> secondPage = repository.findActiveUserIdsAfter(firstPage.get(2), 3);
+    List<UUID> afterLast = repository.findActiveUserIdsAfter(secondPage.get(0), 3);
+
+    // Assert
+    List<UUID> traversed = new ArrayList<>(firstPage);
+    traversed.addAll(secondPage);
+    assertEquals(repository.getAllActiveUserIds(), traversed);
+    assertEquals(3, firstPage.size());
+    assertEquals(1, secondPage.size());
+    assertTrue(afterLast.isEmpty());
+  }
+}
@@ -0,0 +1,199 @@
+package com.bank.star.repository;
+
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@JdbcTest
+@Sql(scripts = {"/schema.sql", "/test-data.sql"})
+class SnapshotRecommendationRepositoryTest {
+
+  private static final List<UUID> USERS = List.of(
+      UUID.fromString("cd515076-5d8a-44be-930e-8d4fcb79f42d"),
+      UUID.fromString("d4a4d619-9a0c-4fc5-b0cb-76c49409546b"),
+      UUID.fromString("1f9b149c-6577-448a-bc94-16bea229b71a"),
+      UUID.fromString("a1b2c3d4-5e6f-4890-9a0b-c1d2e3f4a5b6"),
+      UUID.fromString("00000000-0000-0000-0000-000000000000"));
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private RecommendationRepository jdbcRepository;
+  private TransactionSnapshotManager snapshotManager;
+  private SnapshotRecommendationRepository snapshotRepository;
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    jdbcRepository = new RecommendationRepository(jdbcTemplate);
+    executor = Executors.newSingleThreadExecutor();
+    snapshotManager = new TransactionSnapshotManager(jdbcTemplate, jdbcRepository, executor);
+    snapshotRepository = new SnapshotRecommendationRepository(jdbcTemplate, snapshotManager);
+    snapshotManager.refresh(false);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static void assertSameProfile(UserFinancialProfile expected, UserFinancialProfile actual) {
+    assertEquals(expected.getUserId(), actual.getUserId());
+    for (ProductType type : ProductType.values()) {
+      assertEquals(0, expected.getDepositSum(type).compareTo(actual.getDepositSum(type)));
+      assertEquals(0, expected.getWithdrawSum(type).compareTo(actual.getWithdrawSum(type)));
+      assertEquals(expected.getTransactionCount(type), actual.getTransactionCount(type));
+    }
+  }
+
+  @Test
+  void userQueries_shouldMatchJdbcRepository() {
+    for (UUID userId : USERS) {
+      assertEquals(jdbcRepository.userExists(userId), snapshotRepository.userExists(userId));
+      for (ProductType type : ProductType.values()) {
+        String context = userId + " " + type;
+        assertEquals(jdbcRepository.userHasProductType(userId, type),
+            snapshotRepository.userHasProductType(userId, type), context);
+        assertEquals(0, jdbcRepository.getTotalDepositAmountByProductType(userId, type)
+            .compareTo(snapshotRepository.getTotalDepositAmountByProductType(userId, type)), context);
+        assertEquals(0, jdbcRepository.getTotalSpendAmountByProductType(userId, type)
+            .compareTo(snapshotRepository.getTotalSpendAmountByProductType(userId, type)), context);
+        assertEquals(jdbcRepository.getTransactionCountByProductType(userId, type),
+            snapshotRepository.getTransactionCountByProductType(userId, type), context);
+        assertEquals(0, jdbcRepository.getAverageTransactionAmountByProductType(userId, type)
+            .setScale(2, RoundingMode.HALF_UP)
+            .compareTo(snapshotRepository.getAverageTransactionAmountByProductType(userId, type)
+                .setScale(2, RoundingMode.HALF_UP)), context);
+      }
+      assertEquals(jdbcRepository.findUserFinancialProfile(userId).isPresent(),
+          snapshotRepository.findUserFinancialProfile(userId).isPresent());
+      jdbcRepository.findUserFinancialProfile(userId).ifPresent(profile ->
+          assertSameProfile(profile, snapshotRepository.findUserFinancialProfile(userId).get()));
+    }
+  }
+
+  @Test
+  void findUserFinancialProfiles_shouldMatchJdbcRepository() {
+    Map<UUID, UserFinancialProfile> expected = jdbcRepository.findUserFinancialProfiles(USERS);
+    Map<UUID, UserFinancialProfile> actual = snapshotRepository.findUserFinancialProfiles(USERS);
+
+    assertEquals(expected.keySet(), actual.keySet());
+    expected.forEach((userId, profile) -> assertSameProfile(profile, actual.get(userId)));
+  }
+
+  @Test
+  void ownershipIndexes_shouldMatchTransactionsByProduct() {
+    TransactionSnapshot snapshot = snapshotManager.getCurrent();
+    List<String> productIds = jdbcTemplate.queryForList("SELECT id FROM products", String.class);
+    for (String productId : productIds) {
+      List<String> expected = jdbcTemplate.queryForList(
+          "SELECT DISTINCT user_id FROM transactions WHERE product_id = ? ORDER BY user_id",
+          String.class, productId);
+      List<String> owners = new ArrayList<>();
+      snapshot.getProductOwners(productId)
+          .forEach(user -> owners.add(snapshot.getUserId(user).toString()));
+      assertEquals(expected, owners, productId);
+      for (UUID userId : USERS) {
+        int user = snapshot.indexOf(userId);
+        assertEquals(expected.contains(userId.toString()),
+            user >= 0 && snapshot.ownsProduct(user, productId), userId + " " + productId);
+      }
+    }
+    assertTrue(snapshot.getProductOwners("unknown").isEmpty());
+  }
+
+  @Test
+  void activeUsers_shouldBeReturnedInIdOrderAndPagedByCursor() {
+    List<UUID> expected = jdbcRepository.getAllActiveUserIds();
+
+    assertEquals(expected, snapshotRepository.getAllActiveUserIds());
+    assertEquals(jdbcRepository.countActiveUsers(), snapshotRepository.countActiveUsers());
+    for (UUID cursor : USERS) {
+      assertEquals(jdbcRepository.findActiveUserIdsAfter(cursor, 2),
+          snapshotRepository.findActiveUserIdsAfter(cursor, 2), "after " + cursor);
+    }
+    assertEquals(jdbcRepository.findActiveUserIdsAfter(null, 2),
+        snapshotRepository.findActiveUserIdsAfter(null, 2));
+  }
+
+  @Test
+  void snapshot_shouldKeepLoadedDataUntilRefresh() {
+    UUID userId = USERS.get(3);
+    assertEquals(jdbcRepository.findDatasetVersion(), snapshotRepository.findDatasetVersion());
+
+    jdbcTemplate.update("INSERT INTO transactions (id, user_id, product_id, amount, type) "
+        + "VALUES ('txn-4-2', ?, 'd87f6a0f-3b91-413b-ab99-87f081d60d5b', 250.75, 'DEPOSIT')",
+        userId.toString());
+
+    assertFalse(snapshotRepository.userHasProductType(userId, ProductType.INVEST));
+    assertNotEquals(jdbcRepository.findDatasetVersion(), snapshotRepository.findDatasetVersion());
+
+    TransactionSnapshot snapshot = snapshotManager.refresh(false);
+
+    assertEquals(11, snapshot.getTransactionCount());
+    assertTrue(snapshotRepository.userHasProductType(userId, ProductType.INVEST));
+    assertEquals(new BigDecimal("250.75"),
+        snapshotRepository.getTotalDepositAmountByProductType(userId, ProductType.INVEST));
+    assertEquals(jdbcRepository.findDatasetVersion(), snapshotRepository.findDatasetVersion());
+  }
+
+  @Test
+  void refresh_shouldSkipUnchangedDataAndKeepSnapshotWhenDataChangesDuringLoad() {
+    TransactionSnapshot loaded = snapshotManager.getCurrent();
+
+    assertSame(loaded, snapshotManager.refresh(false));
+    assertEquals(1, snapshotManager.getSkippedRefreshCount());
+    assertNotSame(loaded, snapshotManager.refresh(true));
+
+    // Версия данных меняется между началом и концом загрузки
+    RecommendationRepository changingDatabase = mock(RecommendationRepository.class);
+    when(changingDatabase.findDatasetVersion())
+        .thenReturn(Optional.of("v1"))
+        .thenReturn(Optional.of("v2"));
+    TransactionSnapshotManager manager =
+        new TransactionSnapshotManager(jdbcTemplate, changingDatabase, executor);
+
+    assertThrows(IllegalStateException.class, () -> manager.refresh(false));
+    assertNull(manager.getCurrent());
+    assertEquals(1, manager.getFailedRefreshCount());
+    assertNotNull(manager.getLastError());
+  }
+
+  @Test
+  void repository_shouldUseJdbcUntilFirstSnapshotIsPublished() {
+    TransactionSnapshotManager manager =
+        new TransactionSnapshotManager(jdbcTemplate, jdbcRepository, executor);
+    SnapshotRecommendationRepository repository =
+        new SnapshotRecommendationRepository(jdbcTemplate, manager);
+
+    assertNull(repository.getSnapshot());
+    assertTrue(repository.userHasProductType(USERS.get(0), ProductType.DEBIT));
+    assertEquals(jdbcRepository.getAllActiveUserIds(), repository.getAllActiveUserIds());
+
+    // Фоновый поток не видит данные тестовой транзакции, поэтому проверяется только публикация
+    TransactionSnapshot published = manager.refreshAsync(false).join();
+
+    assertSame(published, repository.getSnapshot());
+    assertFalse(manager.isRefreshing());
+  }
+}
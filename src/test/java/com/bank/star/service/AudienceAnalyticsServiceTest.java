@@ -0,0 +1,302 @@
+package com.bank.star.service;
+
+import com.bank.star.dto.RuleDryRunResponse;
+import com.bank.star.dto.ThresholdSweepResponse;
+import com.bank.star.model.DynamicRule;
+import com.bank.star.model.MinorUnits;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.QueryType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.repository.SnapshotRecommendationRepository;
+import com.bank.star.repository.TransactionSnapshot;
+import com.bank.star.service.rules.AtomicRules;
+import com.bank.star.service.rules.CompiledDynamicRule;
+import com.bank.star.service.rules.CompositeRule;
+import com.bank.star.service.rules.DynamicRuleCache;
+import com.bank.star.service.rules.ProductRuleSets;
+import com.bank.star.service.rules.ProfileCondition;
+import com.bank.star.service.rules.RuleGraphCompiler;
+import com.bank.star.service.rules.RuleSetRegistry;
+import com.bank.star.service.rules.RuleThresholds;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AudienceAnalyticsServiceTest {
+
+  private static final int USERS = 1000;
+  private static final int BLOCK_SIZE = 37;
+  private static final int PAGE_SIZE = BLOCK_SIZE * 5;
+  private static final int PAGES = USERS / PAGE_SIZE + 1;  // Последняя страница неполная
+
+  private RecommendationRepository repository;
+  private RuleSetRegistry registry;
+  private RuleGraphCompiler compiler;
+  private ExecutorService executor;
+  private List<UUID> users;
+  private Map<UUID, UserFinancialProfile> profiles;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(RecommendationRepository.class);
+    registry = new RuleSetRegistry(new AtomicRules(repository), RuleThresholds.defaults());
+    compiler = new RuleGraphCompiler(new ProductRuleSets(registry),
+        new DynamicRuleCache(mock(DynamicRuleRepository.class)));
+    executor = Executors.newFixedThreadPool(4);
+
+    // Каждый третий пользователь подходит под Top Saving
+    users = new ArrayList<>();
+    profiles = new HashMap<>();
+    for (int i = 0; i < USERS; i++) {
+      UserFinancialProfile profile = new UserFinancialProfile(UUID.randomUUID());
+      profile.setProductStats(ProductType.DEBIT, new BigDecimal(i % 3 == 0 ? "60000" : "100"),
+          BigDecimal.TEN, 1);
+      users.add(profile.getUserId());
+      profiles.put(profile.getUserId(), profile);
+    }
+    when(repository.findActiveUserIdsAfter(any(), anyInt())).thenAnswer(invocation -> {
+      UUID afterUserId = invocation.getArgument(0);
+      int limit = invocation.getArgument(1);
+      int from = afterUserId == null ? 0 : users.indexOf(afterUserId) + 1;
+      return List.copyOf(users.subList(from, Math.min(from + limit, users.size())));
+    });
+    when(repository.findUserFinancialProfiles(anyCollection())).thenAnswer(invocation -> {
+      Map<UUID, UserFinancialProfile> block = new HashMap<>();
+      for (Object userId : invocation.getArgument(0, Collection.class)) {
+        block.put((UUID) userId, profiles.get(userId));
+      }
+      return block;
+    });
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private AudienceAnalyticsService service(RecommendationRepository repository) {
+    return new AudienceAnalyticsService(compiler, repository, scanner(repository), 30);
+  }
+
+  private ActiveUserScanner scanner(RecommendationRepository repository) {
+    return new ActiveUserScanner(repository, executor, BLOCK_SIZE, PAGE_SIZE);
+  }
+
+  @Test
+  void sweepThresholds_shouldCountAudiencesFromOnePassOverProfiles() {
+    AudienceAnalyticsService service = service(repository);
+    ProfileCondition term = ProfileCondition.sum(ProfileCondition.Metric.DEPOSIT_SUM,
+        ProductType.DEBIT, ProfileCondition.Comparison.GTE, BigDecimal.ZERO, false);
+
+    ThresholdSweepResponse sweep = service.sweepThresholds(term, List.of(
+        new BigDecimal("50000"), new BigDecimal("100"), new BigDecimal("100.01"),
+        new BigDecimal("1000000")));
+
+    assertEquals("profiles", sweep.getEngine());
+    assertEquals(USERS, sweep.getScannedUsers());
+    assertEquals(List.of((long) USERS / 3 + 1, (long) USERS, (long) USERS / 3 + 1, 0L),
+        sweep.getPoints().stream().map(ThresholdSweepResponse.Point::getUsers).toList());
+    // Профили читаются блоками за один проход, независимо от количества порогов
+    verify(repository, times((USERS + BLOCK_SIZE - 1) / BLOCK_SIZE))
+        .findUserFinancialProfiles(argThat(block -> block.size() <= BLOCK_SIZE));
+
+    ProfileCondition count = ProfileCondition.transactionCount(ProductType.DEBIT,
+        ProfileCondition.Comparison.GTE, 0, true);
+    assertEquals(List.of(0L, (long) USERS), service.sweepThresholds(count,
+            List.of(BigDecimal.ONE, new BigDecimal("2"))).getPoints().stream()
+        .map(ThresholdSweepResponse.Point::getUsers).toList());
+    assertThrows(IllegalArgumentException.class,
+        () -> service.sweepThresholds(count, List.of(new BigDecimal("1.5"))));
+  }
+
+  @Test
+  void sweepThresholds_shouldFailWhenProfilesOfBlockCannotBeLoaded() {
+    when(repository.findUserFinancialProfiles(argThat(block -> block.contains(users.get(500)))))
+        .thenThrow(new DataAccessResourceFailureException("connection reset"));
+    ProfileCondition term = ProfileCondition.sum(ProfileCondition.Metric.DEPOSIT_SUM,
+        ProductType.DEBIT, ProfileCondition.Comparison.GTE, BigDecimal.ZERO, false);
+
+    // Индекс без пропущенного блока занизил бы размеры аудиторий
+    assertThrows(DataAccessResourceFailureException.class,
+        () -> service(repository).sweepThresholds(term, List.of(new BigDecimal("100"))));
+  }
+
+  @Test
+  void sweepThresholds_shouldUseSnapshotIndexWhenLoaded() {
+    TransactionSnapshot.Builder builder = new TransactionSnapshot.Builder();
+    for (UserFinancialProfile profile : profiles.values()) {
+      builder.addTransaction(profile.getUserId(), "debit", ProductType.DEBIT, true,
+          MinorUnits.toMinorUnits(profile.getDepositSum(ProductType.DEBIT)),
+          TransactionSnapshot.NO_DATE);
+    }
+    SnapshotRecommendationRepository snapshotRepository =
+        mock(SnapshotRecommendationRepository.class);
+    when(snapshotRepository.getSnapshot()).thenReturn(builder.build("v1"));
+    AudienceAnalyticsService snapshotService = service(snapshotRepository);
+    ProfileCondition term = ProfileCondition.sum(ProfileCondition.Metric.DEPOSIT_SUM,
+        ProductType.DEBIT, ProfileCondition.Comparison.GT, BigDecimal.ZERO, false);
+    List<BigDecimal> thresholds = List.of(new BigDecimal("0"), new BigDecimal("100"),
+        new BigDecimal("59999.99"), new BigDecimal("60000"));
+
+    ThresholdSweepResponse expected = service(repository).sweepThresholds(term, thresholds);
+    ThresholdSweepResponse actual = snapshotService.sweepThresholds(term, thresholds);
+
+    assertEquals("snapshot", actual.getEngine());
+    assertEquals(expected.getPoints(), actual.getPoints());
+    verify(snapshotRepository, never()).findUserFinancialProfiles(anyCollection());
+  }
+
+  @Test
+  void dryRun_shouldCountAudienceAndOverlapsOnBlocksAndBitmaps() {
+    DynamicRule rule = new DynamicRule();
+    rule.setProductName("Dry Run Product");
+    rule.setProductId(UUID.randomUUID());
+    rule.setProductText("Dry run");
+    rule.setQueries(List.of(
+        new RuleQuery(QueryType.TRANSACTION_SUM_COMPARE,
+            List.of("DEBIT", "DEPOSIT", ">", "50000"), false),
+        new RuleQuery(QueryType.USER_OF, List.of("CREDIT"), true)));
+    CompiledDynamicRule candidate = CompiledDynamicRule.compile(rule);
+
+    TransactionSnapshot.Builder builder = new TransactionSnapshot.Builder();
+    for (UserFinancialProfile profile : profiles.values()) {
+      builder.addTransaction(profile.getUserId(), "debit", ProductType.DEBIT, true,
+          MinorUnits.toMinorUnits(profile.getDepositSum(ProductType.DEBIT)),
+          TransactionSnapshot.NO_DATE);
+      builder.addTransaction(profile.getUserId(), "debit", ProductType.DEBIT, false,
+          MinorUnits.toMinorUnits(profile.getWithdrawSum(ProductType.DEBIT)),
+          TransactionSnapshot.NO_DATE);
+    }
+    SnapshotRecommendationRepository snapshotRepository =
+        mock(SnapshotRecommendationRepository.class);
+    when(snapshotRepository.getSnapshot()).thenReturn(builder.build("v1"));
+    AudienceAnalyticsService bitmaps = service(snapshotRepository);
+
+    RuleDryRunResponse blocks = service(repository).dryRun(candidate, 5);
+    RuleDryRunResponse snapshot = bitmaps.dryRun(candidate, 5);
+
+    assertEquals("blocks", blocks.getEngine());
+    assertEquals("snapshot", snapshot.getEngine());
+    assertEquals(USERS / 3 + 1, blocks.getAudienceSize());
+    assertEquals(USERS, blocks.getScannedUsers());
+    // Первые подходящие пользователи в порядке страниц
+    assertEquals(List.of(users.get(0), users.get(3), users.get(6), users.get(9), users.get(12)),
+        blocks.getSample());
+    // Продукты вычисляются вместе с правилом: профили блока читаются один раз
+    verify(repository, times((USERS + BLOCK_SIZE - 1) / BLOCK_SIZE))
+        .findUserFinancialProfiles(anyCollection());
+
+    assertEquals(blocks.getAudienceSize(), snapshot.getAudienceSize());
+    assertEquals(blocks.getScannedUsers(), snapshot.getScannedUsers());
+    assertEquals(blocks.getOverlaps(), snapshot.getOverlaps());
+    assertEquals(5, snapshot.getSample().size());
+    verify(snapshotRepository, never()).findUserFinancialProfiles(anyCollection());
+
+    // Под Top Saving подходят те же пользователи, что и под правило
+    RuleDryRunResponse.Overlap topSaving = blocks.getOverlaps().stream()
+        .filter(overlap -> overlap.getProductName().equals("Top Saving"))
+        .findFirst().orElseThrow();
+    assertEquals(blocks.getAudienceSize(), topSaving.getOverlapUsers());
+  }
+
+  @Test
+  void getOverlapMatrix_shouldCountPairwiseOverlapsAndReuseThemUntilDataChanges() {
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v1"));
+    AudienceAnalyticsService service = service(repository);
+    AudienceSnapshot audiences = new BatchAnalysisService(compiler, repository,
+        mock(UserNameResolver.class), scanner(repository), Runnable::run, false, false, 30, false,
+        "", 10)
+        .getAudienceSnapshot();
+    clearInvocations(repository);
+
+    AudienceOverlapMatrix matrix = service.getOverlapMatrix();
+
+    assertEquals("blocks", matrix.getEngine());
+    assertEquals(USERS, matrix.getScannedUsers());
+    assertEquals(List.copyOf(audiences.getProductNames()), matrix.getProductNames());
+    for (String productName : matrix.getProductNames()) {
+      for (String otherProductName : matrix.getProductNames()) {
+        Set<UUID> both = new HashSet<>(audiences.getUsers(productName));
+        both.retainAll(audiences.getUsers(otherProductName));
+        assertEquals(both.size(), matrix.getOverlap(productName, otherProductName),
+            productName + " & " + otherProductName);
+      }
+    }
+    assertEquals(audiences.getWithoutRecommendations().size(),
+        matrix.getWithoutRecommendations());
+    assertEquals(-1, matrix.getOverlap(ProductRuleSets.TOP_SAVING, "Unknown"));
+    // Все пересечения считаются за один проход
+    verify(repository, times(PAGES)).findActiveUserIdsAfter(any(), eq(PAGE_SIZE));
+
+    // Повторное обращение берется из кеша, изменение данных строит матрицу заново
+    assertSame(matrix, service.getOverlapMatrix());
+    // Переупорядочивание условий меняет версию правил, но не их смысл
+    UserFinancialProfile investor = new UserFinancialProfile(UUID.randomUUID());
+    investor.setProductStats(ProductType.DEBIT, new BigDecimal("1000"), BigDecimal.ZERO, 1);
+    investor.setProductStats(ProductType.INVEST, new BigDecimal("1000"), BigDecimal.ZERO, 1);
+    CompositeRule invest500 = (CompositeRule) registry.getSnapshot().getInvest500RuleSet();
+    for (int i = 0; i < 1000; i++) {
+      invest500.isEligible(investor);
+    }
+    assertNotEquals(matrix.getRuleSetVersion(), registry.reorderRules().getVersion());
+    assertSame(matrix, service.getOverlapMatrix());
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v2"));
+    AudienceOverlapMatrix changed = service.getOverlapMatrix();
+    assertNotSame(matrix, changed);
+    assertEquals("v2", changed.getDatasetVersion());
+
+    TransactionSnapshot.Builder builder = new TransactionSnapshot.Builder();
+    for (UserFinancialProfile profile : profiles.values()) {
+      builder.addTransaction(profile.getUserId(), "debit", ProductType.DEBIT, true,
+          MinorUnits.toMinorUnits(profile.getDepositSum(ProductType.DEBIT)),
+          TransactionSnapshot.NO_DATE);
+      builder.addTransaction(profile.getUserId(), "debit", ProductType.DEBIT, false,
+          MinorUnits.toMinorUnits(profile.getWithdrawSum(ProductType.DEBIT)),
+          TransactionSnapshot.NO_DATE);
+    }
+    SnapshotRecommendationRepository snapshotRepository =
+        mock(SnapshotRecommendationRepository.class);
+    when(snapshotRepository.getSnapshot()).thenReturn(builder.build("v1"));
+    AudienceOverlapMatrix bitmaps = service(snapshotRepository).getOverlapMatrix();
+
+    assertEquals("snapshot", bitmaps.getEngine());
+    assertEquals("v1", bitmaps.getDatasetVersion());
+    assertEquals(matrix.getWithoutRecommendations(), bitmaps.getWithoutRecommendations());
+    for (int product = 0; product < matrix.getProductNames().size(); product++) {
+      for (int otherProduct = 0; otherProduct < matrix.getProductNames().size(); otherProduct++) {
+        assertEquals(matrix.getOverlap(product, otherProduct),
+            bitmaps.getOverlap(product, otherProduct));
+      }
+    }
+  }
+}
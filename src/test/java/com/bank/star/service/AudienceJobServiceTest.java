@@ -0,0 +1,346 @@
+package com.bank.star.service;
+
+import com.bank.star.dto.UserRecommendation;
+import com.bank.star.model.DynamicRule;
+import com.bank.star.model.QueryType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.service.BatchAnalysisService.StreamProgress;
+import com.bank.star.service.rules.DynamicRuleCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AudienceJobServiceTest {
+
+  private static final UUID USER_1 = UUID.fromString("cd515076-5d8a-44be-930e-8d4fcb79f42d");
+  private static final UUID USER_2 = UUID.fromString("d4a4d619-9a0c-4fc5-b0cb-76c49409546b");
+  private static final UUID USER_3 = UUID.fromString("1f9b149c-6577-448a-bc94-16bea229b71a");
+
+  @TempDir
+  Path resultDirectory;
+
+  private BatchAnalysisService batchAnalysisService;
+  private RecommendationRepository repository;
+  private DynamicRuleRepository dynamicRuleRepository;
+  private DynamicRuleCache dynamicRuleCache;
+  private ExecutorService executor;
+  private AudienceJobService service;
+
+  @BeforeEach
+  void setUp() {
+    batchAnalysisService = mock(BatchAnalysisService.class);
+    repository = mock(RecommendationRepository.class);
+    dynamicRuleRepository = mock(DynamicRuleRepository.class);
+    dynamicRuleCache = new DynamicRuleCache(dynamicRuleRepository);
+    executor = Executors.newSingleThreadExecutor();
+    service = new AudienceJobService(batchAnalysisService, repository, dynamicRuleCache, executor,
+        resultDirectory.toString(), 60);
+
+    when(repository.countActiveUsers()).thenReturn(3L);
+    when(batchAnalysisService.isKnownProduct("Top Saving")).thenReturn(true);
+    when(batchAnalysisService.getRuleFingerprint()).thenReturn("rules-v1");
+    when(batchAnalysisService.getDatasetVersion()).thenReturn(Optional.of("data-v1"));
+  }
+
+  @AfterEach
+  void tearDown() throws InterruptedException {
+    shutdown(executor);
+  }
+
+  /**
+   * Останавливает исполнитель и дожидается, пока задача допишет свое состояние на диск,
+   * чтобы временный каталог удалялся уже без записывающих потоков.
+   */
+  private static void shutdown(ExecutorService executor) throws InterruptedException {
+    executor.shutdownNow();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  private static AudienceJob awaitFinished(AudienceJob job) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!job.getStatus().isFinished()) {
+      assertTrue(System.nanoTime() < deadline, "Job did not finish in time: " + job);
+      Thread.sleep(10);
+    }
+    return job;
+  }
+
+  private void stubProductAudience() {
+    when(batchAnalysisService.streamUsersForProduct(eq("Top Saving"), isNull(), any(), any()))
+        .thenAnswer(invocation -> {
+          Consumer<UserRecommendation> sink = invocation.getArgument(2);
+          StreamProgress progress = invocation.getArgument(3);
+          sink.accept(new UserRecommendation(USER_1, "Иван\tИнвесторов"));
+          sink.accept(new UserRecommendation(USER_2, "Петр Копилкин"));
+          progress.blockProcessed(USER_2, 2);
+          sink.accept(new UserRecommendation(USER_3, "Сергей Кредитов"));
+          progress.blockProcessed(USER_3, 3);
+          return 3L;
+        });
+  }
+
+  @Test
+  void submit_shouldComputeAudienceAndPageThroughResults() throws Exception {
+    stubProductAudience();
+
+    AudienceJob job = awaitFinished(service.submit("Top Saving", null));
+
+    assertEquals(AudienceJob.Status.COMPLETED, job.getStatus());
+    assertEquals(3, job.getTotalUsers());
+    assertEquals(3, job.getProcessedUsers());
+    assertEquals(3, job.getMatchedUsers());
+    assertNotNull(job.getStartedAt());
+    assertNotNull(job.getFinishedAt());
+
+    List<UserRecommendation> firstPage = service.getResults(job, 0, 2);
+    assertEquals(List.of(USER_1, USER_2), firstPage.stream().map(UserRecommendation::getUserId).toList());
+    assertEquals("Иван Инвесторов", firstPage.get(0).getFullName());
+    List<UserRecommendation> lastPage = service.getResults(job, 2, 2);
+    assertEquals(List.of(USER_3), lastPage.stream().map(UserRecommendation::getUserId).toList());
+    assertEquals(List.of(job), service.getJobs());
+  }
+
+  @Test
+  void submit_byRuleId_shouldStreamOnlyThatRuleAndRejectUnknownTargets() throws Exception {
+    DynamicRule rule = new DynamicRule("Top Saving", UUID.randomUUID(), "Текст", List.of(
+        new RuleQuery(QueryType.USER_OF, List.of("DEBIT"), false)));
+    rule.setId(UUID.randomUUID());
+    DynamicRule sameProductRule = new DynamicRule("Top Saving", UUID.randomUUID(), "Текст",
+        List.of(new RuleQuery(QueryType.USER_OF, List.of("CREDIT"), false)));
+    sameProductRule.setId(UUID.randomUUID());
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(sameProductRule, rule));
+    dynamicRuleCache.reload();
+    when(batchAnalysisService.streamUsersForRule(any(), any(), any(), any()))
+        .thenAnswer(invocation -> {
+          Consumer<UserRecommendation> sink = invocation.getArgument(2);
+          sink.accept(new UserRecommendation(USER_2, "Петр Копилкин"));
+          return 1L;
+        });
+
+    AudienceJob job = awaitFinished(service.submit(null, rule.getId()));
+
+    assertEquals("Top Saving", job.getProductName());
+    assertEquals(rule.getId(), job.getRuleId());
+    assertEquals(AudienceJob.Status.COMPLETED, job.getStatus());
+    assertEquals(List.of(USER_2),
+        service.getResults(job, 0, 10).stream().map(UserRecommendation::getUserId).toList());
+    // Выгружается аудитория самого правила, а не объединение правил продукта
+    verify(batchAnalysisService).streamUsersForRule(
+        argThat(compiled -> rule.getId().equals(compiled.getRuleId())), any(), any(), any());
+    verify(batchAnalysisService, never()).streamUsersForProduct(any(), any(), any(), any());
+    assertThrows(IllegalArgumentException.class, () -> service.submit("Unknown", null));
+    assertThrows(IllegalArgumentException.class, () -> service.submit(null, UUID.randomUUID()));
+  }
+
+  @Test
+  void submit_withoutProduct_shouldComputeUsersWithoutRecommendations() throws Exception {
+    when(batchAnalysisService.streamUsersWithoutRecommendations(any(), any(), any()))
+        .thenAnswer(invocation -> {
+          Consumer<UserRecommendation> sink = invocation.getArgument(1);
+          sink.accept(new UserRecommendation(USER_3, "Алексей Безпродуктов"));
+          return 1L;
+        });
+
+    AudienceJob job = awaitFinished(service.submit(null, null));
+
+    assertEquals(AudienceJob.Status.COMPLETED, job.getStatus());
+    assertNull(job.getProductName());
+    assertEquals(USER_3, service.getResults(job, 0, 10).get(0).getUserId());
+  }
+
+  @Test
+  void cancel_shouldInterruptRunningJobAndSkipQueuedJob() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    when(batchAnalysisService.streamUsersForProduct(eq("Top Saving"), any(), any(), any()))
+        .thenAnswer(invocation -> {
+          Consumer<UserRecommendation> sink = invocation.getArgument(2);
+          sink.accept(new UserRecommendation(USER_1, "Иван Инвесторов"));
+          started.countDown();
+          Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+          return 1L;
+        });
+
+    AudienceJob running = service.submit("Top Saving", null);
+    AudienceJob queued = service.submit("Top Saving", null);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    service.cancel(queued.getId());
+    assertEquals(AudienceJob.Status.CANCELLED, queued.getStatus());
+
+    service.cancel(running.getId());
+    awaitFinished(running);
+    assertEquals(AudienceJob.Status.CANCELLED, running.getStatus());
+    assertFalse(Files.exists(running.getResultFile()));
+    assertThrows(IllegalStateException.class, () -> service.getResults(running, 0, 10));
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    verify(batchAnalysisService).streamUsersForProduct(eq("Top Saving"), any(), any(), any());
+    assertTrue(service.cancel(UUID.randomUUID()).isEmpty());
+  }
+
+  @Test
+  void failedJob_shouldReportErrorAndExpiredJobsShouldBeRemoved() throws Exception {
+    when(batchAnalysisService.streamUsersForProduct(eq("Top Saving"), any(), any(), any()))
+        .thenThrow(new IllegalStateException("Database unavailable"));
+    AudienceJobService expiringService = new AudienceJobService(batchAnalysisService, repository,
+        dynamicRuleCache, executor, resultDirectory.toString(), 0);
+
+    AudienceJob job = awaitFinished(expiringService.submit("Top Saving", null));
+    assertEquals(AudienceJob.Status.FAILED, job.getStatus());
+    assertEquals("Database unavailable", job.getError());
+
+    expiringService.removeExpiredJobs();
+
+    assertTrue(expiringService.getJob(job.getId()).isEmpty());
+    verify(batchAnalysisService, never()).streamUsersWithoutRecommendations(any(), any(), any());
+  }
+
+  /**
+   * Имитирует остановку процесса после первого блока: Error не перехватывается задачей,
+   * поэтому ее сохраненное состояние остается таким же, как при завершении JVM.
+   */
+  private static final class ProcessKilled extends Error {
+  }
+
+  /**
+   * Первый запуск задачи прерывается остановкой процесса после первого блока; при продолжении
+   * выгружается третий пользователь.
+   */
+  private AudienceJob submitAndKillAfterFirstBlock() throws Exception {
+    when(batchAnalysisService.streamUsersForProduct(eq("Top Saving"), any(), any(), any()))
+        .thenAnswer(invocation -> {
+          Consumer<UserRecommendation> sink = invocation.getArgument(2);
+          StreamProgress progress = invocation.getArgument(3);
+          UUID startAfter = invocation.getArgument(1);
+          if (startAfter == null) {
+            sink.accept(new UserRecommendation(USER_1, "Иван Инвесторов"));
+            sink.accept(new UserRecommendation(USER_2, "Петр Копилкин"));
+            progress.blockProcessed(USER_2, 2);
+            // Строка после последнего сохранения курсора не должна задублироваться
+            sink.accept(new UserRecommendation(USER_3, "Сергей Кредитов"));
+            throw new ProcessKilled();
+          }
+          assertEquals(USER_2, startAfter);
+          sink.accept(new UserRecommendation(USER_3, "Сергей Кредитов"));
+          progress.blockProcessed(USER_3, 1);
+          return 1L;
+        });
+    AudienceJob interrupted = service.submit("Top Saving", null);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!Files.exists(interrupted.getResultFile())
+        || Files.readAllLines(interrupted.getResultFile()).size() < 3) {
+      assertTrue(System.nanoTime() < deadline, "Job did not reach the second block");
+      Thread.sleep(10);
+    }
+    return interrupted;
+  }
+
+  private AudienceJobService restartedService(ExecutorService restartedExecutor) {
+    AudienceJobService restarted = new AudienceJobService(batchAnalysisService, repository,
+        dynamicRuleCache, restartedExecutor, resultDirectory.toString(), 60);
+    restarted.restoreJobs();
+    return restarted;
+  }
+
+  @Test
+  void restoreJobs_shouldResumeInterruptedJobFromCursorAfterRestart() throws Exception {
+    AudienceJob interrupted = submitAndKillAfterFirstBlock();
+
+    ExecutorService restartedExecutor = Executors.newSingleThreadExecutor();
+    try {
+      AudienceJobService restarted = restartedService(restartedExecutor);
+
+      AudienceJob resumed = awaitFinished(restarted.getJob(interrupted.getId()).orElseThrow());
+      assertEquals(AudienceJob.Status.COMPLETED, resumed.getStatus());
+      assertEquals("Top Saving", resumed.getProductName());
+      assertEquals(3, resumed.getProcessedUsers());
+      assertEquals(3, resumed.getMatchedUsers());
+      assertEquals(interrupted.getStartedAt(), resumed.getStartedAt());
+      assertEquals(List.of(USER_1, USER_2, USER_3), restarted.getResults(resumed, 0, 10).stream()
+          .map(UserRecommendation::getUserId).toList());
+
+      // Завершенная задача и ее результат переживают следующий перезапуск
+      AudienceJobService restartedAgain = restartedService(restartedExecutor);
+      AudienceJob completed = restartedAgain.getJob(interrupted.getId()).orElseThrow();
+      assertEquals(AudienceJob.Status.COMPLETED, completed.getStatus());
+      assertEquals(3, restartedAgain.getResults(completed, 0, 10).size());
+      verify(batchAnalysisService, times(2))
+          .streamUsersForProduct(eq("Top Saving"), any(), any(), any());
+    } finally {
+      shutdown(restartedExecutor);
+    }
+  }
+
+  @Test
+  void throughput_shouldCountOnlyUsersProcessedSinceResume() {
+    AudienceJob restored = AudienceJob.restore(UUID.randomUUID(), "Top Saving", null,
+        resultDirectory.resolve("restored.tsv"), Instant.now().minusSeconds(3600),
+        AudienceJob.Status.RUNNING, Instant.now().minusSeconds(3600), null, 2_000_000, 1_000_000,
+        10, null, USER_2, 100, "rules-v1", "data-v1");
+    Instant firstStart = restored.getStartedAt();
+
+    assertTrue(restored.markRunning(2_000_000));
+
+    // Пользователи первого запуска не завышают скорость продолженной задачи
+    assertEquals(0, restored.getThroughputPerSecond());
+    assertEquals(firstStart, restored.getStartedAt());
+  }
+
+  @Test
+  void restoreJobs_shouldStartOverWhenRulesOrDataChangedDuringRestart() throws Exception {
+    AudienceJob interrupted = submitAndKillAfterFirstBlock();
+    // За время перезапуска обновились данные: курсор и частичный результат недействительны
+    when(batchAnalysisService.getDatasetVersion()).thenReturn(Optional.of("data-v2"));
+    when(batchAnalysisService.streamUsersForProduct(eq("Top Saving"), isNull(), any(), any()))
+        .thenAnswer(invocation -> {
+          Consumer<UserRecommendation> sink = invocation.getArgument(2);
+          StreamProgress progress = invocation.getArgument(3);
+          sink.accept(new UserRecommendation(USER_3, "Сергей Кредитов"));
+          progress.blockProcessed(USER_3, 3);
+          return 1L;
+        });
+
+    ExecutorService restartedExecutor = Executors.newSingleThreadExecutor();
+    try {
+      AudienceJobService restarted = restartedService(restartedExecutor);
+
+      AudienceJob rebuilt = awaitFinished(restarted.getJob(interrupted.getId()).orElseThrow());
+      assertEquals(AudienceJob.Status.COMPLETED, rebuilt.getStatus());
+      assertEquals(3, rebuilt.getProcessedUsers());
+      assertEquals(1, rebuilt.getMatchedUsers());
+      assertEquals(List.of(USER_3), restarted.getResults(rebuilt, 0, 10).stream()
+          .map(UserRecommendation::getUserId).toList());
+      verify(batchAnalysisService, never())
+          .streamUsersForProduct(eq("Top Saving"), eq(USER_2), any(), any());
+    } finally {
+      shutdown(restartedExecutor);
+    }
+  }
+}
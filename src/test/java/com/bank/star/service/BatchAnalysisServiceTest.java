@@ -0,0 +1,470 @@
+package com.bank.star.service;
+
+import com.bank.star.model.DynamicRule;
+import com.bank.star.model.MinorUnits;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.QueryType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.model.UserDictionary;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.repository.SnapshotRecommendationRepository;
+import com.bank.star.repository.TransactionSnapshot;
+import com.bank.star.service.rules.AtomicRules;
+import com.bank.star.service.rules.CompiledDynamicRule;
+import com.bank.star.service.rules.CompositeRule;
+import com.bank.star.service.rules.DynamicRuleCache;
+import com.bank.star.service.rules.ProductRuleSets;
+import com.bank.star.service.rules.RuleGraphCompiler;
+import com.bank.star.service.rules.RuleSetRegistry;
+import com.bank.star.service.rules.RuleThresholds;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchAnalysisServiceTest {
+
+  private static final int USERS = 1000;
+  private static final int BLOCK_SIZE = 37;
+  private static final int PAGE_SIZE = BLOCK_SIZE * 5;
+  private static final int PAGES = USERS / PAGE_SIZE + 1;  // Последняя страница неполная
+
+  private RecommendationRepository repository;
+  private UserNameResolver userNameResolver;
+  private RuleSetRegistry registry;
+  private RuleGraphCompiler compiler;
+  private ExecutorService executor;
+  private List<UUID> users;
+  private Map<UUID, UserFinancialProfile> profiles;
+  private final Set<String> loaderThreads = ConcurrentHashMap.newKeySet();
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(RecommendationRepository.class);
+    userNameResolver = mock(UserNameResolver.class);
+    registry = new RuleSetRegistry(new AtomicRules(repository), RuleThresholds.defaults());
+    compiler = new RuleGraphCompiler(new ProductRuleSets(registry),
+        new DynamicRuleCache(mock(DynamicRuleRepository.class)));
+    executor = Executors.newFixedThreadPool(4);
+
+    // Каждый третий пользователь подходит под Top Saving
+    users = new ArrayList<>();
+    profiles = new HashMap<>();
+    for (int i = 0; i < USERS; i++) {
+      UserFinancialProfile profile = new UserFinancialProfile(UUID.randomUUID());
+      profile.setProductStats(ProductType.DEBIT, new BigDecimal(i % 3 == 0 ? "60000" : "100"),
+          BigDecimal.TEN, 1);
+      users.add(profile.getUserId());
+      profiles.put(profile.getUserId(), profile);
+    }
+    when(repository.findActiveUserIdsAfter(any(), anyInt())).thenAnswer(invocation -> {
+      UUID afterUserId = invocation.getArgument(0);
+      int limit = invocation.getArgument(1);
+      int from = afterUserId == null ? 0 : users.indexOf(afterUserId) + 1;
+      return List.copyOf(users.subList(from, Math.min(from + limit, users.size())));
+    });
+    when(repository.findUserFinancialProfiles(anyCollection())).thenAnswer(invocation -> {
+      loaderThreads.add(Thread.currentThread().getName());
+      Map<UUID, UserFinancialProfile> block = new HashMap<>();
+      for (Object userId : invocation.getArgument(0, Collection.class)) {
+        block.put((UUID) userId, profiles.get(userId));
+      }
+      return block;
+    });
+    when(userNameResolver.getUserFullNames(anyCollection())).thenAnswer(invocation -> {
+      Map<UUID, String> names = new HashMap<>();
+      for (Object userId : invocation.getArgument(0, Collection.class)) {
+        names.put((UUID) userId, "User " + userId);
+      }
+      return names;
+    });
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private BatchAnalysisService service(Executor executor) {
+    return service(repository, executor, null);
+  }
+
+  /**
+   * @param checkpointDirectory каталог контрольных точек или null, если они отключены
+   */
+  private BatchAnalysisService service(RecommendationRepository repository, Executor executor,
+      Path checkpointDirectory) {
+    return service(repository, executor, checkpointDirectory, executor);
+  }
+
+  private BatchAnalysisService service(RecommendationRepository repository, Executor executor,
+      Path checkpointDirectory, Executor resumeExecutor) {
+    return new BatchAnalysisService(compiler, repository, userNameResolver,
+        scanner(repository, executor), resumeExecutor, false, false, 30,
+        checkpointDirectory != null, String.valueOf(checkpointDirectory), 1);
+  }
+
+  private static ActiveUserScanner scanner(RecommendationRepository repository,
+      Executor executor) {
+    return new ActiveUserScanner(repository, executor, BLOCK_SIZE, PAGE_SIZE);
+  }
+
+  @Test
+  void findUserIdsForProduct_shouldMergeParallelBlocksInStableOrder() {
+    List<UUID> sequential = service(Runnable::run)
+        .findUserIdsForProduct(ProductRuleSets.TOP_SAVING);
+    List<UUID> parallel = service(executor).findUserIdsForProduct(ProductRuleSets.TOP_SAVING);
+
+    assertEquals(USERS / 3 + 1, sequential.size());
+    assertEquals(sequential, parallel);
+    // Порядок совпадает с порядком getAllActiveUserIds
+    for (int i = 0; i < parallel.size(); i++) {
+      assertEquals(users.get(i * 3), parallel.get(i));
+    }
+    assertTrue(loaderThreads.stream().anyMatch(name -> name.startsWith("pool-")));
+  }
+
+  @Test
+  void streamUsersWithoutRecommendations_shouldFailWhenNamesOfBlockCannotBeLoaded() {
+    UUID failing = users.get(BLOCK_SIZE * 2 + 2);  // 76 % 3 != 0: пользователь без рекомендаций
+    when(userNameResolver.getUserFullNames(argThat(ids -> ids.contains(failing))))
+        .thenThrow(new IllegalStateException("boom"));
+
+    // Ошибка блока не превращается в блок без пользователей
+    IllegalStateException error = assertThrows(IllegalStateException.class,
+        () -> service(executor).streamUsersWithoutRecommendations(user -> { }));
+    assertEquals("boom", error.getMessage());
+  }
+
+  @Test
+  void findUserIdsForProduct_shouldFailWhenProfilesOfBlockCannotBeLoaded() {
+    UUID failing = users.get(BLOCK_SIZE * 3 + 1);
+    when(repository.findUserFinancialProfiles(argThat(ids -> ids.contains(failing))))
+        .thenThrow(new DataAccessResourceFailureException("Connection reset"));
+
+    assertThrows(DataAccessResourceFailureException.class,
+        () -> service(executor).findUserIdsForProduct(ProductRuleSets.TOP_SAVING));
+    assertThrows(DataAccessResourceFailureException.class,
+        () -> service(Runnable::run).findUserIdsWithoutRecommendations());
+  }
+
+  @Test
+  void getAudienceSnapshot_shouldComputeAllAudiencesInOnePassAndReuseIt() {
+    BatchAnalysisService service = service(executor);
+
+    AudienceSnapshot snapshot = service.getAudienceSnapshot();
+
+    // Один проход по страницам keyset-пагинации: каждая следующая страница — после последнего ID
+    verify(repository, times(PAGES)).findActiveUserIdsAfter(any(), eq(PAGE_SIZE));
+    verify(repository).findActiveUserIdsAfter(null, PAGE_SIZE);
+    verify(repository).findActiveUserIdsAfter(users.get(PAGE_SIZE - 1), PAGE_SIZE);
+    assertEquals(USERS, snapshot.getScannedUsers());
+    assertEquals(List.of(ProductRuleSets.INVEST_500, ProductRuleSets.TOP_SAVING,
+        ProductRuleSets.SIMPLE_CREDIT), List.copyOf(snapshot.getProductNames()));
+    for (String productName : snapshot.getProductNames()) {
+      assertEquals(service.findUserIdsForProduct(productName), snapshot.getUsers(productName),
+          productName);
+    }
+    assertEquals(service.findUserIdsWithoutRecommendations(),
+        snapshot.getWithoutRecommendations());
+    assertEquals(List.of(), snapshot.getUsers("Unknown"));
+
+    // Повторное обращение не сканирует базу, изменение правил строит новый снимок
+    assertSame(snapshot, service.getAudienceSnapshot());
+    registry.updateThresholds(new RuleThresholds(new BigDecimal("1000"),
+        new BigDecimal("50"), new BigDecimal("100000")));
+    AudienceSnapshot updated = service.getAudienceSnapshot();
+    assertNotSame(snapshot, updated);
+    assertEquals(USERS, updated.getUsers(ProductRuleSets.TOP_SAVING).size());
+    assertTrue(updated.getWithoutRecommendations().isEmpty());
+  }
+
+  @Test
+  void getAudienceSnapshot_shouldSurviveRuleReorderAndRebuildWhenDataChanges() {
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v1"));
+    BatchAnalysisService service = service(executor);
+    AudienceSnapshot snapshot = service.getAudienceSnapshot();
+    assertEquals("v1", snapshot.getDatasetVersion());
+
+    // Переупорядочивание меняет версию правил, но не их смысл
+    long ruleSetVersion = compiler.getGraph().getRuleSetVersion();
+    reorderInvest500();
+    assertNotEquals(ruleSetVersion, compiler.getGraph().getRuleSetVersion());
+    assertSame(snapshot, service.getAudienceSnapshot());
+
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v2"));
+    AudienceSnapshot changed = service.getAudienceSnapshot();
+    assertNotSame(snapshot, changed);
+    assertEquals("v2", changed.getDatasetVersion());
+  }
+
+  /**
+   * Накапливает статистику Invest 500 на клиентах с INVEST и публикует новый порядок проверки.
+   */
+  private void reorderInvest500() {
+    UserFinancialProfile investor = new UserFinancialProfile(UUID.randomUUID());
+    investor.setProductStats(ProductType.DEBIT, new BigDecimal("1000"), BigDecimal.ZERO, 1);
+    investor.setProductStats(ProductType.INVEST, new BigDecimal("1000"), BigDecimal.ZERO, 1);
+    CompositeRule invest500 = (CompositeRule) registry.getSnapshot().getInvest500RuleSet();
+    for (int i = 0; i < 1000; i++) {
+      invest500.isEligible(investor);
+    }
+    registry.reorderRules();
+  }
+
+  @Test
+  void getAudienceSnapshot_shouldUseBitmapsWhenTransactionSnapshotIsLoaded() {
+    TransactionSnapshot.Builder builder = new TransactionSnapshot.Builder();
+    for (UserFinancialProfile profile : profiles.values()) {
+      builder.addTransaction(profile.getUserId(), "debit", ProductType.DEBIT, true,
+          MinorUnits.toMinorUnits(profile.getDepositSum(ProductType.DEBIT)),
+          TransactionSnapshot.NO_DATE);
+      builder.addTransaction(profile.getUserId(), "debit", ProductType.DEBIT, false,
+          MinorUnits.toMinorUnits(profile.getWithdrawSum(ProductType.DEBIT)),
+          TransactionSnapshot.NO_DATE);
+    }
+    SnapshotRecommendationRepository snapshotRepository =
+        mock(SnapshotRecommendationRepository.class);
+    when(snapshotRepository.getSnapshot()).thenReturn(builder.build("v1"));
+    BatchAnalysisService bitmaps = service(snapshotRepository, executor, null);
+
+    AudienceSnapshot expected = service(executor).getAudienceSnapshot();
+    AudienceSnapshot actual = bitmaps.getAudienceSnapshot();
+
+    // Снимок вычисляется по всей базе сразу, без страниц и загрузки профилей
+    verify(snapshotRepository, never()).findActiveUserIdsAfter(any(), anyInt());
+    verify(snapshotRepository, never()).findUserFinancialProfiles(anyCollection());
+    assertEquals(USERS, actual.getScannedUsers());
+    for (String productName : expected.getProductNames()) {
+      List<UUID> audience = new ArrayList<>(expected.getUsers(productName));
+      audience.sort(UserDictionary.ID_ORDER);
+      assertEquals(audience, actual.getUsers(productName), productName);
+      assertEquals(audience, bitmaps.findUserIdsForProduct(productName), productName);
+    }
+    List<UUID> withoutRecommendations = new ArrayList<>(expected.getWithoutRecommendations());
+    withoutRecommendations.sort(UserDictionary.ID_ORDER);
+    assertEquals(withoutRecommendations, actual.getWithoutRecommendations());
+    assertEquals(withoutRecommendations, bitmaps.findUserIdsWithoutRecommendations());
+  }
+
+  @Test
+  void streamUsersForProduct_shouldEmitSameUsersBlockByBlock() {
+    BatchAnalysisService service = service(executor);
+    List<UUID> streamed = new ArrayList<>();
+    List<Integer> blockSizes = new ArrayList<>();
+    when(repository.findUserFinancialProfiles(anyCollection())).thenAnswer(invocation -> {
+      Collection<?> block = invocation.getArgument(0, Collection.class);
+      blockSizes.add(block.size());
+      Map<UUID, UserFinancialProfile> result = new HashMap<>();
+      block.forEach(userId -> result.put((UUID) userId, profiles.get(userId)));
+      return result;
+    });
+
+    long count = service.streamUsersForProduct(ProductRuleSets.TOP_SAVING,
+        user -> streamed.add(user.getUserId()));
+
+    verify(repository, times(PAGES)).findActiveUserIdsAfter(any(), eq(PAGE_SIZE));
+    assertEquals(streamed.size(), count);
+    assertEquals(service.findUserIdsForProduct(ProductRuleSets.TOP_SAVING), streamed);
+    // Профили загружаются блоками не больше BLOCK_SIZE, без списка всех пользователей
+    assertTrue(blockSizes.stream().allMatch(size -> size <= BLOCK_SIZE));
+    assertThrows(IllegalArgumentException.class,
+        () -> service.streamUsersForProduct("Unknown", user -> { }));
+  }
+
+  @Test
+  void streamUsersForRule_shouldEmitOnlyAudienceOfThatRule() {
+    BatchAnalysisService service = service(executor);
+    CompiledDynamicRule rule = CompiledDynamicRule.compile(dynamicRule(
+        new RuleQuery(QueryType.TRANSACTION_SUM_COMPARE,
+            List.of("DEBIT", "DEPOSIT", ">", "50000"), false)));
+    CompiledDynamicRule sameProductRule = CompiledDynamicRule.compile(dynamicRule(
+        new RuleQuery(QueryType.USER_OF, List.of("DEBIT"), false)));
+    List<UUID> streamed = new ArrayList<>();
+    long[] processed = new long[1];
+
+    long count = service.streamUsersForRule(rule, null, user -> streamed.add(user.getUserId()),
+        (cursor, processedUsers) -> processed[0] = processedUsers);
+
+    List<UUID> expected = new ArrayList<>();
+    for (int i = 0; i < USERS; i += 3) {
+      expected.add(users.get(i));
+    }
+    assertEquals(expected, streamed);
+    assertEquals(expected.size(), count);
+    assertEquals(USERS, processed[0]);
+    // Правило того же продукта подходит всем пользователям, но в выгрузку не попадает
+    assertEquals(USERS, service.streamUsersForRule(sameProductRule, null, user -> { },
+        (cursor, processedUsers) -> { }));
+
+    // Продолжение с курсора выгружает только оставшихся пользователей
+    UUID cursor = users.get(PAGE_SIZE + BLOCK_SIZE - 1);
+    List<UUID> resumed = new ArrayList<>();
+    List<UUID> cursors = new ArrayList<>();
+    service.streamUsersForRule(rule, cursor, user -> resumed.add(user.getUserId()),
+        (blockCursor, processedUsers) -> cursors.add(blockCursor));
+    assertEquals(expected.stream().filter(userId -> users.indexOf(userId) > users.indexOf(cursor))
+        .toList(), resumed);
+    assertEquals(users.get(PAGE_SIZE + BLOCK_SIZE * 2 - 1), cursors.get(0));
+    assertEquals(users.get(USERS - 1), cursors.get(cursors.size() - 1));
+  }
+
+  private static DynamicRule dynamicRule(RuleQuery query) {
+    DynamicRule rule = new DynamicRule("Shared Product", UUID.randomUUID(), "Текст",
+        List.of(query));
+    rule.setId(UUID.randomUUID());
+    return rule;
+  }
+
+  private BatchAnalysisService checkpointingService(Path checkpointDirectory) {
+    return service(repository, executor, checkpointDirectory);
+  }
+
+  /**
+   * Имитирует остановку процесса: чтение третьей страницы завершается ошибкой.
+   */
+  private void failOnThirdPage() {
+    when(repository.findActiveUserIdsAfter(users.get(PAGE_SIZE * 2 - 1), PAGE_SIZE))
+        .thenThrow(new IllegalStateException("Connection reset"));
+  }
+
+  @Test
+  void getAudienceSnapshot_shouldResumeInterruptedRunFromCheckpoint(@TempDir Path checkpointDir) {
+    AudienceSnapshot expected = service(executor).getAudienceSnapshot();
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v1"));
+    failOnThirdPage();
+
+    assertThrows(IllegalStateException.class,
+        () -> checkpointingService(checkpointDir).getAudienceSnapshot());
+
+    // Перезапуск: новый экземпляр сервиса продолжает после второй страницы
+    doReturn(List.copyOf(users.subList(PAGE_SIZE * 2, PAGE_SIZE * 3)))
+        .when(repository).findActiveUserIdsAfter(users.get(PAGE_SIZE * 2 - 1), PAGE_SIZE);
+    clearInvocations(repository);
+    AudienceSnapshot resumed = checkpointingService(checkpointDir).getAudienceSnapshot();
+
+    verify(repository, never()).findActiveUserIdsAfter(null, PAGE_SIZE);
+    verify(repository, times(PAGES - 2)).findActiveUserIdsAfter(any(), eq(PAGE_SIZE));
+    assertEquals(USERS, resumed.getScannedUsers());
+    for (String productName : expected.getProductNames()) {
+      assertEquals(expected.getUsers(productName), resumed.getUsers(productName), productName);
+    }
+    assertEquals(expected.getWithoutRecommendations(), resumed.getWithoutRecommendations());
+    // Завершенный проход удаляет контрольную точку
+    assertFalse(Files.exists(checkpointDir.resolve("checkpoint.bin")));
+  }
+
+  @Test
+  void resumeInterruptedAudienceComputation_shouldRunOnExecutorUnlessSnapshotIsEnabled(
+      @TempDir Path checkpointDir) {
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v1"));
+    failOnThirdPage();
+    assertThrows(IllegalStateException.class,
+        () -> checkpointingService(checkpointDir).getAudienceSnapshot());
+    List<Runnable> resumeTasks = new ArrayList<>();
+
+    // Снимок транзакций еще строится: аудитории будут вычислены по нему, JDBC-проход не нужен
+    SnapshotRecommendationRepository snapshotRepository =
+        mock(SnapshotRecommendationRepository.class);
+    service(snapshotRepository, executor, checkpointDir, resumeTasks::add)
+        .resumeInterruptedAudienceComputation();
+    assertTrue(resumeTasks.isEmpty());
+
+    doReturn(List.copyOf(users.subList(PAGE_SIZE * 2, PAGE_SIZE * 3)))
+        .when(repository).findActiveUserIdsAfter(users.get(PAGE_SIZE * 2 - 1), PAGE_SIZE);
+    clearInvocations(repository);
+    BatchAnalysisService restarted = service(repository, executor, checkpointDir,
+        resumeTasks::add);
+    restarted.resumeInterruptedAudienceComputation();
+
+    // Проход поставлен в очередь переданного пула и до запуска не читает базу
+    assertEquals(1, resumeTasks.size());
+    verify(repository, never()).findActiveUserIdsAfter(any(), anyInt());
+    resumeTasks.get(0).run();
+    verify(repository, never()).findActiveUserIdsAfter(null, PAGE_SIZE);
+    verify(repository, times(PAGES - 2)).findActiveUserIdsAfter(any(), eq(PAGE_SIZE));
+    assertFalse(Files.exists(checkpointDir.resolve("checkpoint.bin")));
+  }
+
+  @Test
+  void getAudienceSnapshot_shouldNotCheckpointPastFailedBlock(@TempDir Path checkpointDir) {
+    AudienceSnapshot expected = service(executor).getAudienceSnapshot();
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v1"));
+    // Профили одного блока третьей страницы не читаются; остальные блоки страницы успешны
+    UUID failing = users.get(PAGE_SIZE * 2 + BLOCK_SIZE + 1);
+    when(repository.findUserFinancialProfiles(argThat(ids -> ids.contains(failing))))
+        .thenThrow(new DataAccessResourceFailureException("Connection reset"));
+
+    assertThrows(DataAccessResourceFailureException.class,
+        () -> checkpointingService(checkpointDir).getAudienceSnapshot());
+
+    // Продолжение начинается с третьей страницы, и ее пользователи не теряются
+    Map<UUID, UserFinancialProfile> failedBlock = new HashMap<>();
+    for (UUID userId : users.subList(PAGE_SIZE * 2 + BLOCK_SIZE, PAGE_SIZE * 2 + BLOCK_SIZE * 2)) {
+      failedBlock.put(userId, profiles.get(userId));
+    }
+    doReturn(failedBlock).when(repository)
+        .findUserFinancialProfiles(argThat(ids -> ids.contains(failing)));
+    clearInvocations(repository);
+    AudienceSnapshot resumed = checkpointingService(checkpointDir).getAudienceSnapshot();
+
+    verify(repository, never()).findActiveUserIdsAfter(null, PAGE_SIZE);
+    verify(repository).findActiveUserIdsAfter(users.get(PAGE_SIZE * 2 - 1), PAGE_SIZE);
+    assertEquals(USERS, resumed.getScannedUsers());
+    for (String productName : expected.getProductNames()) {
+      assertEquals(expected.getUsers(productName), resumed.getUsers(productName), productName);
+    }
+    assertEquals(expected.getWithoutRecommendations(), resumed.getWithoutRecommendations());
+  }
+
+  @Test
+  void getAudienceSnapshot_shouldDiscardCheckpointWhenDatasetChanges(@TempDir Path checkpointDir) {
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v1"));
+    failOnThirdPage();
+    assertThrows(IllegalStateException.class,
+        () -> checkpointingService(checkpointDir).getAudienceSnapshot());
+
+    doReturn(List.copyOf(users.subList(PAGE_SIZE * 2, PAGE_SIZE * 3)))
+        .when(repository).findActiveUserIdsAfter(users.get(PAGE_SIZE * 2 - 1), PAGE_SIZE);
+    when(repository.findDatasetVersion()).thenReturn(Optional.of("v2"));
+    clearInvocations(repository);
+    AudienceSnapshot snapshot = checkpointingService(checkpointDir).getAudienceSnapshot();
+
+    verify(repository).findActiveUserIdsAfter(null, PAGE_SIZE);
+    assertEquals(USERS, snapshot.getScannedUsers());
+    assertEquals(USERS / 3 + 1, snapshot.getUsers(ProductRuleSets.TOP_SAVING).size());
+  }
+}
@@ -1,8 +1,16 @@
 package com.bank.star.service;
 
 import com.bank.star.dto.RecommendationResponse;
+import com.bank.star.model.DynamicRule;
 import com.bank.star.model.ProductType;
+import com.bank.star.model.QueryType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.model.RuleStatistics;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.DynamicRuleRepository;
 import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.repository.RuleStatisticsRepository;
+import com.bank.star.service.rules.DynamicRuleCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,10 +18,17 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -22,30 +37,47 @@ class RecommendationServiceTest {
   @MockBean
   private RecommendationRepository repository;
 
+  @MockBean
+  private DynamicRuleRepository dynamicRuleRepository;
+
+  @MockBean
+  private RuleStatisticsRepository statisticsRepository;
+
   @Autowired
   private RecommendationService recommendationService;
 
+  @Autowired
+  private DynamicRuleCache dynamicRuleCache;
+
   private final UUID testUserId = UUID.fromString("cd515076-5d8a-44be-930e-8d4fcb79f42d");
 
+  // Профиль пользователя, который возвращает единственный агрегирующий запрос репозитория
+  private UserFinancialProfile profile;
+
   @BeforeEach
   void setUp() {
-    // Общая настройка для всех тестов - пользователь существует
-    when(repository.userExists(eq(testUserId))).thenReturn(true);
+    // Общая настройка для всех тестов - пользователь существует, транзакций нет
+    profile = new UserFinancialProfile(testUserId);
+    when(repository.findUserFinancialProfile(eq(testUserId))).thenReturn(Optional.of(profile));
+    // Кеш динамических правил общий для контекста: сбрасываем его к пустому списку из мока
+    dynamicRuleCache.reload();
+  }
+
+  /**
+   * Задает агрегаты профиля по типу продукта. Наличие продукта определяется
+   * количеством транзакций.
+   */
+  private void givenProductStats(ProductType type, boolean hasProduct, String deposit,
+      String spend) {
+    profile.setProductStats(type, new BigDecimal(deposit), new BigDecimal(spend),
+        hasProduct ? 1 : 0);
   }
 
   @Test
   void whenUserEligibleForInvest500_thenReturnInvest500Recommendation() {
-    // Настраиваем только необходимые моки для Invest 500
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.DEBIT))).thenReturn(true);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.INVEST))).thenReturn(false);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.SAVING)))
-        .thenReturn(new BigDecimal("5000"));
-    // Добавляем моки для других методов, которые могут вызываться
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.getTotalSpendAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.CREDIT))).thenReturn(false);
+    // Invest 500: есть DEBIT, нет INVEST, пополнения SAVING > 1000
+    givenProductStats(ProductType.DEBIT, true, "0", "0");
+    givenProductStats(ProductType.SAVING, true, "5000", "0");
 
     RecommendationResponse response = recommendationService.getRecommendations(testUserId);
 
@@ -57,17 +89,8 @@ class RecommendationServiceTest {
 
   @Test
   void whenUserEligibleForTopSaving_thenReturnTopSavingRecommendation() {
-    // Настраиваем только необходимые моки для Top Saving
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.DEBIT))).thenReturn(true);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(new BigDecimal("60000"));
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.SAVING)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.getTotalSpendAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(new BigDecimal("40000"));
-    // Добавляем моки для других методов
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.INVEST))).thenReturn(false);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.CREDIT))).thenReturn(false);
+    // Top Saving: есть DEBIT, пополнения DEBIT >= 50000, положительный баланс DEBIT
+    givenProductStats(ProductType.DEBIT, true, "60000", "40000");
 
     RecommendationResponse response = recommendationService.getRecommendations(testUserId);
 
@@ -78,17 +101,8 @@ class RecommendationServiceTest {
 
   @Test
   void whenUserEligibleForSimpleCredit_thenReturnSimpleCreditRecommendation() {
-    // Настраиваем только необходимые моки для Simple Credit
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.CREDIT))).thenReturn(false);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(new BigDecimal("200000"));
-    when(repository.getTotalSpendAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(new BigDecimal("150000"));
-    // Добавляем моки для других методов
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.DEBIT))).thenReturn(false);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.INVEST))).thenReturn(false);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.SAVING)))
-        .thenReturn(BigDecimal.ZERO);
+    // Простой кредит: нет CREDIT, положительный баланс DEBIT, траты DEBIT > 100000
+    givenProductStats(ProductType.DEBIT, false, "200000", "150000");
 
     RecommendationResponse response = recommendationService.getRecommendations(testUserId);
 
@@ -99,16 +113,9 @@ class RecommendationServiceTest {
 
   @Test
   void whenUserEligibleForMultipleProducts_thenReturnMultipleRecommendations() {
-    // Настраиваем моки для нескольких продуктов
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.DEBIT))).thenReturn(true);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.INVEST))).thenReturn(false);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.CREDIT))).thenReturn(false);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.SAVING)))
-        .thenReturn(new BigDecimal("5000"));
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(new BigDecimal("60000"));
-    when(repository.getTotalSpendAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(new BigDecimal("40000"));
+    // Настраиваем профиль, подходящий сразу для нескольких продуктов
+    givenProductStats(ProductType.DEBIT, true, "60000", "40000");
+    givenProductStats(ProductType.SAVING, true, "5000", "0");
 
     RecommendationResponse response = recommendationService.getRecommendations(testUserId);
 
@@ -122,17 +129,7 @@ class RecommendationServiceTest {
 
   @Test
   void whenUserNotEligibleForAnyProduct_thenReturnEmptyRecommendations() {
-    // Пользователь без дебетовой карты не подходит ни для чего
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.DEBIT))).thenReturn(false);
-    // Добавляем моки для всех методов суммы, чтобы они возвращали ZERO вместо null
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.SAVING)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.getTotalSpendAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.INVEST))).thenReturn(false);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.CREDIT))).thenReturn(false);
+    // Пользователь без транзакций не подходит ни для чего (профиль из setUp пустой)
 
     RecommendationResponse response = recommendationService.getRecommendations(testUserId);
 
@@ -152,7 +149,7 @@ class RecommendationServiceTest {
   void whenUserDoesNotExist_thenThrowUserNotFoundException() {
     // Переопределяем настройку для конкретного теста
     UUID nonExistentUserId = UUID.fromString("11111111-1111-1111-1111-111111111111");
-    when(repository.userExists(eq(nonExistentUserId))).thenReturn(false);
+    when(repository.findUserFinancialProfile(eq(nonExistentUserId))).thenReturn(Optional.empty());
 
     assertThrows(com.bank.star.exception.UserNotFoundException.class, () -> {
       recommendationService.getRecommendations(nonExistentUserId);
@@ -161,16 +158,8 @@ class RecommendationServiceTest {
 
   @Test
   void invest500Eligibility_allConditionsMet_returnsTrue() {
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.DEBIT))).thenReturn(true);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.INVEST))).thenReturn(false);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.SAVING)))
-        .thenReturn(new BigDecimal("2000"));
-    // Добавляем моки для других методов
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.getTotalSpendAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.CREDIT))).thenReturn(false);
+    givenProductStats(ProductType.DEBIT, true, "0", "0");
+    givenProductStats(ProductType.SAVING, true, "2000", "0");
 
     RecommendationResponse response = recommendationService.getRecommendations(testUserId);
 
@@ -180,20 +169,72 @@ class RecommendationServiceTest {
 
   @Test
   void invest500Eligibility_noDebitProduct_returnsFalse() {
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.DEBIT))).thenReturn(false);
-    // Добавляем моки для всех методов суммы
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.SAVING)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.getTotalDepositAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.getTotalSpendAmountByProductType(eq(testUserId), eq(ProductType.DEBIT)))
-        .thenReturn(BigDecimal.ZERO);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.INVEST))).thenReturn(false);
-    when(repository.userHasProductType(eq(testUserId), eq(ProductType.CREDIT))).thenReturn(false);
+    givenProductStats(ProductType.SAVING, true, "5000", "0");
 
     RecommendationResponse response = recommendationService.getRecommendations(testUserId);
 
     assertFalse(response.getRecommendations().stream()
         .anyMatch(r -> r.getName().equals("Invest 500")));
   }
-}
\ No newline at end of file
+
+  @Test
+  void getRecommendations_loadsProfileWithSingleQuery() {
+    givenProductStats(ProductType.DEBIT, true, "60000", "40000");
+    givenProductStats(ProductType.SAVING, true, "5000", "0");
+
+    recommendationService.getRecommendations(testUserId);
+
+    // Все наборы правил проверяются по одному профилю, без поштучных запросов агрегатов
+    verify(repository, times(1)).findUserFinancialProfile(testUserId);
+    verify(repository, times(0)).userHasProductType(eq(testUserId), any());
+    verify(repository, times(0)).getTotalDepositAmountByProductType(eq(testUserId), any());
+  }
+
+  @Test
+  void getRecommendations_includesMatchingDynamicRuleProducts() {
+    givenProductStats(ProductType.DEBIT, true, "60000", "40000");
+
+    // Динамическое правило: клиент DEBIT, без INVEST, пополнения DEBIT > 50000
+    DynamicRule rule = new DynamicRule("Dynamic Deposit", UUID.randomUUID(), "Текст продукта",
+        List.of(
+            new RuleQuery(QueryType.USER_OF, List.of("DEBIT"), false),
+            new RuleQuery(QueryType.USER_OF, List.of("INVEST"), true),
+            new RuleQuery(QueryType.TRANSACTION_SUM_COMPARE,
+                List.of("DEBIT", "DEPOSIT", ">", "50000"), false)));
+    rule.setId(UUID.randomUUID());
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(rule));
+    dynamicRuleCache.reload();
+
+    RecommendationResponse response = recommendationService.getRecommendations(testUserId);
+
+    assertEquals(2, response.getRecommendationsCount());
+    assertTrue(response.getRecommendations().stream()
+        .anyMatch(r -> r.getName().equals("Top Saving")));
+    assertTrue(response.getRecommendations().stream()
+        .anyMatch(r -> r.getName().equals("Dynamic Deposit")));
+    // Условия динамического правила не порождают дополнительных запросов к БД
+    verify(repository, times(1)).findUserFinancialProfile(testUserId);
+  }
+
+  @Test
+  void getRecommendations_takesRuleIdForStatisticsFromSnapshot() {
+    givenProductStats(ProductType.DEBIT, true, "60000", "40000");
+
+    // Запись встроенного продукта без условий: правило не компилируется, но статистика считается
+    UUID topSavingId = UUID.fromString("59efc529-2fff-41af-baff-90ccd7402925");
+    DynamicRule rule = new DynamicRule("Top Saving", topSavingId, "Текст продукта", List.of());
+    rule.setId(UUID.randomUUID());
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(rule));
+    dynamicRuleCache.reload();
+    when(statisticsRepository.findByRuleId(rule.getId()))
+        .thenReturn(Optional.of(new RuleStatistics(rule.getId(), 4L)));
+
+    RecommendationResponse response = recommendationService.getRecommendations(testUserId);
+
+    assertEquals(1, response.getRecommendationsCount());
+    verify(statisticsRepository).save(argThat(statistics ->
+        rule.getId().equals(statistics.getRuleId()) && statistics.getExecutionCount() == 5L));
+    // ID правила берется из снимка кеша, без запроса к dynamic_rules на каждый вызов
+    verify(dynamicRuleRepository, never()).findByProductId(any());
+  }
+}
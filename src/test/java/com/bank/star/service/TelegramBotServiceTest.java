@@ -2,7 +2,6 @@ package com.bank.star.service;
 
 import com.bank.star.dto.ProductRecommendation;
 import com.bank.star.dto.RecommendationResponse;
-import com.bank.star.dto.UserRecommendation;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
@@ -15,8 +14,10 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMar
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -241,33 +242,44 @@ class TelegramBotServiceTest {
         any(ReplyKeyboardMarkup.class));
   }
 
+  private AudienceSnapshot audience(String productName, List<UUID> users) {
+    return audience(productName, users, List.of());
+  }
+
+  private AudienceSnapshot audience(String productName, List<UUID> users,
+      List<UUID> withoutRecommendations) {
+    return new AudienceSnapshot(1, 0, Instant.now(), users.size() + withoutRecommendations.size(),
+        Map.of(productName, users), withoutRecommendations);
+  }
+
   // ===== ПРОСТЫЕ ТЕСТЫ НА КНОПКИ АНАЛИЗА БАЗЫ =====
 
   @Test
   void testHandleBatchAnalysisInvest500() {
     Update update = createUpdateWithMessage("💎 Invest 500", 123L);
 
-    List<UserRecommendation> mockUsers = List.of(
-        new UserRecommendation(UUID.randomUUID(), "User 1"),
-        new UserRecommendation(UUID.randomUUID(), "User 2")
-    );
-
-    when(batchAnalysisService.getUsersForProduct("Invest 500"))
-        .thenReturn(mockUsers);
+    UUID user1 = UUID.randomUUID();
+    UUID user2 = UUID.randomUUID();
+    when(batchAnalysisService.getAudienceSnapshot())
+        .thenReturn(audience("Invest 500", List.of(user1, user2)));
+    when(userNameResolver.getUserFullNames(List.of(user1, user2)))
+        .thenReturn(Map.of(user1, "User 1", user2, "User 2"));
 
     telegramBotService.onUpdateReceived(update);
 
     verify(telegramBotService).sendMessageWithKeyboard(eq(123L),
-        argThat(msg -> msg.contains("Invest 500") && msg.contains("2 пользователей")),
+        argThat(msg -> msg.contains("Invest 500") && msg.contains("2 пользователей")
+            && msg.contains("User 1") && msg.contains("User 2")),
         any(ReplyKeyboardMarkup.class));
+    verify(userNameResolver, never()).getUserFullName(any());
   }
 
   @Test
   void testHandleBatchAnalysisTopSaving() {
     Update update = createUpdateWithMessage("🏦 Top Saving", 123L);
 
-    when(batchAnalysisService.getUsersForProduct("Top Saving"))
-        .thenReturn(List.of(new UserRecommendation(UUID.randomUUID(), "User 1")));
+    when(batchAnalysisService.getAudienceSnapshot())
+        .thenReturn(audience("Top Saving", List.of(UUID.randomUUID())));
 
     telegramBotService.onUpdateReceived(update);
 
@@ -280,8 +292,8 @@ class TelegramBotServiceTest {
   void testHandleBatchAnalysisSimpleCredit() {
     Update update = createUpdateWithMessage("💳 Простой кредит", 123L);
 
-    when(batchAnalysisService.getUsersForProduct("Простой кредит"))
-        .thenReturn(List.of());
+    when(batchAnalysisService.getAudienceSnapshot())
+        .thenReturn(audience("Простой кредит", List.of()));
 
     telegramBotService.onUpdateReceived(update);
 
@@ -294,11 +306,9 @@ class TelegramBotServiceTest {
   void testHandleBatchAnalysisNoRecommendations() {
     Update update = createUpdateWithMessage("❌ Без рекомендаций", 123L);
 
-    when(batchAnalysisService.getUsersWithoutRecommendations())
-        .thenReturn(List.of(
-            new UserRecommendation(UUID.randomUUID(), "User A"),
-            new UserRecommendation(UUID.randomUUID(), "User B")
-        ));
+    when(batchAnalysisService.getAudienceSnapshot())
+        .thenReturn(audience("Invest 500", List.of(UUID.randomUUID()),
+            List.of(UUID.randomUUID(), UUID.randomUUID())));
 
     telegramBotService.onUpdateReceived(update);
 
@@ -311,8 +321,8 @@ class TelegramBotServiceTest {
   void testHandleBatchAnalysisEmptyResults() {
     Update update = createUpdateWithMessage("💎 Invest 500", 123L);
 
-    when(batchAnalysisService.getUsersForProduct("Invest 500"))
-        .thenReturn(List.of());
+    when(batchAnalysisService.getAudienceSnapshot())
+        .thenReturn(audience("Invest 500", List.of()));
 
     telegramBotService.onUpdateReceived(update);
 
@@ -325,19 +335,21 @@ class TelegramBotServiceTest {
   void testHandleBatchAnalysisWithManyUsers() {
     Update update = createUpdateWithMessage("💎 Invest 500", 123L);
 
-    List<UserRecommendation> manyUsers = new ArrayList<>();
+    List<UUID> manyUsers = new ArrayList<>();
     for (int i = 1; i <= 20; i++) {
-      manyUsers.add(new UserRecommendation(UUID.randomUUID(), "User " + i));
+      manyUsers.add(UUID.randomUUID());
     }
 
-    when(batchAnalysisService.getUsersForProduct("Invest 500"))
-        .thenReturn(manyUsers);
+    when(batchAnalysisService.getAudienceSnapshot())
+        .thenReturn(audience("Invest 500", manyUsers));
 
     telegramBotService.onUpdateReceived(update);
 
     verify(telegramBotService).sendMessageWithKeyboard(eq(123L),
         argThat(msg -> msg.contains("20 пользователей") && msg.contains("еще 5 пользователей")),
         any(ReplyKeyboardMarkup.class));
+    // Имена загружаются одним запросом и только для 15 отображаемых пользователей
+    verify(userNameResolver).getUserFullNames(manyUsers.subList(0, 15));
   }
 
   // ===== ПРОСТЫЕ ТЕСТЫ НА ОШИБКИ =====
@@ -357,7 +369,7 @@ class TelegramBotServiceTest {
   void testHandleBatchAnalysisException() {
     Update update = createUpdateWithMessage("💎 Invest 500", 123L);
 
-    when(batchAnalysisService.getUsersForProduct("Invest 500"))
+    when(batchAnalysisService.getAudienceSnapshot())
         .thenThrow(new RuntimeException("Database error"));
 
     telegramBotService.onUpdateReceived(update);
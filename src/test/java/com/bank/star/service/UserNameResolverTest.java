@@ -6,7 +6,13 @@ import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -69,4 +75,68 @@ class UserNameResolverTest {
 
     assertEquals("Уважаемый клиент", result);
   }
+
+  @Test
+  void getUserFullName_usesCache_onRepeatedLookup() {
+    UUID userId = UUID.randomUUID();
+    when(jdbcTemplate.queryForObject(anyString(), eq(String.class), anyString()))
+        .thenReturn("John Doe");
+
+    userNameResolver.getUserFullName(userId);
+    String result = userNameResolver.getUserFullName(userId);
+
+    assertEquals("John Doe", result);
+    verify(jdbcTemplate, times(1)).queryForObject(anyString(), eq(String.class), anyString());
+  }
+
+  @Test
+  void getUserFullNames_loadsMissingNamesInChunkedInLists() throws Exception {
+    List<UUID> userIds = new ArrayList<>();
+    for (int i = 0; i < UserNameResolver.IN_LIST_CHUNK_SIZE + 10; i++) {
+      userIds.add(UUID.randomUUID());
+    }
+    UUID unknown = userIds.get(0);
+    List<Integer> chunkSizes = new ArrayList<>();
+    doAnswer(invocation -> {
+      RowCallbackHandler handler = invocation.getArgument(1);
+      Object[] ids = Arrays.copyOfRange(invocation.getArguments(), 2,
+          invocation.getArguments().length);
+      chunkSizes.add(ids.length);
+      for (Object id : ids) {
+        if (!unknown.toString().equals(id)) {
+          ResultSet rs = mock(ResultSet.class);
+          when(rs.getString("id")).thenReturn((String) id);
+          when(rs.getString("full_name")).thenReturn("Name " + id);
+          handler.processRow(rs);
+        }
+      }
+      return null;
+    }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), ArgumentMatchers.<Object>any());
+
+    Map<UUID, String> names = userNameResolver.getUserFullNames(userIds);
+
+    assertEquals(userIds.size(), names.size());
+    assertEquals("Name " + userIds.get(1), names.get(userIds.get(1)));
+    assertEquals(UserNameResolver.DEFAULT_NAME, names.get(unknown));
+    assertEquals(List.of(UserNameResolver.IN_LIST_CHUNK_SIZE, 10), chunkSizes);
+
+    // Повторный запрос загружает из базы только имя, которого не было в кеше
+    userNameResolver.getUserFullNames(userIds.subList(0, 100));
+    assertEquals(List.of(UserNameResolver.IN_LIST_CHUNK_SIZE, 10, 1), chunkSizes);
+  }
+
+  @Test
+  void getUserFullNames_evictsLeastRecentlyUsedNames() {
+    UserNameResolver smallCache = new UserNameResolver(jdbcTemplate, 1);
+    UUID first = UUID.randomUUID();
+    UUID second = UUID.randomUUID();
+    when(jdbcTemplate.queryForObject(anyString(), eq(String.class), anyString()))
+        .thenReturn("Cached");
+
+    smallCache.getUserFullName(first);
+    smallCache.getUserFullName(second);
+    smallCache.getUserFullName(first);
+
+    verify(jdbcTemplate, times(3)).queryForObject(anyString(), eq(String.class), anyString());
+  }
 }
@@ -0,0 +1,127 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.repository.RecommendationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class BatchEvaluationTest {
+
+  private RecommendationRepository repository;
+  private RuleSetSnapshot ruleSets;
+  private List<UUID> users;
+  private Map<UUID, UserFinancialProfile> profiles;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(RecommendationRepository.class);
+    ruleSets = new RuleSetRegistry(new AtomicRules(repository), RuleThresholds.defaults())
+        .getSnapshot();
+    users = new ArrayList<>();
+    profiles = new HashMap<>();
+    addUser(profile("0", "0", 1, "5000", 1));             // Invest 500
+    addUser(profile("60000", "10000", 2, "0", 0));        // Top Saving
+    addUser(profile("200000", "150000", 3, "0", 0));      // Top Saving и Простой кредит
+    addUser(profile("0", "0", 0, "0", 0));                // Ничего
+    users.add(UUID.randomUUID());                         // Пользователь без профиля
+    when(repository.findUserFinancialProfiles(anyCollection())).thenReturn(profiles);
+  }
+
+  private void addUser(UserFinancialProfile profile) {
+    users.add(profile.getUserId());
+    profiles.put(profile.getUserId(), profile);
+  }
+
+  private UserFinancialProfile profile(String debitDeposit, String debitSpend, int debitCount,
+      String savingDeposit, int savingCount) {
+    UserFinancialProfile profile = new UserFinancialProfile(UUID.randomUUID());
+    profile.setProductStats(ProductType.DEBIT, new BigDecimal(debitDeposit),
+        new BigDecimal(debitSpend), debitCount);
+    profile.setProductStats(ProductType.SAVING, new BigDecimal(savingDeposit), BigDecimal.ZERO,
+        savingCount);
+    return profile;
+  }
+
+  private BitSet expected(RecommendationRule rule) {
+    BitSet expected = new BitSet();
+    for (int i = 0; i < users.size(); i++) {
+      UserFinancialProfile profile = profiles.get(users.get(i));
+      if (profile != null && rule.isEligible(profile)) {
+        expected.set(i);
+      }
+    }
+    return expected;
+  }
+
+  @Test
+  void evaluateBatch_shouldMatchPerUserEvaluationWithOneQueryPerBlock() {
+    UserBlock block = UserBlock.of(users);
+
+    ruleSets.getRuleSets().forEach((productName, rule) ->
+        assertEquals(expected(rule), rule.evaluateBatch(block), productName));
+
+    // Все наборы правил используют один блок: профили загружены одним запросом,
+    // а общие факты (HAS_PRODUCT_DEBIT, POSITIVE_BALANCE_DEBIT) вычислены один раз
+    verify(repository, times(1)).findUserFinancialProfiles(anyCollection());
+    verify(repository, never()).findUserFinancialProfile(any());
+    assertTrue(block.getFactEvaluations() <= 8);
+  }
+
+  @Test
+  void evaluateBatch_shouldApplyNegationOnlyToUsersWithProfile() {
+    AtomicRules atomicRules = new AtomicRules(repository);
+    RecommendationRule noInvest = atomicRules.hasNoProductType(ProductType.INVEST);
+
+    BitSet result = noInvest.evaluateBatch(users);
+
+    // Пользователь без профиля не подходит даже под отрицание
+    assertEquals(4, result.cardinality());
+    assertFalse(result.get(users.size() - 1));
+  }
+
+  @Test
+  void blockEvaluator_shouldMatchPerUserGraphEvaluation() {
+    RuleGraph graph = RuleGraph.compile(ruleSets,
+        new DynamicRuleCache(mock(DynamicRuleRepository.class)).getSnapshot());
+    UserBlock block = UserBlock.of(users, profiles);
+    RuleGraph.BlockEvaluator blockEvaluator = graph.newBlockEvaluator(block);
+    RuleGraph.Evaluator evaluator = graph.newEvaluator();
+
+    BitSet any = new BitSet();
+    for (int root = 0; root < graph.getRootNames().size(); root++) {
+      BitSet matches = blockEvaluator.matches(root);
+      for (int i = 0; i < users.size(); i++) {
+        UserFinancialProfile profile = profiles.get(users.get(i));
+        boolean eligible = profile != null && evaluator.reset(profile).matches(root);
+        assertEquals(eligible, matches.get(i), graph.getRootNames().get(root) + " user " + i);
+        if (eligible) {
+          any.set(i);
+        }
+      }
+    }
+    assertEquals(any, blockEvaluator.matchesAny());
+    assertEquals(8, block.getFactEvaluations());
+  }
+
+  @Test
+  void blockEvaluator_shouldRequireLoadedBlock() {
+    RuleGraph graph = RuleGraph.compile(ruleSets,
+        new DynamicRuleCache(mock(DynamicRuleRepository.class)).getSnapshot());
+
+    assertThrows(IllegalStateException.class, () -> graph.newBlockEvaluator(UserBlock.of(users)));
+  }
+}
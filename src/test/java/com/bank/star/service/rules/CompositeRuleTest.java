@@ -0,0 +1,92 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.RecommendationRepository;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class CompositeRuleTest {
+
+  private final AtomicRules atomicRules = new AtomicRules(mock(RecommendationRepository.class));
+
+  /**
+   * Профиль клиента с DEBIT и INVEST: HAS_PRODUCT_DEBIT истинно, NO_PRODUCT_INVEST ложно.
+   */
+  private UserFinancialProfile investorProfile() {
+    UserFinancialProfile profile = new UserFinancialProfile(UUID.randomUUID());
+    profile.setProductStats(ProductType.DEBIT, new BigDecimal("1000"), BigDecimal.ZERO, 1);
+    profile.setProductStats(ProductType.INVEST, new BigDecimal("1000"), BigDecimal.ZERO, 1);
+    return profile;
+  }
+
+  @Test
+  void reordered_shouldMoveSelectiveChildFirstForAnd() {
+    RecommendationRule hasDebit = atomicRules.hasProductType(ProductType.DEBIT);
+    RecommendationRule noInvest = atomicRules.hasNoProductType(ProductType.INVEST);
+    CompositeRule rule = CompositeRule.and("TEST_AND", hasDebit, noInvest);
+
+    for (int i = 0; i < CompositeRule.MIN_EVALUATIONS_FOR_REORDER; i++) {
+      assertFalse(rule.isEligible(investorProfile()));
+    }
+    CompositeRule reordered = rule.reordered();
+
+    // Ложное для всех условие проверяется первым; исходный экземпляр не меняется
+    assertEquals(List.of(noInvest, hasDebit), reordered.getEvaluationOrder());
+    assertEquals(List.of(hasDebit, noInvest), rule.getEvaluationOrder());
+    assertEquals(List.of(hasDebit, noInvest), reordered.getChildRules());
+    assertEquals(0, reordered.getChildPosition(1));
+    assertEquals(0.0, reordered.getChildPassRate(1));
+    assertFalse(reordered.isEligible(investorProfile()));
+  }
+
+  @Test
+  void reordered_shouldMovePassingChildFirstForOr() {
+    RecommendationRule noInvest = atomicRules.hasNoProductType(ProductType.INVEST);
+    RecommendationRule hasDebit = atomicRules.hasProductType(ProductType.DEBIT);
+    CompositeRule rule = CompositeRule.or("TEST_OR", noInvest, hasDebit);
+
+    for (int i = 0; i < CompositeRule.MIN_EVALUATIONS_FOR_REORDER; i++) {
+      assertTrue(rule.isEligible(investorProfile()));
+    }
+
+    assertEquals(List.of(hasDebit, noInvest), rule.reordered().getEvaluationOrder());
+  }
+
+  @Test
+  void reordered_shouldKeepInstanceWithoutEnoughStatistics() {
+    CompositeRule rule = CompositeRule.and("TEST_AND",
+        atomicRules.hasProductType(ProductType.DEBIT),
+        atomicRules.hasNoProductType(ProductType.INVEST));
+
+    rule.isEligible(investorProfile());
+
+    assertSame(rule, rule.reordered());
+  }
+
+  @Test
+  void reorderRules_shouldPublishNewSnapshotWithLearnedOrder() {
+    RuleSetRegistry registry = new RuleSetRegistry(atomicRules, RuleThresholds.defaults());
+    RuleSetSnapshot before = registry.getSnapshot();
+    CompositeRule invest500 = (CompositeRule) before.getInvest500RuleSet();
+
+    // Клиенты с INVEST отсекаются вторым условием Invest 500
+    for (int i = 0; i < 10 * CompositeRule.MIN_EVALUATIONS_FOR_REORDER; i++) {
+      invest500.isEligible(investorProfile());
+    }
+    RuleSetSnapshot after = registry.reorderRules();
+
+    assertEquals(before.getVersion() + 1, after.getVersion());
+    assertEquals("NO_PRODUCT_INVEST", ((CompositeRule) after.getInvest500RuleSet())
+        .getEvaluationOrder().get(0).getRuleName());
+    // Наборы правил без статистики переиспользуются без изменений
+    assertSame(before.getTopSavingRuleSet(), after.getTopSavingRuleSet());
+    assertSame(after, registry.reorderRules());
+  }
+}
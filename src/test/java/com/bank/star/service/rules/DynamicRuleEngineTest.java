@@ -0,0 +1,182 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.dto.ProductRecommendation;
+import com.bank.star.model.DynamicRule;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.QueryType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.DynamicRuleRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DynamicRuleEngineTest {
+
+  private DynamicRuleRepository repository;
+  private DynamicRuleCache cache;
+  private DynamicRuleEngine engine;
+  private UserFinancialProfile profile;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(DynamicRuleRepository.class);
+    cache = new DynamicRuleCache(repository);
+    engine = new DynamicRuleEngine(cache);
+
+    // DEBIT: 6 транзакций, пополнения 60000, траты 40000; SAVING: 1 транзакция на 2000
+    profile = new UserFinancialProfile(UUID.randomUUID());
+    profile.setProductStats(ProductType.DEBIT, new BigDecimal("60000"), new BigDecimal("40000"), 6);
+    profile.setProductStats(ProductType.SAVING, new BigDecimal("2000"), BigDecimal.ZERO, 1);
+  }
+
+  private DynamicRule rule(String productName, RuleQuery... queries) {
+    DynamicRule rule = new DynamicRule(productName, UUID.randomUUID(), "Текст " + productName,
+        List.of(queries));
+    rule.setId(UUID.randomUUID());
+    return rule;
+  }
+
+  private RuleQuery query(QueryType type, boolean negate, String... arguments) {
+    return new RuleQuery(type, List.of(arguments), negate);
+  }
+
+  @Test
+  void compile_shouldSupportAllQueryTypesAndNegation() {
+    assertTrue(CompiledDynamicRule.compileQuery(query(QueryType.USER_OF, false, "DEBIT"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(query(QueryType.USER_OF, true, "INVEST"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(query(QueryType.ACTIVE_USER_OF, false, "DEBIT"))
+        .matches(profile));
+    assertFalse(CompiledDynamicRule.compileQuery(query(QueryType.ACTIVE_USER_OF, false, "SAVING"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "DEBIT", "WITHDRAW", "<=", "40000"))
+        .matches(profile));
+    assertFalse(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", "=", "1000"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE_DEPOSIT_WITHDRAW, false, "DEBIT", ">"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE_DEPOSIT_WITHDRAW, true, "DEBIT", "<"))
+        .matches(profile));
+  }
+
+  @Test
+  void compile_shouldCompareSumsInMinorUnitsExactly() {
+    // SAVING: пополнения 2000.00 = 200000 копеек
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", "=", "2000.00"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", ">", "1999.99"))
+        .matches(profile));
+    // Порог с долями копейки не равен ни одной сумме
+    assertFalse(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", "=", "2000.001"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", "<", "2000.001"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", ">", "1999.999"))
+        .matches(profile));
+    assertTrue(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", ">", "-1E+30"))
+        .matches(profile));
+    assertFalse(CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "SAVING", "DEPOSIT", ">=", "1E+30"))
+        .matches(profile));
+  }
+
+  @Test
+  void compile_shouldUseAtomicRuleNamesAsFactKeys() {
+    // Совпадение ключей позволяет делить факты со встроенными наборами правил
+    assertEquals("HAS_PRODUCT_DEBIT",
+        CompiledDynamicRule.compileQuery(query(QueryType.USER_OF, true, "DEBIT")).getFactKey());
+    assertEquals("DEPOSIT_DEBIT_GTE_50000", CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "DEBIT", "DEPOSIT", ">=", "50000.00"))
+        .getFactKey());
+    assertEquals("POSITIVE_BALANCE_DEBIT", CompiledDynamicRule.compileQuery(
+        query(QueryType.TRANSACTION_SUM_COMPARE_DEPOSIT_WITHDRAW, false, "DEBIT", ">"))
+        .getFactKey());
+  }
+
+  @Test
+  void getRecommendations_shouldReturnProductsOfMatchingRules() {
+    DynamicRule matching = rule("Активный дебет",
+        query(QueryType.ACTIVE_USER_OF, false, "DEBIT"),
+        query(QueryType.USER_OF, true, "CREDIT"));
+    DynamicRule notMatching = rule("Инвестор",
+        query(QueryType.USER_OF, false, "INVEST"));
+    when(repository.findAll()).thenReturn(List.of(matching, notMatching));
+
+    List<ProductRecommendation> result = engine.getRecommendations(EvaluationContext.of(profile));
+
+    assertEquals(1, result.size());
+    assertEquals("Активный дебет", result.get(0).getName());
+    assertEquals(matching.getProductId(), result.get(0).getId());
+  }
+
+  @Test
+  void getCompiledRules_shouldCompileEachRuleOnceAndSkipInvalidOnes() {
+    DynamicRule valid = rule("Valid", query(QueryType.USER_OF, false, "DEBIT"));
+    DynamicRule invalid = rule("Invalid",
+        query(QueryType.TRANSACTION_SUM_COMPARE, false, "DEBIT", "DEPOSIT", "~", "abc"));
+    DynamicRule builtIn = rule("Top Saving");
+    when(repository.findAll()).thenReturn(List.of(valid, invalid, builtIn));
+
+    List<CompiledDynamicRule> first = engine.getCompiledRules();
+    cache.reload();
+    List<CompiledDynamicRule> second = engine.getCompiledRules();
+
+    assertEquals(1, first.size());
+    assertSame(first.get(0), second.get(0));
+  }
+
+  @Test
+  void cache_shouldPublishNewVersionOnPutAndRemove() {
+    when(repository.findAll()).thenReturn(List.of());
+    DynamicRuleSnapshot initial = cache.getSnapshot();
+    assertEquals(0, initial.size());
+
+    DynamicRule added = rule("Added", query(QueryType.USER_OF, false, "DEBIT"));
+    DynamicRuleSnapshot afterPut = cache.put(added);
+    DynamicRuleSnapshot afterRemove = cache.remove(added.getId());
+
+    // Каждое изменение публикует новую копию; старые снимки не меняются
+    assertEquals(initial.getVersion() + 1, afterPut.getVersion());
+    assertEquals(afterPut.getVersion() + 1, afterRemove.getVersion());
+    assertEquals(0, initial.size());
+    assertEquals(1, afterPut.size());
+    assertEquals(0, afterRemove.size());
+    assertSame(afterRemove, cache.getSnapshot());
+    verify(repository, times(1)).findAll();
+  }
+
+  @Test
+  void getRecommendations_shouldShareFactsWithinContext() {
+    DynamicRule first = rule("First", query(QueryType.USER_OF, false, "DEBIT"));
+    DynamicRule second = rule("Second", query(QueryType.USER_OF, true, "DEBIT"));
+    when(repository.findAll()).thenReturn(List.of(first, second));
+
+    EvaluationContext context = EvaluationContext.of(profile);
+    List<ProductRecommendation> result = engine.getRecommendations(context);
+
+    // Условие и его отрицание используют один вычисленный факт
+    assertEquals(1, result.size());
+    assertEquals(1, context.getFactEvaluations());
+  }
+}
@@ -0,0 +1,80 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.RecommendationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class EvaluationContextTest {
+
+  private final UUID userId = UUID.fromString("d4a4d619-9a0c-4fc5-b0cb-76c49409546b");
+
+  private RecommendationRepository repository;
+  private ProductRuleSets productRuleSets;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(RecommendationRepository.class);
+    productRuleSets = new ProductRuleSets(
+        new RuleSetRegistry(new AtomicRules(repository), RuleThresholds.defaults()));
+
+    // Профиль пользователя Top Saving из test-data.sql
+    UserFinancialProfile profile = new UserFinancialProfile(userId);
+    profile.setProductStats(ProductType.DEBIT, new BigDecimal("60000"), new BigDecimal("10000"), 2);
+    profile.setProductStats(ProductType.INVEST, new BigDecimal("5000"), BigDecimal.ZERO, 1);
+    when(repository.findUserFinancialProfile(userId)).thenReturn(Optional.of(profile));
+  }
+
+  @Test
+  void allRuleSets_shouldLoadProfileOnceAndShareFacts() {
+    EvaluationContext context = EvaluationContext.forUser(userId,
+        repository::findUserFinancialProfile);
+
+    assertFalse(productRuleSets.getInvest500RuleSet().isEligible(context));
+    assertTrue(productRuleSets.getTopSavingRuleSet().isEligible(context));
+    assertFalse(productRuleSets.getSimpleCreditRuleSet().isEligible(context));
+
+    // Профиль загружен один раз на весь запрос
+    verify(repository, times(1)).findUserFinancialProfile(userId);
+    // HAS_PRODUCT_DEBIT и POSITIVE_BALANCE_DEBIT встречаются в нескольких наборах,
+    // но вычисляются однократно: 8 обращений к фактам дают 6 вычислений
+    assertEquals(6, context.getFactEvaluations());
+  }
+
+  @Test
+  void repeatedEvaluation_shouldReuseMemoizedFacts() {
+    EvaluationContext context = EvaluationContext.forUser(userId,
+        repository::findUserFinancialProfile);
+    RecommendationRule topSaving = productRuleSets.getTopSavingRuleSet();
+
+    topSaving.isEligible(context);
+    int evaluated = context.getFactEvaluations();
+    topSaving.isEligible(context);
+
+    assertEquals(evaluated, context.getFactEvaluations());
+  }
+
+  @Test
+  void missingUser_shouldFailEveryFact() {
+    UUID unknownUser = UUID.fromString("00000000-0000-0000-0000-000000000000");
+    when(repository.findUserFinancialProfile(unknownUser)).thenReturn(Optional.empty());
+    EvaluationContext context = EvaluationContext.forUser(unknownUser,
+        repository::findUserFinancialProfile);
+
+    assertTrue(context.getProfile().isEmpty());
+    assertFalse(productRuleSets.getSimpleCreditRuleSet().isEligible(context));
+  }
+
+  @Test
+  void uuidShim_shouldStillEvaluateRules() {
+    assertTrue(productRuleSets.getTopSavingRuleSet().isEligible(userId));
+  }
+}
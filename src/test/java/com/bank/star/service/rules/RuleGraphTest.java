@@ -0,0 +1,187 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.model.DynamicRule;
+import com.bank.star.model.ProductType;
+import com.bank.star.model.QueryType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.model.UserBitmap;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.repository.TransactionSnapshot;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RuleGraphTest {
+
+  private RuleSetSnapshot ruleSets;
+  private DynamicRuleRepository dynamicRuleRepository;
+  private DynamicRuleCache dynamicRuleCache;
+
+  @BeforeEach
+  void setUp() {
+    ruleSets = new RuleSetRegistry(new AtomicRules(mock(RecommendationRepository.class)),
+        RuleThresholds.defaults()).getSnapshot();
+    dynamicRuleRepository = mock(DynamicRuleRepository.class);
+    dynamicRuleCache = new DynamicRuleCache(dynamicRuleRepository);
+  }
+
+  private UserFinancialProfile profile(String debitDeposit, String debitSpend, int debitCount,
+      String savingDeposit, int savingCount) {
+    UserFinancialProfile profile = new UserFinancialProfile(UUID.randomUUID());
+    profile.setProductStats(ProductType.DEBIT, new BigDecimal(debitDeposit),
+        new BigDecimal(debitSpend), debitCount);
+    profile.setProductStats(ProductType.SAVING, new BigDecimal(savingDeposit), BigDecimal.ZERO,
+        savingCount);
+    return profile;
+  }
+
+  @Test
+  void compile_shouldShareCommonAtomicConditions() {
+    RuleGraph graph = RuleGraph.compile(ruleSets, dynamicRuleCache.getSnapshot());
+
+    // 10 атомарных условий в трех деревьях, из них уникальных 8:
+    // HAS_PRODUCT_DEBIT и POSITIVE_BALANCE_DEBIT встречаются дважды
+    assertEquals(10, graph.getAtomicReferences());
+    assertEquals(8, graph.getLeafCount());
+    assertEquals(List.of(ProductRuleSets.INVEST_500, ProductRuleSets.TOP_SAVING,
+        ProductRuleSets.SIMPLE_CREDIT), graph.getRootNames());
+  }
+
+  @Test
+  void evaluator_shouldMatchRuleTreesAndEvaluateSharedLeavesOnce() {
+    RuleGraph graph = RuleGraph.compile(ruleSets, dynamicRuleCache.getSnapshot());
+    RuleGraph.Evaluator evaluator = graph.newEvaluator();
+    List<UserFinancialProfile> profiles = List.of(
+        profile("0", "0", 1, "5000", 1),             // Invest 500
+        profile("60000", "10000", 2, "0", 0),        // Top Saving
+        profile("200000", "150000", 3, "0", 0),      // Top Saving и Простой кредит
+        profile("0", "0", 0, "0", 0));               // Ничего
+
+    for (UserFinancialProfile profile : profiles) {
+      evaluator.reset(profile);
+      List<String> roots = graph.getRootNames();
+      for (int i = 0; i < roots.size(); i++) {
+        assertEquals(ruleSets.getRuleSet(roots.get(i)).isEligible(profile), evaluator.matches(i),
+            roots.get(i) + " for " + profile);
+      }
+    }
+    // Каждый лист вычисляется не более одного раза на пользователя
+    assertTrue(evaluator.getAtomicEvaluations() <= (long) profiles.size() * graph.getLeafCount());
+  }
+
+  @Test
+  void compile_shouldMergeDynamicRuleConditionsWithBuiltInLeaves() {
+    DynamicRule rule = new DynamicRule("Dynamic", UUID.randomUUID(), "Текст", List.of(
+        new RuleQuery(QueryType.USER_OF, List.of("DEBIT"), false),
+        new RuleQuery(QueryType.USER_OF, List.of("CREDIT"), true),
+        new RuleQuery(QueryType.TRANSACTION_SUM_COMPARE_DEPOSIT_WITHDRAW, List.of("DEBIT", ">"),
+            false)));
+    rule.setId(UUID.randomUUID());
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(rule));
+
+    RuleGraph graph = RuleGraph.compile(ruleSets, dynamicRuleCache.getSnapshot());
+
+    // Все условия динамического правила уже есть среди листьев встроенных правил
+    assertEquals(13, graph.getAtomicReferences());
+    assertEquals(8, graph.getLeafCount());
+    int dynamicRoot = graph.getRootIndex("Dynamic");
+    assertEquals(3, dynamicRoot);
+    assertTrue(graph.newEvaluator().reset(profile("60000", "10000", 2, "0", 0))
+        .matches(dynamicRoot));
+    assertEquals(-1, graph.getRootIndex("Unknown"));
+  }
+
+  @Test
+  void compiler_shouldRecompileOnlyWhenVersionsChange() {
+    RuleSetRegistry registry = new RuleSetRegistry(
+        new AtomicRules(mock(RecommendationRepository.class)), RuleThresholds.defaults());
+    RuleGraphCompiler compiler = new RuleGraphCompiler(new ProductRuleSets(registry),
+        dynamicRuleCache);
+
+    RuleGraph first = compiler.getGraph();
+    assertSame(first, compiler.getGraph());
+
+    registry.updateThresholds(new RuleThresholds(new BigDecimal("2000"),
+        new BigDecimal("50000"), new BigDecimal("100000")));
+    assertNotSame(first, compiler.getGraph());
+  }
+
+  @Test
+  void fingerprint_shouldIgnoreConditionOrderAndDetectThresholdChanges() {
+    RuleQuery debit = new RuleQuery(QueryType.USER_OF, List.of("DEBIT"), false);
+    RuleQuery noCredit = new RuleQuery(QueryType.USER_OF, List.of("CREDIT"), true);
+    DynamicRule rule = new DynamicRule("Dynamic", UUID.randomUUID(), "Текст",
+        List.of(debit, noCredit));
+    rule.setId(UUID.randomUUID());
+    DynamicRule reordered = new DynamicRule("Dynamic", UUID.randomUUID(), "Текст",
+        List.of(noCredit, debit));
+    reordered.setId(UUID.randomUUID());
+
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(rule));
+    String fingerprint = RuleGraph.compile(ruleSets, dynamicRuleCache.reload()).getFingerprint();
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(reordered));
+    RuleGraph sameRules = RuleGraph.compile(ruleSets, dynamicRuleCache.reload());
+
+    // Порядок проверки условий и версии снимков не влияют на отпечаток
+    assertEquals(fingerprint, sameRules.getFingerprint());
+    RuleSetSnapshot changedThresholds = new RuleSetRegistry(
+        new AtomicRules(mock(RecommendationRepository.class)), new RuleThresholds(
+        new BigDecimal("2000"), new BigDecimal("50000"), new BigDecimal("100000"))).getSnapshot();
+    assertNotEquals(fingerprint,
+        RuleGraph.compile(changedThresholds, dynamicRuleCache.getSnapshot()).getFingerprint());
+  }
+
+  @Test
+  void bitmapEvaluator_shouldMatchProfileEvaluatorOverWholeSnapshot() {
+    DynamicRule rule = new DynamicRule("Dynamic", UUID.randomUUID(), "Текст", List.of(
+        new RuleQuery(QueryType.USER_OF, List.of("SAVING"), false),
+        new RuleQuery(QueryType.ACTIVE_USER_OF, List.of("INVEST"), true),
+        new RuleQuery(QueryType.TRANSACTION_SUM_COMPARE, List.of("DEBIT", "WITHDRAW", "<", "500"),
+            true)));
+    rule.setId(UUID.randomUUID());
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(rule));
+    RuleGraph graph = RuleGraph.compile(ruleSets, dynamicRuleCache.getSnapshot());
+
+    Random random = new Random(11);
+    ProductType[] types = ProductType.values();
+    TransactionSnapshot.Builder builder = new TransactionSnapshot.Builder();
+    for (int user = 0; user < 2000; user++) {
+      UUID userId = UUID.randomUUID();
+      builder.addUser(userId);
+      for (int tx = random.nextInt(8); tx > 0; tx--) {
+        ProductType type = types[random.nextInt(types.length)];
+        // Нулевые суммы оставляют часть владельцев продукта неактивными
+        builder.addTransaction(userId, type.name(), type, random.nextBoolean(),
+            random.nextInt(4) == 0 ? 0 : random.nextInt(30_000_000), TransactionSnapshot.NO_DATE);
+      }
+    }
+    TransactionSnapshot snapshot = builder.build("v1");
+
+    SnapshotFacts facts = SnapshotFacts.of(snapshot);
+    RuleGraph.BitmapEvaluator bitmaps = graph.newBitmapEvaluator(facts);
+    RuleGraph.Evaluator evaluator = graph.newEvaluator();
+    for (int root = 0; root < graph.getRootNames().size(); root++) {
+      UserBitmap expected = new UserBitmap();
+      int rootIndex = root;
+      snapshot.getActiveUsers().forEach(user -> {
+        if (evaluator.reset(snapshot.toProfile(user)).matches(rootIndex)) {
+          expected.add(user);
+        }
+      });
+      assertArrayEquals(expected.toArray(), bitmaps.matches(root).toArray(),
+          graph.getRootNames().get(root));
+    }
+    // Каждый лист вычисляется по всей базе не более одного раза
+    assertTrue(facts.getFactEvaluations() <= graph.getLeafCount());
+  }
+}
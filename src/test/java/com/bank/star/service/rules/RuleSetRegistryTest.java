@@ -0,0 +1,73 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserFinancialProfile;
+import com.bank.star.repository.RecommendationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class RuleSetRegistryTest {
+
+  private RuleSetRegistry registry;
+  private UserFinancialProfile topSavingProfile;
+
+  @BeforeEach
+  void setUp() {
+    registry = new RuleSetRegistry(new AtomicRules(mock(RecommendationRepository.class)),
+        RuleThresholds.defaults());
+
+    // Пополнения DEBIT 60000, траты 10000: подходит под Top Saving при пороге 50000
+    topSavingProfile = new UserFinancialProfile(UUID.randomUUID());
+    topSavingProfile.setProductStats(ProductType.DEBIT, new BigDecimal("60000"),
+        new BigDecimal("10000"), 2);
+  }
+
+  @Test
+  void getSnapshot_shouldReturnPrebuiltRuleTrees() {
+    RuleSetSnapshot first = registry.getSnapshot();
+    RuleSetSnapshot second = registry.getSnapshot();
+
+    // Деревья правил не пересоздаются между вызовами
+    assertSame(first, second);
+    assertSame(first.getTopSavingRuleSet(), second.getTopSavingRuleSet());
+    assertSame(first.getInvest500RuleSet(), new ProductRuleSets(registry).getInvest500RuleSet());
+    assertSame(first.getSimpleCreditRuleSet(), first.getRuleSet(ProductRuleSets.SIMPLE_CREDIT));
+  }
+
+  @Test
+  void updateThresholds_shouldPublishNewSnapshotAtomically() {
+    RuleSetSnapshot before = registry.getSnapshot();
+    assertTrue(before.getTopSavingRuleSet().isEligible(topSavingProfile));
+
+    RuleSetSnapshot after = registry.updateThresholds(new RuleThresholds(
+        new BigDecimal("1000"), new BigDecimal("100000"), new BigDecimal("100000")));
+
+    assertEquals(before.getVersion() + 1, after.getVersion());
+    assertSame(after, registry.getSnapshot());
+    assertFalse(after.getTopSavingRuleSet().isEligible(topSavingProfile));
+    // Ранее полученный снимок не меняется
+    assertTrue(before.getTopSavingRuleSet().isEligible(topSavingProfile));
+  }
+
+  @Test
+  void updateThresholds_withSameValues_shouldKeepCurrentSnapshot() {
+    RuleSetSnapshot before = registry.getSnapshot();
+
+    RuleSetSnapshot after = registry.updateThresholds(new RuleThresholds(
+        new BigDecimal("1000.00"), new BigDecimal("50000"), new BigDecimal("100000")));
+
+    assertSame(before, after);
+  }
+
+  @Test
+  void negativeThreshold_shouldBeRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new RuleThresholds(
+        new BigDecimal("-1"), new BigDecimal("50000"), new BigDecimal("100000")));
+  }
+}
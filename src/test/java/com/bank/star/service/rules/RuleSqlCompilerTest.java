@@ -0,0 +1,116 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.model.DynamicRule;
+import com.bank.star.model.QueryType;
+import com.bank.star.model.RuleQuery;
+import com.bank.star.repository.DynamicRuleRepository;
+import com.bank.star.repository.RecommendationRepository;
+import com.bank.star.service.ActiveUserScanner;
+import com.bank.star.service.BatchAnalysisService;
+import com.bank.star.service.UserNameResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@JdbcTest
+@Sql(scripts = {"/schema.sql", "/test-data.sql"})
+class RuleSqlCompilerTest {
+
+  private static final UUID INVEST_USER = UUID.fromString("cd515076-5d8a-44be-930e-8d4fcb79f42d");
+  private static final UUID SAVING_USER = UUID.fromString("d4a4d619-9a0c-4fc5-b0cb-76c49409546b");
+  private static final UUID CREDIT_USER = UUID.fromString("1f9b149c-6577-448a-bc94-16bea229b71a");
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  private RecommendationRepository repository;
+  private RuleGraphCompiler compiler;
+
+  @BeforeEach
+  void setUp() {
+    repository = new RecommendationRepository(jdbcTemplate);
+    DynamicRule rule = new DynamicRule("Dynamic", UUID.randomUUID(), "Текст", List.of(
+        new RuleQuery(QueryType.USER_OF, List.of("DEBIT"), false),
+        new RuleQuery(QueryType.USER_OF, List.of("SAVING"), true),
+        new RuleQuery(QueryType.TRANSACTION_SUM_COMPARE,
+            List.of("DEBIT", "WITHDRAW", ">=", "10000"), false)));
+    rule.setId(UUID.randomUUID());
+    DynamicRuleRepository dynamicRuleRepository = mock(DynamicRuleRepository.class);
+    when(dynamicRuleRepository.findAll()).thenReturn(List.of(rule));
+    compiler = new RuleGraphCompiler(new ProductRuleSets(new RuleSetRegistry(
+        new AtomicRules(repository), RuleThresholds.defaults())),
+        new DynamicRuleCache(dynamicRuleRepository));
+  }
+
+  private List<UUID> pushDown(RuleGraph graph, String productName) {
+    RuleSqlCompiler.HavingClause clause =
+        RuleSqlCompiler.compile(graph, graph.getRootIndex(productName)).orElseThrow();
+    return repository.findActiveUserIdsHaving(clause.getSql(), clause.getParameters())
+        .orElseThrow();
+  }
+
+  private List<UUID> evaluateByBlock(RuleGraph graph, String productName) {
+    UserBlock block = UserBlock.of(repository.getAllActiveUserIds());
+    block.load(repository::findUserFinancialProfiles);
+    return graph.newBlockEvaluator(block).matches(graph.getRootIndex(productName)).stream()
+        .mapToObj(block::getUserId)
+        .toList();
+  }
+
+  @Test
+  void compile_shouldSelectSameAudienceAsRuleEvaluation() {
+    RuleGraph graph = compiler.getGraph();
+
+    assertEquals(List.of(INVEST_USER), pushDown(graph, ProductRuleSets.INVEST_500));
+    // Пользователь кредита тоже подходит под Top Saving: пополнения DEBIT 160000, баланс положителен
+    assertEquals(List.of(CREDIT_USER, SAVING_USER), pushDown(graph, ProductRuleSets.TOP_SAVING));
+    assertEquals(List.of(CREDIT_USER), pushDown(graph, ProductRuleSets.SIMPLE_CREDIT));
+    for (String productName : graph.getRootNames()) {
+      assertEquals(evaluateByBlock(graph, productName), pushDown(graph, productName), productName);
+    }
+    assertEquals(List.of(SAVING_USER), pushDown(graph, "Dynamic"));
+  }
+
+  @Test
+  void compile_shouldProduceParameterizedCondition() {
+    RuleGraph graph = compiler.getGraph();
+
+    RuleSqlCompiler.HavingClause clause = RuleSqlCompiler.compile(graph,
+        graph.getRootIndex(ProductRuleSets.INVEST_500)).orElseThrow();
+
+    // Порог и типы продуктов передаются параметрами, а не подставляются в текст запроса
+    assertFalse(clause.getSql().contains("1000"));
+    assertFalse(clause.getSql().contains("DEBIT"));
+    assertTrue(clause.getSql().contains("NOT ("));
+    assertEquals(clause.getSql().chars().filter(c -> c == '?').count(),
+        clause.getParameters().size());
+  }
+
+  @Test
+  void batchAnalysis_shouldReturnVerifiedPushDownAudience() {
+    ActiveUserScanner scanner = new ActiveUserScanner(repository, Runnable::run, 2, 10000);
+    BatchAnalysisService pushDown = new BatchAnalysisService(compiler, repository,
+        new UserNameResolver(jdbcTemplate), scanner, Runnable::run, true, false, 30, false, "", 10);
+    BatchAnalysisService verified = new BatchAnalysisService(compiler, repository,
+        new UserNameResolver(jdbcTemplate), scanner, Runnable::run, true, true, 30, false, "", 10);
+
+    for (String productName : compiler.getGraph().getRootNames()) {
+      List<UUID> expected = evaluateByBlock(compiler.getGraph(), productName);
+      assertEquals(expected, pushDown.findUserIdsForProduct(productName), productName);
+      assertEquals(expected, verified.findUserIdsForProduct(productName), productName);
+    }
+    assertEquals(Optional.empty(), repository.findActiveUserIdsHaving("no_such_column > ?",
+        List.of(1)));
+  }
+}
@@ -0,0 +1,75 @@
+package com.bank.star.service.rules;
+
+import com.bank.star.model.ProductType;
+import com.bank.star.model.UserBitmap;
+import com.bank.star.repository.SumIndex;
+import com.bank.star.repository.TransactionSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotFactsTest {
+
+  private static TransactionSnapshot snapshot(Random random, int users) {
+    ProductType[] types = ProductType.values();
+    TransactionSnapshot.Builder builder = new TransactionSnapshot.Builder();
+    for (int user = 0; user < users; user++) {
+      UUID userId = UUID.randomUUID();
+      for (int tx = 1 + random.nextInt(6); tx > 0; tx--) {
+        ProductType type = types[random.nextInt(types.length)];
+        // Суммы кратны 1000.00, чтобы пороги часто совпадали с суммами пользователей
+        builder.addTransaction(userId, type.name(), type, random.nextBoolean(),
+            random.nextInt(100) * 100_000L, TransactionSnapshot.NO_DATE);
+      }
+    }
+    return builder.build("v1");
+  }
+
+  @Test
+  void sumFacts_shouldSelectSameUsersAsScanningAggregates() {
+    TransactionSnapshot snapshot = snapshot(new Random(5), 3000);
+    String[] thresholds = {"0", "1000", "50000", "50000.01", "49999.999", "1E+30", "-1E+30"};
+
+    for (ProfileCondition.Metric metric : new ProfileCondition.Metric[]{
+        ProfileCondition.Metric.DEPOSIT_SUM, ProfileCondition.Metric.WITHDRAW_SUM}) {
+      for (ProfileCondition.Comparison comparison : ProfileCondition.Comparison.values()) {
+        for (String threshold : thresholds) {
+          ProfileCondition condition = ProfileCondition.sum(metric, ProductType.SAVING,
+              comparison, new BigDecimal(threshold), false);
+          UserBitmap expected = new UserBitmap();
+          snapshot.getActiveUsers().forEach(user -> {
+            if (condition.test(snapshot.toProfile(user))) {
+              expected.add(user);
+            }
+          });
+
+          UserBitmap actual = SnapshotFacts.of(snapshot)
+              .evaluateFact(condition.getFactKey(), condition);
+
+          assertArrayEquals(expected.toArray(), actual.toArray(), condition.toString());
+        }
+      }
+    }
+  }
+
+  @Test
+  void sumIndex_shouldOrderActiveUsersBySum() {
+    TransactionSnapshot snapshot = snapshot(new Random(6), 500);
+    SumIndex index = snapshot.getDepositSumIndex(ProductType.DEBIT);
+
+    assertEquals(snapshot.getActiveUserCount(), index.size());
+    for (int position = 0; position < index.size(); position++) {
+      assertEquals(snapshot.getDepositSumMinor(index.getUser(position), ProductType.DEBIT),
+          index.getSumMinor(position));
+      if (position > 0) {
+        assertTrue(index.getSumMinor(position - 1) <= index.getSumMinor(position));
+      }
+    }
+    assertEquals(0, index.lowerBound(Long.MIN_VALUE));
+    assertEquals(index.size(), index.upperBound(Long.MAX_VALUE));
+  }
+}